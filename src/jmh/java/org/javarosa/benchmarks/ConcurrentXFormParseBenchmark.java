@@ -0,0 +1,83 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.benchmarks.BenchmarkUtils.prepareAssets;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.xform.parse.FormParserHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses the same batch of forms with a growing number of threads. Each form gets its own XFormParser so the time
+ * per batch should go down as threads are added, up to the number of available cores.
+ */
+public class ConcurrentXFormParseBenchmark {
+    private static final String[] FORMS = {
+        "whova_form.xml",
+        "child_vaccination_VOL_tool_v12.xml",
+        "nigeria_wards_internal_2ndry_instance_minified.xml"
+    };
+    private static final int COPIES_PER_FORM = 4;
+
+    public static void main(String[] args) {
+        dryRun(ConcurrentXFormParseBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ConcurrentXFormParseState {
+        @Param({"1", "2", "4", "8"})
+        public int threads = 4;
+
+        List<File> formFiles;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void initialize() {
+            Path assetsPath = prepareAssets(FORMS);
+            formFiles = new ArrayList<>();
+            for (int i = 0; i < COPIES_PER_FORM; i++) {
+                for (String form : FORMS) {
+                    formFiles.add(assetsPath.resolve(form).toFile());
+                }
+            }
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void benchmarkConcurrentParse(ConcurrentXFormParseState state, Blackhole bh) throws Exception {
+        List<Future<FormDef>> formDefs = new ArrayList<>();
+        for (final File formFile : state.formFiles) {
+            formDefs.add(state.executor.submit(new Callable<FormDef>() {
+                @Override
+                public FormDef call() throws Exception {
+                    return FormParserHelper.parse(formFile);
+                }
+            }));
+        }
+
+        for (Future<FormDef> formDef : formDefs) {
+            bh.consume(formDef.get());
+        }
+    }
+}
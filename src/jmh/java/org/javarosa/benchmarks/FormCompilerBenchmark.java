@@ -0,0 +1,69 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.javarosa.xform.parse.FormCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compiles a batch of forms that all share the wards.xml and lgas.xml external secondary instances. A fresh
+ * {@link FormCompiler} is used for each invocation so the instances are parsed once per batch rather than per form.
+ */
+public class FormCompilerBenchmark {
+    private static final int FORMS = 8;
+
+    public static void main(String[] args) {
+        dryRun(FormCompilerBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class FormCompilerState {
+        @Param({"1", "4"})
+        public int threads = 4;
+
+        List<File> formFiles;
+        File outputDir;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void initialize() throws IOException {
+            Path formFile = BenchmarkUtils.getNigeriaWardsXMLWithExternal2ndryInstance();
+            formFiles = new ArrayList<>();
+            for (int i = 0; i < FORMS; i++) {
+                formFiles.add(formFile.toFile());
+            }
+            outputDir = Files.createTempDirectory("javarosa_benchmarks_compiled").toFile();
+            // Daemon threads so that a dry run can exit without calling tearDown
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void benchmarkCompileBatch(FormCompilerState state, Blackhole bh) throws InterruptedException {
+        bh.consume(new FormCompiler(state.executor).compile(state.formFiles, state.outputDir));
+    }
+}
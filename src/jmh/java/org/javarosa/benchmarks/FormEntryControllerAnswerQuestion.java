@@ -19,6 +19,7 @@ import org.javarosa.xform.parse.FormParserHelper;
 import org.javarosa.xform.parse.XFormParser;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -30,6 +31,9 @@ public class FormEntryControllerAnswerQuestion {
 
     @State(Scope.Thread)
     public static class FormControllerAnswerQuestionState {
+        @Param({"false", "true"})
+        public boolean incrementalEvaluation = false;
+
         FormEntryController formEntryController;
         FormEntryModel formEntryModel;
 
@@ -37,6 +41,7 @@ public class FormEntryControllerAnswerQuestion {
         public void initialize() throws IOException, XFormParser.ParseException {
             Path formFile = BenchmarkUtils.getNigeriaWardsXMLWithExternal2ndryInstance();
             FormDef formDef = FormParserHelper.parse(formFile.toFile());
+            formDef.setIncrementalTriggerableEvaluation(incrementalEvaluation);
             formEntryModel = new FormEntryModel(formDef);
             formEntryController = new FormEntryController(formEntryModel);
 
@@ -0,0 +1,63 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.parse.FormParserHelper;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+public class InternalSecondaryInstanceDeserializationBenchmark {
+    public static void main(String[] args) {
+        dryRun(InternalSecondaryInstanceDeserializationBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class InternalSecondaryInstanceState {
+        // false re-parses the internal instances from the form XML on every deserialization
+        @Param({"false", "true"})
+        boolean compact = false;
+
+        byte[] serializedForm;
+
+        @Setup(Level.Trial)
+        public void initialize() throws IOException, XFormParser.ParseException {
+            PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+            PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+            new XFormsModule().registerModule();
+
+            Path formPath = BenchmarkUtils.getNigeriaWardsXMLWithInternal2ndryInstance();
+            FormDef formDef = FormParserHelper.parse(formPath.toFile());
+            formDef.setFormXmlPath(formPath.toString());
+            formDef.setCompactInternalInstanceSerialization(compact);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            formDef.writeExternal(new DataOutputStream(baos));
+            serializedForm = baos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public void benchmarkDeserializeForm(InternalSecondaryInstanceState state, Blackhole bh) throws IOException, DeserializationException {
+        FormDef formDef = new FormDef();
+        formDef.readExternal(new DataInputStream(new ByteArrayInputStream(state.serializedForm)), PrototypeManager.getDefault());
+        bh.consume(formDef);
+    }
+}
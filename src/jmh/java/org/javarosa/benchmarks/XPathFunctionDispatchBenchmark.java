@@ -0,0 +1,54 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.xpath.XPathParseTool;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+public class XPathFunctionDispatchBenchmark {
+    public static void main(String[] args) {
+        dryRun(XPathFunctionDispatchBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ExecutionPlan {
+        // Functions near the start of the built-ins and near the end, where a chain of name comparisons is slowest
+        @Param({
+            "if(true(), 'a', 'b')",
+            "round(3.14159, 2)",
+            "concat('a', 'b', 'c')",
+            "coalesce('', 'b')",
+            "substr('abcdef', 1, 3)",
+            "selected('a b c', 'b')",
+            "base64-decode('aGVsbG8=')"
+        })
+        String expression = "concat('a', 'b', 'c')";
+
+        XPathExpression parsed;
+        EvaluationContext evaluationContext;
+
+        @Setup(Level.Trial)
+        public void setUp() throws XPathSyntaxException {
+            parsed = XPathParseTool.parseXPath(expression);
+            evaluationContext = new EvaluationContext(null);
+        }
+    }
+
+    @Benchmark
+    public void evalFunctionCall(ExecutionPlan plan, Blackhole bh) {
+        bh.consume(plan.parsed.eval(null, plan.evaluationContext));
+    }
+}
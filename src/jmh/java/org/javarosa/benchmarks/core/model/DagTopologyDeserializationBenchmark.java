@@ -0,0 +1,69 @@
+package org.javarosa.benchmarks.core.model;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.benchmarks.BenchmarkUtils.prepareAssets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.test.Scenario;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+public class DagTopologyDeserializationBenchmark {
+    public static void main(String[] args) {
+        dryRun(DagTopologyDeserializationBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ExecutionPlan {
+        // Rebuilding the DAG after deserializing is what every form load used to do before the topology was serialized
+        @Param({"false", "true"})
+        boolean rebuildDag = false;
+
+        byte[] serializedForm;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, XFormParser.ParseException {
+            PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+            PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+            new XFormsModule().registerModule();
+
+            Scenario scenario = Scenario.init(prepareAssets("whova_form.xml").resolve("whova_form.xml").toFile());
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            scenario.getFormDef().writeExternal(new DataOutputStream(baos));
+            serializedForm = baos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    // Expect rebuildDag=false to be faster: the DAG is restored from the serialized topology instead of recomputed.
+    public void deserializeForm(ExecutionPlan plan, Blackhole bh) throws IOException, DeserializationException {
+        FormDef formDef = new FormDef();
+        formDef.readExternal(new DataInputStream(new ByteArrayInputStream(plan.serializedForm)), PrototypeManager.getDefault());
+        if (plan.rebuildDag) {
+            formDef.finalizeTriggerables();
+        }
+
+        bh.consume(formDef);
+    }
+}
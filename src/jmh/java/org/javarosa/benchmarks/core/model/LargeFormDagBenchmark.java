@@ -0,0 +1,80 @@
+package org.javarosa.benchmarks.core.model;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+public class LargeFormDagBenchmark {
+    public static void main(String[] args) {
+        dryRun(LargeFormDagBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ExecutionPlan {
+        @Param({"1000", "10000"})
+        int bindCount = 1000;
+
+        String formXml;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            formXml = getLargeFormXml(bindCount);
+        }
+    }
+
+    @Benchmark
+    // Expect time per bind to stay roughly flat as bindCount grows because building the DAG is linear.
+    public void parseForm(ExecutionPlan plan, Blackhole bh) throws XFormParser.ParseException {
+        bh.consume(new XFormParser(new StringReader(plan.formXml)).parse());
+    }
+
+    /**
+     * Builds a form where each calculate depends on the one at half its index so that the DAG is both wide and
+     * log(bindCount) levels deep.
+     */
+    static String getLargeFormXml(int bindCount) {
+        List<XFormsElement> fields = new ArrayList<>();
+        List<XFormsElement> modelChildren = new ArrayList<>();
+        for (int i = 0; i < bindCount; i++) {
+            fields.add(t("c" + i));
+        }
+
+        modelChildren.add(mainInstance(t("data id=\"large-form\"", fields.toArray(new XFormsElement[0]))));
+        modelChildren.add(bind("/data/c0").type("int"));
+        for (int i = 1; i < bindCount; i++) {
+            modelChildren.add(bind("/data/c" + i).type("int").calculate("/data/c" + (i / 2) + " + 1"));
+        }
+
+        return html(
+            head(
+                title("Large form"),
+                model(modelChildren.toArray(new XFormsElement[0]))
+            ),
+            body(input("/data/c0"))
+        ).asXml();
+    }
+}
@@ -0,0 +1,101 @@
+package org.javarosa.benchmarks.core.model;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.repeat;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.javarosa.test.Scenario;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+public class ParallelRepeatDagBenchmark {
+    public static void main(String[] args) {
+        dryRun(ParallelRepeatDagBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ExecutionPlan {
+        @Param({"1000", "5000"})
+        int repeatCount = 1000;
+
+        // 0 evaluates serially
+        @Param({"0", "2", "4"})
+        int parallelism = 4;
+
+        Scenario scenario;
+        ForkJoinPool pool;
+        int factor;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, XFormParser.ParseException {
+            scenario = getOuterValueReferencedInEveryInstanceScenario(repeatCount);
+            if (parallelism > 0) {
+                pool = new ForkJoinPool(parallelism);
+                scenario.getFormDef().setParallelTriggerableEvaluation(pool);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    // Expect time to go down as parallelism goes up because every repeat instance is recalculated independently.
+    public void answerValueReferencedInEveryRepeatInstance(ExecutionPlan plan, Blackhole bh) {
+        // Use a different value each time so that the calculates in the repeat can't be skipped
+        bh.consume(plan.scenario.answer("/data/factor", ++plan.factor));
+    }
+
+    static Scenario getOuterValueReferencedInEveryInstanceScenario(int repeatCount) throws IOException, XFormParser.ParseException {
+        List<XFormsElement> children = new ArrayList<>();
+        children.add(t("factor"));
+        children.add(t("repeat jr:template=\"\"", t("value"), t("scaled"), t("label")));
+        for (int i = 0; i < repeatCount; i++) {
+            children.add(t("repeat", t("value", String.valueOf(i)), t("scaled"), t("label")));
+        }
+
+        return Scenario.init("Repeat with expression referencing outside", html(
+            head(
+                title("Repeat with expression referencing outside"),
+                model(
+                    mainInstance(t("data id=\"outside-ref\"", children.toArray(new XFormsElement[0]))),
+                    bind("/data/factor").type("int"),
+                    bind("/data/repeat/value").type("int"),
+                    bind("/data/repeat/scaled").type("int").calculate("../value * /data/factor"),
+                    bind("/data/repeat/label").type("string").calculate("concat('Item ', ../value, ' x ', /data/factor)"))),
+            body(
+                input("/data/factor"),
+                repeat("/data/repeat",
+                    input("/data/repeat/value")
+                )
+            )));
+    }
+}
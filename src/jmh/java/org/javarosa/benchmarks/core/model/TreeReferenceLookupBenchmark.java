@@ -0,0 +1,70 @@
+package org.javarosa.benchmarks.core.model;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.test.Scenario;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+public class TreeReferenceLookupBenchmark {
+    public static void main(String[] args) {
+        dryRun(TreeReferenceLookupBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class ExecutionPlan {
+        @Param({"100", "10000"})
+        int repeatCount = 100;
+
+        List<TreeReference> answeredRefs;
+        Map<TreeReference, Integer> triggers;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            answeredRefs = new ArrayList<>();
+            triggers = new HashMap<>();
+
+            // Like the triggerable DAG, look up the generic form of answered references in nested repeats
+            for (int outer = 0; outer < repeatCount; outer++) {
+                for (int inner = 0; inner < 10; inner++) {
+                    TreeReference ref = Scenario.getRef("/data/outer[" + (outer + 1) + "]/inner[" + (inner + 1) + "]/q" + inner);
+                    answeredRefs.add(ref);
+                    triggers.put(ref.genericize().freeze(), inner);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void lookUpGenericizedRefs(ExecutionPlan plan, Blackhole bh) {
+        for (TreeReference ref : plan.answeredRefs) {
+            bh.consume(plan.triggers.get(ref.genericize()));
+        }
+    }
+
+    @Benchmark
+    public void lookUpRefs(ExecutionPlan plan, Blackhole bh) {
+        Map<TreeReference, Integer> refs = new HashMap<>();
+        for (TreeReference ref : plan.answeredRefs) {
+            refs.put(ref, 0);
+        }
+
+        for (TreeReference ref : plan.answeredRefs) {
+            bh.consume(refs.get(ref));
+        }
+    }
+}
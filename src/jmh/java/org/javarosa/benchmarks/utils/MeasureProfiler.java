@@ -0,0 +1,52 @@
+package org.javarosa.benchmarks.utils;
+
+import org.javarosa.measure.Measure;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Turns {@link Measure} on for each iteration and reports what it recorded alongside the benchmark's own results.
+ * Use it by adding {@code -prof org.javarosa.benchmarks.utils.MeasureProfiler} to the JMH command line or
+ * {@code .addProfiler(MeasureProfiler.class)} to the runner options.
+ */
+public class MeasureProfiler implements InternalProfiler {
+    @Override
+    public String getDescription() {
+        return "Counts and times of the events recorded by org.javarosa.measure.Measure";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        Measure.reset();
+        Measure.setEnabled(true);
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        Measure.setEnabled(false);
+        Measure.Snapshot snapshot = Measure.snapshot();
+
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Long> count : snapshot.getCounts().entrySet()) {
+            results.add(new ScalarResult("measure." + count.getKey(), count.getValue(), "events", AggregationPolicy.AVG));
+        }
+
+        for (Map.Entry<String, Long> nanos : snapshot.getNanos().entrySet()) {
+            results.add(new ScalarResult("measure." + nanos.getKey() + ".time", NANOSECONDS.toMillis(nanos.getValue()), "ms", AggregationPolicy.AVG));
+        }
+
+        return results;
+    }
+}
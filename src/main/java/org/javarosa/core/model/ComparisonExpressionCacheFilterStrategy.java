@@ -10,18 +10,19 @@ import org.javarosa.xpath.expr.XPathEqExpr;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 /**
  * Caches down stream evaluations (in the {@link FilterStrategy} chain) for supported expressions - currently just
  * {@link XPathCmpExpr} and {@link XPathEqExpr}. Repeated evaluations are fetched in O(1) time.
+ * <p>
+ * Safe to share between threads. Two threads that miss the cache at the same time may both evaluate the predicate.
  */
 public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
 
-    private final Map<String, List<TreeReference>> cachedEvaluations = new HashMap<>();
+    private final ConcurrentHashMap<String, List<TreeReference>> cachedEvaluations = new ConcurrentHashMap<>();
 
     @NotNull
     @Override
@@ -57,15 +58,17 @@ public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
     }
 
     /**
-     * Synchronized to prevent two or more threads from modifying {@link #cachedEvaluations} at once
+     * The evaluation happens outside of any lock so that threads filtering different nodesets don't wait on each
+     * other. The first result stored for a key wins.
      */
-    private synchronized List<TreeReference> getCachedEvaluations(@NotNull Supplier<List<TreeReference>> next, String key) {
-        if (cachedEvaluations.containsKey(key)) {
-            return cachedEvaluations.get(key);
+    private List<TreeReference> getCachedEvaluations(@NotNull Supplier<List<TreeReference>> next, String key) {
+        List<TreeReference> cached = cachedEvaluations.get(key);
+        if (cached != null) {
+            return cached;
         } else {
             List<TreeReference> filtered = next.get();
-            cachedEvaluations.put(key, filtered);
-            return filtered;
+            List<TreeReference> previous = cachedEvaluations.putIfAbsent(key, filtered);
+            return previous != null ? previous : filtered;
         }
     }
 
@@ -0,0 +1,142 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathBoolExpr;
+import org.javarosa.xpath.expr.XPathEqExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Uses a (lazily constructed) multi-column index to evaluate predicates that are an {@link XPathBoolExpr} "and" of
+ * {@link XPathEqExpr} equalities where each has one side relative to the instance child being filtered like:
+ * <p/>
+ * state = /data/state and lga = /data/lga
+ * <p/>
+ * Children are keyed by the values of all of their node sides together so the whole predicate is answered with a
+ * single O(1) lookup. O(n) expression evaluations are only required the first time a combination of relative sides is
+ * evaluated.
+ */
+public class CompositeEqualityExpressionIndexFilterStrategy implements FilterStrategy {
+
+    private final Map<String, Map<List<String>, List<TreeReference>>> index = new ConcurrentHashMap<>();
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (sourceInstance.getInstanceId() == null || !(predicate instanceof XPathBoolExpr)) {
+            return next.get();
+        }
+
+        List<CompareToNodeExpression> candidates = parse(predicate);
+        if (candidates == null) {
+            return next.get();
+        }
+
+        // Node sides that appear more than once share a column so they are only evaluated once per child
+        List<CompareToNodeExpression> columns = new ArrayList<>();
+        List<String> columnNames = new ArrayList<>();
+        List<String> contextValues = new ArrayList<>();
+        for (CompareToNodeExpression candidate : candidates) {
+            Object contextValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+            if (!(contextValue instanceof String)) {
+                return next.get();
+            }
+
+            String columnName = candidate.getNodeSide().toString();
+            int column = columnNames.indexOf(columnName);
+            if (column == -1) {
+                columns.add(candidate);
+                columnNames.add(columnName);
+                contextValues.add((String) contextValue);
+            } else if (!contextValues.get(column).equals(contextValue)) {
+                // The same node can't equal two different values
+                return emptyList();
+            }
+        }
+
+        String section = nodeSet + " " + String.join(" ", columnNames);
+        Map<List<String>, List<TreeReference>> sectionMap = index.get(section);
+        if (sectionMap == null) {
+            sectionMap = buildIndex(sourceInstance, columns, children, evaluationContext, section);
+        }
+
+        List<TreeReference> matches = sectionMap.get(contextValues);
+        return matches != null ? matches : emptyList();
+    }
+
+    /**
+     * Synchronized to prevent two or more threads from building the same index at once. Sections that are already
+     * built can be looked up without locking.
+     */
+    private synchronized Map<List<String>, List<TreeReference>> buildIndex(DataInstance sourceInstance, List<CompareToNodeExpression> columns, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        Map<List<String>, List<TreeReference>> sectionMap = index.get(section);
+        if (sectionMap != null) {
+            return sectionMap;
+        }
+
+        long start = Measure.startTimer();
+        sectionMap = new HashMap<>();
+        for (int i = 0; i < children.size(); i++) {
+            TreeReference child = children.get(i);
+
+            String[] key = new String[columns.size()];
+            for (int j = 0; j < columns.size(); j++) {
+                Measure.log("IndexEvaluation");
+                key[j] = columns.get(j).evalNodeSide(sourceInstance, evaluationContext, child, i).toString();
+            }
+
+            List<String> keyList = Arrays.asList(key);
+            if (!sectionMap.containsKey(keyList)) {
+                sectionMap.put(keyList, new ArrayList<>());
+            }
+
+            sectionMap.get(keyList).add(child);
+        }
+
+        index.put(section, sectionMap);
+        Measure.stopTimer("IndexBuild", start);
+        return sectionMap;
+    }
+
+    /**
+     * @return the node-vs-context equalities that are and-ed together in the expression or null if any part of it is
+     * something else
+     */
+    @Nullable
+    private static List<CompareToNodeExpression> parse(XPathExpression expression) {
+        List<CompareToNodeExpression> candidates = new ArrayList<>();
+        return collect(expression, candidates) ? candidates : null;
+    }
+
+    private static boolean collect(XPathExpression expression, List<CompareToNodeExpression> candidates) {
+        if (expression instanceof XPathBoolExpr) {
+            XPathBoolExpr boolExpr = (XPathBoolExpr) expression;
+            return boolExpr.op == XPathBoolExpr.AND && collect(boolExpr.a, candidates) && collect(boolExpr.b, candidates);
+        } else if (expression instanceof XPathEqExpr && ((XPathEqExpr) expression).isEqual()) {
+            CompareToNodeExpression candidate = CompareToNodeExpression.parse(expression);
+            if (candidate == null) {
+                return false;
+            }
+
+            candidates.add(candidate);
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import static java.util.Collections.emptyList;
@@ -56,47 +57,56 @@ public class EqualityExpressionIndexFilterStrategy implements FilterStrategy {
     }
 
     /**
-     * Synchronized to prevent two or more threads from modifying the index at once
+     * Synchronized to prevent two or more threads from building the index at once. Sections that are already built
+     * can be looked up without locking.
      */
-    private synchronized void buildIndexIfNeeded(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
-        if (!index.contains(section)) {
-            for (int i = 0; i < children.size(); i++) {
-                TreeReference child = children.get(i);
-
-                Measure.log("IndexEvaluation");
-                String relativeValue = predicate.evalNodeSide(sourceInstance, evaluationContext, child, i).toString();
-                index.add(section, relativeValue, child);
+    private void buildIndexIfNeeded(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        if (index.contains(section)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!index.contains(section)) {
+                long start = Measure.startTimer();
+                Map<String, List<TreeReference>> sectionMap = new HashMap<>();
+                for (int i = 0; i < children.size(); i++) {
+                    TreeReference child = children.get(i);
+
+                    Measure.log("IndexEvaluation");
+                    String relativeValue = predicate.evalNodeSide(sourceInstance, evaluationContext, child, i).toString();
+                    if (!sectionMap.containsKey(relativeValue)) {
+                        sectionMap.put(relativeValue, new ArrayList<>());
+                    }
+
+                    sectionMap.get(relativeValue).add(child);
+                }
+
+                index.put(section, sectionMap);
+                Measure.stopTimer("IndexBuild", start);
             }
         }
     }
 
     /**
-     * Non thread safe index for tree references based on nested string keys (a "section" and an "item").
+     * Index for tree references based on nested string keys (a "section" and an "item"). Sections are built
+     * completely before being added so readers never see a partially built section.
      */
     private static class InMemTreeReferenceIndex {
 
-        private final Map<String, Map<String, List<TreeReference>>> map = new HashMap<>();
+        private final Map<String, Map<String, List<TreeReference>>> map = new ConcurrentHashMap<>();
 
         public boolean contains(String section) {
             return map.containsKey(section);
         }
 
-        public void add(String section, String item, TreeReference reference) {
-            if (!map.containsKey(section)) {
-                map.put(section, new HashMap<>());
-            }
-
-            Map<String, List<TreeReference>> sectionMap = map.get(section);
-            if (!sectionMap.containsKey(item)) {
-                sectionMap.put(item, new ArrayList<>());
-            }
-
-            sectionMap.get(item).add(reference);
+        public void put(String section, Map<String, List<TreeReference>> sectionMap) {
+            map.put(section, sectionMap);
         }
 
         public List<TreeReference> lookup(String section, String item) {
-            if (map.containsKey(section) && map.get(section).containsKey(item)) {
-                return map.get(section).get(item);
+            Map<String, List<TreeReference>> sectionMap = map.get(section);
+            if (sectionMap != null && sectionMap.containsKey(item)) {
+                return sectionMap.get(item);
             } else {
                 return emptyList();
             }
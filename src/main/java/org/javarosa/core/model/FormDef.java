@@ -38,6 +38,7 @@ import org.javarosa.core.model.instance.InstanceInitializationFactory;
 import org.javarosa.core.model.instance.InvalidReferenceException;
 import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.model.instance.utils.CompactSecondaryInstances;
 import org.javarosa.core.model.utils.QuestionPreloader;
 import org.javarosa.core.services.locale.Localizable;
 import org.javarosa.core.services.locale.Localizer;
@@ -53,6 +54,7 @@ import org.javarosa.core.util.externalizable.ExtWrapTagged;
 import org.javarosa.core.util.externalizable.Externalizable;
 import org.javarosa.core.util.externalizable.ExternalizableExtras;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.javarosa.debug.EvaluationProfiler;
 import org.javarosa.debug.EvaluationResult;
 import org.javarosa.debug.Event;
 import org.javarosa.debug.EventNotifier;
@@ -81,6 +83,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -103,6 +106,9 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     private ExternalizableExtras extras = new ExternalizableExtras();
 
     private EvaluationContext evaluationContext;
+    private EvaluationProfiler evaluationProfiler;
+    private FormOutline outline;
+    private RelevantQuestionCounter relevantQuestionCounter;
 
     /**
      * Takes a (possibly relative) reference, and makes it absolute based on its parent.
@@ -147,6 +153,12 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
      **/
     private String formXmlPath;
 
+    /**
+     * Whether internal secondary instances are serialized in {@link CompactSecondaryInstances}'s format when
+     * {@link #formXmlPath} is set rather than being parsed from the form XML again on deserialization.
+     */
+    private boolean compactInternalInstanceSerialization = false;
+
     private String name;
 
     private List<XFormExtension> extensions;
@@ -165,6 +177,8 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
     private final FilterStrategy comparisonExpressionCacheFilterStrategy = new ComparisonExpressionCacheFilterStrategy();
     private final FilterStrategy equalityExpressionIndexFilterStrategy = new EqualityExpressionIndexFilterStrategy();
+    private final FilterStrategy compositeEqualityExpressionIndexFilterStrategy = new CompositeEqualityExpressionIndexFilterStrategy();
+    private final FilterStrategy rangeExpressionIndexFilterStrategy = new RangeExpressionIndexFilterStrategy();
     private final Queue<FilterStrategy> customFilterStrategies = new LinkedList<>();
     private final List<IFunctionHandler> customFunctionHandlers = new ArrayList<>();
 
@@ -245,6 +259,15 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         this.formXmlPath = formXmlPath;
     }
 
+    /**
+     * When enabled, serializing a form whose XML path is set includes its internal secondary instances in a compact
+     * format so that deserializing it doesn't have to read and parse the form XML again. Forms deserialized from
+     * such a stream keep this enabled.
+     */
+    public void setCompactInternalInstanceSerialization(boolean compactInternalInstanceSerialization) {
+        this.compactInternalInstanceSerialization = compactInternalInstanceSerialization;
+    }
+
     /**
      * Get an instance based on a name
      *
@@ -267,8 +290,10 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     public void setInstance(FormInstance fi) {
         resetEvaluationContext();
 
+        resetRelevantQuestionCounter();
         mainInstance = fi;
         fi.setFormId(getID());
+        invalidateRepeatCounts();
 
         // construct the references in all the question itemsets
         // now so that the entire main instance is available
@@ -294,6 +319,7 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     @Override
     public void addChild(IFormElement fe) {
         this.children.add(fe);
+        outline = null;
     }
 
     @Override
@@ -501,6 +527,10 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
         int childMult = deleteElement.getMult();
         parentElement.removeChild(deleteElement);
+        invalidateRepeatCounts();
+        if (relevantQuestionCounter != null) {
+            relevantQuestionCounter.remove(deleteElement);
+        }
 
         // update multiplicities of other child nodes
         for (int i = 0; i < parentElement.getNumChildren(); i++) {
@@ -524,8 +554,12 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         TreeElement template = mainInstance.getTemplate(repeatContextRef);
 
         mainInstance.copyNode(template, repeatContextRef);
+        invalidateRepeatCounts();
 
         TreeElement newNode = mainInstance.resolveReference(repeatContextRef);
+        if (relevantQuestionCounter != null) {
+            relevantQuestionCounter.add(newNode);
+        }
         preloadInstance(newNode);
 
         // Fire events before form re-computation (calculates, relevance, etc). First trigger actions defined in the
@@ -720,6 +754,76 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         return dagImpl.triggerTriggerables(getMainInstance(), getEvaluationContext(), ref);
     }
 
+    /**
+     * Enables or disables incremental evaluation of triggerables. When enabled, a value change only walks the part of
+     * the DAG that it affects instead of scanning the whole DAG. This is not persisted when the form is serialized.
+     */
+    public void setIncrementalTriggerableEvaluation(boolean incrementalEvaluation) {
+        dagImpl.setIncrementalEvaluation(incrementalEvaluation);
+    }
+
+    /**
+     * Enables or disables sharing the values of function calls that appear in the expressions of several
+     * triggerables. When enabled, each such call is evaluated once per pass over the DAG and its value is reused
+     * until a node it depends on changes. Only built-in calls that don't depend on the context node or the clock
+     * are shared. This is not persisted when the form is serialized.
+     */
+    public void setSharedSubexpressionEvaluation(boolean sharedSubexpressionEvaluation) {
+        dagImpl.setSharedSubexpressionEvaluation(sharedSubexpressionEvaluation);
+    }
+
+    /**
+     * Returns how many evaluations of shared function calls have been avoided since the DAG was finalized. See
+     * {@link #setSharedSubexpressionEvaluation}.
+     */
+    public long getSharedSubexpressionEvaluationsSaved() {
+        return dagImpl.getSharedSubexpressionEvaluationsSaved();
+    }
+
+    /**
+     * Returns how many times shared function calls have been evaluated since the DAG was finalized. See
+     * {@link #setSharedSubexpressionEvaluation}.
+     */
+    public long getSharedSubexpressionEvaluations() {
+        return dagImpl.getSharedSubexpressionEvaluations();
+    }
+
+    /**
+     * Turns recording of how long each triggerable, itemset and predicate filter strategy takes to evaluate on or off
+     * (the default). Turning it on again starts a new profile. This is not persisted when the form is serialized.
+     */
+    public void setEvaluationProfiling(boolean evaluationProfiling) {
+        evaluationProfiler = evaluationProfiling ? new EvaluationProfiler() : null;
+        getEvaluationContext().setProfiler(evaluationProfiler);
+    }
+
+    /**
+     * Returns what has been recorded since profiling was turned on, slowest first, or an empty list if it's off. See
+     * {@link #setEvaluationProfiling}.
+     */
+    public List<EvaluationProfiler.Entry> getEvaluationProfile() {
+        return evaluationProfiler != null ? evaluationProfiler.getReport() : Collections.<EvaluationProfiler.Entry>emptyList();
+    }
+
+    /**
+     * Publishes an event for each entry of the evaluation profile, slowest first. See {@link #setEvaluationProfiling}.
+     */
+    public void publishEvaluationProfile() {
+        for (EvaluationProfiler.Entry entry : getEvaluationProfile()) {
+            getEventNotifier().publishEvent(new Event("Evaluation profile: " + entry, (List<EvaluationResult>) null));
+        }
+    }
+
+    /**
+     * Sets the pool used to evaluate a triggerable across many repeat instances in parallel, or null (the default)
+     * to always evaluate serially. Only triggerables that only read the main instance and don't read any of the
+     * nodes they write are split across the pool. Custom function handlers must be thread safe when this is used.
+     * This is not persisted when the form is serialized.
+     */
+    public void setParallelTriggerableEvaluation(ForkJoinPool pool) {
+        dagImpl.setParallelEvaluationPool(pool);
+    }
+
     public ValidateOutcome validate() {
         return validate(true);
     }
@@ -832,7 +936,7 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
             List<FilterStrategy> filters = Stream.concat(
                 customFilterStrategies.stream(),
-                Stream.of(equalityExpressionIndexFilterStrategy, comparisonExpressionCacheFilterStrategy)
+                Stream.of(equalityExpressionIndexFilterStrategy, compositeEqualityExpressionIndexFilterStrategy, rangeExpressionIndexFilterStrategy, comparisonExpressionCacheFilterStrategy)
             ).collect(Collectors.toList());
 
             evaluationContext = new EvaluationContext(evaluationContext, filters);
@@ -840,6 +944,8 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
             for (IFunctionHandler functionHandler : customFunctionHandlers) {
                 evaluationContext.addFunctionHandler(functionHandler);
             }
+
+            evaluationContext.setProfiler(evaluationProfiler);
         }
 
         return evaluationContext;
@@ -1011,9 +1117,7 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
         setLocalizer((Localizer) ExtUtil.read(dis, new ExtWrapNullable(Localizer.class), pf));
 
-        for (Triggerable condition : TriggerableDag.readExternalTriggerables(dis, pf))
-            addTriggerable(condition);
-        finalizeTriggerables();
+        dagImpl.readExternalTriggerables(dis, pf, getMainInstance(), getEvaluationContext());
 
         outputFragments = (List<IConditionExpr>) ExtUtil.read(dis, new ExtWrapListPoly(), pf);
 
@@ -1031,10 +1135,16 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         } else {
             HashMap<String, DataInstance> externalFormInstances = (HashMap<String, DataInstance>) ExtUtil.read(dis, new ExtWrapMap(
                 String.class, new ExtWrapTagged()), pf);
-            // Parse internal secondary instances from the formXML file
-            HashMap<String, DataInstance> internalFormInstances = InternalDataInstanceParser.buildInstances(getFormXmlPath());
             formInstances.putAll(externalFormInstances);
-            formInstances.putAll(internalFormInstances);
+
+            compactInternalInstanceSerialization = ExtUtil.readBool(dis);
+            if (compactInternalInstanceSerialization) {
+                formInstances.putAll(CompactSecondaryInstances.read(dis));
+            } else {
+                // Parse internal secondary instances from the formXML file
+                HashMap<String, DataInstance> internalFormInstances = InternalDataInstanceParser.buildInstances(getFormXmlPath());
+                formInstances.putAll(internalFormInstances);
+            }
         }
 
         extensions = (List<XFormExtension>) ExtUtil.read(dis, new ExtWrapListPoly(), pf);
@@ -1087,6 +1197,8 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
      *                    false if it is using an existing IDataModel
      */
     public void initialize(boolean newInstance, InstanceInitializationFactory factory) {
+        invalidateRepeatCounts();
+        resetRelevantQuestionCounter();
         HashMap<String, DataInstance> formInstances = getFormInstances();
         for (String instanceId : formInstances.keySet()) {
             DataInstance instance = formInstances.get(instanceId);
@@ -1141,8 +1253,15 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
             // Serialize all instances if path of the form isn't known
             ExtUtil.write(dos, new ExtWrapMap(getFormInstances(), new ExtWrapTagged()));
         } else {
-            // Don't serialize internal instances so that they are parsed again
             ExtUtil.write(dos, new ExtWrapMap(getExternalInstances(), new ExtWrapTagged()));
+
+            // Unless they can be written compactly, don't serialize internal instances so that they are parsed again
+            HashMap<String, FormInstance> internalInstances = getInternalInstances();
+            boolean compact = compactInternalInstanceSerialization && internalInstances != null;
+            ExtUtil.writeBool(dos, compact);
+            if (compact) {
+                CompactSecondaryInstances.write(dos, internalInstances);
+            }
         }
 
         ExtUtil.write(dos, new ExtWrapListPoly(extensions));
@@ -1282,6 +1401,56 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     @Override
     public void setChildren(List<IFormElement> children) {
         this.children = (children == null ? new ArrayList<>() : children);
+        outline = null;
+    }
+
+    /**
+     * Returns a flattened view of the form's questions, groups and repeats used to navigate through it. It is built
+     * the first time it is needed and rebuilt if the form's children are changed through this form.
+     */
+    public FormOutline getOutline() {
+        if (outline == null) {
+            outline = new FormOutline(this);
+        }
+
+        return outline;
+    }
+
+    private void invalidateRepeatCounts() {
+        if (outline != null) {
+            outline.invalidateRepeatCounts();
+        }
+    }
+
+    /**
+     * Returns how many questions in the main instance are relevant, counting each repeat instance's questions. The
+     * questions are counted the first time this or {@link #getAnsweredRelevantQuestionCount()} is called and the
+     * count is then kept up to date as relevance changes and repeat instances are added or removed.
+     */
+    public int getRelevantQuestionCount() {
+        return getRelevantQuestionCounter().getRelevantCount();
+    }
+
+    /**
+     * Returns how many of the questions counted by {@link #getRelevantQuestionCount()} have an answer.
+     */
+    public int getAnsweredRelevantQuestionCount() {
+        return getRelevantQuestionCounter().getRelevantAnsweredCount();
+    }
+
+    private RelevantQuestionCounter getRelevantQuestionCounter() {
+        if (relevantQuestionCounter == null) {
+            relevantQuestionCounter = new RelevantQuestionCounter(this);
+        }
+
+        return relevantQuestionCounter;
+    }
+
+    private void resetRelevantQuestionCounter() {
+        if (relevantQuestionCounter != null) {
+            relevantQuestionCounter.detach();
+            relevantQuestionCounter = null;
+        }
     }
 
     public String getTitle() {
@@ -1617,6 +1786,24 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         return externalFormInstances;
     }
 
+    /**
+     * Returns the internal secondary instances or null if any of them can't be written by
+     * {@link CompactSecondaryInstances}.
+     */
+    private HashMap<String, FormInstance> getInternalInstances() {
+        HashMap<String, FormInstance> internalFormInstances = new HashMap<>();
+        for (Map.Entry<String, DataInstance> formInstanceEntry : formInstances.entrySet()) {
+            DataInstance instance = formInstanceEntry.getValue();
+            if (!(instance instanceof ExternalDataInstance)) {
+                if (!CompactSecondaryInstances.isSupported(instance)) {
+                    return null;
+                }
+                internalFormInstances.put(formInstanceEntry.getKey(), (FormInstance) instance);
+            }
+        }
+        return internalFormInstances;
+    }
+
     private String getFormXmlPath() {
         return formXmlPath;
     }
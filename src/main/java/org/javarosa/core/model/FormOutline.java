@@ -0,0 +1,291 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A flattened view of a form's tree of questions, groups and repeats that lets {@link FormIndex}es be stepped through
+ * and built without walking the {@link IFormElement} tree or recomputing instance references level by level.
+ * <p>
+ * Each element has a position in a pre-order traversal of the tree. A location in the form is a position and the
+ * multiplicities of the repeats along its path, indexed by depth, as read by {@link #getPosition(FormIndex, int[])}
+ * and turned back into a {@link FormIndex} by {@link #buildIndex(int, int[])}.
+ * <p>
+ * The outline also keeps how many instances each repeat has, which is read from the main instance the first time it
+ * is needed. {@link FormDef} drops these counts whenever repeat instances are added or removed.
+ */
+public class FormOutline {
+    public static final int NOT_REPEATABLE = -1;
+
+    private final IFormElement[] elements;
+    private final int[] parents;
+    private final int[] depths;
+    private final int[] localIndexes;
+    private final int[] nextSiblings;
+    private final int[] previousSiblings;
+    private final int[][] children;
+    private final boolean[] repeats;
+
+    // Positions of the repeats that are ancestors of each element or the element itself, outermost first
+    private final int[][] repeatPaths;
+
+    // Bind references with every multiplicity but attributes' set to 0, computed when first needed
+    private final TreeReference[] templateRefs;
+
+    private final int maxDepth;
+
+    private final Map<TreeReference, Integer> repeatCounts = new HashMap<>();
+
+    FormOutline(FormDef form) {
+        List<IFormElement> elements = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        List<Integer> localIndexes = new ArrayList<>();
+        flatten(form, -1, elements, parents, localIndexes);
+
+        int size = elements.size();
+        this.elements = elements.toArray(new IFormElement[size]);
+        this.parents = new int[size];
+        this.depths = new int[size];
+        this.localIndexes = new int[size];
+        this.nextSiblings = new int[size];
+        this.previousSiblings = new int[size];
+        this.children = new int[size + 1][];
+        this.repeats = new boolean[size];
+        this.repeatPaths = new int[size][];
+        this.templateRefs = new TreeReference[size];
+
+        int[] childCounts = new int[size + 1];
+        int maxDepth = 0;
+        for (int position = 0; position < size; position++) {
+            int parent = parents.get(position);
+            this.parents[position] = parent;
+            this.depths[position] = parent == -1 ? 0 : depths[parent] + 1;
+            this.localIndexes[position] = localIndexes.get(position);
+            this.repeats[position] = this.elements[position] instanceof GroupDef && ((GroupDef) this.elements[position]).getRepeat();
+            childCounts[parent + 1]++;
+            maxDepth = Math.max(maxDepth, depths[position] + 1);
+
+            int[] parentRepeatPath = parent == -1 ? new int[0] : repeatPaths[parent];
+            if (repeats[position]) {
+                int[] repeatPath = new int[parentRepeatPath.length + 1];
+                System.arraycopy(parentRepeatPath, 0, repeatPath, 0, parentRepeatPath.length);
+                repeatPath[parentRepeatPath.length] = position;
+                repeatPaths[position] = repeatPath;
+            } else {
+                repeatPaths[position] = parentRepeatPath;
+            }
+        }
+        this.maxDepth = maxDepth;
+
+        for (int i = 0; i <= size; i++) {
+            children[i] = new int[childCounts[i]];
+        }
+
+        for (int position = 0; position < size; position++) {
+            int[] siblings = children[this.parents[position] + 1];
+            int localIndex = this.localIndexes[position];
+            siblings[localIndex] = position;
+            previousSiblings[position] = localIndex > 0 ? siblings[localIndex - 1] : -1;
+            nextSiblings[position] = -1;
+            if (localIndex > 0) {
+                nextSiblings[siblings[localIndex - 1]] = position;
+            }
+        }
+    }
+
+    private static void flatten(IFormElement parent, int parentPosition, List<IFormElement> elements, List<Integer> parents, List<Integer> localIndexes) {
+        List<IFormElement> children = parent.getChildren();
+        if (children == null) {
+            return;
+        }
+
+        for (int i = 0; i < children.size(); i++) {
+            int position = elements.size();
+            elements.add(children.get(i));
+            parents.add(parentPosition);
+            localIndexes.add(i);
+            flatten(children.get(i), position, elements, parents, localIndexes);
+        }
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Returns how many levels the deepest element is nested at which is the length that multiplicity arrays need.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public IFormElement getElement(int position) {
+        return elements[position];
+    }
+
+    /**
+     * Returns the position of the element's parent or -1 for top level elements.
+     */
+    public int getParent(int position) {
+        return parents[position];
+    }
+
+    public int getDepth(int position) {
+        return depths[position];
+    }
+
+    public boolean isRepeat(int position) {
+        return repeats[position];
+    }
+
+    /**
+     * Returns the position of a child of the element at the given position or of a top level element if the position
+     * is -1.
+     */
+    public int getChild(int position, int localIndex) {
+        return children[position + 1][localIndex];
+    }
+
+    /**
+     * Returns the position of the first child of the element at the given position or of the first top level element
+     * if the position is -1. Returns -1 if there are no children.
+     */
+    public int getFirstChild(int position) {
+        int[] children = this.children[position + 1];
+        return children.length > 0 ? children[0] : -1;
+    }
+
+    /**
+     * Returns the position of the last child of the element at the given position or of the last top level element
+     * if the position is -1. Returns -1 if there are no children.
+     */
+    public int getLastChild(int position) {
+        int[] children = this.children[position + 1];
+        return children.length > 0 ? children[children.length - 1] : -1;
+    }
+
+    /**
+     * Returns the position of the element that follows the given one in its parent or -1 if it is the last.
+     */
+    public int getNextSibling(int position) {
+        return nextSiblings[position];
+    }
+
+    /**
+     * Returns the position of the element that precedes the given one in its parent or -1 if it is the first.
+     */
+    public int getPreviousSibling(int position) {
+        return previousSiblings[position];
+    }
+
+    /**
+     * Returns the position of the element an in-form index refers to and writes the multiplicity of each of its
+     * levels to the given array, or returns -1 for an index that isn't in the form.
+     */
+    public int getPosition(FormIndex index, int[] multiplicities) {
+        if (!index.isInForm()) {
+            return -1;
+        }
+
+        int position = -1;
+        int depth = 0;
+        while (index != null) {
+            position = getChild(position, index.getLocalIndex());
+            multiplicities[depth++] = index.getInstanceIndex() == -1 ? 0 : index.getInstanceIndex();
+            index = index.getNextLevel();
+        }
+
+        return position;
+    }
+
+    /**
+     * Returns the index of the element at the given position using the multiplicities of the repeats along its path.
+     * Equivalent to {@link FormDef#buildIndex(List, List, List)}.
+     */
+    public FormIndex buildIndex(int position, int[] multiplicities) {
+        FormIndex index = null;
+        for (int level = position; level != -1; level = parents[level]) {
+            int multiplicity = repeats[level] ? multiplicities[depths[level]] : -1;
+            index = new FormIndex(index, localIndexes[level], multiplicity, getInstanceRef(level, multiplicities));
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the reference of the instance node for the element at the given position using the multiplicities of
+     * the repeats along its path. Equivalent to {@link FormDef#getChildInstanceRef(List, List)}.
+     */
+    public TreeReference getInstanceRef(int position, int[] multiplicities) {
+        TreeReference ref = getTemplateRef(position).clone();
+
+        for (int repeat : repeatPaths[position]) {
+            TreeReference repeatRef = FormInstance.unpackReference(elements[repeat].getBind());
+            if (repeatRef.isAncestorOf(ref, false)) {
+                ref.setMultiplicity(repeatRef.size() - 1, multiplicities[depths[repeat]]);
+            } else {
+                return null; // question/repeat hierarchy is not consistent with instance and bindings
+            }
+        }
+
+        return ref;
+    }
+
+    /**
+     * Returns how many instances the repeat at the given position has in the instance its path's multiplicities
+     * lead to, or {@link #NOT_REPEATABLE} if the repeat's first node exists but isn't repeatable.
+     */
+    public int getRepeatCount(int position, int[] multiplicities, FormInstance instance) {
+        int depth = depths[position];
+        int multiplicity = multiplicities[depth];
+        multiplicities[depth] = 0;
+        TreeReference firstRef = getInstanceRef(position, multiplicities);
+        multiplicities[depth] = multiplicity;
+
+        Integer count = firstRef != null ? repeatCounts.get(firstRef) : null;
+        if (count == null) {
+            TreeElement first = instance.resolveReference(firstRef);
+            if (first == null) {
+                count = 0;
+            } else if (!first.isRepeatable()) {
+                count = NOT_REPEATABLE;
+            } else {
+                count = instance.resolveReference(firstRef.getParentRef()).getChildMultiplicity(first.getName());
+            }
+
+            repeatCounts.put(firstRef, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Forgets the repeat counts read so far. Must be called whenever repeat instances are added to or removed from
+     * the main instance.
+     */
+    public void invalidateRepeatCounts() {
+        repeatCounts.clear();
+    }
+
+    private TreeReference getTemplateRef(int position) {
+        TreeReference ref = templateRefs[position];
+        if (ref == null) {
+            ref = FormInstance.unpackReference(elements[position].getBind()).clone();
+            for (int i = 0; i < ref.size(); i++) {
+                if (ref.getMultiplicity(i) != TreeReference.INDEX_ATTRIBUTE) {
+                    ref.setMultiplicity(i, 0);
+                }
+            }
+
+            templateRefs[position] = ref;
+        }
+
+        return ref;
+    }
+}
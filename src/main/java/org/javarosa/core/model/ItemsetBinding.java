@@ -6,6 +6,8 @@ import org.javarosa.core.model.data.IAnswerData;
 import org.javarosa.core.model.data.MultipleItemsData;
 import org.javarosa.core.model.data.SelectOneData;
 import org.javarosa.core.model.data.helper.Selection;
+import org.javarosa.core.model.instance.AbstractTreeElement;
+import org.javarosa.core.model.instance.CompactTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
@@ -18,6 +20,7 @@ import org.javarosa.core.util.externalizable.ExtWrapNullable;
 import org.javarosa.core.util.externalizable.ExtWrapTagged;
 import org.javarosa.core.util.externalizable.Externalizable;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.javarosa.debug.EvaluationProfiler;
 import org.javarosa.debug.EvaluationResult;
 import org.javarosa.debug.Event;
 import org.javarosa.model.xform.XPathReference;
@@ -97,6 +100,21 @@ public class ItemsetBinding implements Externalizable, Localizable {
      * part of the new filtered list is removed and the new answer is saved back to the model.
      */
     public List<SelectChoice> getChoices(FormDef formDef, TreeReference curQRef) {
+        EvaluationProfiler profiler = formDef.getEvaluationContext().getProfiler();
+        EvaluationProfiler.Measurement measurement = profiler != null
+            ? profiler.start(EvaluationProfiler.Kind.ITEMSET, curQRef.genericize())
+            : null;
+
+        try {
+            return evaluateChoices(formDef, curQRef);
+        } finally {
+            if (measurement != null) {
+                measurement.stop();
+            }
+        }
+    }
+
+    private List<SelectChoice> evaluateChoices(FormDef formDef, TreeReference curQRef) {
         Map<TreeReference, IAnswerData> currentTriggerValues = getCurrentTriggerValues(formDef, curQRef);
         boolean allTriggerRefsBound = currentTriggerValues != null;
 
@@ -186,7 +204,7 @@ public class ItemsetBinding implements Externalizable, Localizable {
 
                 // Unbounded references (e.g. ref to a repeat nodeset rather than a repeat instance) don't have a value we can keep track of.
                 if (element != null && !element.isRepeatable()) {
-                    currentTriggerValues.put(trigger, element.getValue());
+                    currentTriggerValues.put(trigger.freeze(), element.getValue());
                 } else {
                     return null;
                 }
@@ -209,7 +227,7 @@ public class ItemsetBinding implements Externalizable, Localizable {
             value,
             labelIsItext,
             item.getInstanceName() != null
-                ? (TreeElement) formDef.getNonMainInstance(item.getInstanceName()).resolveReference(item)
+                ? getSecondaryInstanceItem(formDef, item)
                 : formDef.getMainInstance().resolveReference(item),
             labelRef.getNameLast());
 
@@ -222,6 +240,19 @@ public class ItemsetBinding implements Externalizable, Localizable {
         return choice;
     }
 
+    /**
+     * Returns the secondary instance element for a choice. Choices hold on to a {@link TreeElement} so compact elements
+     * are copied.
+     */
+    private static TreeElement getSecondaryInstanceItem(FormDef formDef, TreeReference item) {
+        AbstractTreeElement element = formDef.getNonMainInstance(item.getInstanceName()).resolveReference(item);
+        if (element instanceof CompactTreeElement) {
+            return ((CompactTreeElement) element).toTreeElement();
+        }
+
+        return (TreeElement) element;
+    }
+
     /**
      * Builds a map with keys for each value in the current answer, each mapped to null.
      *
@@ -0,0 +1,175 @@
+package org.javarosa.core.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only index from string values to positions in a list of sibling nodes, stored in a file and memory-mapped
+ * back when it's opened. Lookups binary search the mapped file so opening an index doesn't require reading it.
+ * <p>
+ * The file holds a header (magic number, version, number of indexed siblings and number of keys), a table with one
+ * entry per key sorted by the key's UTF-8 bytes (key offset, key length, positions offset, positions count) and then
+ * the key bytes and positions themselves. All numbers are big-endian ints.
+ * <p>
+ * Lookups only use absolute reads on the mapped buffer so an index can be shared between threads.
+ */
+class MappedTreeReferenceIndex {
+    private static final int MAGIC = 0x4A524958; // "JRIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final ByteBuffer buffer;
+    private final int childCount;
+    private final int keyCount;
+
+    private MappedTreeReferenceIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a supported index file");
+        }
+
+        this.buffer = buffer;
+        this.childCount = buffer.getInt(8);
+        this.keyCount = buffer.getInt(12);
+    }
+
+    static MappedTreeReferenceIndex open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the channel is closed
+            return new MappedTreeReferenceIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes an index to a temporary file next to the given one and renames it when done so readers never see a
+     * partially written index.
+     *
+     * @param childCount the number of siblings that were indexed, used to detect stale indexes
+     * @param positions  the positions of the siblings that have each value
+     */
+    static void write(File file, int childCount, Map<String, List<Integer>> positions) throws IOException {
+        List<Map.Entry<byte[], List<Integer>>> entries = new ArrayList<>(positions.size());
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            entries.add(new AbstractMap.SimpleEntry<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        }
+        entries.sort((a, b) -> compare(a.getKey(), b.getKey()));
+
+        List<byte[]> keys = new ArrayList<>(entries.size());
+        List<List<Integer>> values = new ArrayList<>(entries.size());
+        for (Map.Entry<byte[], List<Integer>> entry : entries) {
+            keys.add(entry.getKey());
+            values.add(entry.getValue());
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(data);
+        int dataStart = HEADER_SIZE + keys.size() * ENTRY_SIZE;
+        int[] keyOffsets = new int[keys.size()];
+        int[] positionOffsets = new int[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            keyOffsets[i] = dataStart + dataOutput.size();
+            dataOutput.write(keys.get(i));
+
+            positionOffsets[i] = dataStart + dataOutput.size();
+            for (int position : values.get(i)) {
+                dataOutput.writeInt(position);
+            }
+        }
+
+        File tempFile = File.createTempFile("index", null, file.getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(childCount);
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeInt(keyOffsets[i]);
+                out.writeInt(keys.get(i).length);
+                out.writeInt(positionOffsets[i]);
+                out.writeInt(values.get(i).size());
+            }
+            data.writeTo(out);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            // Another thread or process may have written the same index first
+            if (!file.exists()) {
+                throw new IOException("Unable to rename " + tempFile + " to " + file);
+            }
+        }
+    }
+
+    int getChildCount() {
+        return childCount;
+    }
+
+    /**
+     * @return the positions of the siblings whose indexed value is the given one, in document order
+     */
+    int[] lookup(String value) {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = HEADER_SIZE + middle * ENTRY_SIZE;
+            int comparison = compareToKeyAt(buffer.getInt(entry), buffer.getInt(entry + 4), key);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                int offset = buffer.getInt(entry + 8);
+                int[] positions = new int[buffer.getInt(entry + 12)];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = buffer.getInt(offset + i * 4);
+                }
+                return positions;
+            }
+        }
+
+        return NO_POSITIONS;
+    }
+
+    private int compareToKeyAt(int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(buffer.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+}
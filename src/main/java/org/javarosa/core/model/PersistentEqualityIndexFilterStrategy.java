@@ -0,0 +1,177 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.ExternalDataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.reference.InvalidReferenceException;
+import org.javarosa.core.reference.ReferenceManager;
+import org.javarosa.core.util.ContentHash;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathEqExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Like {@link EqualityExpressionIndexFilterStrategy} but the indexes are written to a directory (e.g. the one
+ * serialized forms are stored in) and memory-mapped back by later form sessions. Once an index exists for an
+ * external secondary instance file, predicates like {@code name = /data/x} are answered without evaluating the
+ * {@code name} side for any of the instance's nodes.
+ * <p>
+ * Index files are named by a hash of the instance src, the hash of the instance file's content and the indexed
+ * nodeset and expression, so they are shared between forms that use the same file and ignored once the file
+ * changes. Only instances that resolve to a local file are indexed, other predicates are passed down the chain.
+ * <p>
+ * Add to a form with {@link org.javarosa.form.api.FormEntryController#addFilterStrategy(FilterStrategy)}.
+ */
+public class PersistentEqualityIndexFilterStrategy implements FilterStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentEqualityIndexFilterStrategy.class);
+
+    public static final String INDEX_EXTENSION = ".jrindex";
+
+    private final File directory;
+    private final Map<String, MappedTreeReferenceIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<String, FileHash> contentHashes = new ConcurrentHashMap<>();
+
+    public PersistentEqualityIndexFilterStrategy(File directory) {
+        this.directory = directory;
+    }
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (!(sourceInstance instanceof ExternalDataInstance) || !(predicate instanceof XPathEqExpr)) {
+            return next.get();
+        }
+
+        CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+        if (candidate == null || !((XPathEqExpr) candidate.getOriginal()).isEqual()) {
+            return next.get();
+        }
+
+        Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+        if (!(absoluteValue instanceof String)) {
+            return next.get();
+        }
+
+        String section = nodeSet + candidate.getNodeSide().toString();
+        MappedTreeReferenceIndex index = getIndex((ExternalDataInstance) sourceInstance, candidate, children, evaluationContext, section);
+        if (index == null) {
+            return next.get();
+        }
+
+        int[] positions = index.lookup((String) absoluteValue);
+        List<TreeReference> filtered = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            filtered.add(children.get(position));
+        }
+        return filtered;
+    }
+
+    /**
+     * @return the index for the section, building and writing it if it doesn't exist yet, or null if the instance
+     * can't be indexed
+     */
+    private MappedTreeReferenceIndex getIndex(ExternalDataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        String contentHash = getContentHash(sourceInstance.getPath());
+        if (contentHash == null) {
+            return null;
+        }
+
+        String name = ContentHash.sha256(sourceInstance.getPath() + "\n" + contentHash + "\n" + section) + INDEX_EXTENSION;
+        MappedTreeReferenceIndex index = indexes.get(name);
+        if (index != null && index.getChildCount() == children.size()) {
+            return index;
+        }
+
+        synchronized (this) {
+            index = indexes.get(name);
+            if (index != null && index.getChildCount() == children.size()) {
+                return index;
+            }
+
+            File file = new File(directory, name);
+            try {
+                if (file.exists()) {
+                    index = MappedTreeReferenceIndex.open(file);
+                }
+
+                if (index == null || index.getChildCount() != children.size()) {
+                    MappedTreeReferenceIndex.write(file, children.size(), buildPositions(sourceInstance, candidate, children, evaluationContext));
+                    index = MappedTreeReferenceIndex.open(file);
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to use index " + file + " for " + section, e);
+                return null;
+            }
+
+            indexes.put(name, index);
+            return index;
+        }
+    }
+
+    private static Map<String, List<Integer>> buildPositions(DataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext) {
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < children.size(); i++) {
+            Measure.log("IndexEvaluation");
+            String relativeValue = candidate.evalNodeSide(sourceInstance, evaluationContext, children.get(i), i).toString();
+            if (!positions.containsKey(relativeValue)) {
+                positions.put(relativeValue, new ArrayList<>());
+            }
+
+            positions.get(relativeValue).add(i);
+        }
+        return positions;
+    }
+
+    private String getContentHash(String instanceSrc) {
+        if (instanceSrc == null) {
+            return null;
+        }
+
+        try {
+            File file = new File(ReferenceManager.instance().deriveReference(instanceSrc).getLocalURI());
+            if (!file.isFile()) {
+                return null;
+            }
+
+            // The file is only hashed again if it looks like it was replaced
+            long length = file.length();
+            long lastModified = file.lastModified();
+            FileHash fileHash = contentHashes.get(instanceSrc);
+            if (fileHash == null || fileHash.length != length || fileHash.lastModified != lastModified) {
+                fileHash = new FileHash(length, lastModified, ContentHash.sha256(file));
+                contentHashes.put(instanceSrc, fileHash);
+            }
+
+            return fileHash.hash;
+        } catch (InvalidReferenceException | IOException e) {
+            logger.info("Unable to hash external instance " + instanceSrc, e);
+            return null;
+        }
+    }
+
+    private static class FileHash {
+        final long length;
+        final long lastModified;
+        final String hash;
+
+        FileHash(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -20,6 +20,18 @@ public final class QuickTriggerable {
     private final Triggerable triggerable;
     private final int hashCode;
 
+    /**
+     * Position of this triggerable in the sorted DAG. Every triggerable has a greater rank than the
+     * triggerables it depends on. Only meaningful once the DAG has been finalized.
+     */
+    private int rank = -1;
+
+    /**
+     * Whether the triggerable can be applied to several repeat instances at once on different threads. Only
+     * meaningful once the DAG has been finalized.
+     */
+    private boolean applicableInParallel = false;
+
     private QuickTriggerable(Triggerable triggerable, int hashCode) {
         this.triggerable = triggerable;
         this.hashCode = hashCode;
@@ -45,6 +57,10 @@ public final class QuickTriggerable {
         return triggerable.getTargets();
     }
 
+    Set<TreeReference> getTriggers() {
+        return triggerable.getTriggers();
+    }
+
     public boolean contains(Triggerable triggerable) {
         return this.triggerable.equals(triggerable);
     }
@@ -69,6 +85,22 @@ public final class QuickTriggerable {
         return triggerable.getImmediateCascades();
     }
 
+    int getRank() {
+        return rank;
+    }
+
+    void setRank(int rank) {
+        this.rank = rank;
+    }
+
+    boolean isApplicableInParallel() {
+        return applicableInParallel;
+    }
+
+    void setApplicableInParallel(boolean applicableInParallel) {
+        this.applicableInParallel = applicableInParallel;
+    }
+
     public Triggerable getTriggerable() {
         // TODO Think how we can avoid breaking encapsulation here
         return triggerable;
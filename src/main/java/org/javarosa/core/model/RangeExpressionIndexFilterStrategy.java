@@ -0,0 +1,388 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathCmpExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Uses (lazily constructed) sorted indexes to evaluate range and prefix predicates - currently {@link XPathCmpExpr}
+ * and {@code starts-with()} or {@code contains()} where the first argument is relative to the instance child being
+ * filtered. Evaluations take O(log n + k) time (plus sorting the k matches back into document order) with O(n)
+ * expression evaluations only being required the first time a relative side is evaluated.
+ * <p>
+ * Comparisons use the node side's numeric value like {@link XPathCmpExpr} does. {@code starts-with()} and
+ * {@code contains()} use its string value. Indexes for {@code contains()} hold every suffix of every value and are
+ * only built for nodesets that are filtered with it.
+ */
+public class RangeExpressionIndexFilterStrategy implements FilterStrategy {
+
+    private final Map<String, NumericIndex> numericIndexes = new ConcurrentHashMap<>();
+    private final Map<String, StringIndex> stringIndexes = new ConcurrentHashMap<>();
+    private final Map<String, SuffixIndex> suffixIndexes = new ConcurrentHashMap<>();
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (sourceInstance.getInstanceId() == null) {
+            return next.get();
+        }
+
+        if (predicate instanceof XPathCmpExpr) {
+            return filterComparison(sourceInstance, nodeSet, (XPathCmpExpr) predicate, children, evaluationContext, next);
+        } else if (predicate instanceof XPathFuncExpr) {
+            return filterStringFunction(sourceInstance, nodeSet, (XPathFuncExpr) predicate, children, evaluationContext, next);
+        } else {
+            return next.get();
+        }
+    }
+
+    private List<TreeReference> filterComparison(DataInstance sourceInstance, TreeReference nodeSet, XPathCmpExpr predicate, List<TreeReference> children, EvaluationContext evaluationContext, Supplier<List<TreeReference>> next) {
+        CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+        if (candidate == null) {
+            return next.get();
+        }
+
+        // Flip the operator when the node is on the right so it reads as "node <op> value"
+        int op = predicate.op;
+        if (predicate.b == candidate.getNodeSide()) {
+            op = flip(op);
+        }
+
+        String section = nodeSet + candidate.getNodeSide().toString();
+        NumericIndex index = numericIndexes.get(section);
+        if (index == null) {
+            index = buildNumericIndex(sourceInstance, candidate, children, evaluationContext, section);
+        }
+
+        double value = XPathFuncExpr.toNumeric(candidate.evalContextSide(sourceInstance, evaluationContext));
+        return select(children, index.lookup(op, value));
+    }
+
+    private List<TreeReference> filterStringFunction(DataInstance sourceInstance, TreeReference nodeSet, XPathFuncExpr predicate, List<TreeReference> children, EvaluationContext evaluationContext, Supplier<List<TreeReference>> next) {
+        String name = predicate.id.toString();
+        if (!name.equals("starts-with") && !name.equals("contains")) {
+            return next.get();
+        }
+
+        CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+        // The functions aren't symmetric so the node has to be the string that is searched
+        if (candidate == null || predicate.args[0] != candidate.getNodeSide()) {
+            return next.get();
+        }
+
+        String section = nodeSet + candidate.getNodeSide().toString();
+        String value = XPathFuncExpr.toString(candidate.evalContextSide(sourceInstance, evaluationContext));
+
+        if (name.equals("starts-with")) {
+            StringIndex index = stringIndexes.get(section);
+            if (index == null) {
+                index = buildStringIndex(sourceInstance, candidate, children, evaluationContext, section);
+            }
+
+            return select(children, index.lookupPrefix(value));
+        } else {
+            SuffixIndex index = suffixIndexes.get(section);
+            if (index == null) {
+                index = buildSuffixIndex(sourceInstance, candidate, children, evaluationContext, section);
+            }
+
+            return select(children, index.lookupSubstring(value));
+        }
+    }
+
+    /**
+     * Synchronized to prevent two or more threads from building the same index at once
+     */
+    private synchronized NumericIndex buildNumericIndex(DataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        NumericIndex index = numericIndexes.get(section);
+        if (index == null) {
+            double[] values = new double[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                Measure.log("IndexEvaluation");
+                values[i] = XPathFuncExpr.toNumeric(candidate.evalNodeSide(sourceInstance, evaluationContext, children.get(i), i));
+            }
+
+            index = new NumericIndex(values);
+            numericIndexes.put(section, index);
+        }
+        return index;
+    }
+
+    /**
+     * Synchronized to prevent two or more threads from building the same index at once
+     */
+    private synchronized StringIndex buildStringIndex(DataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        StringIndex index = stringIndexes.get(section);
+        if (index == null) {
+            index = new StringIndex(evalStrings(sourceInstance, candidate, children, evaluationContext));
+            stringIndexes.put(section, index);
+        }
+        return index;
+    }
+
+    /**
+     * Synchronized to prevent two or more threads from building the same index at once
+     */
+    private synchronized SuffixIndex buildSuffixIndex(DataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
+        SuffixIndex index = suffixIndexes.get(section);
+        if (index == null) {
+            index = new SuffixIndex(evalStrings(sourceInstance, candidate, children, evaluationContext));
+            suffixIndexes.put(section, index);
+        }
+        return index;
+    }
+
+    private static String[] evalStrings(DataInstance sourceInstance, CompareToNodeExpression candidate, List<TreeReference> children, EvaluationContext evaluationContext) {
+        String[] values = new String[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            Measure.log("IndexEvaluation");
+            values[i] = XPathFuncExpr.toString(candidate.evalNodeSide(sourceInstance, evaluationContext, children.get(i), i));
+        }
+        return values;
+    }
+
+    private static int flip(int op) {
+        switch (op) {
+            case XPathCmpExpr.LT:
+                return XPathCmpExpr.GT;
+            case XPathCmpExpr.GT:
+                return XPathCmpExpr.LT;
+            case XPathCmpExpr.LTE:
+                return XPathCmpExpr.GTE;
+            case XPathCmpExpr.GTE:
+                return XPathCmpExpr.LTE;
+            default:
+                throw new IllegalArgumentException("Unknown comparison " + op);
+        }
+    }
+
+    /**
+     * Returns the children at the given positions in document order
+     */
+    private static List<TreeReference> select(List<TreeReference> children, int[] positions) {
+        Arrays.sort(positions);
+
+        List<TreeReference> selected = new ArrayList<>(positions.length);
+        int previous = -1;
+        for (int position : positions) {
+            if (position != previous) {
+                selected.add(children.get(position));
+                previous = position;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Positions sorted by numeric value. Positions whose value is NaN are left out because no comparison with NaN
+     * is true.
+     */
+    private static class NumericIndex {
+        private final double[] values;
+        private final int[] positions;
+
+        NumericIndex(double[] unsorted) {
+            Integer[] order = new Integer[unsorted.length];
+            int count = 0;
+            for (int i = 0; i < unsorted.length; i++) {
+                if (!Double.isNaN(unsorted[i])) {
+                    order[count++] = i;
+                }
+            }
+            Arrays.sort(order, 0, count, Comparator.comparingDouble(i -> unsorted[i]));
+
+            values = new double[count];
+            positions = new int[count];
+            for (int i = 0; i < count; i++) {
+                positions[i] = order[i];
+                values[i] = unsorted[order[i]];
+            }
+        }
+
+        int[] lookup(int op, double value) {
+            if (Double.isNaN(value)) {
+                return new int[0];
+            }
+
+            switch (op) {
+                case XPathCmpExpr.LT:
+                    return Arrays.copyOfRange(positions, 0, firstNotBelow(value));
+                case XPathCmpExpr.LTE:
+                    return Arrays.copyOfRange(positions, 0, firstAbove(value));
+                case XPathCmpExpr.GT:
+                    return Arrays.copyOfRange(positions, firstAbove(value), positions.length);
+                case XPathCmpExpr.GTE:
+                    return Arrays.copyOfRange(positions, firstNotBelow(value), positions.length);
+                default:
+                    throw new IllegalArgumentException("Unknown comparison " + op);
+            }
+        }
+
+        /**
+         * @return the index of the first value that is >= the given one
+         */
+        private int firstNotBelow(double value) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the first value that is > the given one
+         */
+        private int firstAbove(double value) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Positions sorted by string value. Values with the same prefix are next to each other.
+     */
+    private static class StringIndex {
+        private final String[] values;
+        private final int[] positions;
+
+        StringIndex(String[] unsorted) {
+            Integer[] order = new Integer[unsorted.length];
+            for (int i = 0; i < unsorted.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> unsorted[i]));
+
+            values = new String[unsorted.length];
+            positions = new int[unsorted.length];
+            for (int i = 0; i < unsorted.length; i++) {
+                positions[i] = order[i];
+                values[i] = unsorted[order[i]];
+            }
+        }
+
+        int[] lookupPrefix(String prefix) {
+            int start = Arrays.binarySearch(values, prefix);
+            if (start < 0) {
+                start = -start - 1;
+            } else {
+                // Move back to the first of any duplicates
+                while (start > 0 && values[start - 1].equals(prefix)) {
+                    start--;
+                }
+            }
+
+            int end = start;
+            while (end < values.length && values[end].startsWith(prefix)) {
+                end++;
+            }
+            return Arrays.copyOfRange(positions, start, end);
+        }
+    }
+
+    /**
+     * Every suffix of every value, sorted. The values that contain a string are the ones that have a
+     * suffix starting with it so they can be found with a prefix search over the suffixes.
+     */
+    private static class SuffixIndex {
+        private final String[] values;
+        private final int[] suffixValues;
+        private final int[] suffixOffsets;
+
+        SuffixIndex(String[] values) {
+            this.values = values;
+
+            int count = 0;
+            for (String value : values) {
+                count += value.length() + 1;
+            }
+
+            Integer[] order = new Integer[count];
+            int[] suffixValues = new int[count];
+            int[] suffixOffsets = new int[count];
+            int suffix = 0;
+            for (int i = 0; i < values.length; i++) {
+                // Include the empty suffix so that every value contains the empty string
+                for (int offset = 0; offset <= values[i].length(); offset++) {
+                    order[suffix] = suffix;
+                    suffixValues[suffix] = i;
+                    suffixOffsets[suffix] = offset;
+                    suffix++;
+                }
+            }
+            Arrays.sort(order, (a, b) -> compareSuffixes(values[suffixValues[a]], suffixOffsets[a], values[suffixValues[b]], suffixOffsets[b]));
+
+            this.suffixValues = new int[count];
+            this.suffixOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                this.suffixValues[i] = suffixValues[order[i]];
+                this.suffixOffsets[i] = suffixOffsets[order[i]];
+            }
+        }
+
+        int[] lookupSubstring(String substring) {
+            int low = 0;
+            int high = suffixValues.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compareSuffixes(values[suffixValues[middle]], suffixOffsets[middle], substring, 0) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            int end = low;
+            while (end < suffixValues.length && values[suffixValues[end]].startsWith(substring, suffixOffsets[end])) {
+                end++;
+            }
+
+            int[] matches = new int[end - low];
+            for (int i = low; i < end; i++) {
+                matches[i - low] = suffixValues[i];
+            }
+            return matches;
+        }
+
+        private static int compareSuffixes(String a, int aOffset, String b, int bOffset) {
+            int aLength = a.length() - aOffset;
+            int bLength = b.length() - bOffset;
+            int common = Math.min(aLength, bLength);
+            for (int i = 0; i < common; i++) {
+                int comparison = Character.compare(a.charAt(aOffset + i), b.charAt(bOffset + i));
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return Integer.compare(aLength, bLength);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Keeps how many of the main instance's question nodes are relevant and how many of those are answered so that
+ * progress can be read without walking the form. The nodes are counted once when the counter is created and the
+ * counts are then kept up to date by observing the nodes' relevance and value changes. {@link FormDef} adds and
+ * removes the nodes of repeat instances as they are created and deleted.
+ */
+public class RelevantQuestionCounter implements FormElementStateListener {
+    private final Set<TreeReference> questionRefs = new HashSet<>();
+    private final Set<TreeElement> questions = Collections.newSetFromMap(new IdentityHashMap<TreeElement, Boolean>());
+    private final Set<TreeElement> answered = Collections.newSetFromMap(new IdentityHashMap<TreeElement, Boolean>());
+
+    private int relevantCount;
+    private int relevantAnsweredCount;
+
+    RelevantQuestionCounter(FormDef form) {
+        FormOutline outline = form.getOutline();
+        for (int position = 0; position < outline.size(); position++) {
+            IFormElement element = outline.getElement(position);
+            if (element instanceof QuestionDef) {
+                questionRefs.add(FormInstance.unpackReference(element.getBind()).genericize());
+            }
+        }
+
+        add(form.getMainInstance().getRoot());
+    }
+
+    public int getRelevantCount() {
+        return relevantCount;
+    }
+
+    public int getRelevantAnsweredCount() {
+        return relevantAnsweredCount;
+    }
+
+    /**
+     * Starts counting the question nodes in the given subtree of the main instance.
+     */
+    void add(TreeElement node) {
+        if (node.getMult() == TreeReference.INDEX_TEMPLATE) {
+            return;
+        }
+
+        if (questionRefs.contains(node.getRef().genericize()) && questions.add(node)) {
+            node.registerStateObserver(this);
+
+            boolean isAnswered = node.getValue() != null;
+            if (isAnswered) {
+                answered.add(node);
+            }
+
+            if (node.isRelevant()) {
+                relevantCount++;
+                if (isAnswered) {
+                    relevantAnsweredCount++;
+                }
+            }
+        }
+
+        for (int i = 0; i < node.getNumChildren(); i++) {
+            add(node.getChildAt(i));
+        }
+    }
+
+    /**
+     * Stops counting the question nodes in the given subtree of the main instance.
+     */
+    void remove(TreeElement node) {
+        if (questions.remove(node)) {
+            node.unregisterStateObserver(this);
+
+            boolean wasAnswered = answered.remove(node);
+            if (node.isRelevant()) {
+                relevantCount--;
+                if (wasAnswered) {
+                    relevantAnsweredCount--;
+                }
+            }
+        }
+
+        for (int i = 0; i < node.getNumChildren(); i++) {
+            remove(node.getChildAt(i));
+        }
+    }
+
+    /**
+     * Stops observing every node so that the counter can be dropped.
+     */
+    void detach() {
+        for (TreeElement question : questions) {
+            question.unregisterStateObserver(this);
+        }
+
+        questions.clear();
+        answered.clear();
+        relevantCount = 0;
+        relevantAnsweredCount = 0;
+    }
+
+    @Override
+    public void formElementStateChanged(IFormElement question, int changeFlags) {
+
+    }
+
+    @Override
+    public void formElementStateChanged(TreeElement question, int changeFlags) {
+        if ((changeFlags & CHANGE_DATA) != 0) {
+            boolean wasAnswered = answered.contains(question);
+            boolean isAnswered = question.getValue() != null;
+
+            if (isAnswered != wasAnswered) {
+                if (isAnswered) {
+                    answered.add(question);
+                } else {
+                    answered.remove(question);
+                }
+
+                if (question.isRelevant()) {
+                    relevantAnsweredCount += isAnswered ? 1 : -1;
+                }
+            }
+        }
+
+        // Only sent when the node's relevance, including what it inherits from its ancestors, has flipped
+        if ((changeFlags & CHANGE_RELEVANT) != 0) {
+            int change = question.isRelevant() ? 1 : -1;
+            relevantCount += change;
+            if (answered.contains(question)) {
+                relevantAnsweredCount += change;
+            }
+        }
+    }
+}
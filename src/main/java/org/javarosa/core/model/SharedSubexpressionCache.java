@@ -0,0 +1,75 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.debug.EvaluationResult;
+import org.javarosa.xpath.XPathNodeset;
+import org.javarosa.xpath.expr.XPathExpression;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the values of the subexpressions shared by several triggerables (see {@link SharedSubexpressions}) for one
+ * pass over the DAG so that each is only evaluated once and its value reused by every triggerable that contains an
+ * equal one. A value is dropped as soon as a triggerable changes a node that it depends on.
+ * <p>
+ * Nodesets aren't kept since they are evaluated lazily.
+ * <p>
+ * Safe to share between threads. Two threads that miss the cache at the same time may both evaluate the subexpression.
+ */
+public class SharedSubexpressionCache {
+    private final SharedSubexpressions subexpressions;
+    private final AtomicReferenceArray<Object> values;
+
+    SharedSubexpressionCache(SharedSubexpressions subexpressions) {
+        this.subexpressions = subexpressions;
+        values = new AtomicReferenceArray<>(subexpressions.getGroupCount());
+    }
+
+    public boolean isShared(XPathExpression expression) {
+        return subexpressions.groupOf(expression) != -1;
+    }
+
+    /**
+     * Returns the value of the given subexpression if an equal one has already been evaluated in this pass or else
+     * evaluates it.
+     */
+    public Object eval(XPathExpression expression, Supplier<Object> evaluation) {
+        int group = subexpressions.groupOf(expression);
+        if (group == -1) {
+            return evaluation.get();
+        }
+
+        Object value = values.get(group);
+        if (value != null) {
+            subexpressions.recordReuse();
+            return value;
+        }
+
+        value = evaluation.get();
+        subexpressions.recordEvaluation();
+        if (value != null && !(value instanceof XPathNodeset)) {
+            values.set(group, value);
+        }
+        return value;
+    }
+
+    /**
+     * Drops the values that could have been changed by a triggerable's evaluation.
+     */
+    void invalidate(List<EvaluationResult> evaluationResults) {
+        for (EvaluationResult evaluationResult : evaluationResults) {
+            if (!evaluationResult.isChanged()) {
+                continue;
+            }
+
+            TreeReference changed = evaluationResult.getAffectedRef().genericize();
+            for (int group = 0; group < values.length(); group++) {
+                if (values.get(group) != null && subexpressions.isAffectedBy(group, changed)) {
+                    values.set(group, null);
+                }
+            }
+        }
+    }
+}
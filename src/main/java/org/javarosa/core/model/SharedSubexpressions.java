@@ -0,0 +1,245 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.IConditionExpr;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.XPathConditional;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFilterExpr;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The function calls that appear more than once in the expressions of a DAG's triggerables and whose value doesn't
+ * depend on where they are evaluated, grouped so that equal calls can share a value. See
+ * {@link SharedSubexpressionCache}.
+ * <p>
+ * A call is only shared if it and everything it calls is built in, doesn't read the clock or the context node
+ * (through {@code current()}, {@code position()}, relative paths outside of predicates or absolute paths through a
+ * repeat) and reads at least one node.
+ */
+final class SharedSubexpressions {
+    private static final Set<String> CONTEXT_OR_CLOCK_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "current", "position", "once", "indexed-repeat", "random", "uuid", "now", "today"
+    ));
+
+    private final Map<XPathExpression, Integer> groups;
+    private final List<Set<TreeReference>> triggers;
+
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    private SharedSubexpressions(Map<XPathExpression, Integer> groups, List<Set<TreeReference>> triggers) {
+        this.groups = groups;
+        this.triggers = triggers;
+    }
+
+    static SharedSubexpressions find(Collection<QuickTriggerable> triggerables, FormInstance mainInstance) {
+        Map<XPathExpression, List<XPathExpression>> occurrences = new LinkedHashMap<>();
+        for (QuickTriggerable qt : triggerables) {
+            // Collect from the tree that is evaluated so that cache lookups find the same nodes
+            IConditionExpr expr = qt.getTriggerable().getExpr();
+            collect(expr instanceof XPathConditional ? ((XPathConditional) expr).getEvaluationExpr() : expr.getExpr(), occurrences, mainInstance);
+        }
+
+        Map<XPathExpression, Integer> groups = new IdentityHashMap<>();
+        List<Set<TreeReference>> triggers = new ArrayList<>();
+        for (Map.Entry<XPathExpression, List<XPathExpression>> entry : occurrences.entrySet()) {
+            if (entry.getValue().size() < 2) {
+                continue;
+            }
+
+            Set<TreeReference> groupTriggers = new HashSet<>();
+            for (TreeReference trigger : new XPathConditional(entry.getKey()).getTriggers(TreeReference.rootRef())) {
+                groupTriggers.add(trigger.genericize());
+            }
+            if (groupTriggers.isEmpty()) {
+                continue;
+            }
+
+            for (XPathExpression occurrence : entry.getValue()) {
+                groups.put(occurrence, triggers.size());
+            }
+            triggers.add(groupTriggers);
+        }
+
+        return new SharedSubexpressions(groups, triggers);
+    }
+
+    /**
+     * Returns the group of equal calls the given expression belongs to or -1 if it isn't shared.
+     */
+    int groupOf(XPathExpression expression) {
+        Integer group = groups.get(expression);
+        return group != null ? group : -1;
+    }
+
+    int getGroupCount() {
+        return triggers.size();
+    }
+
+    /**
+     * Returns whether the value of the calls in a group could change when the value or state of the given node does.
+     */
+    boolean isAffectedBy(int group, TreeReference genericRef) {
+        for (TreeReference trigger : triggers.get(group)) {
+            if (trigger.isAncestorOf(genericRef, false) || genericRef.isAncestorOf(trigger, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void recordEvaluation() {
+        evaluations.incrementAndGet();
+    }
+
+    void recordReuse() {
+        reuses.incrementAndGet();
+    }
+
+    /**
+     * Returns how many times a shared call was evaluated.
+     */
+    long getEvaluations() {
+        return evaluations.get();
+    }
+
+    /**
+     * Returns how many evaluations of a shared call were avoided by reusing the value of an equal one.
+     */
+    long getReuses() {
+        return reuses.get();
+    }
+
+    private static void collect(XPathExpression expression, Map<XPathExpression, List<XPathExpression>> occurrences, FormInstance mainInstance) {
+        if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr func = (XPathFuncExpr) expression;
+            if (isContextFree(func, true, mainInstance)) {
+                List<XPathExpression> equal = occurrences.get(func);
+                if (equal == null) {
+                    equal = new ArrayList<>();
+                    occurrences.put(func, equal);
+                }
+                equal.add(func);
+            }
+
+            for (XPathExpression arg : func.args) {
+                collect(arg, occurrences, mainInstance);
+            }
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            collect(((XPathBinaryOpExpr) expression).a, occurrences, mainInstance);
+            collect(((XPathBinaryOpExpr) expression).b, occurrences, mainInstance);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            collect(((XPathUnaryOpExpr) expression).a, occurrences, mainInstance);
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr path = (XPathPathExpr) expression;
+            if (path.filtExpr != null) {
+                collect(path.filtExpr, occurrences, mainInstance);
+            }
+            for (XPathStep step : path.steps) {
+                for (XPathExpression predicate : step.predicates) {
+                    collect(predicate, occurrences, mainInstance);
+                }
+            }
+        } else if (expression instanceof XPathFilterExpr) {
+            XPathFilterExpr filter = (XPathFilterExpr) expression;
+            collect(filter.x, occurrences, mainInstance);
+            for (XPathExpression predicate : filter.predicates) {
+                collect(predicate, occurrences, mainInstance);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the expression has the same value wherever it's evaluated during a pass. Predicates are
+     * evaluated against the nodes they filter so relative paths are allowed in them.
+     */
+    private static boolean isContextFree(XPathExpression expression, boolean outsidePredicates, FormInstance mainInstance) {
+        if (expression instanceof XPathStringLiteral || expression instanceof XPathNumericLiteral) {
+            return true;
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr func = (XPathFuncExpr) expression;
+            String name = func.id.toString();
+            if (!func.isBuiltIn() || CONTEXT_OR_CLOCK_FUNCTIONS.contains(name)
+                || (func.args.length == 0 && (name.equals("string-length") || name.equals("normalize-space")))) {
+                return false;
+            }
+            return allContextFree(func.args, outsidePredicates, mainInstance);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            XPathBinaryOpExpr op = (XPathBinaryOpExpr) expression;
+            return isContextFree(op.a, outsidePredicates, mainInstance) && isContextFree(op.b, outsidePredicates, mainInstance);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return isContextFree(((XPathUnaryOpExpr) expression).a, outsidePredicates, mainInstance);
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr path = (XPathPathExpr) expression;
+            if (path.init_context == XPathPathExpr.INIT_CONTEXT_RELATIVE && outsidePredicates) {
+                return false;
+            }
+            if (path.init_context == XPathPathExpr.INIT_CONTEXT_ROOT && crossesRepeat(path, mainInstance)) {
+                return false;
+            }
+            if (path.filtExpr != null && !(isInstanceCall(path.filtExpr.x) && allContextFree(path.filtExpr.predicates, false, mainInstance))) {
+                return false;
+            }
+            for (XPathStep step : path.steps) {
+                if (!allContextFree(step.predicates, false, mainInstance)) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean allContextFree(XPathExpression[] expressions, boolean outsidePredicates, FormInstance mainInstance) {
+        for (XPathExpression expression : expressions) {
+            if (!isContextFree(expression, outsidePredicates, mainInstance)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether an absolute path goes through a repeat of the main instance. Such a path is contextualized
+     * against the repeat instance it is evaluated in so it refers to different nodes in each one.
+     */
+    private static boolean crossesRepeat(XPathPathExpr path, FormInstance mainInstance) {
+        TreeReference ref = path.getReference().genericize();
+        for (int i = 0; i < ref.size(); i++) {
+            TreeElement node = mainInstance.getTemplatePath(ref.getSubReference(i));
+            if (node != null && node.isRepeatable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInstanceCall(XPathExpression expression) {
+        if (!(expression instanceof XPathFuncExpr)) {
+            return false;
+        }
+
+        XPathFuncExpr func = (XPathFuncExpr) expression;
+        return func.id.toString().equals("instance") && func.args.length == 1 && func.args[0] instanceof XPathStringLiteral;
+    }
+}
@@ -28,26 +28,35 @@ import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.ExtWrapList;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.javarosa.debug.EvaluationProfiler;
 import org.javarosa.debug.EvaluationResult;
 import org.javarosa.debug.Event;
 import org.javarosa.debug.EventNotifier;
 import org.javarosa.form.api.FormEntryController;
+import org.javarosa.xpath.XPathConditional;
+import org.javarosa.xpath.expr.XPathExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static java.util.Collections.emptySet;
 
@@ -74,6 +83,12 @@ public class TriggerableDag {
      */
     private final Set<QuickTriggerable> allTriggerables = new HashSet<>();
 
+    /**
+     * Indexes the triggerables in {@link #allTriggerables} by their definition so that {@link #addTriggerable} can
+     * find an equal one without scanning all of them.
+     */
+    private final Map<Triggerable, QuickTriggerable> triggerablesByDefinition = new HashMap<>();
+
     /**
      * Stores the sorted set of all triggerables using the dependency direction
      * as ordering.
@@ -99,6 +114,52 @@ public class TriggerableDag {
 
     private boolean predicateCaching = true;
 
+    /**
+     * When enabled, value changes are propagated by walking only the affected part of the DAG in rank order rather
+     * than by scanning the whole DAG. See {@link #evaluateAffectedTriggerables}.
+     */
+    private boolean incrementalEvaluation = false;
+
+    /**
+     * When set, triggerables that apply to many repeat instances, only read the main instance and don't read any of
+     * the nodes they write are evaluated in parallel on this pool. See {@link #evaluateTriggerable}.
+     */
+    private ForkJoinPool parallelEvaluationPool = null;
+
+    /**
+     * When enabled, function calls that appear in several triggerables are evaluated once per pass over the DAG. See
+     * {@link SharedSubexpressionCache}.
+     */
+    private boolean sharedSubexpressionEvaluation = false;
+
+    /**
+     * The shared function calls of the finalized DAG, found the first time they are needed.
+     */
+    private SharedSubexpressions sharedSubexpressions = null;
+
+    /**
+     * The largest number of qualified references a single fork-join task evaluates before splitting its work.
+     * Triggerables that apply to fewer references than this are always evaluated serially.
+     */
+    static final int PARALLEL_EVALUATION_BATCH_SIZE = 64;
+
+    /**
+     * Version of the topology block that {@link #writeExternalTriggerables} writes after the triggerables. Streams
+     * with any other version have their DAG rebuilt from the triggerables instead.
+     */
+    static final int TOPOLOGY_VERSION = 1;
+    private static final int NO_TOPOLOGY = 0;
+
+    /**
+     * Orders triggerables so that each one comes after all the triggerables it depends on.
+     */
+    private static final Comparator<QuickTriggerable> RANK_ORDER = new Comparator<QuickTriggerable>() {
+        @Override
+        public int compare(QuickTriggerable a, QuickTriggerable b) {
+            return Integer.compare(a.getRank(), b.getRank());
+        }
+    };
+
     TriggerableDag(EventNotifierAccessor accessor) {
         this.accessor = accessor;
     }
@@ -130,12 +191,13 @@ public class TriggerableDag {
 
         QuickTriggerable newQuickTriggerable = QuickTriggerable.of(triggerable);
         allTriggerables.add(newQuickTriggerable);
+        triggerablesByDefinition.put(triggerable, newQuickTriggerable);
 
         // Build the triggerable per trigger index
         Set<TreeReference> triggers = triggerable.getTriggers();
         for (TreeReference trigger : triggers) {
             if (!triggerablesPerTrigger.containsKey(trigger))
-                triggerablesPerTrigger.put(trigger, new HashSet<>());
+                triggerablesPerTrigger.put(trigger.freeze(), new HashSet<>());
             triggerablesPerTrigger.get(trigger).add(newQuickTriggerable);
         }
 
@@ -143,12 +205,7 @@ public class TriggerableDag {
     }
 
     private QuickTriggerable findTriggerable(Triggerable t) {
-        for (QuickTriggerable qt : allTriggerables) {
-            if (qt.contains(t)) {
-                return qt;
-            }
-        }
-        return null;
+        return triggerablesByDefinition.get(t);
     }
 
     /**
@@ -158,12 +215,61 @@ public class TriggerableDag {
      */
     void finalizeTriggerables(FormInstance mainInstance, EvaluationContext ec) throws IllegalStateException {
         triggerablesDAG = buildDag(allTriggerables, getDagEdges(mainInstance, ec));
+
+        int rank = 0;
+        for (QuickTriggerable qt : triggerablesDAG) {
+            qt.setRank(rank++);
+            qt.setApplicableInParallel(!readsOwnTargets(qt) && readsOnlyMainInstance(qt));
+        }
+
         relevancePerRepeat = buildRelevancePerRepeat(mainInstance, triggerablesDAG);
+        sharedSubexpressions = null;
+    }
+
+    /**
+     * Returns whether any of the triggerable's triggers is one of its targets, or is above or below one of them. If
+     * there is no such overlap, evaluating the triggerable for one repeat instance can't observe what it writes for
+     * another so the instances can be evaluated in any order.
+     */
+    private static boolean readsOwnTargets(QuickTriggerable qt) {
+        for (TreeReference trigger : qt.getTriggers()) {
+            TreeReference genericTrigger = trigger.genericize();
+            for (TreeReference target : qt.getTargets()) {
+                TreeReference genericTarget = target.genericize();
+                if (genericTrigger.isAncestorOf(genericTarget, false) || genericTarget.isAncestorOf(genericTrigger, false)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
-     * Returns the list of edges in the DAG that can be built from all the
-     * triggerables added to the DAG while parsing the form.
+     * Returns whether the triggerable's expression only reads nodes of the main instance. Nodes of the main instance
+     * are only written by the triggerable's own targets while it is applied, which {@link #readsOwnTargets} rules
+     * out, so they can be read from several threads at once.
+     * <p>
+     * That isn't true of secondary instances: a {@link org.javarosa.core.model.instance.LazyXmlExternalInstance}
+     * parses items as they are reached and clears the least recently used ones, and
+     * {@link org.javarosa.core.model.instance.CompactTreeElement}s and other secondary instance elements aren't
+     * written to be shared between threads. Expressions that call {@code instance()} or {@code jr:choice-name()},
+     * which can read a select's choices from a secondary instance, are therefore never evaluated in parallel.
+     */
+    private static boolean readsOnlyMainInstance(QuickTriggerable qt) {
+        for (TreeReference trigger : qt.getTriggers()) {
+            if (trigger.getInstanceName() != null) {
+                return false;
+            }
+        }
+
+        XPathExpression expr = ((XPathConditional) qt.getTriggerable().getExpr()).getExpr();
+        return !expr.containsFunc("instance") && !expr.containsFunc("choice-name");
+    }
+
+    /**
+     * Returns the edges in the DAG that can be built from all the triggerables
+     * added to the DAG while parsing the form, as a map from each triggerable
+     * to the triggerables that depend on it.
      * <p>
      * This method has side effects:
      * <ul>
@@ -174,8 +280,8 @@ public class TriggerableDag {
      *     the DAG again {@link Triggerable#getImmediateCascades()}</li>
      * </ul>
      */
-    private Set<QuickTriggerable[]> getDagEdges(FormInstance mainInstance, EvaluationContext ec) {
-        Set<QuickTriggerable[]> edges = new HashSet<>();
+    private Map<QuickTriggerable, Set<QuickTriggerable>> getDagEdges(FormInstance mainInstance, EvaluationContext ec) {
+        Map<QuickTriggerable, Set<QuickTriggerable>> edges = new HashMap<>();
         for (QuickTriggerable source : allTriggerables) {
             // Compute the set of edge targets from the source vertex in this
             // loop using the triggerable's target tree reference set.
@@ -187,8 +293,7 @@ public class TriggerableDag {
             if (targets.contains(source))
                 throwCyclesInDagException(targets);
 
-            for (QuickTriggerable target : targets)
-                edges.add(new QuickTriggerable[]{source, target});
+            edges.put(source, targets);
 
             // TODO Move this from Triggerable to TriggerableDag
             source.setImmediateCascades(targets);
@@ -275,7 +380,10 @@ public class TriggerableDag {
 
     /**
      * Returns a set with the DAG that can be build using the provided vertices
-     * and edges.
+     * and edges. Vertices are added a layer at a time: first the ones without
+     * incoming edges, then the ones whose only incoming edges come from the
+     * first layer and so on. Each vertex's edges are only visited once so this
+     * takes time proportional to the number of vertices and edges.
      * <p>
      * This method has side effects:
      * <ul>
@@ -283,38 +391,47 @@ public class TriggerableDag {
      *     more than one node</li>
      * </ul>
      */
-    private static Set<QuickTriggerable> buildDag(Set<QuickTriggerable> vertices, Set<QuickTriggerable[]> edges) {
-        // The dag and the set of remaining vertices will be mutated
-        // inside the while loop's block
+    private static Set<QuickTriggerable> buildDag(Set<QuickTriggerable> vertices, Map<QuickTriggerable, Set<QuickTriggerable>> edges) {
+        // Count the incoming edges of each vertex
+        Map<QuickTriggerable, Integer> inDegrees = new HashMap<>();
+        for (QuickTriggerable vertex : vertices)
+            inDegrees.put(vertex, 0);
+        for (Set<QuickTriggerable> targets : edges.values())
+            for (QuickTriggerable target : targets)
+                inDegrees.put(target, inDegrees.get(target) + 1);
+
+        // Start with the roots (vertices that don't show up as edge targets)
+        List<QuickTriggerable> layer = new ArrayList<>();
+        for (QuickTriggerable vertex : vertices)
+            if (inDegrees.get(vertex) == 0)
+                layer.add(vertex);
+
         Set<QuickTriggerable> dag = new LinkedHashSet<>();
-        Set<QuickTriggerable> remainingVertices = new HashSet<>(vertices);
-
-        // The set of remaining edges will be replaced inside
-        // the while loop's block
-        Set<QuickTriggerable[]> remainingEdges = new HashSet<>(edges);
-
-        while (remainingVertices.size() > 0) {
-            // Compute the set of roots (nodes that don't show up
-            // as edge targets) with the remaining vertices
-            Set<QuickTriggerable> roots = new HashSet<>(remainingVertices);
-            for (QuickTriggerable[] edge : remainingEdges)
-                roots.remove(edge[1]);
-
-            if (roots.size() == 0)
-                throwCyclesInDagException(vertices);
-
-            // "Move" the roots detected during this iteration
-            // from the remainingVertices to the DAG
-            remainingVertices.removeAll(roots);
-            dag.addAll(roots);
-
-            // Compute the new set of remaining edges to continue the iteration
-            Set<QuickTriggerable[]> newRemainingEdges = new HashSet<>();
-            for (QuickTriggerable[] edge : remainingEdges)
-                if (!roots.contains(edge[0]))
-                    newRemainingEdges.add(edge);
-            remainingEdges = newRemainingEdges;
+        while (!layer.isEmpty()) {
+            dag.addAll(layer);
+
+            // Removing this layer's outgoing edges makes the vertices that
+            // were only waiting for it the roots of the next layer
+            List<QuickTriggerable> nextLayer = new ArrayList<>();
+            for (QuickTriggerable source : layer) {
+                Set<QuickTriggerable> targets = edges.get(source);
+                if (targets == null)
+                    continue;
+
+                for (QuickTriggerable target : targets) {
+                    int inDegree = inDegrees.get(target) - 1;
+                    inDegrees.put(target, inDegree);
+                    if (inDegree == 0)
+                        nextLayer.add(target);
+                }
+            }
+            layer = nextLayer;
         }
+
+        // Vertices in or downstream of a cycle never run out of incoming edges
+        if (dag.size() < vertices.size())
+            throwCyclesInDagException(vertices);
+
         return dag;
     }
     //endregion
@@ -475,7 +592,16 @@ public class TriggerableDag {
      *            that was changed.
      */
     Collection<QuickTriggerable> triggerTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference changedRef) {
-        return triggerTriggerables(mainInstance, evalContext, changedRef, new HashSet<>(), new HashSet<>());
+        Set<QuickTriggerable> cascadeRoots = triggerablesPerTrigger.get(changedRef.genericize());
+        if (cascadeRoots == null) {
+            return new HashSet<>();
+        }
+
+        if (incrementalEvaluation) {
+            return evaluateAffectedTriggerables(mainInstance, evalContext, cascadeRoots, changedRef);
+        }
+
+        return evaluateChangedTriggerables(mainInstance, evalContext, cascadeRoots, changedRef);
     }
 
     /**
@@ -525,14 +651,22 @@ public class TriggerableDag {
     private Set<QuickTriggerable> doEvaluateTriggerables(FormInstance mainInstance, EvaluationContext evalContext, Set<QuickTriggerable> toTrigger,
                                                          TreeReference changedRef, Set<QuickTriggerable> affectAllRepeatInstances, Set<QuickTriggerable> alreadyEvaluated) {
         Set<QuickTriggerable> evaluated = new HashSet<>();
+        EvaluationContext context = getPassContext(mainInstance, evalContext);
 
-        EvaluationContext context;
-        if (predicateCaching) {
-            context = new EvaluationContext(evalContext, Collections.singletonList(
-                new IdempotentExpressionCacheFilterStrategy()
-            ));
-        } else {
-            context = evalContext;
+        if (incrementalEvaluation) {
+            // Sorting the triggerables by rank is proportional to the size of the cascade rather than to the size
+            // of the whole DAG
+            List<QuickTriggerable> sorted = new ArrayList<>(toTrigger);
+            Collections.sort(sorted, RANK_ORDER);
+
+            for (QuickTriggerable qt : sorted)
+                if (!alreadyEvaluated.contains(qt)) {
+                    evaluateTriggerable(mainInstance, context, qt, affectAllRepeatInstances.contains(qt), changedRef);
+
+                    evaluated.add(qt);
+                }
+
+            return evaluated;
         }
 
         // Evaluate the provided set of triggerables in the order they appear
@@ -547,10 +681,98 @@ public class TriggerableDag {
         return evaluated;
     }
 
+    /**
+     * Evaluates the cascades starting at the given roots in the order they appear in the DAG. The roots are always
+     * evaluated. Any other triggerable is only evaluated if at least one of the triggerables it depends on changed a
+     * value or a relevant, read-only or required flag in the main instance.
+     */
+    private Set<QuickTriggerable> evaluateChangedTriggerables(FormInstance mainInstance, EvaluationContext evalContext, Set<QuickTriggerable> cascadeRoots, TreeReference changedRef) {
+        Set<QuickTriggerable> evaluated = new HashSet<>();
+        EvaluationContext context = getPassContext(mainInstance, evalContext);
+
+        Set<QuickTriggerable> scheduled = new HashSet<>(cascadeRoots);
+        for (QuickTriggerable qt : triggerablesDAG)
+            if (scheduled.contains(qt)) {
+                if (evaluateTriggerable(mainInstance, context, qt, false, changedRef)) {
+                    scheduled.addAll(qt.getImmediateCascades());
+                }
+
+                evaluated.add(qt);
+            }
+
+        return evaluated;
+    }
+
+    /**
+     * Evaluates the cascades starting at the given roots by walking the DAG from the roots in rank order. Every
+     * triggerable has a greater rank than those it depends on so by the time one is taken from the queue, all of the
+     * triggerables that could have scheduled it have been evaluated.
+     * <p>
+     * Like {@link #evaluateChangedTriggerables}, triggerables are skipped if nothing they depend on has changed.
+     */
+    private Set<QuickTriggerable> evaluateAffectedTriggerables(FormInstance mainInstance, EvaluationContext evalContext, Set<QuickTriggerable> cascadeRoots, TreeReference changedRef) {
+        Set<QuickTriggerable> evaluated = new HashSet<>();
+        EvaluationContext context = getPassContext(mainInstance, evalContext);
+
+        PriorityQueue<QuickTriggerable> queue = new PriorityQueue<>(Math.max(1, cascadeRoots.size()), RANK_ORDER);
+        Set<QuickTriggerable> scheduled = new HashSet<>(cascadeRoots);
+        queue.addAll(cascadeRoots);
+
+        while (!queue.isEmpty()) {
+            QuickTriggerable qt = queue.poll();
+            boolean changed = evaluateTriggerable(mainInstance, context, qt, false, changedRef);
+            evaluated.add(qt);
+
+            if (changed) {
+                for (QuickTriggerable dependant : qt.getImmediateCascades()) {
+                    if (scheduled.add(dependant)) {
+                        queue.add(dependant);
+                    }
+                }
+            }
+        }
+
+        return evaluated;
+    }
+
+    /**
+     * Returns the context to use for one pass over the DAG. With predicate caching, idempotent predicates are only
+     * evaluated once per pass. With shared subexpression evaluation, function calls that appear in several
+     * triggerables are also only evaluated once per pass unless a node they depend on changes.
+     */
+    private EvaluationContext getPassContext(FormInstance mainInstance, EvaluationContext evalContext) {
+        EvaluationContext context = evalContext;
+        if (predicateCaching) {
+            context = new EvaluationContext(context, Collections.singletonList(
+                new IdempotentExpressionCacheFilterStrategy()
+            ));
+        }
+
+        if (sharedSubexpressionEvaluation) {
+            if (sharedSubexpressions == null) {
+                sharedSubexpressions = SharedSubexpressions.find(triggerablesDAG, mainInstance);
+            }
+
+            if (sharedSubexpressions.getGroupCount() > 0) {
+                context = new EvaluationContext(context, new SharedSubexpressionCache(sharedSubexpressions));
+            }
+        }
+
+        return context;
+    }
+
     /**
      * Step 3 in DAG cascade. Evaluate the individual triggerable expressions.
+     * <p>
+     * If a parallel evaluation pool is set, the references are split across the pool when there are enough of them,
+     * the triggerable only reads the main instance and it doesn't read any of the nodes it writes (see
+     * {@link #readsOnlyMainInstance}). Each reference then only writes nodes that no other reference reads so the
+     * order in which they are evaluated doesn't matter. Function handlers used by the expression, such as the ones
+     * for {@code pulldata()}, must be safe to call from several threads at once.
+     *
+     * @return whether any of the nodes targeted by the triggerable was changed
      */
-    private void evaluateTriggerable(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, boolean affectsAllRepeatInstances, TreeReference changedRef) {
+    private boolean evaluateTriggerable(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, boolean affectsAllRepeatInstances, TreeReference changedRef) {
         // For addition or removal of repeat instances, contextualizing against the changed ref ensures that triggerables with triggers and targets inside
         // the repeat are only triggered for the changed instance. This is important for performance.
         TreeReference contextRef = affectsAllRepeatInstances ? toTrigger.getContext() : toTrigger.getContext().contextualize(changedRef);
@@ -559,18 +781,93 @@ public class TriggerableDag {
         // which case the triggerable will be applied for every repeat instance.
         List<TreeReference> qualifiedReferences = evalContext.expandReference(contextRef);
 
+        List<EvaluationResult> evaluationResults;
+        if (parallelEvaluationPool != null && qualifiedReferences.size() > PARALLEL_EVALUATION_BATCH_SIZE && toTrigger.isApplicableInParallel()) {
+            evaluationResults = parallelEvaluationPool.invoke(new ApplyTask(mainInstance, evalContext, toTrigger, contextRef, qualifiedReferences));
+        } else {
+            evaluationResults = applyToReferences(mainInstance, evalContext, toTrigger, contextRef, qualifiedReferences);
+        }
+
+        if (evaluationResults.size() > 0) {
+            accessor.getEventNotifier().publishEvent(new Event(toTrigger.isCondition() ? "Condition" : "Recalculate", evaluationResults));
+        }
+
+        for (EvaluationResult evaluationResult : evaluationResults) {
+            if (evaluationResult.isChanged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<EvaluationResult> applyToReferences(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, TreeReference contextRef, List<TreeReference> qualifiedReferences) {
         List<EvaluationResult> evaluationResults = new ArrayList<>(0);
+        SharedSubexpressionCache sharedSubexpressionCache = evalContext.getSharedSubexpressionCache();
+        EvaluationProfiler profiler = evalContext.getProfiler();
         for (TreeReference qualified : qualifiedReferences) {
             try {
-                // apply evaluates the expression in the given context and saves the result in the contextualized target(s).
-                evaluationResults.addAll(toTrigger.apply(mainInstance, new EvaluationContext(evalContext, qualified), qualified));
+                EvaluationProfiler.Measurement measurement = profiler != null
+                    ? profiler.start(EvaluationProfiler.Kind.TRIGGERABLE, toTrigger)
+                    : null;
+
+                List<EvaluationResult> results;
+                try {
+                    // apply evaluates the expression in the given context and saves the result in the contextualized target(s).
+                    results = toTrigger.apply(mainInstance, new EvaluationContext(evalContext, qualified), qualified);
+                } finally {
+                    if (measurement != null) {
+                        measurement.stop();
+                    }
+                }
+
+                if (sharedSubexpressionCache != null) {
+                    // Later references may read what this one wrote
+                    sharedSubexpressionCache.invalidate(results);
+                }
+                evaluationResults.addAll(results);
             } catch (Exception e) {
                 throw new RuntimeException("Error evaluating field '" + contextRef.getNameLast() + "' (" + qualified + "): " + e.getMessage(), e);
             }
         }
+        return evaluationResults;
+    }
 
-        if (evaluationResults.size() > 0) {
-            accessor.getEventNotifier().publishEvent(new Event(toTrigger.isCondition() ? "Condition" : "Recalculate", evaluationResults));
+    /**
+     * Applies a triggerable to a range of qualified references, splitting the range in halves until each part is
+     * small enough. Results are returned in the same order as the references.
+     */
+    private static class ApplyTask extends RecursiveTask<List<EvaluationResult>> {
+        private static final long serialVersionUID = -2731506438711524920L;
+
+        private final FormInstance mainInstance;
+        private final EvaluationContext evalContext;
+        private final QuickTriggerable toTrigger;
+        private final TreeReference contextRef;
+        private final List<TreeReference> qualifiedReferences;
+
+        ApplyTask(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, TreeReference contextRef, List<TreeReference> qualifiedReferences) {
+            this.mainInstance = mainInstance;
+            this.evalContext = evalContext;
+            this.toTrigger = toTrigger;
+            this.contextRef = contextRef;
+            this.qualifiedReferences = qualifiedReferences;
+        }
+
+        @Override
+        protected List<EvaluationResult> compute() {
+            int size = qualifiedReferences.size();
+            if (size <= PARALLEL_EVALUATION_BATCH_SIZE) {
+                return applyToReferences(mainInstance, evalContext, toTrigger, contextRef, qualifiedReferences);
+            }
+
+            ApplyTask first = new ApplyTask(mainInstance, evalContext, toTrigger, contextRef, qualifiedReferences.subList(0, size / 2));
+            ApplyTask second = new ApplyTask(mainInstance, evalContext, toTrigger, contextRef, qualifiedReferences.subList(size / 2, size));
+            first.fork();
+
+            List<EvaluationResult> secondResults = second.compute();
+            List<EvaluationResult> results = first.join();
+            results.addAll(secondResults);
+            return results;
         }
     }
 
@@ -711,16 +1008,155 @@ public class TriggerableDag {
 
     void writeExternalTriggerables(DataOutputStream dos) throws IOException {
         // Order of writes must match order of reads in readExternalTriggerables
-        ExtUtil.write(dos, new ExtWrapList(getConditions()));
-        ExtUtil.write(dos, new ExtWrapList(getRecalculates()));
+        List<Condition> conditions = getConditions();
+        List<Recalculate> recalculates = getRecalculates();
+        ExtUtil.write(dos, new ExtWrapList(conditions));
+        ExtUtil.write(dos, new ExtWrapList(recalculates));
+
+        if (triggerablesDAG.size() == allTriggerables.size()) {
+            List<Triggerable> written = new ArrayList<>(conditions);
+            written.addAll(recalculates);
+
+            ExtUtil.writeNumeric(dos, TOPOLOGY_VERSION);
+            ExtUtil.writeBytes(dos, writeTopology(written));
+        } else {
+            // Not finalized so there is no topology to write
+            ExtUtil.writeNumeric(dos, NO_TOPOLOGY);
+            ExtUtil.writeBytes(dos, new byte[0]);
+        }
     }
 
+    /**
+     * Reads the triggerables written by {@link #writeExternalTriggerables} into this DAG and finalizes it. If the
+     * stream has a topology block of the current version, the DAG is restored from it rather than being rebuilt from
+     * the triggerables' references.
+     */
     @SuppressWarnings("unchecked")
-    static List<Triggerable> readExternalTriggerables(DataInputStream dis, PrototypeFactory pf) throws IOException, DeserializationException {
+    void readExternalTriggerables(DataInputStream dis, PrototypeFactory pf, FormInstance mainInstance, EvaluationContext ec) throws IOException, DeserializationException {
         // Order of reads must match order of writes in writeExternalTriggerables
-        List<Triggerable> triggerables = new LinkedList<>();
+        List<Triggerable> triggerables = new ArrayList<>();
         triggerables.addAll((List<Triggerable>) ExtUtil.read(dis, new ExtWrapList(Condition.class), pf));
         triggerables.addAll((List<Triggerable>) ExtUtil.read(dis, new ExtWrapList(Recalculate.class), pf));
+
+        int topologyVersion = ExtUtil.readInt(dis);
+        byte[] topology = ExtUtil.readBytes(dis);
+
+        if (topologyVersion == TOPOLOGY_VERSION) {
+            readTopology(triggerables, topology, pf);
+        } else {
+            for (Triggerable triggerable : triggerables) {
+                addTriggerable(triggerable);
+            }
+            finalizeTriggerables(mainInstance, ec);
+        }
+    }
+
+    /**
+     * Encodes the finalized DAG by referring to each triggerable by its position in the given list: the topological
+     * order, each triggerable's immediate cascades, the triggerables per trigger index and the repeat relevance index.
+     */
+    private byte[] writeTopology(List<Triggerable> written) throws IOException {
+        Map<Triggerable, Integer> writtenPositions = new IdentityHashMap<>();
+        for (int i = 0; i < written.size(); i++) {
+            writtenPositions.put(written.get(i), i);
+        }
+
+        Map<QuickTriggerable, Integer> positions = new HashMap<>();
+        for (QuickTriggerable qt : allTriggerables) {
+            positions.put(qt, writtenPositions.get(qt.getTriggerable()));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        ExtUtil.writeNumeric(out, written.size());
+        for (QuickTriggerable qt : triggerablesDAG) {
+            ExtUtil.writeNumeric(out, positions.get(qt));
+        }
+
+        for (QuickTriggerable qt : triggerablesDAG) {
+            writePositions(out, qt.getImmediateCascades(), positions);
+        }
+
+        ExtUtil.writeNumeric(out, triggerablesPerTrigger.size());
+        for (Map.Entry<TreeReference, Set<QuickTriggerable>> entry : triggerablesPerTrigger.entrySet()) {
+            ExtUtil.write(out, entry.getKey());
+            writePositions(out, entry.getValue(), positions);
+        }
+
+        ExtUtil.writeNumeric(out, relevancePerRepeat.size());
+        for (Map.Entry<TreeReference, QuickTriggerable> entry : relevancePerRepeat.entrySet()) {
+            ExtUtil.write(out, entry.getKey());
+            ExtUtil.writeNumeric(out, positions.get(entry.getValue()));
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writePositions(DataOutputStream out, Set<QuickTriggerable> triggerables, Map<QuickTriggerable, Integer> positions) throws IOException {
+        ExtUtil.writeNumeric(out, triggerables.size());
+        for (QuickTriggerable qt : triggerables) {
+            ExtUtil.writeNumeric(out, positions.get(qt));
+        }
+    }
+
+    private void readTopology(List<Triggerable> triggerables, byte[] topology, PrototypeFactory pf) throws IOException, DeserializationException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(topology));
+
+        int count = ExtUtil.readInt(in);
+        if (count != triggerables.size()) {
+            throw new DeserializationException("Triggerable topology describes " + count + " triggerables but " + triggerables.size() + " were read");
+        }
+
+        // The serialized triggerables were already merged by addTriggerable so they can be wrapped directly
+        List<QuickTriggerable> quickTriggerables = new ArrayList<>(count);
+        for (Triggerable triggerable : triggerables) {
+            quickTriggerables.add(QuickTriggerable.of(triggerable));
+        }
+        allTriggerables.addAll(quickTriggerables);
+        for (QuickTriggerable qt : quickTriggerables) {
+            triggerablesByDefinition.put(qt.getTriggerable(), qt);
+        }
+
+        Set<QuickTriggerable> dag = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            dag.add(quickTriggerables.get(ExtUtil.readInt(in)));
+        }
+
+        for (QuickTriggerable qt : dag) {
+            qt.setImmediateCascades(readPositions(in, quickTriggerables));
+        }
+
+        int triggerCount = ExtUtil.readInt(in);
+        for (int i = 0; i < triggerCount; i++) {
+            TreeReference trigger = (TreeReference) ExtUtil.read(in, TreeReference.class, pf);
+            triggerablesPerTrigger.put(trigger.freeze(), readPositions(in, quickTriggerables));
+        }
+
+        Map<TreeReference, QuickTriggerable> relevance = new HashMap<>();
+        int repeatCount = ExtUtil.readInt(in);
+        for (int i = 0; i < repeatCount; i++) {
+            TreeReference repeat = (TreeReference) ExtUtil.read(in, TreeReference.class, pf);
+            relevance.put(repeat, quickTriggerables.get(ExtUtil.readInt(in)));
+        }
+
+        triggerablesDAG = dag;
+        relevancePerRepeat = relevance;
+
+        int rank = 0;
+        for (QuickTriggerable qt : triggerablesDAG) {
+            qt.setRank(rank++);
+            qt.setApplicableInParallel(!readsOwnTargets(qt) && readsOnlyMainInstance(qt));
+        }
+    }
+
+    private static Set<QuickTriggerable> readPositions(DataInputStream in, List<QuickTriggerable> quickTriggerables) throws IOException {
+        int size = ExtUtil.readInt(in);
+        Set<QuickTriggerable> triggerables = new LinkedHashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            triggerables.add(quickTriggerables.get(ExtUtil.readInt(in)));
+        }
         return triggerables;
     }
 
@@ -749,4 +1185,31 @@ public class TriggerableDag {
     public void disablePredicateCaching() {
         predicateCaching = false;
     }
+
+    public void setIncrementalEvaluation(boolean incrementalEvaluation) {
+        this.incrementalEvaluation = incrementalEvaluation;
+    }
+
+    public void setSharedSubexpressionEvaluation(boolean sharedSubexpressionEvaluation) {
+        this.sharedSubexpressionEvaluation = sharedSubexpressionEvaluation;
+    }
+
+    /**
+     * Returns how many evaluations of function calls shared by several triggerables were avoided by reusing the
+     * value of an equal call evaluated earlier in the same pass.
+     */
+    public long getSharedSubexpressionEvaluationsSaved() {
+        return sharedSubexpressions != null ? sharedSubexpressions.getReuses() : 0;
+    }
+
+    /**
+     * Returns how many times function calls shared by several triggerables were evaluated.
+     */
+    public long getSharedSubexpressionEvaluations() {
+        return sharedSubexpressions != null ? sharedSubexpressions.getEvaluations() : 0;
+    }
+
+    public void setParallelEvaluationPool(ForkJoinPool parallelEvaluationPool) {
+        this.parallelEvaluationPool = parallelEvaluationPool;
+    }
 }
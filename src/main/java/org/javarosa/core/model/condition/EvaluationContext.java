@@ -16,11 +16,13 @@
 
 package org.javarosa.core.model.condition;
 
+import org.javarosa.core.model.SharedSubexpressionCache;
 import org.javarosa.core.model.data.IAnswerData;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.debug.EvaluationProfiler;
 import org.javarosa.xpath.IExprDataType;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.jetbrains.annotations.NotNull;
@@ -29,6 +31,9 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,6 +49,11 @@ public class EvaluationContext {
      * Unambiguous anchor reference for relative paths
      */
     private TreeReference contextNode;
+    /**
+     * The node the context reference points to if it's already known, so that relative references don't have to be
+     * resolved from the root of the instance
+     */
+    private AbstractTreeElement contextElement;
     private HashMap<String, IFunctionHandler> functionHandlers;
     private IFallbackFunctionHandler fallbackFunctionHandler;
     private HashMap<String, Object> variables;
@@ -70,6 +80,14 @@ public class EvaluationContext {
     private static final List<FilterStrategy> DEFAULT_FILTER_CHAIN = singletonList(new RawFilterStrategy());
     private List<FilterStrategy> filterStrategyChain = DEFAULT_FILTER_CHAIN;
 
+    private SharedSubexpressionCache sharedSubexpressionCache;
+
+    private EvaluationProfiler profiler;
+
+    // The nodes being filtered by a predicate, so that rescoping to one of them can keep its node
+    private List<TreeReference> candidateRefs;
+    private List<AbstractTreeElement> candidateElements;
+
     /**
      * Copy Constructor
      **/
@@ -81,6 +99,7 @@ public class EvaluationContext {
         variables = base.variables;
 
         contextNode = base.contextNode;
+        contextElement = base.contextElement;
         instance = base.instance;
 
         isConstraint = base.isConstraint;
@@ -96,6 +115,8 @@ public class EvaluationContext {
         currentContextPosition = base.currentContextPosition;
 
         filterStrategyChain = base.filterStrategyChain;
+        sharedSubexpressionCache = base.sharedSubexpressionCache;
+        profiler = base.profiler;
     }
 
     public EvaluationContext(EvaluationContext base, List<FilterStrategy> beforeFilterStrategyChain) {
@@ -106,9 +127,15 @@ public class EvaluationContext {
         ).collect(Collectors.toList());
     }
 
+    public EvaluationContext(EvaluationContext base, SharedSubexpressionCache sharedSubexpressionCache) {
+        this(base);
+        this.sharedSubexpressionCache = sharedSubexpressionCache;
+    }
+
     public EvaluationContext(EvaluationContext base, TreeReference context) {
         this(base);
         this.contextNode = context;
+        this.contextElement = null;
     }
 
     public EvaluationContext(EvaluationContext base, HashMap<String, DataInstance> formInstances, TreeReference context) {
@@ -168,6 +195,25 @@ public class EvaluationContext {
         return functionHandlers;
     }
 
+    /**
+     * Returns the cache of values of subexpressions shared by several triggerables, or null outside of a pass over
+     * the triggerable DAG.
+     */
+    public SharedSubexpressionCache getSharedSubexpressionCache() {
+        return sharedSubexpressionCache;
+    }
+
+    /**
+     * Returns the profiler that evaluations in this context are recorded in, or null if profiling is disabled.
+     */
+    public EvaluationProfiler getProfiler() {
+        return profiler;
+    }
+
+    public void setProfiler(EvaluationProfiler profiler) {
+        this.profiler = profiler;
+    }
+
     public void setOutputTextForm(String form) {
         outputTextForm = form;
     }
@@ -238,6 +284,29 @@ public class EvaluationContext {
             return null;
         }
 
+        List<TreeReference> treeReferences = new ArrayList<>(1);
+        forEachReference(ref, includeTemplates, treeReferences::add);
+        return treeReferences;
+    }
+
+    /**
+     * Passes each of the references that {@link #expandReference(TreeReference, boolean)} would return to the action
+     * as it's found, in the same order, without collecting them in a list. Does nothing if 'ref' is relative.
+     */
+    public void forEachReference(TreeReference ref, boolean includeTemplates, Consumer<TreeReference> action) {
+        forEachNode(ref, includeTemplates, (nodeRef, node) -> action.accept(nodeRef));
+    }
+
+    /**
+     * Like {@link #forEachReference} but also passes the node each reference points to so that it doesn't have to be
+     * resolved from the root of the instance again. The node is null if it has to be resolved through the instance
+     * before it can be read, for example because it hasn't been parsed yet.
+     */
+    public void forEachNode(TreeReference ref, boolean includeTemplates, BiConsumer<TreeReference, AbstractTreeElement> action) {
+        if (!ref.isAbsolute()) {
+            return;
+        }
+
         final DataInstance baseInstance = (ref.getInstanceName() != null) ? getInstance(ref.getInstanceName()) : instance;
 
         if (baseInstance == null) {
@@ -245,10 +314,33 @@ public class EvaluationContext {
                 ", no appropriate instance in evaluation context");
         }
 
-        List<TreeReference> treeReferences = new ArrayList<>(1);
-        TreeReference workingRef = baseInstance.getRoot().getRef();
-        expandReferenceAccumulator(ref, baseInstance, workingRef, treeReferences, includeTemplates);
-        return treeReferences;
+        if (contextElement != null && isBelowContext(ref)) {
+            // Relative references in predicates start from the node being filtered, which has already been found
+            expandReferenceAccumulator(ref, baseInstance, contextNode, contextElement, action, includeTemplates);
+        } else {
+            TreeReference workingRef = baseInstance.getRoot().getRef();
+            expandReferenceAccumulator(ref, baseInstance, workingRef, null, action, includeTemplates);
+        }
+    }
+
+    /**
+     * Returns whether the reference is the context or one of its descendants, with no predicates in the levels it
+     * shares with the context.
+     */
+    private boolean isBelowContext(TreeReference ref) {
+        if (ref.size() < contextNode.size() || !Objects.equals(ref.getInstanceName(), contextNode.getInstanceName())) {
+            return false;
+        }
+
+        for (int i = 0; i < contextNode.size(); i++) {
+            List<XPathExpression> predicates = ref.getPredicate(i);
+            if (ref.getMultiplicity(i) != contextNode.getMultiplicity(i) || !ref.getName(i).equals(contextNode.getName(i))
+                || (predicates != null && !predicates.isEmpty())) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -257,17 +349,19 @@ public class EvaluationContext {
      * @param sourceRef      original path we're matching against
      * @param sourceInstance original node obtained from sourceRef
      * @param workingRef     explicit path that refers to the current node
-     * @param refs           accumulator List to collect matching paths.
+     * @param workingNode    the current node or null if it has to be resolved from workingRef
+     * @param refs           receives the matching paths and their nodes.
      */
     private void expandReferenceAccumulator(TreeReference sourceRef, DataInstance sourceInstance,
-                                            TreeReference workingRef, List<TreeReference> refs,
+                                            TreeReference workingRef, AbstractTreeElement workingNode,
+                                            BiConsumer<TreeReference, AbstractTreeElement> refs,
                                             boolean includeTemplates) {
         final int depth = workingRef.size();
 
         //check to see if we've matched fully
         if (depth == sourceRef.size()) {
             //TODO: Do we need to clone these references?
-            refs.add(workingRef);
+            refs.accept(workingRef, workingNode);
             return;
         }
 
@@ -286,24 +380,27 @@ public class EvaluationContext {
         //ETHERTON: Is this where we should test for predicates?
         final int mult = sourceRef.getMultiplicity(depth);
         final List<TreeReference> treeReferences = new ArrayList<>(1);
+        List<AbstractTreeElement> treeElements = new ArrayList<>(1);
 
-        final AbstractTreeElement node = sourceInstance.resolveReference(workingRef);
+        final AbstractTreeElement node = workingNode != null ? workingNode : sourceInstance.resolveReference(workingRef);
 
         if (node.getNumChildren() > 0) {
             if (mult == TreeReference.INDEX_UNBOUND) {
-                final List<TreeElement> childrenWithName = node.getChildrenWithName(name);
+                final List<AbstractTreeElement> childrenWithName = node.getChildrenWithName(name);
                 final int count = childrenWithName.size();
                 for (int i = 0; i < count; i++) {
-                    TreeElement child = childrenWithName.get(i);
-                    if (child.getMultiplicity() != i) {
+                    AbstractTreeElement child = childrenWithName.get(i);
+                    if (child.getMult() != i) {
                         throw new IllegalStateException("Unexpected multiplicity mismatch");
                     }
                     treeReferences.add(child.getRef());
+                    treeElements.add(child);
                 }
                 if (includeTemplates) {
                     AbstractTreeElement template = node.getChild(name, TreeReference.INDEX_TEMPLATE);
                     if (template != null) {
                         treeReferences.add(template.getRef());
+                        treeElements.add(template);
                     }
                 }
             } else if (mult != TreeReference.INDEX_ATTRIBUTE) {
@@ -313,6 +410,7 @@ public class EvaluationContext {
                 AbstractTreeElement child = node.getChild(name, mult);
                 if (child != null) {
                     treeReferences.add(child.getRef());
+                    treeElements.add(child);
                 }
             }
         }
@@ -321,6 +419,7 @@ public class EvaluationContext {
             AbstractTreeElement attribute = node.getAttribute(null, name);
             if (attribute != null) {
                 treeReferences.add(attribute.getRef());
+                treeElements.add(attribute);
             }
         }
 
@@ -328,6 +427,10 @@ public class EvaluationContext {
             predicateEvaluationProgress[1] += treeReferences.size();
         }
 
+        if (profiler != null) {
+            profiler.countNodesVisited(treeReferences.size());
+        }
+
         if (predicates != null) {
             TreeReference nodeSetRef = workingRef.clone();
             nodeSetRef.add(name, -1);
@@ -340,7 +443,11 @@ public class EvaluationContext {
                     filterChain = DEFAULT_FILTER_CHAIN;
                 }
 
-                List<TreeReference> passed = filterWithPredicate(
+                EvaluationContext filterContext = new EvaluationContext(this);
+                filterContext.candidateRefs = treeReferences;
+                filterContext.candidateElements = treeElements;
+
+                List<TreeReference> passed = filterContext.filterWithPredicate(
                     sourceInstance,
                     nodeSetRef,
                     predicates.get(i),
@@ -348,8 +455,14 @@ public class EvaluationContext {
                     filterChain
                 );
 
+                List<AbstractTreeElement> passedElements = new ArrayList<>(passed.size());
+                for (TreeReference passedRef : passed) {
+                    passedElements.add(findCandidateElement(treeReferences, treeElements, passedRef));
+                }
+
                 treeReferences.clear();
                 treeReferences.addAll(passed);
+                treeElements = passedElements;
 
                 if (predicateEvaluationProgress != null) {
                     predicateEvaluationProgress[0]++;
@@ -357,11 +470,37 @@ public class EvaluationContext {
             }
         }
 
-        for (TreeReference treeRef : treeReferences) {
-            expandReferenceAccumulator(sourceRef, sourceInstance, treeRef, refs, includeTemplates);
+        for (int i = 0; i < treeReferences.size(); i++) {
+            expandReferenceAccumulator(sourceRef, sourceInstance, treeReferences.get(i), usableElement(treeElements.get(i)), refs, includeTemplates);
         }
     }
 
+    /**
+     * Returns the node of a reference that passed a predicate or null if it can't be found without resolving it.
+     * Children with the same name are usually the candidates so a child's multiplicity is its position.
+     */
+    private static AbstractTreeElement findCandidateElement(List<TreeReference> candidates, List<AbstractTreeElement> elements, TreeReference passed) {
+        int mult = passed.getMultLast();
+        int position = mult >= 0 && mult < candidates.size() ? mult : 0;
+        if (position < candidates.size() && candidates.get(position).equals(passed)) {
+            return elements.get(position);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the node or null if it has to be resolved through its instance to be read, which is the case for
+     * elements of partially parsed instances that haven't been parsed yet.
+     */
+    private static AbstractTreeElement usableElement(AbstractTreeElement element) {
+        if (element instanceof TreeElement && ((TreeElement) element).isPartial()) {
+            return null;
+        }
+
+        return element;
+    }
+
     private static boolean hasNoPredicates(TreeReference nodeSet) {
         for (int i = 1; i < nodeSet.size(); i++) {
             if (nodeSet.getMultiplicity(i) > -1) {
@@ -379,15 +518,30 @@ public class EvaluationContext {
 
     @NotNull
     private List<TreeReference> filterWithPredicate(DataInstance sourceInstance, TreeReference treeReference, XPathExpression predicate, List<TreeReference> children, int i, List<FilterStrategy> filterChain) {
-        return filterChain.get(i).filter(sourceInstance, treeReference, predicate, children, this, () -> {
-            return filterWithPredicate(sourceInstance, treeReference, predicate, children, i + 1, filterChain);
-        });
+        FilterStrategy filterStrategy = filterChain.get(i);
+        EvaluationProfiler.Measurement measurement = profiler != null
+            ? profiler.start(EvaluationProfiler.Kind.FILTER_STRATEGY, filterStrategy.getClass())
+            : null;
+
+        try {
+            return filterStrategy.filter(sourceInstance, treeReference, predicate, children, this, () -> {
+                return filterWithPredicate(sourceInstance, treeReference, predicate, children, i + 1, filterChain);
+            });
+        } finally {
+            if (measurement != null) {
+                measurement.stop();
+            }
+        }
     }
 
     public EvaluationContext rescope(TreeReference treeRef, int currentContextPosition) {
         EvaluationContext ec = new EvaluationContext(this, treeRef);
         // broken:
         ec.currentContextPosition = currentContextPosition;
+        if (candidateRefs != null && currentContextPosition >= 0 && currentContextPosition < candidateRefs.size()
+            && candidateRefs.get(currentContextPosition) == treeRef) {
+            ec.contextElement = usableElement(candidateElements.get(currentContextPosition));
+        }
         //If there was no original context position, we'll want to set the next original
         //context to be this rescoping (which would be the backup original one).
         if (original != null) {
@@ -55,9 +55,24 @@ public class Recalculate extends Triggerable {
     }
 
     @Override
-    public void apply(TreeReference ref, Object result, FormInstance mainInstance) {
+    public boolean apply(TreeReference ref, Object result, FormInstance mainInstance) {
         TreeElement element = mainInstance.resolveReference(ref);
-        element.setAnswer(IAnswerData.wrapData(result, element.getDataType()));
+        IAnswerData oldValue = element.getValue();
+        IAnswerData newValue = IAnswerData.wrapData(result, element.getDataType());
+        element.setAnswer(newValue);
+        return !sameValue(oldValue, newValue);
+    }
+
+    /**
+     * Values are only considered the same if they have the same type as well as the same representation
+     * because the type determines how the value is read back in XPath expressions.
+     */
+    private static boolean sameValue(IAnswerData a, IAnswerData b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        return a.getClass() == b.getClass() && a.uncast().getString().equals(b.uncast().getString());
     }
 
     @Override
@@ -97,7 +97,12 @@ public abstract class Triggerable implements Externalizable {
 
     public abstract Object eval(FormInstance instance, EvaluationContext ec);
 
-    protected abstract void apply(TreeReference ref, Object result, FormInstance mainInstance);
+    /**
+     * Stores the result of the evaluation in the node at the given reference.
+     *
+     * @return false if the node is known to be unchanged by the result, true otherwise
+     */
+    protected abstract boolean apply(TreeReference ref, Object result, FormInstance mainInstance);
 
     public abstract boolean canCascade();
 
@@ -124,9 +129,9 @@ public abstract class Triggerable implements Externalizable {
             List<TreeReference> v = ec.expandReference(targetRef);
 
             for (TreeReference affectedRef : v) {
-                apply(affectedRef, result, mainInstance);
+                boolean changed = apply(affectedRef, result, mainInstance);
 
-                affectedNodes.add(new EvaluationResult(affectedRef, result));
+                affectedNodes.add(new EvaluationResult(affectedRef, result, changed));
             }
         }
 
@@ -188,6 +193,12 @@ public abstract class Triggerable implements Externalizable {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        // Consistent with equals so that the DAG can find an existing equal triggerable by hash
+        return 31 * expr.hashCode() + getTriggers().hashCode();
+    }
+
     String buildHumanReadableTargetList() {
         StringBuilder targetsBuilder = new StringBuilder();
         for (TreeReference t : getTargets())
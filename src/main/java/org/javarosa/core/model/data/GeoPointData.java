@@ -105,6 +105,12 @@ public class GeoPointData implements IAnswerData, IExprDataType {
 
     }
 
+    @Override
+    public Object getXPathValue() {
+        // we have no access fns that interact with the getValue() data type
+        return getDisplayText();
+    }
+
 
     @Override
     public @NotNull Object getValue() {
@@ -103,6 +103,12 @@ public class GeoShapeData implements IAnswerData, IExprDataType {
         return b.toString();
     }
 
+    @Override
+    public Object getXPathValue() {
+        // we have no access fns that interact with the getValue() data type
+        return getDisplayText();
+    }
+
 
     @Override
     public @NotNull Object getValue() {
@@ -108,6 +108,12 @@ public class GeoTraceData implements IAnswerData, IExprDataType {
         return b.toString();
     }
 
+    @Override
+    public Object getXPathValue() {
+        // we have no access fns that interact with the getValue() data type
+        return getDisplayText();
+    }
+
 
     @Override
     public @NotNull Object getValue() {
@@ -138,6 +138,16 @@ public interface IAnswerData extends Externalizable {
      */
     String getDisplayText ();
 
+    /**
+     * @return The value of this answer as XPath expressions read it: a Double for numbers, a String for text,
+     * choices and space-separated multiple selections, a Date for dates and times, or a Boolean. Answers that
+     * have to convert their value keep the result until the value changes since calculations read the same
+     * answers many times.
+     */
+    default Object getXPathValue() {
+        return getValue();
+    }
+
     IAnswerData clone ();
 
     /**
@@ -33,6 +33,7 @@ import java.util.Objects;
  */
 public class IntegerData implements IAnswerData {
     private int n;
+    private Double xpathValue;
 
     /**
      * Empty Constructor, necessary for dynamic construction during deserialization.
@@ -61,17 +62,27 @@ public class IntegerData implements IAnswerData {
         return n;
     }
 
+    @Override
+    public Object getXPathValue() {
+        if (xpathValue == null) {
+            xpathValue = (double) n;
+        }
+        return xpathValue;
+    }
+
     @Override
     public void setValue(@NotNull Object o) {
         if(o == null) {
             throw new NullPointerException("Attempt to set an IAnswerData class to null.");
         }
         n = (Integer) o;
+        xpathValue = null;
     }
 
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException {
         n = ExtUtil.readInt(in);
+        xpathValue = null;
     }
 
     @Override
@@ -32,6 +32,7 @@ import java.io.IOException;
  */
 public class LongData implements IAnswerData {
     private long n;
+    private Double xpathValue;
 
     /**
      * Empty Constructor, necessary for dynamic construction during deserialization.
@@ -60,17 +61,27 @@ public class LongData implements IAnswerData {
         return n;
     }
 
+    @Override
+    public Object getXPathValue() {
+        if (xpathValue == null) {
+            xpathValue = (double) n;
+        }
+        return xpathValue;
+    }
+
     @Override
     public void setValue(@NotNull Object o) {
         if(o == null) {
             throw new NullPointerException("Attempt to set an IAnswerData class to null.");
         }
         n = (Long) o;
+        xpathValue = null;
     }
 
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException {
         n = ExtUtil.readNumeric(in);
+        xpathValue = null;
     }
 
     @Override
@@ -40,6 +40,7 @@ import java.util.Objects;
  */
 public class MultipleItemsData implements IAnswerData {
     private List<Selection> vs; //List of Selection
+    private String xpathValue;
 
     /**
      * Empty Constructor, necessary for dynamic construction during deserialization.
@@ -73,6 +74,7 @@ public class MultipleItemsData implements IAnswerData {
             selections.add((Selection) obj);
         }
         vs = selections;
+        xpathValue = null;
     }
 
     @Override
@@ -101,6 +103,7 @@ public class MultipleItemsData implements IAnswerData {
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         vs = (List<Selection>)ExtUtil.read(in, new ExtWrapList(Selection.class), pf);
+        xpathValue = null;
     }
 
     @Override
@@ -108,6 +111,17 @@ public class MultipleItemsData implements IAnswerData {
         ExtUtil.write(out, new ExtWrapList(vs));
     }
 
+    /**
+     * @return the values of the selections separated by spaces, like they are stored
+     */
+    @Override
+    public Object getXPathValue() {
+        if (xpathValue == null) {
+            xpathValue = uncast().value;
+        }
+        return xpathValue;
+    }
+
     @Override
     public UncastData uncast() {
         StringBuilder selectString = new StringBuilder();
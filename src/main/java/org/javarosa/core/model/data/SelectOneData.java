@@ -67,6 +67,11 @@ public class SelectOneData implements IAnswerData {
         return s;
     }
 
+    @Override
+    public Object getXPathValue() {
+        return s.getValue();
+    }
+
     @Override
     public String getDisplayText () {
         return s.getValue();
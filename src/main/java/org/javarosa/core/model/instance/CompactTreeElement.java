@@ -0,0 +1,582 @@
+package org.javarosa.core.model.instance;
+
+import org.javarosa.core.model.Constants;
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.utils.ITreeVisitor;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A read-only element of a secondary instance that has the shape of a table: a document element whose children
+ * ("items") all have the same name and the same leaf children ("fields") in the same order. This is what
+ * {@link CsvExternalInstance} always produces and what most XML and GeoJSON secondary instances look like.
+ * <p>
+ * Instead of a {@link TreeElement} with its own children list, attributes and value object for every item and
+ * field, the whole instance is stored in a few arrays shared by all of its elements: the field names once and then
+ * every field value row by row. Elements are lightweight views of a position in those arrays that are created when
+ * they are navigated to and are equal if they refer to the same position. Values are shared between cells that have
+ * the same text and are returned as {@link UncastData} just like they are by parsed {@link TreeElement}s.
+ * <p>
+ * Use {@link #compact(TreeElement, String)} to build one from a parsed instance.
+ */
+public final class CompactTreeElement implements AbstractTreeElement<CompactTreeElement> {
+    private static final int BASE = 0;
+    private static final int ROOT = 1;
+    private static final int ITEM = 2;
+    private static final int FIELD = 3;
+    private static final int ROOT_ATTRIBUTE = 4;
+    private static final int ITEM_ATTRIBUTE = 5;
+
+    private final Table table;
+    private final int kind;
+    private final int row;
+
+    // The position of the field in its item or of the attribute in its element
+    private final int index;
+
+    private CompactTreeElement(Table table, int kind, int row, int index) {
+        this.table = table;
+        this.kind = kind;
+        this.row = row;
+        this.index = index;
+    }
+
+    /**
+     * Builds a compact copy of a parsed secondary instance.
+     *
+     * @param topLevel     the document element of the instance
+     * @param instanceName the name of the instance
+     * @return the hidden root element above the document element like the one {@link ExternalDataInstance} adds,
+     * or null if the instance isn't shaped like a table and should be kept as {@link TreeElement}s
+     */
+    @Nullable
+    public static CompactTreeElement compact(TreeElement topLevel, String instanceName) {
+        if (!isPlain(topLevel) || topLevel.getMult() != 0 || topLevel.getValue() != null) {
+            return null;
+        }
+
+        int rows = topLevel.getNumChildren();
+        String itemName = rows == 0 ? null : topLevel.getChildAt(0).getName();
+        TreeElement firstItem = rows == 0 ? null : topLevel.getChildAt(0);
+        int columnCount = rows == 0 ? 0 : firstItem.getNumChildren();
+        int itemAttributeCount = rows == 0 ? 0 : firstItem.getAttributeCount();
+
+        StringPool pool = new StringPool();
+        String[] columns = new String[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            columns[column] = pool.intern(firstItem.getChildAt(column).getName());
+            for (int other = 0; other < column; other++) {
+                if (columns[other].equals(columns[column])) {
+                    return null;
+                }
+            }
+        }
+
+        String[] itemAttributeNamespaces = new String[itemAttributeCount];
+        String[] itemAttributeNames = new String[itemAttributeCount];
+        for (int attribute = 0; attribute < itemAttributeCount; attribute++) {
+            itemAttributeNamespaces[attribute] = pool.intern(firstItem.getAttributeNamespace(attribute));
+            itemAttributeNames[attribute] = pool.intern(firstItem.getAttributeName(attribute));
+        }
+
+        String[] cells = new String[rows * columnCount];
+        String[] itemAttributeValues = new String[rows * itemAttributeCount];
+        for (int row = 0; row < rows; row++) {
+            TreeElement item = topLevel.getChildAt(row);
+            if (!isPlain(item) || !item.getName().equals(itemName) || item.getMult() != row
+                || item.getValue() != null || item.getNumChildren() != columnCount
+                || item.getAttributeCount() != itemAttributeCount) {
+                return null;
+            }
+
+            for (int attribute = 0; attribute < itemAttributeCount; attribute++) {
+                if (!item.getAttributeName(attribute).equals(itemAttributeNames[attribute])
+                    || !Objects.equals(item.getAttributeNamespace(attribute), itemAttributeNamespaces[attribute])) {
+                    return null;
+                }
+
+                itemAttributeValues[row * itemAttributeCount + attribute] = pool.intern(item.getAttributeValue(attribute));
+            }
+
+            for (int column = 0; column < columnCount; column++) {
+                TreeElement field = item.getChildAt(column);
+                if (!isPlain(field) || !field.getName().equals(columns[column]) || field.getMult() != 0
+                    || field.hasChildren() || field.getAttributeCount() != 0) {
+                    return null;
+                }
+
+                IAnswerData value = field.getValue();
+                if (value != null && !(value instanceof UncastData)) {
+                    return null;
+                }
+
+                cells[row * columnCount + column] = value == null ? null : pool.intern(((UncastData) value).getString());
+            }
+        }
+
+        int rootAttributeCount = topLevel.getAttributeCount();
+        String[] rootAttributeNamespaces = new String[rootAttributeCount];
+        String[] rootAttributeNames = new String[rootAttributeCount];
+        String[] rootAttributeValues = new String[rootAttributeCount];
+        for (int attribute = 0; attribute < rootAttributeCount; attribute++) {
+            rootAttributeNamespaces[attribute] = topLevel.getAttributeNamespace(attribute);
+            rootAttributeNames[attribute] = topLevel.getAttributeName(attribute);
+            rootAttributeValues[attribute] = topLevel.getAttributeValue(attribute);
+        }
+
+        Table table = new Table(instanceName, topLevel.getName(), rootAttributeNamespaces, rootAttributeNames,
+            rootAttributeValues, itemName, rows, columns, cells, itemAttributeNamespaces, itemAttributeNames,
+            itemAttributeValues);
+        return table.base;
+    }
+
+    /**
+     * Returns whether the element only has what an element parsed from a file has.
+     */
+    private static boolean isPlain(TreeElement element) {
+        return element.getClass() == TreeElement.class && !element.isPartial() && element.getNamespace() == null
+            && element.getName() != null;
+    }
+
+    /**
+     * Returns a detached {@link TreeElement} copy of this element and everything below it for code that needs to
+     * hold on to a modifiable element.
+     */
+    public TreeElement toTreeElement() {
+        TreeElement element;
+        if (isAttribute()) {
+            element = TreeElement.constructAttributeElement(getNamespace(), getName(), getCell());
+        } else {
+            element = new TreeElement(getName(), getMult());
+            element.setInstanceName(getInstanceName());
+
+            for (int attribute = 0; attribute < getAttributeCount(); attribute++) {
+                element.setAttribute(getAttributeNamespace(attribute), getAttributeName(attribute), getAttributeValue(attribute));
+            }
+
+            for (int child = 0; child < getNumChildren(); child++) {
+                element.addChild(getChildAt(child).toTreeElement());
+            }
+
+            if (getCell() != null) {
+                element.setValue(new UncastData(getCell()));
+            }
+        }
+
+        return element;
+    }
+
+    private String getCell() {
+        switch (kind) {
+            case FIELD:
+                return table.cells[row * table.columns.length + index];
+            case ROOT_ATTRIBUTE:
+                return table.rootAttributeValues[index];
+            case ITEM_ATTRIBUTE:
+                return table.itemAttributeValues[row * table.itemAttributeNames.length + index];
+            default:
+                return null;
+        }
+    }
+
+    private CompactTreeElement item(int row) {
+        return new CompactTreeElement(table, ITEM, row, -1);
+    }
+
+    private CompactTreeElement field(int column) {
+        return new CompactTreeElement(table, FIELD, row, column);
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return getNumChildren() == 0;
+    }
+
+    @Override
+    public boolean isChildable() {
+        return getCell() == null;
+    }
+
+    @Override
+    public String getInstanceName() {
+        return table.instanceName;
+    }
+
+    @Nullable
+    @Override
+    public CompactTreeElement getFirstChild(String name) {
+        return getChild(name, 0);
+    }
+
+    @Nullable
+    @Override
+    public CompactTreeElement getFirstChild(String namespace, String name) {
+        CompactTreeElement firstChild = getFirstChild(name);
+
+        if (firstChild == null || (namespace == null ? firstChild.getNamespace() == null : namespace.equals(firstChild.getNamespace()))) {
+            return firstChild;
+        } else {
+            return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public CompactTreeElement getChild(String name, int multiplicity) {
+        if (name.equals(TreeReference.NAME_WILDCARD)) {
+            return multiplicity >= 0 && multiplicity < getNumChildren() ? getChildAt(multiplicity) : null;
+        }
+
+        switch (kind) {
+            case BASE:
+                return multiplicity == 0 && name.equals(table.rootName) ? table.root : null;
+            case ROOT:
+                return multiplicity >= 0 && multiplicity < table.rows && name.equals(table.itemName) ? item(multiplicity) : null;
+            case ITEM:
+                int column = table.columnIndex(name);
+                return multiplicity == 0 && column != -1 ? field(column) : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public List<CompactTreeElement> getChildrenWithName(String name) {
+        if (name.equals(TreeReference.NAME_WILDCARD) || (kind == ROOT && name.equals(table.itemName))) {
+            return new AbstractList<CompactTreeElement>() {
+                @Override
+                public CompactTreeElement get(int index) {
+                    return getChildAt(index);
+                }
+
+                @Override
+                public int size() {
+                    return getNumChildren();
+                }
+            };
+        }
+
+        CompactTreeElement child = getChild(name, 0);
+        return child == null ? Collections.<CompactTreeElement>emptyList() : Collections.singletonList(child);
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return getNumChildren() > 0;
+    }
+
+    @Override
+    public int getNumChildren() {
+        switch (kind) {
+            case BASE:
+                return 1;
+            case ROOT:
+                return table.rows;
+            case ITEM:
+                return table.columns.length;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public CompactTreeElement getChildAt(int i) {
+        if (i < 0 || i >= getNumChildren()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + getNumChildren());
+        }
+
+        switch (kind) {
+            case BASE:
+                return table.root;
+            case ROOT:
+                return item(i);
+            default:
+                return field(i);
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public boolean isAttribute() {
+        return kind == ROOT_ATTRIBUTE || kind == ITEM_ATTRIBUTE;
+    }
+
+    @Override
+    public int getChildMultiplicity(String name) {
+        return getChildrenWithName(name).size();
+    }
+
+    @Override
+    public void accept(ITreeVisitor visitor) {
+        visitor.visit(this);
+
+        for (int i = 0; i < getNumChildren(); i++) {
+            getChildAt(i).accept(visitor);
+        }
+    }
+
+    @Override
+    public int getAttributeCount() {
+        switch (kind) {
+            case ROOT:
+                return table.rootAttributeNames.length;
+            case ITEM:
+                return table.itemAttributeNames.length;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return kind == ROOT ? table.rootAttributeNamespaces[index] : table.itemAttributeNamespaces[index];
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        return kind == ROOT ? table.rootAttributeNames[index] : table.itemAttributeNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return getAttributeAt(index).getCell();
+    }
+
+    private CompactTreeElement getAttributeAt(int index) {
+        if (index < 0 || index >= getAttributeCount()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getAttributeCount());
+        }
+
+        return new CompactTreeElement(table, kind == ROOT ? ROOT_ATTRIBUTE : ITEM_ATTRIBUTE, row, index);
+    }
+
+    @Override
+    public CompactTreeElement getAttribute(String namespace, String name) {
+        for (int i = 0; i < getAttributeCount(); i++) {
+            if (getAttributeName(i).equals(name) && (namespace == null || namespace.equals(getAttributeNamespace(i)))) {
+                return getAttributeAt(i);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        CompactTreeElement attribute = getAttribute(namespace, name);
+        return attribute == null ? null : attribute.getCell();
+    }
+
+    @Override
+    public TreeReference getRef() {
+        return TreeElement.BuildRef(this);
+    }
+
+    @Override
+    public int getDepth() {
+        return TreeElement.CalculateDepth(this);
+    }
+
+    @Override
+    public String getName() {
+        switch (kind) {
+            case ROOT:
+                return table.rootName;
+            case ITEM:
+                return table.itemName;
+            case FIELD:
+                return table.columns[index];
+            case ROOT_ATTRIBUTE:
+            case ITEM_ATTRIBUTE:
+                return getParent().getAttributeName(index);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public int getMult() {
+        switch (kind) {
+            case ITEM:
+                return row;
+            case ROOT_ATTRIBUTE:
+            case ITEM_ATTRIBUTE:
+                return TreeReference.INDEX_ATTRIBUTE;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public CompactTreeElement getParent() {
+        switch (kind) {
+            case ROOT:
+            case ROOT_ATTRIBUTE:
+                return table.base;
+            case ITEM:
+                return table.root;
+            case FIELD:
+            case ITEM_ATTRIBUTE:
+                return item(row);
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public IAnswerData getValue() {
+        String cell = getCell();
+        return cell == null ? null : new UncastData(cell);
+    }
+
+    @Override
+    public int getDataType() {
+        return Constants.DATATYPE_NULL;
+    }
+
+    @Override
+    public void clearCaches() {
+        // Nothing is cached
+    }
+
+    @Override
+    public boolean isRelevant() {
+        return true;
+    }
+
+    @Override
+    public String getNamespace() {
+        switch (kind) {
+            case ROOT_ATTRIBUTE:
+            case ITEM_ATTRIBUTE:
+                return getParent().getAttributeNamespace(index);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public List<TreeReference> tryBatchChildFetch(String name, int mult, List<XPathExpression> predicates, EvaluationContext evalContext) {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof CompactTreeElement)) {
+            return false;
+        }
+
+        CompactTreeElement element = (CompactTreeElement) other;
+        return table == element.table && kind == element.kind && row == element.row && index == element.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * System.identityHashCode(table) + kind) + row) + index;
+    }
+
+    @Override
+    public String toString() {
+        String name = getName();
+        return name == null ? "root" : name;
+    }
+
+    /**
+     * Everything about one instance, shared by all of its elements.
+     */
+    private static final class Table {
+        private final String instanceName;
+
+        private final String rootName;
+        private final String[] rootAttributeNamespaces;
+        private final String[] rootAttributeNames;
+        private final String[] rootAttributeValues;
+
+        private final String itemName;
+        private final int rows;
+
+        private final String[] columns;
+
+        // The value of every field, row by row. Null means that the field has no value.
+        private final String[] cells;
+
+        private final String[] itemAttributeNamespaces;
+        private final String[] itemAttributeNames;
+
+        // The value of every item attribute, row by row
+        private final String[] itemAttributeValues;
+
+        private final CompactTreeElement base;
+        private final CompactTreeElement root;
+
+        Table(String instanceName, String rootName, String[] rootAttributeNamespaces, String[] rootAttributeNames,
+              String[] rootAttributeValues, String itemName, int rows, String[] columns, String[] cells,
+              String[] itemAttributeNamespaces, String[] itemAttributeNames, String[] itemAttributeValues) {
+            this.instanceName = instanceName;
+            this.rootName = rootName;
+            this.rootAttributeNamespaces = rootAttributeNamespaces;
+            this.rootAttributeNames = rootAttributeNames;
+            this.rootAttributeValues = rootAttributeValues;
+            this.itemName = itemName;
+            this.rows = rows;
+            this.columns = columns;
+            this.cells = cells;
+            this.itemAttributeNamespaces = itemAttributeNamespaces;
+            this.itemAttributeNames = itemAttributeNames;
+            this.itemAttributeValues = itemAttributeValues;
+
+            base = new CompactTreeElement(this, BASE, -1, -1);
+            root = new CompactTreeElement(this, ROOT, -1, -1);
+        }
+
+        int columnIndex(String name) {
+            // There are few enough columns that a scan is faster than hashing the name
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(name)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * Makes equal strings share one instance while an instance is being compacted.
+     */
+    private static final class StringPool {
+        private final Map<String, String> strings = new HashMap<>();
+
+        String intern(String string) {
+            if (string == null) {
+                return null;
+            }
+
+            String pooled = strings.get(string);
+            if (pooled == null) {
+                strings.put(string, string);
+                pooled = string;
+            }
+
+            return pooled;
+        }
+    }
+}
@@ -108,7 +108,7 @@ public abstract class DataInstance<T extends AbstractTreeElement<T>> implements
 
         if (node == getBase() || result == null) {
             return null; // never return a reference to '/'
-        } else if (((TreeElement) result).isPartial()) {
+        } else if (result instanceof TreeElement && ((TreeElement) result).isPartial()) {
             throw new PartialElementEncounteredException();
         } else {
             return result;
@@ -5,6 +5,7 @@ import org.javarosa.core.reference.ReferenceManager;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.javarosa.xform.parse.ExternalInstanceParserFactory;
 import org.javarosa.xform.parse.XFormParser;
 import org.javarosa.xform.util.XFormUtils;
 import org.javarosa.xml.TreeElementParser;
@@ -26,7 +27,8 @@ public class ExternalDataInstance extends DataInstance {
     private static final Logger logger = LoggerFactory.getLogger(XFormParser.class.getSimpleName());
 
     private String path;
-    private TreeElement root;
+    private AbstractTreeElement root;
+    private boolean hasLazyItems;
 
     // todo Make @mdudzinski’s recommended changes from https://github.com/getodk/javarosa/pull/154#pullrequestreview-51806826
 
@@ -59,10 +61,20 @@ public class ExternalDataInstance extends DataInstance {
      * @throws InvalidStructureException         thrown by {@link TreeElementParser#parse()}
      */
     public static ExternalDataInstance build(String instanceSrc, String instanceId)
+        throws IOException, UnfullfilledRequirementsException, XmlPullParserException, InvalidStructureException {
+        return build(instanceSrc, instanceId, XFormUtils.getExternalInstanceParserFactory());
+    }
+
+    /**
+     * @see #build(String, String)
+     *
+     * @param parserFactory creates the parser for the instance's file
+     */
+    public static ExternalDataInstance build(String instanceSrc, String instanceId, ExternalInstanceParserFactory parserFactory)
         throws IOException, UnfullfilledRequirementsException, XmlPullParserException, InvalidStructureException {
         TreeElement root;
         try {
-            root = XFormUtils.getExternalInstance(ReferenceManager.instance(), instanceId, instanceSrc, true);
+            root = parserFactory.getExternalInstanceParser().parse(ReferenceManager.instance(), instanceId, instanceSrc, true);
 
             // Avoid parse error for missing name and label refs if a select is built on an empty placeholder file
             if (!root.hasChildren()) {
@@ -78,6 +90,12 @@ public class ExternalDataInstance extends DataInstance {
 
     @Override
     public AbstractTreeElement resolveReference(TreeReference ref) {
+        try {
+            loadLazyItem(ref);
+        } catch (InvalidStructureException | XmlPullParserException | IOException exception) {
+            throw new RuntimeException(new DeserializationException("Unable to parse external instance: " + exception));
+        }
+
         try {
             return super.resolveReference(ref);
         } catch (PartialElementEncounteredException e) {
@@ -92,6 +110,34 @@ public class ExternalDataInstance extends DataInstance {
         }
     }
 
+    /**
+     * Parses the item that the reference points to or into if it is one that {@link LazyXmlExternalInstance} left
+     * to be parsed when it is needed.
+     */
+    private void loadLazyItem(TreeReference ref) throws InvalidStructureException, XmlPullParserException, IOException {
+        if (!hasLazyItems || ref.size() < 2 || !ref.isAbsolute()) {
+            return;
+        }
+
+        TreeElement topLevel = ((TreeElement) root).getChildAt(0);
+        if (!topLevel.getName().equals(ref.getName(0))) {
+            return;
+        }
+
+        String name = ref.getName(1);
+        int mult = ref.getMultiplicity(1);
+        if (mult == TreeReference.INDEX_UNBOUND && topLevel.getChildMultiplicity(name) == 1) {
+            mult = 0;
+        }
+
+        if (mult >= 0) {
+            TreeElement item = topLevel.getChild(name, mult);
+            if (item instanceof LazyXmlExternalInstance.LazyItem) {
+                ((LazyXmlExternalInstance.LazyItem) item).load();
+            }
+        }
+    }
+
     @Override
     public AbstractTreeElement getBase() {
         return root;
@@ -105,14 +151,37 @@ public class ExternalDataInstance extends DataInstance {
         return root.getChildAt(0);
     }
 
+    /**
+     * @return the value of the instance’s src attribute, e.g., jr://file/…
+     */
+    public String getPath() {
+        return path;
+    }
+
     public boolean isUsingPlaceholder() {
         return getRoot().equals(PLACEHOLDER_ROOT);
     }
 
+    /**
+     * Keeps the instance as {@link CompactTreeElement}s if it has the shape of a table. Instances with any other shape,
+     * the placeholder and instances that are only partially parsed are kept as {@link TreeElement}s.
+     */
     private void setRoot(TreeElement topLevel) {
-        root = new TreeElement();
-        root.setInstanceName(getName());
-        root.addChild(topLevel);
+        hasLazyItems = topLevel.hasChildren() && topLevel.getChildAt(0) instanceof LazyXmlExternalInstance.LazyItem;
+
+        CompactTreeElement compactRoot = null;
+        if (topLevel != PLACEHOLDER_ROOT && !hasLazyItems) {
+            compactRoot = CompactTreeElement.compact(topLevel, getName());
+        }
+
+        if (compactRoot != null) {
+            root = compactRoot;
+        } else {
+            TreeElement treeRoot = new TreeElement();
+            treeRoot.setInstanceName(getName());
+            treeRoot.addChild(topLevel);
+            root = treeRoot;
+        }
     }
 
     @Override
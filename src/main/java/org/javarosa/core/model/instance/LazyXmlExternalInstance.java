@@ -0,0 +1,404 @@
+package org.javarosa.core.model.instance;
+
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.javarosa.xml.ElementParser;
+import org.javarosa.xml.TreeElementParser;
+import org.javarosa.xml.util.InvalidStructureException;
+import org.javarosa.xml.util.UnfullfilledRequirementsException;
+import org.jetbrains.annotations.NotNull;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses XML secondary instances without building the whole tree up front. When a partial parse is requested, the
+ * file is read once in a streaming pass that only records where each child of the document element (each "item")
+ * starts and ends. The items are returned as partial elements and each one is parsed from its byte range when
+ * {@link ExternalDataInstance#resolveReference(TreeReference)} first reaches it. At most {@code maxLoadedItems} items
+ * are kept parsed at once: the least recently used ones are cleared again and will be re-read from the file if they
+ * are needed later.
+ * <p>
+ * Items are re-read from the file so it must not change while forms that use it are open. Files are expected to be
+ * UTF-8 like they are for {@link XmlExternalInstance}.
+ * <p>
+ * Items are only loaded and cleared under a lock but they are read without one, so an instance must not be read from
+ * several threads at once. Parallel evaluation of triggerables (see
+ * {@link org.javarosa.core.model.FormDef#setParallelTriggerableEvaluation}) never reads secondary instances.
+ * <p>
+ * To use it, add it to the {@link ExternalInstanceParser}s built by the
+ * {@link org.javarosa.xform.parse.ExternalInstanceParserFactory}:
+ * <pre>
+ * XFormUtils.setExternalInstanceParserFactory(() -> {
+ *     ExternalInstanceParser parser = new ExternalInstanceParser();
+ *     parser.addFileInstanceParser(new LazyXmlExternalInstance());
+ *     return parser;
+ * });
+ * </pre>
+ */
+public class LazyXmlExternalInstance implements ExternalInstanceParser.FileInstanceParser {
+    public static final int DEFAULT_MAX_LOADED_ITEMS = 10_000;
+
+    private final int maxLoadedItems;
+
+    public LazyXmlExternalInstance() {
+        this(DEFAULT_MAX_LOADED_ITEMS);
+    }
+
+    public LazyXmlExternalInstance(int maxLoadedItems) {
+        if (maxLoadedItems < 1) {
+            throw new IllegalArgumentException("maxLoadedItems must be at least 1 but was " + maxLoadedItems);
+        }
+
+        this.maxLoadedItems = maxLoadedItems;
+    }
+
+    @Override
+    public TreeElement parse(@NotNull String instanceId, @NotNull String path) throws IOException {
+        try {
+            return XmlExternalInstance.parse(instanceId, path);
+        } catch (InvalidStructureException | XmlPullParserException | UnfullfilledRequirementsException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public TreeElement parse(@NotNull String instanceId, @NotNull String path, boolean partial) throws IOException {
+        if (!partial) {
+            return parse(instanceId, path);
+        }
+
+        ItemLoader loader = new ItemLoader(instanceId, path, maxLoadedItems);
+        return loader.index();
+    }
+
+    @Override
+    public boolean isSupported(@NotNull String instanceId, @NotNull String instanceSrc) {
+        return instanceSrc.endsWith(".xml");
+    }
+
+    /**
+     * A child of the document element that is parsed from its byte range in the file when it is needed.
+     */
+    static class LazyItem extends TreeElement {
+        private final ItemLoader loader;
+        private final long start;
+        private final int length;
+
+        LazyItem(String name, int multiplicity, ItemLoader loader, long start, int length) {
+            super(name, multiplicity, true);
+            this.loader = loader;
+            this.start = start;
+            this.length = length;
+        }
+
+        /**
+         * Parses the item if it isn't already and marks it as the most recently used.
+         */
+        void load() throws IOException, InvalidStructureException, XmlPullParserException {
+            loader.load(this);
+        }
+    }
+
+    static class ItemLoader {
+        private final String instanceId;
+        private final String path;
+
+        private byte[] rootStartTag;
+        private byte[] rootEndTag;
+
+        private final LinkedHashMap<Long, LazyItem> loaded;
+
+        ItemLoader(String instanceId, String path, int maxLoadedItems) {
+            this.instanceId = instanceId;
+            this.path = path;
+
+            loaded = new LinkedHashMap<Long, LazyItem>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, LazyItem> eldest) {
+                    if (size() > maxLoadedItems) {
+                        eldest.getValue().clearPartial();
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+        }
+
+        synchronized void load(LazyItem item) throws IOException, InvalidStructureException, XmlPullParserException {
+            if (!item.isPartial()) {
+                // Mark as recently used
+                loaded.get(item.start);
+                return;
+            }
+
+            byte[] itemBytes = new byte[item.length];
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                file.seek(item.start);
+                file.readFully(itemBytes);
+            }
+
+            // Wrap the item in the document element so namespaces declared there still apply
+            TreeElement parsed = parseWrapped(itemBytes).getChildAt(0);
+            item.populatePartial(parsed);
+            for (int i = 0; i < parsed.getAttributeCount(); i++) {
+                item.setAttribute(parsed.getAttributeNamespace(i), parsed.getAttributeName(i), parsed.getAttributeValue(i));
+            }
+            if (parsed.getValue() != null) {
+                item.setValue(parsed.getValue());
+            }
+
+            loaded.put(item.start, item);
+        }
+
+        /**
+         * Reads through the file once recording the byte range of each item.
+         *
+         * @return the document element with a partial child for each item
+         */
+        TreeElement index() throws IOException {
+            List<LazyItem> items = new ArrayList<>();
+            Map<String, Integer> multiplicitiesByName = new HashMap<>();
+            long rootStart = -1;
+            long rootEnd = -1;
+            String rootQualifiedName = null;
+            boolean rootSelfClosing = false;
+
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(path), 64 * 1024)) {
+                Scanner scanner = new Scanner(inputStream);
+                int depth = 0;
+                long itemStart = -1;
+                String itemName = null;
+
+                int b;
+                while ((b = scanner.read()) != -1) {
+                    if (b != '<') {
+                        continue;
+                    }
+
+                    long tagStart = scanner.position - 1;
+                    int next = scanner.read();
+                    if (next == '?') {
+                        scanner.skipPast("?>");
+                    } else if (next == '!') {
+                        int kind = scanner.read();
+                        if (kind == '-') {
+                            scanner.skipPast("-->");
+                        } else if (kind == '[') {
+                            scanner.skipPast("]]>");
+                        } else {
+                            scanner.skipPast(">");
+                        }
+                    } else if (next == '/') {
+                        scanner.skipPast(">");
+                        depth--;
+
+                        if (depth == 1) {
+                            items.add(createItem(itemName, multiplicitiesByName, itemStart, scanner.position));
+                        } else if (depth == 0) {
+                            break;
+                        }
+                    } else {
+                        String qualifiedName = scanner.readName(next);
+                        boolean selfClosing = scanner.skipRestOfStartTag();
+
+                        if (depth == 0) {
+                            rootStart = tagStart;
+                            rootEnd = scanner.position;
+                            rootQualifiedName = qualifiedName;
+                            rootSelfClosing = selfClosing;
+                            if (selfClosing) {
+                                break;
+                            }
+                        } else if (depth == 1) {
+                            itemStart = tagStart;
+                            itemName = qualifiedName;
+                            if (selfClosing) {
+                                items.add(createItem(itemName, multiplicitiesByName, itemStart, scanner.position));
+                                continue;
+                            }
+                        }
+
+                        if (!selfClosing) {
+                            depth++;
+                        }
+                    }
+                }
+            }
+
+            if (rootStart == -1) {
+                throw new IOException("No document element found in " + path);
+            }
+
+            rootStartTag = new byte[(int) (rootEnd - rootStart)];
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                file.seek(rootStart);
+                file.readFully(rootStartTag);
+            }
+
+            if (rootSelfClosing) {
+                // Turn "<root/>" into "<root>" so that items can be wrapped in it
+                int slash = rootStartTag.length - 2;
+                while (rootStartTag[slash] != '/') {
+                    slash--;
+                }
+                rootStartTag[slash] = ' ';
+            }
+            rootEndTag = ("</" + rootQualifiedName + ">").getBytes(StandardCharsets.UTF_8);
+
+            TreeElement root;
+            try {
+                root = parseWrapped(new byte[0]);
+            } catch (InvalidStructureException | XmlPullParserException e) {
+                throw new IOException(e);
+            }
+
+            for (LazyItem item : items) {
+                root.addChild(item);
+            }
+
+            return root;
+        }
+
+        private LazyItem createItem(String qualifiedName, Map<String, Integer> multiplicitiesByName, long start, long end) {
+            String name = localName(qualifiedName);
+            Integer multiplicity = multiplicitiesByName.get(name);
+            int newMultiplicity = (multiplicity != null) ? multiplicity + 1 : 0;
+            multiplicitiesByName.put(name, newMultiplicity);
+
+            LazyItem item = new LazyItem(name, newMultiplicity, this, start, (int) (end - start));
+            item.setInstanceName(instanceId);
+            return item;
+        }
+
+        private TreeElement parseWrapped(byte[] content) throws IOException, InvalidStructureException, XmlPullParserException {
+            byte[] document = new byte[rootStartTag.length + content.length + rootEndTag.length];
+            System.arraycopy(rootStartTag, 0, document, 0, rootStartTag.length);
+            System.arraycopy(content, 0, document, rootStartTag.length, content.length);
+            System.arraycopy(rootEndTag, 0, document, rootStartTag.length + content.length, rootEndTag.length);
+
+            KXmlParser xmlParser = ElementParser.instantiateParser(new ByteArrayInputStream(document));
+            return new TreeElementParser(xmlParser, 0, instanceId).parse();
+        }
+
+        private static String localName(String qualifiedName) {
+            int colon = qualifiedName.indexOf(':');
+            return colon == -1 ? qualifiedName : qualifiedName.substring(colon + 1);
+        }
+    }
+
+    /**
+     * Just enough of an XML tokenizer to find where elements start and end. Markup characters are all ASCII so this
+     * works on the raw bytes of any ASCII compatible encoding.
+     */
+    private static class Scanner {
+        private final InputStream inputStream;
+        private long position;
+
+        // The character that ended the last name read
+        private int pending;
+
+        Scanner(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        int read() throws IOException {
+            int b = inputStream.read();
+            if (b != -1) {
+                position++;
+            }
+
+            return b;
+        }
+
+        void skipPast(String terminator) throws IOException {
+            // The most recently read characters with the latest at the end
+            char[] window = new char[terminator.length()];
+            int read = 0;
+            while (true) {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[window.length - 1] = (char) readRequired();
+                read++;
+
+                if (read >= window.length && endsWith(window, terminator)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reads the rest of a tag name, leaving the character that ended it to {@link #skipRestOfStartTag()}.
+         */
+        String readName(int first) throws IOException {
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            int b = first;
+            while (!isWhitespace(b) && b != '/' && b != '>') {
+                name.write(b);
+                b = readRequired();
+            }
+
+            pending = b;
+            return new String(name.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return whether the start tag was self closing
+         */
+        boolean skipRestOfStartTag() throws IOException {
+            int last = 0;
+            int quote = 0;
+            int b = pending;
+            while (true) {
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return last == '/';
+                } else if (!isWhitespace(b)) {
+                    last = b;
+                }
+
+                b = readRequired();
+            }
+        }
+
+        private int readRequired() throws IOException {
+            int b = read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of XML file");
+            }
+
+            return b;
+        }
+
+        private static boolean endsWith(char[] window, String terminator) {
+            for (int i = 0; i < window.length; i++) {
+                if (window[i] != terminator.charAt(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static boolean isWhitespace(int b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+    }
+}
@@ -1163,4 +1163,13 @@ import java.util.List;
             isPartial = false;
         }
     }
+
+    /**
+     * Drops the children of an element that was populated with {@link #populatePartial(TreeElement)} so that it can
+     * be populated again when it is next needed.
+     */
+    void clearPartial() {
+        children.clear();
+        isPartial = true;
+    }
 }
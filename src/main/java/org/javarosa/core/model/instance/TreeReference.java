@@ -20,10 +20,9 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import org.javarosa.core.util.DataUtil;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.ExtWrapNullable;
@@ -32,6 +31,17 @@ import org.javarosa.core.util.externalizable.PrototypeFactory;
 import org.javarosa.xpath.XPathException;
 import org.javarosa.xpath.expr.XPathExpression;
 
+/**
+ * A path to nodes in an instance, e.g. {@code /data/repeat[2]/question} or {@code ../sibling}.
+ * <p>
+ * The levels of the path are stored in parallel arrays rather than as level objects. Copies made by {@link #clone()}
+ * and the methods that derive new references from it share those arrays until one of the copies is changed so that
+ * deriving a reference that is then only read doesn't copy its levels.
+ * <p>
+ * References are used as map and set keys throughout form evaluation so the hash code is computed once and kept until
+ * the reference changes. A reference that is used as a key can be {@link #freeze() frozen} so that changing it by
+ * mistake fails instead of silently corrupting the map it is in.
+ */
 public class TreeReference implements Externalizable, Serializable {
     /**
      * @deprecated replaced by {@link #DEFAULT_MULTIPLICITY}
@@ -86,7 +96,24 @@ public class TreeReference implements Externalizable, Serializable {
     private int refLevel;
     private int contextType;
     private String instanceName = null;
-    private List<TreeReferenceLevel> data = null;
+
+    private int size;
+    private String[] names;
+    private int[] multiplicities;
+
+    // Null as long as no level has predicates
+    private List<XPathExpression>[] predicates;
+
+    // Whether the arrays may also be used by another reference and so have to be copied before they are changed
+    private boolean shared;
+
+    private boolean frozen;
+
+    // Zero until computed, like String#hashCode
+    private transient int hash;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final int[] NO_MULTIPLICITIES = new int[0];
 
 
     public static TreeReference rootRef() {
@@ -107,7 +134,60 @@ public class TreeReference implements Externalizable, Serializable {
         instanceName = null; // null means the default instance
         refLevel = 0;
         contextType = CONTEXT_ABSOLUTE;
-        data = new ArrayList<TreeReferenceLevel>(0);
+        names = NO_NAMES;
+        multiplicities = NO_MULTIPLICITIES;
+    }
+
+    /**
+     * Makes this reference unchangeable. Any later attempt to change it throws an {@link IllegalStateException}.
+     * Copies made with {@link #clone()} can be changed.
+     *
+     * @return this reference
+     */
+    public TreeReference freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Must be called before any change to this reference.
+     */
+    private void beforeChange() {
+        if (frozen) {
+            throw new IllegalStateException("Frozen reference " + this + " can't be changed");
+        }
+
+        hash = 0;
+    }
+
+    /**
+     * Must be called before changing the level arrays. Copies them if they are shared or can't hold the given number
+     * of levels.
+     */
+    private void beforeLevelChange(int capacity) {
+        beforeChange();
+
+        if (shared || capacity > names.length) {
+            // Copies of shared arrays are only as big as needed because most derived references are only extended by
+            // a level or two
+            int length = shared ? Math.max(capacity, size) : Math.max(capacity, Math.max(4, names.length * 2));
+            names = Arrays.copyOf(names, length);
+            multiplicities = Arrays.copyOf(multiplicities, length);
+            if (predicates != null) {
+                predicates = Arrays.copyOf(predicates, length);
+            }
+            shared = false;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
     }
 
     public String getInstanceName() {
@@ -115,47 +195,81 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setInstanceName(String instanceName) {
+        beforeChange();
         this.instanceName = instanceName;
     }
 
     public int getMultiplicity(int index) {
-        return data.get(index).getMultiplicity();
+        checkIndex(index);
+        return multiplicities[index];
     }
 
     public String getName(int index) {
-        return data.get(index).getName();
+        checkIndex(index);
+        return names[index];
     }
 
     public int getMultLast() {
-        return data.get(data.size() - 1).getMultiplicity();
+        return getMultiplicity(size - 1);
     }
 
     public String getNameLast() {
-        return data.get(data.size() - 1).getName();
+        return getName(size - 1);
     }
 
     public void setMultiplicity(int i, int mult) {
-        data.set(i, data.get(i).setMultiplicity(mult));
+        checkIndex(i);
+        if (multiplicities[i] != mult) {
+            beforeLevelChange(size);
+            multiplicities[i] = mult;
+        }
     }
 
     public int size() {
-        return data.size();
+        return size;
     }
 
-    private void add(TreeReferenceLevel level) {
-        data.add(level);
+    public void add(String name, int mult) {
+        add(name, mult, null);
     }
 
-    public void add(String name, int mult) {
-        add(new TreeReferenceLevel(name, mult).intern());
+    private void add(String name, int mult, List<XPathExpression> levelPredicates) {
+        beforeLevelChange(size + 1);
+        names[size] = name;
+        multiplicities[size] = mult;
+        if (predicates != null) {
+            predicates[size] = null;
+        }
+        size++;
+
+        if (levelPredicates != null) {
+            setPredicates(size - 1, levelPredicates);
+        }
     }
 
     public void addPredicate(int key, List<XPathExpression> xpe) {
-        data.set(key, data.get(key).setPredicates(xpe));
+        checkIndex(key);
+        beforeLevelChange(size);
+        setPredicates(key, xpe);
+    }
+
+    private void setPredicates(int index, List<XPathExpression> levelPredicates) {
+        if (predicates == null) {
+            if (levelPredicates == null) {
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            List<XPathExpression>[] created = (List<XPathExpression>[]) new List<?>[names.length];
+            predicates = created;
+        }
+
+        predicates[index] = levelPredicates;
     }
 
     public List<XPathExpression> getPredicate(int key) {
-        return data.get(key).getPredicates();
+        checkIndex(key);
+        return predicates == null ? null : predicates[key];
     }
 
     public int getRefLevel() {
@@ -163,11 +277,13 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setRefLevel(int refLevel) {
+        beforeChange();
         this.refLevel = refLevel;
     }
 
     public void incrementRefLevel() {
         if (!isAbsolute()) {
+            beforeChange();
             refLevel++;
         }
     }
@@ -192,16 +308,28 @@ public class TreeReference implements Externalizable, Serializable {
     @Override
     public TreeReference clone() {
         TreeReference newRef = new TreeReference();
-        newRef.setRefLevel(this.refLevel);
+        newRef.refLevel = refLevel;
+        newRef.instanceName = instanceName;
+        newRef.contextType = contextType;
+        newRef.hash = hash;
+        shareLevelsWith(newRef);
+        return newRef;
+    }
 
-        for (TreeReferenceLevel l : data) {
-            newRef.add(l.shallowCopy());
+    /**
+     * Gives the other reference the same levels as this one without copying them.
+     */
+    private void shareLevelsWith(TreeReference other) {
+        other.size = size;
+        other.names = names;
+        other.multiplicities = multiplicities;
+        other.predicates = predicates;
+        other.shared = true;
+
+        // A frozen reference never changes its arrays so only the copy needs to copy them before changing them
+        if (!frozen) {
+            shared = true;
         }
-
-        //copy instances
-        newRef.setInstanceName(instanceName);
-        newRef.setContextType(this.contextType);
-        return newRef;
     }
 
     /*
@@ -209,16 +337,18 @@ public class TreeReference implements Externalizable, Serializable {
      * return true if we successfully got the parent, false if there were no higher levels
      */
     public boolean removeLastLevel() {
-        int size = size();
         if (size == 0) {
             if (isAbsolute()) {
                 return false;
             } else {
+                beforeChange();
                 refLevel++;
                 return true;
             }
         } else {
-            data.remove(size - 1);
+            beforeChange();
+            // The level is left in the arrays because other references may share them
+            size--;
             return true;
         }
     }
@@ -260,14 +390,20 @@ public class TreeReference implements Externalizable, Serializable {
                 }
             }
 
-            for (TreeReferenceLevel level : data) {
-                newRef.add(level.shallowCopy());
-            }
-
+            newRef.addLevelsOf(this);
             return newRef;
         }
     }
 
+    /**
+     * Adds all of the levels of the other reference to the end of this one.
+     */
+    private void addLevelsOf(TreeReference other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.names[i], other.multiplicities[i], other.predicates == null ? null : other.predicates[i]);
+        }
+    }
+
     /**
      * Builds and returns a new reference that is this reference anchored to a passed-in base reference.
      * <p>
@@ -299,10 +435,7 @@ public class TreeReference implements Externalizable, Serializable {
             newRef.removeLastLevel();
         }
 
-        for (TreeReferenceLevel level : data) {
-            newRef.add(level.shallowCopy());
-        }
-
+        newRef.addLevelsOf(this);
         return newRef;
     }
 
@@ -317,7 +450,8 @@ public class TreeReference implements Externalizable, Serializable {
         for (int i = 0; i < contextRef.size() && i < newRef.size(); i++) {
             //If the the contextRef can provide a definition for a wildcard (not currently supported by JR), do so
             if (TreeReference.NAME_WILDCARD.equals(newRef.getName(i)) && !TreeReference.NAME_WILDCARD.equals(contextRef.getName(i))) {
-                newRef.data.set(i, newRef.data.get(i).setName(contextRef.getName(i)));
+                newRef.beforeLevelChange(newRef.size);
+                newRef.names[i] = contextRef.getName(i);
             }
 
             if (contextRef.getName(i).equals(newRef.getName(i))) {
@@ -357,6 +491,7 @@ public class TreeReference implements Externalizable, Serializable {
         for (int i = 0; i < genericRef.size(); i++) {
             //TODO: It's not super clear whether template refs should get
             //genericized or not
+            // Only copies the levels if there is a multiplicity to change
             genericRef.setMultiplicity(i, INDEX_UNBOUND);
         }
         return genericRef;
@@ -409,6 +544,9 @@ public class TreeReference implements Externalizable, Serializable {
             return true;
         } else if (o instanceof TreeReference) {
             TreeReference ref = (TreeReference) o;
+            if (hash != 0 && ref.hash != 0 && hash != ref.hash)
+                return false;
+
             if (!Objects.equals(getInstanceName(), ref.getInstanceName()))
                 return false;
 
@@ -452,32 +590,44 @@ public class TreeReference implements Externalizable, Serializable {
         }
     }
 
+    /**
+     * Combines the levels in order so that references with the same levels in a different order, like /a/b and /b/a,
+     * or different multiplicities, like /r[1]/r[2] and /r[2]/r[1], have different hash codes. The result is cached
+     * until the reference is changed.
+     */
     public int hashCode() {
-        int hash = (Integer.valueOf(refLevel)).hashCode();
-        hash ^= instanceName != null ? instanceName.hashCode() : "".hashCode();
-        for (int i = 0; i < size(); i++) {
-            //NOTE(ctsims): It looks like this is only using Integer to
-            //get the hashcode method, but that method
-            //is just returning the int value, I think, so
-            //this should potentially just be replaced by
-            //an int.
-            Integer mult = DataUtil.integer(getMultiplicity(i));
-            if (i == 0 && mult.intValue() == INDEX_UNBOUND)
-                mult = DataUtil.integer(0);
-
-            hash ^= getName(i).hashCode();
-            hash ^= mult.hashCode();
-            List<XPathExpression> predicates = this.getPredicate(i);
-            if (predicates == null) {
-                continue;
-            }
-            int val = 0;
-            for (XPathExpression xpe : predicates) {
-                hash ^= val;
-                hash ^= xpe.hashCode();
-                ++val;
+        int h = hash;
+        if (h == 0) {
+            h = refLevel;
+            h = 31 * h + (instanceName != null ? instanceName.hashCode() : 0);
+            for (int i = 0; i < size; i++) {
+                int mult = multiplicities[i];
+                // /data and /data[0] are equal
+                if (i == 0 && mult == INDEX_UNBOUND) {
+                    mult = 0;
+                }
+
+                h = 31 * h + names[i].hashCode();
+                h = 31 * h + mult;
+                List<XPathExpression> levelPredicates = predicates == null ? null : predicates[i];
+                // Predicates on the first level aren't always compared by equals
+                if (i > 0 && levelPredicates != null) {
+                    h = 31 * h + levelPredicates.hashCode();
+                }
             }
+
+            // Spread the bits so that references that only differ in their last multiplicity don't end up in
+            // neighbouring hash buckets (the finalizer from MurmurHash3)
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+
+            // Zero means not computed yet
+            hash = h == 0 ? 1 : h;
         }
+
         return hash;
     }
 
@@ -570,13 +720,14 @@ public class TreeReference implements Externalizable, Serializable {
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf)
         throws IOException, DeserializationException {
+        beforeChange();
         refLevel = ExtUtil.readInt(in);
         instanceName = (String) ExtUtil.read(in, new ExtWrapNullable(String.class), pf);
         contextType = ExtUtil.readInt(in);
         int size = ExtUtil.readInt(in);
         for (int i = 0; i < size; ++i) {
             TreeReferenceLevel level = (TreeReferenceLevel) ExtUtil.read(in, TreeReferenceLevel.class);
-            this.add(level.intern());
+            add(level.getName(), level.getMultiplicity(), level.getPredicates());
         }
     }
 
@@ -586,8 +737,8 @@ public class TreeReference implements Externalizable, Serializable {
         ExtUtil.write(out, new ExtWrapNullable(instanceName));
         ExtUtil.writeNumeric(out, contextType);
         ExtUtil.writeNumeric(out, size());
-        for (TreeReferenceLevel l : data) {
-            ExtUtil.write(out, l);
+        for (int i = 0; i < size; i++) {
+            ExtUtil.write(out, new TreeReferenceLevel(names[i], multiplicities[i], getPredicate(i)));
         }
     }
 
@@ -658,6 +809,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setContextType(int contextType) {
+        beforeChange();
         this.contextType = contextType;
     }
 
@@ -685,22 +837,21 @@ public class TreeReference implements Externalizable, Serializable {
             throw new IllegalArgumentException("Cannot subreference a non-absolute ref");
         }
 
+        checkIndex(level);
+
         //Copy construct
-        TreeReference ret = new TreeReference();
-        ret.refLevel = this.refLevel;
-        ret.contextType = this.contextType;
-        ret.instanceName = this.instanceName;
-        ret.data = new ArrayList<TreeReferenceLevel>(level);
-        for (int i = 0; i <= level; ++i) {
-            ret.data.add(this.data.get(i));
-        }
+        TreeReference ret = clone();
+        ret.hash = 0;
+        ret.size = level + 1;
         return ret;
     }
 
     public boolean hasPredicates() {
-        for (TreeReferenceLevel level : data) {
-            if (level.getPredicates() != null) {
-                return true;
+        if (predicates != null) {
+            for (int i = 0; i < size; i++) {
+                if (predicates[i] != null) {
+                    return true;
+                }
             }
         }
         return false;
@@ -708,15 +859,20 @@ public class TreeReference implements Externalizable, Serializable {
 
     public TreeReference removePredicates() {
         TreeReference predicateless = clone();
-        for (int i = 0; i < predicateless.data.size(); ++i) {
-            predicateless.data.set(i, predicateless.data.get(i).setPredicates(null));
+        if (hasPredicates()) {
+            predicateless.beforeChange();
+            // Dropping the array instead of changing it means the levels can still be shared
+            predicateless.predicates = null;
         }
         return predicateless;
     }
 
     public TreeReference removePredicates(int i) {
         TreeReference predicateless = clone();
-        predicateless.data.set(i, predicateless.data.get(i).setPredicates(null));
+        if (getPredicate(i) != null) {
+            predicateless.beforeLevelChange(size);
+            predicateless.predicates[i] = null;
+        }
         return predicateless;
     }
 }
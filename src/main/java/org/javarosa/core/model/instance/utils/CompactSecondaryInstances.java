@@ -0,0 +1,271 @@
+package org.javarosa.core.model.instance.utils;
+
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.core.util.externalizable.ExtUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact serialization format for internal secondary instances, which are read-only trees of elements that only
+ * have names, attributes and text values. It is much smaller and faster to read than serializing each
+ * {@link TreeElement} because secondary instances are typically long lists of items that repeat the same element
+ * names, attribute names and often the same values.
+ * <p>
+ * The format is:
+ * <ul>
+ *     <li>A dictionary of every distinct string used by any of the instances. Everything after it refers to strings
+ *     by their position in the dictionary, with -1 standing for null.</li>
+ *     <li>The number of instances and for each one its id followed by its elements in document order as columns:
+ *     the element count, then all names, instance names, child counts, values and attribute counts, and finally the
+ *     namespace, name and value of every attribute.</li>
+ * </ul>
+ * Multiplicities are not written because they are derived from the order of same-named siblings just like when
+ * the instance is parsed. Values are written as strings and read back as {@link UncastData}, which is what
+ * {@link org.javarosa.xml.InternalDataInstanceParser} produces when instances are parsed from the form XML again.
+ */
+public final class CompactSecondaryInstances {
+    private static final int NULL_STRING = -1;
+
+    private CompactSecondaryInstances() {
+
+    }
+
+    /**
+     * Returns whether every element of the instance can be represented in this format.
+     */
+    public static boolean isSupported(DataInstance instance) {
+        return instance instanceof FormInstance && isSupported(((FormInstance) instance).getRoot());
+    }
+
+    private static boolean isSupported(TreeElement element) {
+        if (element == null || element.getClass() != TreeElement.class) {
+            return false;
+        }
+
+        for (int i = 0; i < element.getNumChildren(); i++) {
+            if (!isSupported(element.getChildAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the instances, all of which must be {@link #isSupported supported}.
+     */
+    public static void write(DataOutputStream out, Map<String, FormInstance> instances) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        List<Columns> columns = new ArrayList<>(instances.size());
+        for (Map.Entry<String, FormInstance> entry : instances.entrySet()) {
+            Columns instanceColumns = new Columns(dictionary.indexOf(entry.getKey()));
+            instanceColumns.add(entry.getValue().getRoot(), dictionary);
+            columns.add(instanceColumns);
+        }
+
+        ExtUtil.writeNumeric(out, dictionary.strings.size());
+        for (String string : dictionary.strings) {
+            ExtUtil.writeString(out, string);
+        }
+
+        ExtUtil.writeNumeric(out, columns.size());
+        for (Columns instanceColumns : columns) {
+            instanceColumns.write(out);
+        }
+    }
+
+    public static HashMap<String, FormInstance> read(DataInputStream in) throws IOException, DeserializationException {
+        int dictionarySize = ExtUtil.readInt(in);
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary[i] = ExtUtil.readString(in);
+        }
+
+        int instanceCount = ExtUtil.readInt(in);
+        HashMap<String, FormInstance> instances = new HashMap<>(instanceCount);
+        for (int i = 0; i < instanceCount; i++) {
+            String instanceId = lookUp(dictionary, ExtUtil.readInt(in));
+            TreeElement root = readElements(in, dictionary);
+            instances.put(instanceId, new FormInstance(root, instanceId));
+        }
+
+        return instances;
+    }
+
+    private static TreeElement readElements(DataInputStream in, String[] dictionary) throws IOException, DeserializationException {
+        int count = ExtUtil.readInt(in);
+        if (count == 0) {
+            throw new DeserializationException("Secondary instance has no elements");
+        }
+
+        int[] names = readColumn(in, count);
+        int[] instanceNames = readColumn(in, count);
+        int[] childCounts = readColumn(in, count);
+        int[] values = readColumn(in, count);
+        int[] attributeCounts = readColumn(in, count);
+
+        TreeElement[] elements = new TreeElement[count];
+        for (int i = 0; i < count; i++) {
+            elements[i] = new TreeElement(lookUp(dictionary, names[i]), 0);
+            elements[i].setInstanceName(lookUp(dictionary, instanceNames[i]));
+
+            for (int a = 0; a < attributeCounts[i]; a++) {
+                String namespace = lookUp(dictionary, ExtUtil.readInt(in));
+                String name = lookUp(dictionary, ExtUtil.readInt(in));
+                String value = lookUp(dictionary, ExtUtil.readInt(in));
+                elements[i].setAttribute(namespace, name, value);
+            }
+        }
+
+        // Elements are in document order so each one's children are the subtrees that directly follow it
+        int next = link(elements, childCounts, values, dictionary, 0);
+        if (next != count) {
+            throw new DeserializationException("Secondary instance has " + (count - next) + " elements outside of its root");
+        }
+
+        return elements[0];
+    }
+
+    /**
+     * Adds the children of the element at the given position to it and returns the position after its subtree.
+     */
+    private static int link(TreeElement[] elements, int[] childCounts, int[] values, String[] dictionary, int position) throws DeserializationException {
+        TreeElement element = elements[position];
+        int next = position + 1;
+
+        Map<String, Integer> multiplicitiesByName = childCounts[position] > 0 ? new HashMap<>() : null;
+        for (int c = 0; c < childCounts[position]; c++) {
+            if (next >= elements.length) {
+                throw new DeserializationException("Secondary instance element has more children than elements were written");
+            }
+
+            TreeElement child = elements[next];
+            Integer multiplicity = multiplicitiesByName.get(child.getName());
+            int newMultiplicity = (multiplicity != null) ? multiplicity + 1 : 0;
+            multiplicitiesByName.put(child.getName(), newMultiplicity);
+            child.setMult(newMultiplicity);
+
+            element.addChild(child);
+            next = link(elements, childCounts, values, dictionary, next);
+        }
+
+        String value = lookUp(dictionary, values[position]);
+        if (value != null) {
+            element.setValue(new UncastData(value));
+        }
+
+        return next;
+    }
+
+    private static int[] readColumn(DataInputStream in, int count) throws IOException {
+        int[] column = new int[count];
+        for (int i = 0; i < count; i++) {
+            column[i] = ExtUtil.readInt(in);
+        }
+        return column;
+    }
+
+    private static String lookUp(String[] dictionary, int index) throws DeserializationException {
+        if (index == NULL_STRING) {
+            return null;
+        }
+
+        if (index < 0 || index >= dictionary.length) {
+            throw new DeserializationException("Invalid secondary instance string reference " + index);
+        }
+
+        return dictionary[index];
+    }
+
+    private static class Dictionary {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int indexOf(String string) {
+            if (string == null) {
+                return NULL_STRING;
+            }
+
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                indexes.put(string, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * The elements of one instance with each property stored as a column of dictionary positions.
+     */
+    private static class Columns {
+        private final int instanceId;
+
+        private final List<Integer> names = new ArrayList<>();
+        private final List<Integer> instanceNames = new ArrayList<>();
+        private final List<Integer> childCounts = new ArrayList<>();
+        private final List<Integer> values = new ArrayList<>();
+        private final List<Integer> attributeCounts = new ArrayList<>();
+        private final List<Integer> attributes = new ArrayList<>();
+
+        Columns(int instanceId) {
+            this.instanceId = instanceId;
+        }
+
+        void add(TreeElement element, Dictionary dictionary) {
+            names.add(dictionary.indexOf(element.getName()));
+            instanceNames.add(dictionary.indexOf(element.getInstanceName()));
+            childCounts.add(element.getNumChildren());
+            IAnswerData value = element.getValue();
+            values.add(dictionary.indexOf(value == null ? null : value.uncast().getString()));
+
+            attributeCounts.add(element.getAttributeCount());
+            for (int i = 0; i < element.getAttributeCount(); i++) {
+                attributes.add(dictionary.indexOf(element.getAttributeNamespace(i)));
+                attributes.add(dictionary.indexOf(element.getAttributeName(i)));
+                attributes.add(dictionary.indexOf(element.getAttributeValue(i)));
+            }
+
+            for (int i = 0; i < element.getNumChildren(); i++) {
+                add(element.getChildAt(i), dictionary);
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            ExtUtil.writeNumeric(out, instanceId);
+            ExtUtil.writeNumeric(out, names.size());
+            writeColumn(out, names);
+            writeColumn(out, instanceNames);
+            writeColumn(out, childCounts);
+            writeColumn(out, values);
+            writeColumn(out, attributeCounts);
+
+            // Attributes are read along with each element so they're written in the same order
+            int attribute = 0;
+            for (int count : attributeCounts) {
+                for (int i = 0; i < count * 3; i++) {
+                    ExtUtil.writeNumeric(out, attributes.get(attribute++));
+                }
+            }
+        }
+
+        private static void writeColumn(DataOutputStream out, List<Integer> column) throws IOException {
+            for (int value : column) {
+                ExtUtil.writeNumeric(out, value);
+            }
+        }
+    }
+}
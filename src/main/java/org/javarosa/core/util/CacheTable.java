@@ -3,133 +3,227 @@
  */
 package org.javarosa.core.util;
 
-import java.lang.ref.WeakReference;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A bounded interning table. {@link #intern(Object)} returns the first instance that was interned for any value that
+ * is equal to the one it is given so that equal values (e.g. strings read while parsing or deserializing forms) can
+ * share a single instance.
+ * <p>
+ * The table holds at most {@link #getMaxSize()} values and evicts the least recently used ones when it is full.
+ * Values are split into independently locked segments by hash so that threads interning different values rarely
+ * contend. Nothing is done in the background: eviction happens as part of interning.
+ *
  * @author ctsims
  *
  */
 public class CacheTable<K> {
-    private static final Logger logger = LoggerFactory.getLogger(CacheTable.class);
-
-    int totalAdditions = 0;
-
-    // Object is actually K...
-    private Hashtable<Integer, WeakReference<Object>> currentTable;
-
-    private static Vector<WeakReference<CacheTable<?>>> caches = new Vector<WeakReference<CacheTable<?>>>(1);
-
-    private static Thread cleaner = new Thread(new Runnable() {
-        public void run() {
-            Vector<Integer> toRemove = new Vector<Integer>();
-            while(true) {
-                try {
-                    toRemove.removeAllElements();
-                    for (int i = 0; i < caches.size(); ++i) {
-                        CacheTable<?> cache = caches.elementAt(i).get();
-                        if (cache == null) {
-                            toRemove.addElement(DataUtil.integer(i));
-                        } else {
-                            Hashtable<Integer, WeakReference<Object>> table = cache.currentTable;
-                            for (Enumeration<Integer> en = table.keys(); en.hasMoreElements();) {
-                                Integer key = en.nextElement();
-
-                                synchronized(cache) {
-                                    //See whether or not the cached reference has been cleared by the GC
-                                    if (table.get(key).get() == null) {
-                                            //If so, remove the entry, it's no longer useful.
-                                            table.remove(key);
-                                    }
-                                }
-                            }
-
-                            synchronized(cache) {
-                                //See if our current size is 25% the size of the largest size we've been
-                                //and compact (clone to a new table) if so, since the table maintains the
-                                //largest size it has ever been.
-                                //TODO: 50 is a super arbitrary upper bound
-                                if(cache.totalAdditions > 50 && cache.totalAdditions - cache.currentTable.size() > (cache.currentTable.size() >> 2) ) {
-                                    Hashtable<Integer,WeakReference<Object>> newTable = new Hashtable<Integer,WeakReference<Object>>(cache.currentTable.size());
-                                    int oldMax = cache.totalAdditions;
-                                    for (Enumeration<Integer> en = table.keys(); en.hasMoreElements();) {
-                                        Integer key = en.nextElement();
-                                        newTable.put(key, cache.currentTable.get(key));
-                                    }
-                                    cache.currentTable = newTable;
-                                    cache.totalAdditions = cache.currentTable.size();
-                                }
-                            }
-
-                        }
-                    }
-                    for (int id = toRemove.size() - 1; id >= 0; --id) {
-                        caches.removeElementAt(toRemove.elementAt(id));
-                    }
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        logger.error("Error", e);
-                    }
-                } catch (Exception e) {
-                    logger.error("Error", e);
-                }
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final int maxSize;
+    private final Segment<Object, K>[] segments;
+    private final int segmentMask;
+
+    // Only used by the deprecated hash keyed API
+    private volatile Segment<Integer, K>[] keyedSegments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CacheTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public CacheTable(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxSize          the most values the table will hold at once
+     * @param concurrencyLevel the number of threads expected to intern values at the same time. Rounded up to a power
+     *                         of two and capped at maxSize.
+     */
+    public CacheTable(int maxSize, int concurrencyLevel) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1 but was " + maxSize);
+        }
+
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrencyLevel must be at least 1 but was " + concurrencyLevel);
+        }
+
+        this.maxSize = maxSize;
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount * 2 <= maxSize) {
+            segmentCount *= 2;
+        }
+
+        segmentMask = segmentCount - 1;
+        segments = createSegments(segmentCount, maxSize);
+    }
+
+    /**
+     * @return an instance equal to k that was interned before, or k itself if there is none
+     */
+    public K intern(K k) {
+        if (k == null) {
+            return null;
+        }
+
+        Segment<Object, K> segment = segments[indexFor(k.hashCode())];
+        synchronized (segment) {
+            K existing = segment.get(k);
+            if (existing != null) {
+                hits.incrementAndGet();
+                return existing;
             }
 
+            misses.incrementAndGet();
+            segment.put(k, k);
+            return k;
+        }
+    }
+
+    /**
+     * @deprecated values registered by hash are kept apart from interned ones. Use {@link #intern(Object)} instead.
+     */
+    @Deprecated
+    public K retrieve(int key) {
+        Segment<Integer, K> segment = getKeyedSegments()[indexFor(key)];
+        synchronized (segment) {
+            return segment.get(key);
         }
-    });
+    }
 
-    private static void registerCache(CacheTable<?> table) {
-        caches.addElement(new WeakReference<CacheTable<?>>(table));
-        synchronized(cleaner) {
-            if(!cleaner.isAlive()) {
-                cleaner.start();
+    /**
+     * @deprecated values registered by hash are kept apart from interned ones. Use {@link #intern(Object)} instead.
+     */
+    @Deprecated
+    public void register(int key, K item) {
+        Segment<Integer, K> segment = getKeyedSegments()[indexFor(key)];
+        synchronized (segment) {
+            segment.put(key, item);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of values currently interned
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<Object, K> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
             }
         }
+
+        return size;
     }
 
-    public CacheTable() {
-        super();
-        currentTable = new Hashtable<Integer, WeakReference<Object>>();
-        registerCache(this);
+    /**
+     * @return how many times {@link #intern(Object)} returned a previously interned instance
+     */
+    public long getHitCount() {
+        return hits.get();
     }
 
-    public K intern(K k) {
-        synchronized(this) {
-            int hash = k.hashCode();
-            K nk = retrieve(hash);
-            if(nk == null) {
-                register(hash, k);
-                return k;
+    /**
+     * @return how many times {@link #intern(Object)} was given a value that wasn't interned yet
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return how many values were evicted to keep the table within its size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public void clear() {
+        for (Segment<Object, K> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
             }
-            if(k.equals(nk)) {
-                return nk;
-            } else {
-                //Collision. We should deal with this better for interning (and not manually caching) tables.
+        }
+
+        Segment<Integer, K>[] keyed = keyedSegments;
+        if (keyed != null) {
+            for (Segment<Integer, K> segment : keyed) {
+                synchronized (segment) {
+                    segment.clear();
+                }
             }
-            return k;
         }
     }
 
+    private int indexFor(int hash) {
+        // Spread the high bits down so that hashes that only differ there don't all land in one segment
+        return (hash ^ (hash >>> 16)) & segmentMask;
+    }
 
-    public K retrieve(int key) {
-        synchronized(this) {
-            if(!currentTable.containsKey(DataUtil.integer(key))) { return null; }
-            K retVal = (K)currentTable.get(DataUtil.integer(key)).get();
-            if(retVal == null) { currentTable.remove(DataUtil.integer(key)); }
-            return retVal;
+    private Segment<Integer, K>[] getKeyedSegments() {
+        Segment<Integer, K>[] keyed = keyedSegments;
+        if (keyed == null) {
+            synchronized (this) {
+                keyed = keyedSegments;
+                if (keyed == null) {
+                    keyed = createSegments(segments.length, maxSize);
+                    keyedSegments = keyed;
+                }
+            }
         }
+
+        return keyed;
     }
 
-    public void register(int key, K item) {
-        synchronized(this) {
-            currentTable.put(DataUtil.integer(key), new WeakReference<Object>(item));
-            totalAdditions++;
+    private <S> Segment<S, K>[] createSegments(int segmentCount, int maxSize) {
+        // Round down so that the segments together never hold more than maxSize values
+        int segmentCapacity = maxSize / segmentCount;
+
+        @SuppressWarnings("unchecked")
+        Segment<S, K>[] created = (Segment<S, K>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            created[i] = new Segment<>(segmentCapacity, evictions);
+        }
+
+        return created;
+    }
+
+    /**
+     * A least recently used map that drops its eldest entry once it holds more than its capacity. Must be accessed
+     * while holding its lock.
+     */
+    private static class Segment<S, V> extends LinkedHashMap<S, V> {
+        private static final long serialVersionUID = 5127394815930374628L;
+
+        private final int capacity;
+        private final AtomicLong evictions;
+
+        Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<S, V> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+
+            return false;
         }
     }
 }
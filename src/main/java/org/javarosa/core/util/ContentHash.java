@@ -0,0 +1,53 @@
+package org.javarosa.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded SHA-256 hashes used to recognize files that have already been processed (e.g. parsed or indexed)
+ * regardless of their name or location.
+ */
+public class ContentHash {
+
+    private ContentHash() {
+
+    }
+
+    public static String sha256(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            return toHex(digest.digest());
+        }
+    }
+
+    public static String sha256(String text) {
+        return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.javarosa.debug;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long the expressions of a form take to evaluate, how often they are evaluated and how many nodes they
+ * visit, separately for each triggerable, each itemset and each predicate filter strategy. Measurements nest: the
+ * time and nodes of a filter strategy are also counted in the triggerable or itemset that used it, and the time of a
+ * filter strategy includes the time of the strategies after it in the chain.
+ * <p>
+ * Nodes visited are the nodes reached while expanding references, before predicates filter them.
+ * <p>
+ * Safe to share between threads.
+ */
+public class EvaluationProfiler {
+    public enum Kind {
+        TRIGGERABLE, ITEMSET, FILTER_STRATEGY
+    }
+
+    private static final Comparator<Entry> SLOWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(b.getNanos(), a.getNanos());
+        }
+    };
+
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    // Counts the nodes visited by each thread so that a measurement can tell how many were visited since it started
+    private final ThreadLocal<long[]> nodesVisited = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Starts measuring an evaluation of the given triggerable, itemset or filter strategy class. Entries are named
+     * after the class for classes and after {@link Object#toString()} for anything else.
+     */
+    public Measurement start(Kind kind, Object subject) {
+        return new Measurement(kind, subject, System.nanoTime(), nodesVisited.get()[0]);
+    }
+
+    public void countNodesVisited(int count) {
+        nodesVisited.get()[0] += count;
+    }
+
+    /**
+     * Returns what was recorded for each triggerable, itemset and filter strategy, slowest first.
+     */
+    public List<Entry> getReport() {
+        List<Entry> report = new ArrayList<>(entries.values());
+        Collections.sort(report, SLOWEST_FIRST);
+        return report;
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    private Entry getEntry(Kind kind, Object subject) {
+        Entry entry = entries.get(subject);
+        if (entry == null) {
+            String name = subject instanceof Class ? ((Class<?>) subject).getSimpleName() : String.valueOf(subject);
+            Entry newEntry = new Entry(kind, name);
+            entry = entries.putIfAbsent(subject, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    public final class Measurement {
+        private final Kind kind;
+        private final Object subject;
+        private final long startNanos;
+        private final long startNodesVisited;
+
+        private Measurement(Kind kind, Object subject, long startNanos, long startNodesVisited) {
+            this.kind = kind;
+            this.subject = subject;
+            this.startNanos = startNanos;
+            this.startNodesVisited = startNodesVisited;
+        }
+
+        public void stop() {
+            long nanos = System.nanoTime() - startNanos;
+            long nodes = nodesVisited.get()[0] - startNodesVisited;
+
+            Entry entry = getEntry(kind, subject);
+            entry.invocations.increment();
+            entry.nanos.add(nanos);
+            entry.nodesVisited.add(nodes);
+        }
+    }
+
+    public static final class Entry {
+        private final Kind kind;
+        private final String name;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder nodesVisited = new LongAdder();
+
+        private Entry(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getInvocations() {
+            return invocations.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getNodesVisited() {
+            return nodesVisited.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %d invocations, %d ms, %d nodes visited", kind, name, getInvocations(),
+                TimeUnit.NANOSECONDS.toMillis(getNanos()), getNodesVisited());
+        }
+    }
+}
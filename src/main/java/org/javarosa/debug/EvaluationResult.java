@@ -30,10 +30,16 @@ public class EvaluationResult {
 
   private final TreeReference affectedRef;
   private final Object value;
+  private final boolean changed;
 
   public EvaluationResult(TreeReference affectedRef, Object value) {
+    this(affectedRef, value, true);
+  }
+
+  public EvaluationResult(TreeReference affectedRef, Object value, boolean changed) {
     this.affectedRef = affectedRef;
     this.value = value;
+    this.changed = changed;
   }
 
   public TreeReference getAffectedRef() {
@@ -44,6 +50,13 @@ public class EvaluationResult {
     return value;
   }
 
+  /**
+   * @return false if applying the value is known to have left the affected node as it was
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
   @Override
   public String toString() {
     if (getAffectedRef() == null) {
@@ -18,6 +18,7 @@ package org.javarosa.form.api;
 
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.FormOutline;
 import org.javarosa.core.model.GroupDef;
 import org.javarosa.core.model.IFormElement;
 import org.javarosa.core.model.QuestionDef;
@@ -222,24 +223,20 @@ public class FormEntryModel {
 
 
     /**
-     * Not yet implemented
-     * <p>
-     * Should get the number of completed questions to this point.
+     * @return the number of relevant questions that have been answered, counting each repeat instance's questions.
+     * Kept up to date as answers and relevance change so it is cheap enough to read on every screen.
      */
     public int getCompletedRelevantQuestionCount() {
-        // TODO: Implement me.
-        return 0;
+        return form.getAnsweredRelevantQuestionCount();
     }
 
 
     /**
-     * Not yet implemented
-     * <p>
-     * Should get the total possible questions given the current path through the form.
+     * @return the total possible questions given the current path through the form, counting each repeat
+     * instance's questions. Kept up to date as relevance changes so it is cheap enough to read on every screen.
      */
     public int getTotalRelevantQuestionCount() {
-        // TODO: Implement me.
-        return 0;
+        return form.getRelevantQuestionCount();
     }
 
     /**
@@ -522,9 +519,9 @@ public class FormEntryModel {
     }
 
     public FormIndex incrementIndex(FormIndex index, boolean descend) {
-        List<Integer> indexes = new ArrayList<>();
-        List<Integer> multiplicities = new ArrayList<>();
-        List<IFormElement> elements = new ArrayList<>();
+        FormOutline outline = form.getOutline();
+        int[] multiplicities = new int[outline.getMaxDepth()];
+        int position;
 
         if (index.isEndOfFormIndex()) {
             return index;
@@ -532,119 +529,113 @@ public class FormEntryModel {
             if (form.getChildren() == null || form.getChildren().size() == 0) {
                 return FormIndex.createEndOfFormIndex();
             }
+            position = -1;
         } else {
-            form.collapseIndex(index, indexes, multiplicities, elements);
+            position = outline.getPosition(index, multiplicities);
         }
 
-        incrementHelper(indexes, multiplicities, elements, descend);
+        position = incrementHelper(outline, position, multiplicities, descend);
 
-        if (indexes.size() == 0) {
+        if (position == -1) {
             return FormIndex.createEndOfFormIndex();
         } else {
-            return form.buildIndex(indexes, multiplicities, elements);
+            return outline.buildIndex(position, multiplicities);
         }
     }
 
-    private void incrementHelper(List<Integer> indexes, List<Integer> multiplicities, List<IFormElement> elements, boolean descend) {
-        int i = indexes.size() - 1;
+    /**
+     * Moves from the element at the given position to the next one, updating the multiplicities along its path.
+     *
+     * @return the position of the next element or -1 if the end of the form was reached
+     */
+    private int incrementHelper(FormOutline outline, int position, int[] multiplicities, boolean descend) {
         boolean exitRepeat = false; //if exiting a repetition? (i.e., go to next repetition instead of one level up)
 
-        if (i == -1 || elements.get(i) instanceof GroupDef) {
+        if (position == -1 || outline.getElement(position) instanceof GroupDef) {
             // current index is group or repeat or the top-level form
 
-            if (i >= 0) {
-                // find out whether we're on a repeat, and if so, whether the
-                // specified instance actually exists
-                GroupDef group = (GroupDef) elements.get(i);
-                if (group.getRepeat()) {
-                    if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR) {
-
-                        if (multiplicities.get(multiplicities.size() - 1) == TreeReference.INDEX_REPEAT_JUNCTURE) {
+            // find out whether we're on a repeat, and if so, whether the
+            // specified instance actually exists
+            if (position != -1 && outline.isRepeat(position)) {
+                int multiplicity = multiplicities[outline.getDepth(position)];
+                if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR) {
 
-                            descend = false;
-                            exitRepeat = true;
+                    if (multiplicity == TreeReference.INDEX_REPEAT_JUNCTURE) {
 
-                        }
+                        descend = false;
+                        exitRepeat = true;
 
-                    } else {
+                    }
 
-                        if (form.getMainInstance().resolveReference(form.getChildInstanceRef(elements, multiplicities)) == null) {
-                            descend = false; // repeat instance does not exist; do not descend into it
-                            exitRepeat = true;
-                        }
+                } else {
 
+                    if (!repeatInstanceExists(outline, position, multiplicities)) {
+                        descend = false; // repeat instance does not exist; do not descend into it
+                        exitRepeat = true;
                     }
+
                 }
             }
 
             if (descend) {
-                IFormElement ife = (i == -1) ? null : elements.get(i);
-                if ((i == -1) || (ife != null && ife.getChildren() != null && ife.getChildren().size() > 0)) {
-                    indexes.add(0);
-                    multiplicities.add(0);
-                    elements.add((i == -1 ? form : elements.get(i)).getChild(0));
-
-                    if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR) {
-                        if (elements.get(elements.size() - 1) instanceof GroupDef && ((GroupDef) elements.get(elements.size() - 1)).getRepeat()) {
-                            multiplicities.set(multiplicities.size() - 1, TreeReference.INDEX_REPEAT_JUNCTURE);
-                        }
-                    }
-
-                    return;
+                int firstChild = outline.getFirstChild(position);
+                if (firstChild != -1) {
+                    setNextMultiplicity(outline, firstChild, multiplicities);
+                    return firstChild;
                 }
             }
         }
 
-        while (i >= 0) {
+        while (position != -1) {
             // if on repeat, increment to next repeat EXCEPT when we're on a
             // repeat instance that does not exist and was not created
             // (repeat-not-existing can only happen at lowest level; exitRepeat
             // will be true)
-            if (!exitRepeat && elements.get(i) instanceof GroupDef && ((GroupDef) elements.get(i)).getRepeat()) {
+            if (!exitRepeat && outline.isRepeat(position)) {
+                int depth = outline.getDepth(position);
                 if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR) {
 
-                    multiplicities.set(i, TreeReference.INDEX_REPEAT_JUNCTURE);
+                    multiplicities[depth] = TreeReference.INDEX_REPEAT_JUNCTURE;
 
                 } else {
 
-                    multiplicities.set(i, multiplicities.get(i) + 1);
+                    multiplicities[depth]++;
 
                 }
-                return;
+                return position;
             }
 
-            IFormElement parent = (i == 0 ? form : elements.get(i - 1));
-            int curIndex = indexes.get(i);
-
             // increment to the next element on the current level
-            if (curIndex + 1 >= parent.getChildren().size()) {
+            int nextSibling = outline.getNextSibling(position);
+            if (nextSibling == -1) {
                 // at the end of the current level; move up one level and start
                 // over
-                indexes.remove(i);
-                multiplicities.remove(i);
-                elements.remove(i);
-                i--;
+                position = outline.getParent(position);
                 exitRepeat = false;
             } else {
-                indexes.set(i, curIndex + 1);
-                multiplicities.set(i, 0);
-                elements.set(i, parent.getChild(curIndex + 1));
-
-                if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR) {
-                    if (elements.get(elements.size() - 1) instanceof GroupDef && ((GroupDef) elements.get(elements.size() - 1)).getRepeat()) {
-                        multiplicities.set(multiplicities.size() - 1, TreeReference.INDEX_REPEAT_JUNCTURE);
-                    }
-                }
-
-                return;
+                setNextMultiplicity(outline, nextSibling, multiplicities);
+                return nextSibling;
             }
         }
+
+        return -1;
+    }
+
+    private boolean repeatInstanceExists(FormOutline outline, int position, int[] multiplicities) {
+        int count = outline.getRepeatCount(position, multiplicities, form.getMainInstance());
+        int multiplicity = multiplicities[outline.getDepth(position)];
+        return count == FormOutline.NOT_REPEATABLE ? multiplicity == 0 : multiplicity < count;
+    }
+
+    private void setNextMultiplicity(FormOutline outline, int position, int[] multiplicities) {
+        boolean juncture = repeatStructure == REPEAT_STRUCTURE_NON_LINEAR && outline.isRepeat(position);
+        multiplicities[outline.getDepth(position)] = juncture ? TreeReference.INDEX_REPEAT_JUNCTURE : 0;
     }
 
     public FormIndex decrementIndex(FormIndex index) {
-        List<Integer> indexes = new ArrayList<>();
-        List<Integer> multiplicities = new ArrayList<>();
-        List<IFormElement> elements = new ArrayList<>();
+        FormOutline outline = form.getOutline();
+        int[] multiplicities = new int[outline.getMaxDepth()];
+        int position;
 
         if (index.isBeginningOfFormIndex()) {
             return index;
@@ -652,16 +643,17 @@ public class FormEntryModel {
             if (form.getChildren() == null || form.getChildren().size() == 0) {
                 return FormIndex.createBeginningOfFormIndex();
             }
+            position = -1;
         } else {
-            form.collapseIndex(index, indexes, multiplicities, elements);
+            position = outline.getPosition(index, multiplicities);
         }
 
-        decrementHelper(indexes, multiplicities, elements);
+        position = decrementHelper(outline, position, multiplicities);
 
-        if (indexes.size() == 0) {
+        if (position == -1) {
             return FormIndex.createBeginningOfFormIndex();
         } else {
-            return form.buildIndex(indexes, multiplicities, elements);
+            return outline.buildIndex(position, multiplicities);
         }
     }
 
@@ -669,77 +661,67 @@ public class FormEntryModel {
         return extras;
     }
 
-    private void decrementHelper(List<Integer> indexes, List<Integer> multiplicities, List<IFormElement> elements) {
-        int i = indexes.size() - 1;
-
-        if (i != -1) {
-            int curIndex = indexes.get(i);
-            int curMult = multiplicities.get(i);
+    /**
+     * Moves from the element at the given position to the previous one, updating the multiplicities along its path.
+     *
+     * @return the position of the previous element or -1 if the beginning of the form was reached
+     */
+    private int decrementHelper(FormOutline outline, int position, int[] multiplicities) {
+        if (position != -1) {
+            int depth = outline.getDepth(position);
+            int curMult = multiplicities[depth];
+            int previousSibling = outline.getPreviousSibling(position);
 
             if (repeatStructure == REPEAT_STRUCTURE_NON_LINEAR &&
-                elements.get(elements.size() - 1) instanceof GroupDef && ((GroupDef) elements.get(elements.size() - 1)).getRepeat() &&
-                multiplicities.get(multiplicities.size() - 1) != TreeReference.INDEX_REPEAT_JUNCTURE) {
-                multiplicities.set(i, TreeReference.INDEX_REPEAT_JUNCTURE);
-                return;
+                outline.isRepeat(position) && curMult != TreeReference.INDEX_REPEAT_JUNCTURE) {
+                multiplicities[depth] = TreeReference.INDEX_REPEAT_JUNCTURE;
+                return position;
             } else if (repeatStructure != REPEAT_STRUCTURE_NON_LINEAR && curMult > 0) {
-                multiplicities.set(i, curMult - 1);
-            } else if (curIndex > 0) {
+                multiplicities[depth] = curMult - 1;
+            } else if (previousSibling != -1) {
                 // set node to previous element
-                indexes.set(i, curIndex - 1);
-                multiplicities.set(i, 0);
-                elements.set(i, (i == 0 ? form : elements.get(i - 1)).getChild(curIndex - 1));
+                position = previousSibling;
+                multiplicities[depth] = 0;
 
-                if (setRepeatNextMultiplicity(elements, multiplicities))
-                    return;
+                if (setRepeatNextMultiplicity(outline, position, multiplicities))
+                    return position;
             } else {
                 // at absolute beginning of current level; index to parent
-                indexes.remove(i);
-                multiplicities.remove(i);
-                elements.remove(i);
-                return;
+                return outline.getParent(position);
             }
         }
 
-        IFormElement element = (i < 0 ? form : elements.get(i));
-        while (!(element instanceof QuestionDef)) {
-            if (element.getChildren() == null || element.getChildren().size() == 0) {
+        while (position == -1 || !(outline.getElement(position) instanceof QuestionDef)) {
+            int lastChild = outline.getLastChild(position);
+            if (lastChild == -1) {
                 //if there are no children we just return the current index (the group itself)
-                return;
+                return position;
             }
-            int subIndex = element.getChildren().size() - 1;
-            element = element.getChild(subIndex);
-
-            indexes.add(subIndex);
-            multiplicities.add(0);
-            elements.add(element);
+            position = lastChild;
+            multiplicities[outline.getDepth(position)] = 0;
 
-            if (setRepeatNextMultiplicity(elements, multiplicities))
-                return;
+            if (setRepeatNextMultiplicity(outline, position, multiplicities))
+                return position;
         }
+
+        return position;
     }
 
-    private boolean setRepeatNextMultiplicity(List<IFormElement> elements, List<Integer> multiplicities) {
-        // find out if node is repeatable
-        TreeReference nodeRef = form.getChildInstanceRef(elements, multiplicities);
-        TreeElement node = form.getMainInstance().resolveReference(nodeRef);
-        if (node == null || node.isRepeatable()) { // node == null if there are no instances of the repeat
-            IFormElement lastElement = elements.get(elements.size() - 1);
-            if (lastElement instanceof GroupDef && !((GroupDef) lastElement).getRepeat()) {
-                return false; // It's a regular group inside a repeatable group. This case takes place when the nested group doesn't have the ref attribute.
-            }
-            int mult;
-            if (node == null) {
-                mult = 0; // no repeats; next is 0
-            } else {
-                String name = node.getName();
-                TreeElement parentNode = form.getMainInstance().resolveReference(nodeRef.getParentRef());
-                mult = parentNode.getChildMultiplicity(name);
-            }
-            multiplicities.set(multiplicities.size() - 1, repeatStructure == REPEAT_STRUCTURE_NON_LINEAR ? TreeReference.INDEX_REPEAT_JUNCTURE : mult);
-            return true;
-        } else {
+    private boolean setRepeatNextMultiplicity(FormOutline outline, int position, int[] multiplicities) {
+        // A regular group inside a repeatable group shares the repeat's node when the nested group doesn't have the
+        // ref attribute so only repeats themselves are checked
+        if (!outline.isRepeat(position)) {
             return false;
         }
+
+        int count = outline.getRepeatCount(position, multiplicities, form.getMainInstance());
+        if (count == FormOutline.NOT_REPEATABLE) {
+            return false;
+        }
+
+        // count is 0 if there are no instances of the repeat; next is 0
+        multiplicities[outline.getDepth(position)] = repeatStructure == REPEAT_STRUCTURE_NON_LINEAR ? TreeReference.INDEX_REPEAT_JUNCTURE : count;
+        return true;
     }
 
     /**
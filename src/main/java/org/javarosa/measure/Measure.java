@@ -1,57 +1,159 @@
 package org.javarosa.measure;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counts and times named events. Nothing is recorded unless measuring has been turned on with
+ * {@link #setEnabled(boolean)} or for the duration of {@link #withMeasure(List, Runnable)}, and turning it on is cheap
+ * enough to leave on in production: counters are {@link LongAdder}s so threads recording the same event don't contend
+ * and recording an event that has been seen before doesn't allocate.
+ */
 public class Measure {
 
-    private static final Map<String, Integer> counts = new HashMap<>();
-    private static boolean measuring;
+    private static final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> nanos = new ConcurrentHashMap<>();
+    private static volatile boolean measuring;
 
     private Measure() {
 
     }
 
+    /**
+     * Runs the work with measuring turned on and returns how many of the given events it recorded.
+     */
     public static int withMeasure(List<String> events, Runnable work) {
-        start();
-        work.run();
+        boolean wasMeasuring = measuring;
+        Snapshot before = snapshot();
+        measuring = true;
+
+        try {
+            work.run();
 
-        int count = 0;
-        for (String event : events) {
-            count += getCount(event);
+            Snapshot after = snapshot();
+            long count = 0;
+            for (String event : events) {
+                count += after.getCount(event) - before.getCount(event);
+            }
+
+            return (int) count;
+        } finally {
+            measuring = wasMeasuring;
         }
+    }
 
-        stop();
+    public static void setEnabled(boolean enabled) {
+        measuring = enabled;
+    }
 
-        return count;
+    public static boolean isEnabled() {
+        return measuring;
     }
 
     public static void log(String event) {
         if (!measuring) return;
 
-        if (!counts.containsKey(event)) {
-            counts.put(event, 0);
+        adder(counts, event).increment();
+    }
+
+    /**
+     * Returns the time to pass to {@link #stopTimer(String, long)} when the timed work is done, or 0 if measuring is
+     * off.
+     */
+    public static long startTimer() {
+        return measuring ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts the event and adds the time since the given start to its total time. Does nothing if measuring was off
+     * when the timer was started.
+     */
+    public static void stopTimer(String event, long start) {
+        if (!measuring || start == 0) return;
+
+        long elapsed = System.nanoTime() - start;
+        adder(counts, event).increment();
+        adder(nanos, event).add(elapsed);
+    }
+
+    /**
+     * Returns the counts and times recorded so far. Events recorded while the snapshot is taken may or may not be
+     * included.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot(sums(counts), sums(nanos));
+    }
+
+    /**
+     * Sets every count and time back to 0. Events recorded while resetting may be lost.
+     */
+    public static void reset() {
+        for (LongAdder adder : counts.values()) {
+            adder.reset();
         }
 
-        counts.put(event, counts.get(event) + 1);
+        for (LongAdder adder : nanos.values()) {
+            adder.reset();
+        }
     }
 
-    private static void start() {
-        counts.clear();
-        measuring = true;
+    private static LongAdder adder(ConcurrentHashMap<String, LongAdder> adders, String event) {
+        // Look up before computeIfAbsent which locks even when the key is present
+        LongAdder adder = adders.get(event);
+        if (adder == null) {
+            adder = adders.computeIfAbsent(event, key -> new LongAdder());
+        }
+
+        return adder;
     }
 
-    private static void stop() {
-        counts.clear();
-        measuring = false;
+    private static Map<String, Long> sums(ConcurrentHashMap<String, LongAdder> adders) {
+        Map<String, Long> sums = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : adders.entrySet()) {
+            sums.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        return Collections.unmodifiableMap(sums);
     }
 
-    private static int getCount(String event) {
-        if (counts.containsKey(event)) {
-            return counts.get(event);
-        } else {
-            return 0;
+    public static final class Snapshot {
+        private final Map<String, Long> counts;
+        private final Map<String, Long> nanos;
+
+        private Snapshot(Map<String, Long> counts, Map<String, Long> nanos) {
+            this.counts = counts;
+            this.nanos = nanos;
+        }
+
+        public long getCount(String event) {
+            Long count = counts.get(event);
+            return count != null ? count : 0;
+        }
+
+        /**
+         * Returns the total time recorded for a timed event.
+         */
+        public long getNanos(String event) {
+            Long total = nanos.get(event);
+            return total != null ? total : 0;
+        }
+
+        /**
+         * Returns the count of every event that has been recorded, including those counted before the last reset.
+         */
+        public Map<String, Long> getCounts() {
+            return counts;
+        }
+
+        /**
+         * Returns the total time of every timed event that has been recorded.
+         */
+        public Map<String, Long> getNanos() {
+            return nanos;
         }
     }
 }
@@ -0,0 +1,134 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.reference.InvalidReferenceException;
+import org.javarosa.core.reference.ReferenceManager;
+import org.javarosa.core.util.ContentHash;
+import org.javarosa.xml.util.InvalidStructureException;
+import org.javarosa.xml.util.UnfullfilledRequirementsException;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ExternalInstanceParserFactory} whose parsers share the trees they build for file-backed external
+ * secondary instances. Forms that reference a file with the same content (under the same instance id and src) get a
+ * copy of the already parsed tree instead of parsing the file again.
+ * <p>
+ * Each caller gets its own deep copy because {@link org.javarosa.core.model.instance.ExternalDataInstance} re-parents
+ * the tree it is given. Copying is still much cheaper than reading and parsing a large instance file.
+ * <p>
+ * Instances that do not come from a local file (e.g. those supplied by an {@link ExternalInstanceParser.InstanceProvider})
+ * are passed straight to the delegate.
+ */
+public class CachingExternalInstanceParserFactory implements ExternalInstanceParserFactory {
+
+    private final ExternalInstanceParserFactory delegate;
+    private final ConcurrentHashMap<String, FutureTask<TreeElement>> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public CachingExternalInstanceParserFactory(ExternalInstanceParserFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ExternalInstanceParser getExternalInstanceParser() {
+        return new CachingExternalInstanceParser(delegate.getExternalInstanceParser());
+    }
+
+    /**
+     * @return how many instance requests were answered from the cache
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many instance files had to be parsed
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private TreeElement getOrParse(String key, Callable<TreeElement> parse) throws Exception {
+        FutureTask<TreeElement> newTask = new FutureTask<>(parse);
+        FutureTask<TreeElement> task = cache.putIfAbsent(key, newTask);
+        if (task == null) {
+            task = newTask;
+            misses.incrementAndGet();
+            task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return task.get().deepCopy(true);
+        } catch (ExecutionException e) {
+            // Don't remember failures; the file may be fixed or become available later
+            cache.remove(key, task);
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private class CachingExternalInstanceParser extends ExternalInstanceParser {
+        private final ExternalInstanceParser wrapped;
+
+        CachingExternalInstanceParser(ExternalInstanceParser wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public TreeElement parse(final ReferenceManager referenceManager, final String instanceId, final String instanceSrc, boolean partial) throws IOException, UnfullfilledRequirementsException, InvalidStructureException, XmlPullParserException, InvalidReferenceException {
+            File file;
+            try {
+                file = new File(getPath(referenceManager, instanceSrc));
+            } catch (InvalidReferenceException e) {
+                return wrapped.parse(referenceManager, instanceId, instanceSrc, partial);
+            }
+
+            if (!file.isFile()) {
+                return wrapped.parse(referenceManager, instanceId, instanceSrc, partial);
+            }
+
+            // Always cache complete trees: a copy of a partial tree would lose its partial markers
+            String key = instanceId + "\n" + instanceSrc + "\n" + ContentHash.sha256(file);
+            try {
+                return getOrParse(key, new Callable<TreeElement>() {
+                    @Override
+                    public TreeElement call() throws Exception {
+                        return wrapped.parse(referenceManager, instanceId, instanceSrc, false);
+                    }
+                });
+            } catch (IOException | UnfullfilledRequirementsException | InvalidStructureException |
+                     XmlPullParserException | InvalidReferenceException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void addFileInstanceParser(FileInstanceParser fileInstanceParser) {
+            wrapped.addFileInstanceParser(fileInstanceParser);
+        }
+
+        @Override
+        public void addInstanceProvider(InstanceProvider instanceProvider) {
+            wrapped.addInstanceProvider(instanceProvider);
+        }
+    }
+}
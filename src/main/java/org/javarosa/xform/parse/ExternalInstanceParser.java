@@ -85,7 +85,7 @@ public class ExternalInstanceParser {
      * @param referenceManager
      * @param srcLocation      the value of the <code>src</code> attribute of the <code>instance</code> element
      */
-    private static String getPath(ReferenceManager referenceManager, String srcLocation) throws InvalidReferenceException {
+    static String getPath(ReferenceManager referenceManager, String srcLocation) throws InvalidReferenceException {
         String uri = referenceManager.deriveReference(srcLocation).getLocalURI();
         return uri.startsWith("//") /* todo why is this? */ ? uri.substring(1) : uri;
     }
@@ -0,0 +1,145 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.util.ContentHash;
+import org.javarosa.xform.util.XFormUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a batch of forms in parallel and serializes each resulting {@link FormDef} with
+ * {@link FormDef#writeExternal(DataOutputStream)} so that it can later be loaded without parsing the XML.
+ * <p>
+ * External secondary instances are parsed through a {@link CachingExternalInstanceParserFactory} so forms that share
+ * the same lookup files only pay for parsing them once. The cache is kept for the life of the compiler.
+ */
+public class FormCompiler {
+    private static final Logger logger = LoggerFactory.getLogger(FormCompiler.class.getSimpleName());
+
+    public static final String SERIALIZED_FORM_EXTENSION = ".formdef";
+
+    private final ExecutorService executor;
+    private final CachingExternalInstanceParserFactory instanceParserFactory;
+
+    /**
+     * @param executor runs one task per form. It is not shut down by the compiler.
+     */
+    public FormCompiler(ExecutorService executor) {
+        this(executor, ExternalInstanceParser::new);
+    }
+
+    /**
+     * @param executor                 runs one task per form. It is not shut down by the compiler.
+     * @param instanceParserFactory    creates the parsers used for instances that have not been parsed yet
+     */
+    public FormCompiler(ExecutorService executor, ExternalInstanceParserFactory instanceParserFactory) {
+        this.executor = executor;
+        this.instanceParserFactory = new CachingExternalInstanceParserFactory(instanceParserFactory);
+    }
+
+    public CachingExternalInstanceParserFactory getInstanceParserFactory() {
+        return instanceParserFactory;
+    }
+
+    /**
+     * Parses and serializes every form in formFiles. Only the forms of the batch use the compiler's caching factory;
+     * the external instance parser factory set in {@link XFormUtils} is left alone.
+     *
+     * @param formFiles the XForm definitions to compile
+     * @param outputDir where serialized forms are written, named by a hash of the form definition
+     * @return one result per form file, in the same order
+     */
+    public List<CompiledForm> compile(List<File> formFiles, final File outputDir) throws InterruptedException {
+        List<Future<File>> futures = new ArrayList<>(formFiles.size());
+        for (final File formFile : formFiles) {
+            futures.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return compile(formFile, outputDir);
+                }
+            }));
+        }
+
+        List<CompiledForm> compiledForms = new ArrayList<>(formFiles.size());
+        for (int i = 0; i < formFiles.size(); i++) {
+            try {
+                compiledForms.add(new CompiledForm(formFiles.get(i), futures.get(i).get(), null));
+            } catch (ExecutionException e) {
+                logger.error("Unable to compile " + formFiles.get(i), e.getCause());
+                compiledForms.add(new CompiledForm(formFiles.get(i), null, e.getCause()));
+            }
+        }
+        return compiledForms;
+    }
+
+    private File compile(File formFile, File outputDir) throws IOException, XFormParser.ParseException {
+        FormDef formDef;
+        try (FileInputStream inputStream = new FileInputStream(formFile)) {
+            formDef = XFormUtils.getFormFromInputStream(inputStream, null, instanceParserFactory);
+        }
+
+        File serializedForm = new File(outputDir, ContentHash.sha256(formFile) + SERIALIZED_FORM_EXTENSION);
+
+        // Serialize into a temporary file and rename it when done so readers never see a partially written form
+        File tempFile = File.createTempFile("formdef", null, outputDir);
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tempFile))) {
+            formDef.writeExternal(outputStream);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        if (!tempFile.renameTo(serializedForm)) {
+            tempFile.delete();
+            throw new IOException("Unable to rename " + tempFile + " to " + serializedForm);
+        }
+
+        return serializedForm;
+    }
+
+    public static class CompiledForm {
+        private final File formFile;
+        private final File serializedForm;
+        private final Throwable error;
+
+        CompiledForm(File formFile, File serializedForm, Throwable error) {
+            this.formFile = formFile;
+            this.serializedForm = serializedForm;
+            this.error = error;
+        }
+
+        public File getFormFile() {
+            return formFile;
+        }
+
+        /**
+         * @return the file the serialized {@link FormDef} was written to, or null if compilation failed
+         */
+        public File getSerializedForm() {
+            return serializedForm;
+        }
+
+        /**
+         * @return why the form could not be compiled, or null if it was compiled successfully
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+}
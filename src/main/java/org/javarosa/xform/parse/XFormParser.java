@@ -81,6 +81,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -88,8 +89,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 import kotlin.Pair;
 import static java.util.Arrays.asList;
@@ -177,7 +177,7 @@ public class XFormParser implements IXFormParserFunctions {
     private List<Element> instanceNodes;
     private List<String> instanceNodeIdStrs;
     private List<String> itextKnownForms;
-    private static HashMap<String, IElementHandler> actionHandlers;
+    private static final Map<String, IElementHandler> actionHandlers = new ConcurrentHashMap<>();
 
     private final List<BindAttributeProcessor> bindAttributeProcessors = new ArrayList<>();
     private final List<FormDefProcessor> formDefProcessors = new ArrayList<>();
@@ -186,12 +186,21 @@ public class XFormParser implements IXFormParserFunctions {
     private final List<XPathProcessor> xpathProcessors = new ArrayList<>();
     private final List<ExternalDataInstanceProcessor> externalDataInstanceProcessors = new ArrayList<>();;
 
-    public static final List<XPathProcessor> tempXPathProcessors = new ArrayList<>();
+    // Creates the parsers for external secondary instances. Null to use the one set in XFormUtils.
+    private ExternalInstanceParserFactory externalInstanceParserFactory;
+
+    /**
+     * The parser that is currently running {@link #parse(String, String)} on each thread. XPath expressions are
+     * parsed through static entry points ({@link org.javarosa.xpath.XPathParseTool}, {@link XPathFuncExpr}) so
+     * they reach per-parse state through this rather than through shared statics, which lets separate parsers run
+     * concurrently on separate threads.
+     */
+    private static final ThreadLocal<XFormParser> activeParser = new ThreadLocal<>();
 
     /**
      * The string IDs of all instances that are referenced in a instance() function call in the primary instance
      **/
-    private static Set<String> referencedInstanceIds;
+    private Set<String> referencedInstanceIds = new HashSet<>();
 
     private final List<WarningCallback> warningCallbacks = new ArrayList<>();
     private final List<ErrorCallback> errorCallbacks = new ArrayList<>();
@@ -205,8 +214,6 @@ public class XFormParser implements IXFormParserFunctions {
         return answerResolver;
     }
 
-    private static final Lock parseLock = new ReentrantLock();
-
     public static void setAnswerResolver(IAnswerResolver answerResolver) {
         XFormParser.answerResolver = answerResolver;
     }
@@ -222,8 +229,6 @@ public class XFormParser implements IXFormParserFunctions {
     private static void staticInit() {
         initProcessingRules();
         submissionParsers = new ArrayList<>(1);
-
-        referencedInstanceIds = new HashSet<>();
     }
 
     private static void initProcessingRules() {
@@ -331,7 +336,6 @@ public class XFormParser implements IXFormParserFunctions {
     }
 
     private static void setUpActionHandlers() {
-        actionHandlers = new HashMap<>();
         registerActionHandler(SetValueAction.ELEMENT_NAME, SetValueAction.getHandler());
 
         // Register a stub odk:setgeopoint action handler. Clients that want to actually collect location need to
@@ -354,6 +358,7 @@ public class XFormParser implements IXFormParserFunctions {
         mainInstanceNode = null;
         instanceNodes = new ArrayList<>();
         instanceNodeIdStrs = new ArrayList<>();
+        referencedInstanceIds = new HashSet<>();
 
         itextKnownForms = new ArrayList<>(4);
         itextKnownForms.add("long");
@@ -397,13 +402,9 @@ public class XFormParser implements IXFormParserFunctions {
      *                     no data will be loaded and the instance will be blank.
      */
     public FormDef parse(String formXmlSrc, String lastSavedSrc) throws ParseException {
+        final XFormParser outerParser = activeParser.get();
+        activeParser.set(this);
         try {
-            if (!parseLock.tryLock()) {
-                throw new IllegalStateException("Another XForm is being parsed!");
-            }
-
-            tempXPathProcessors.addAll(xpathProcessors);
-
             if (_f == null) {
                 logger.info("Parsing form...");
 
@@ -435,11 +436,31 @@ public class XFormParser implements IXFormParserFunctions {
 
             return _f;
         } finally {
-            tempXPathProcessors.clear();
-            parseLock.unlock();
+            if (outerParser == null) {
+                activeParser.remove();
+            } else {
+                activeParser.set(outerParser);
+            }
         }
     }
 
+    /**
+     * Returns the {@link XPathProcessor}s registered with the parser that is running on the current thread, or an
+     * empty list if no parse is in progress.
+     */
+    public static List<XPathProcessor> getActiveXPathProcessors() {
+        XFormParser parser = activeParser.get();
+        return parser == null ? Collections.<XPathProcessor>emptyList() : parser.xpathProcessors;
+    }
+
+    /**
+     * Sets the factory for the parsers of this form's external secondary instances, in place of the one set with
+     * {@link XFormUtils#setExternalInstanceParserFactory}. Null goes back to using that one.
+     */
+    public void setExternalInstanceParserFactory(ExternalInstanceParserFactory externalInstanceParserFactory) {
+        this.externalInstanceParserFactory = externalInstanceParserFactory;
+    }
+
     public void addProcessor(Processor processor) {
         if (processor instanceof BindAttributeProcessor) {
             addBindAttributeProcessor((BindAttributeProcessor) processor);
@@ -557,7 +578,6 @@ public class XFormParser implements IXFormParserFunctions {
         initState();
         final String defaultNamespace = _xmldoc.getRootElement().getNamespaceUri(null);
 
-        referencedInstanceIds.clear();
         parseElement(_xmldoc.getRootElement(), _f, topLevelHandlers);
 
         collapseRepeatGroups(_f);
@@ -581,7 +601,9 @@ public class XFormParser implements IXFormParserFunctions {
                     if (instanceSrc != null) {
                         ExternalDataInstance externalDataInstance;
                         try {
-                            externalDataInstance = ExternalDataInstance.build(instanceSrc, instanceId);
+                            externalDataInstance = externalInstanceParserFactory != null
+                                ? ExternalDataInstance.build(instanceSrc, instanceId, externalInstanceParserFactory)
+                                : ExternalDataInstance.build(instanceSrc, instanceId);
                             for (ExternalDataInstanceProcessor processor : externalDataInstanceProcessors) {
                                 processor.processInstance(externalDataInstance);
                             }
@@ -688,10 +710,14 @@ public class XFormParser implements IXFormParserFunctions {
     }
 
     /**
-     * Records that the given instance ID was used as the argument to an instance() function call.
+     * Records that the given instance ID was used as the argument to an instance() function call in the form being
+     * parsed on the current thread. Calls made outside of a parse are ignored.
      */
     public static void recordInstanceFunctionCall(String instanceId) {
-        referencedInstanceIds.add(instanceId);
+        XFormParser parser = activeParser.get();
+        if (parser != null) {
+            parser.referencedInstanceIds.add(instanceId);
+        }
     }
 
     private void parseTitle(Element e) {
@@ -1191,7 +1217,7 @@ public class XFormParser implements IXFormParserFunctions {
                 parseItem(question, child);
             } else if (isItem && "itemset".equals(childName)) {
                 parseItemset(question, child, parent);
-            } else if (actionHandlers.containsKey(childName)) {
+            } else if (childName != null && actionHandlers.containsKey(childName)) {
                 actionHandlers.get(childName).handle(this, child, question);
             }
         }
@@ -62,8 +62,14 @@ public class XFormUtils {
         return oldFactory;
     }
 
-    public static void setExternalInstanceParserFactory(ExternalInstanceParserFactory factory) {
+    public static ExternalInstanceParserFactory setExternalInstanceParserFactory(ExternalInstanceParserFactory factory) {
+        ExternalInstanceParserFactory oldFactory = externalInstanceParserFactory;
         externalInstanceParserFactory = factory;
+        return oldFactory;
+    }
+
+    public static ExternalInstanceParserFactory getExternalInstanceParserFactory() {
+        return externalInstanceParserFactory;
     }
 
     public static FormDef getFormFromResource (String resource) throws XFormParser.ParseException {
@@ -99,6 +105,16 @@ public class XFormUtils {
      *                     no data will be loaded and the instance will be blank.
      */
     public static FormDef getFormFromInputStream(InputStream is, String lastSavedSrc) throws XFormParser.ParseException {
+        return getFormFromInputStream(is, lastSavedSrc, externalInstanceParserFactory);
+    }
+
+    /**
+     * @see #getFormFromInputStream(InputStream, String)
+     *
+     * @param externalInstanceParserFactory creates the parsers for this form's external secondary instances in place
+     *                                      of the one set with {@link #setExternalInstanceParserFactory}
+     */
+    public static FormDef getFormFromInputStream(InputStream is, String lastSavedSrc, ExternalInstanceParserFactory externalInstanceParserFactory) throws XFormParser.ParseException {
         InputStreamReader isr = null;
         try {
             try {
@@ -108,6 +124,7 @@ public class XFormUtils {
             }
 
             XFormParser xFormParser = _factory.getXFormParser(isr);
+            xFormParser.setExternalInstanceParserFactory(externalInstanceParserFactory);
             return xFormParser.parse(lastSavedSrc);
         } finally {
             try {
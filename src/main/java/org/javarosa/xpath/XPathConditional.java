@@ -31,6 +31,7 @@ import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.core.util.externalizable.ExtWrapNullable;
 import org.javarosa.core.util.externalizable.ExtWrapTagged;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
 import org.javarosa.xpath.expr.XPathBinaryOpExpr;
@@ -38,10 +39,18 @@ import org.javarosa.xpath.expr.XPathExpression;
 import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.javarosa.xpath.expr.XPathPathExpr;
 import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+import org.javarosa.xpath.parser.Lexer;
+import org.javarosa.xpath.parser.Parser;
 import org.javarosa.xpath.parser.XPathSyntaxException;
 
 public class XPathConditional implements IConditionExpr {
     private XPathExpression expr;
+    /**
+     * The expression with its constant subexpressions folded (see {@link XPathConstantFolder}) which is what gets
+     * evaluated. Same as {@link #expr} when nothing could be folded. {@link #expr} is kept as parsed so that the
+     * condition prints and serializes like the form wrote it.
+     */
+    private XPathExpression evaluationExpr;
     public String xpath; //not serialized!
     public boolean hasNow; //indicates whether this XpathConditional contains the now() function (used for timestamping)
 
@@ -51,11 +60,22 @@ public class XPathConditional implements IConditionExpr {
             hasNow = true;
         }
         this.expr = XPathParseTool.parseXPath(xpath);
+        this.evaluationExpr = expr;
+        if (XPathConstantFolder.canFold(expr)) {
+            // Folding replaces subexpressions in place so it is given its own copy of the parse tree. That copy
+            // isn't passed to the parser's XPath processors which have already seen the expression.
+            XPathExpression folded = XPathConstantFolder.fold(Parser.parse(Lexer.lex(xpath)));
+            // Compared as text because calls to nondeterministic functions are never equal
+            if (!folded.toString().equals(expr.toString())) {
+                this.evaluationExpr = folded;
+            }
+        }
         this.xpath = xpath;
     }
 
     public XPathConditional (XPathExpression expr) {
         this.expr = expr;
+        this.evaluationExpr = expr;
     }
 
     public XPathConditional () {
@@ -67,9 +87,17 @@ public class XPathConditional implements IConditionExpr {
         return expr;
     }
 
+    /**
+     * Returns the expression that is actually evaluated which is {@link #getExpr()} with its constant
+     * subexpressions folded.
+     */
+    public XPathExpression getEvaluationExpr() {
+        return evaluationExpr;
+    }
+
     public Object evalRaw (DataInstance model, EvaluationContext evalContext) {
         try{
-            return XPathFuncExpr.unpack(expr.eval(model, evalContext));
+            return XPathFuncExpr.unpack(evaluationExpr.eval(model, evalContext));
         } catch(XPathUnsupportedException e){
             if(xpath != null){
                 throw new XPathUnsupportedException(xpath);
@@ -90,8 +118,8 @@ public class XPathConditional implements IConditionExpr {
     }
 
     public List<TreeReference> evalNodeset (DataInstance model, EvaluationContext evalContext) {
-        if (expr instanceof XPathPathExpr) {
-            return ((XPathPathExpr)expr).eval(model, evalContext).getReferences();
+        if (evaluationExpr instanceof XPathPathExpr) {
+            return ((XPathPathExpr)evaluationExpr).eval(model, evalContext).getReferences();
         } else {
             throw new FatalException("evalNodeset: must be path expression");
         }
@@ -99,7 +127,7 @@ public class XPathConditional implements IConditionExpr {
 
     public Set<TreeReference> getTriggers (TreeReference contextRef) {
         Set<TreeReference> triggers = new HashSet<>();
-        getTriggers(expr, contextRef, contextRef, triggers);
+        getTriggers(evaluationExpr, contextRef, contextRef, triggers);
         return triggers;
     }
 
@@ -142,6 +170,7 @@ public class XPathConditional implements IConditionExpr {
         }
     }
 
+    @Override
     public boolean equals (Object o) {
         if (o instanceof XPathConditional) {
             XPathConditional cond = (XPathConditional)o;
@@ -151,14 +180,22 @@ public class XPathConditional implements IConditionExpr {
         }
     }
 
+    @Override
+    public int hashCode() {
+        return expr.hashCode();
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         expr = (XPathExpression)ExtUtil.read(in, new ExtWrapTagged(), pf);
         hasNow = (boolean)ExtUtil.readBool(in);
+        XPathExpression folded = (XPathExpression)ExtUtil.read(in, new ExtWrapNullable(new ExtWrapTagged()), pf);
+        evaluationExpr = folded != null ? folded : expr;
     }
 
     public void writeExternal(DataOutputStream out) throws IOException {
         ExtUtil.write(out, new ExtWrapTagged(expr));
         ExtUtil.writeBool(out, hasNow);
+        ExtUtil.write(out, new ExtWrapNullable(evaluationExpr == expr ? null : new ExtWrapTagged(evaluationExpr)));
     }
 
     public String toString () {
@@ -166,6 +203,6 @@ public class XPathConditional implements IConditionExpr {
     }
 
     public List<Object> pivot(DataInstance model, EvaluationContext evalContext) throws UnpivotableExpressionException {
-        return expr.pivot(model, evalContext);
+        return evaluationExpr.pivot(model, evalContext);
     }
 }
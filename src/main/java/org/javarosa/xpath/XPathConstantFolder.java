@@ -0,0 +1,242 @@
+package org.javarosa.xpath;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathBoolExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFilterExpr;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathOpExpr;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathQName;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+import org.javarosa.xpath.expr.XPathUnionExpr;
+
+/**
+ * Simplifies a parsed expression so that work that gives the same result every time isn't repeated on every
+ * evaluation. Subexpressions that only combine literals using operators and pure built-in functions (see
+ * {@link XPathFuncExpr#isPure()}) are replaced by their value, and {@code if}, {@code coalesce}, {@code and} and
+ * {@code or} with a constant first argument are replaced by the branch that would be evaluated.
+ * <p>
+ * Values are only ever replaced by the nodes parsing them as literals would give ({@link XPathStringLiteral},
+ * {@link XPathNumericLiteral} or {@code true()}/{@code false()}) so simplified expressions print and serialize
+ * like any other. Subexpressions whose evaluation fails are left alone so that the error is still reported when
+ * the expression is evaluated.
+ */
+public class XPathConstantFolder {
+
+    private XPathConstantFolder() {
+    }
+
+    /**
+     * Returns the simplified expression. Subexpressions of the given expression may be replaced in place.
+     */
+    public static XPathExpression fold(XPathExpression expression) {
+        if (expression instanceof XPathFuncExpr) {
+            return foldFunc((XPathFuncExpr) expression);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            return foldBinaryOp((XPathBinaryOpExpr) expression);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            XPathUnaryOpExpr op = (XPathUnaryOpExpr) expression;
+            op.a = fold(op.a);
+            return isConstant(op.a) ? evalConstant(op) : op;
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr path = (XPathPathExpr) expression;
+            if (path.filtExpr != null) {
+                foldFilter(path.filtExpr);
+            }
+            for (XPathStep step : path.steps) {
+                foldAll(step.predicates);
+            }
+            return path;
+        } else if (expression instanceof XPathFilterExpr) {
+            return foldFilter((XPathFilterExpr) expression);
+        } else {
+            return expression;
+        }
+    }
+
+    /**
+     * Returns whether {@link #fold(XPathExpression)} might simplify the expression, without modifying it. Used to
+     * avoid copying expressions that have nothing to fold.
+     */
+    public static boolean canFold(XPathExpression expression) {
+        if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr func = (XPathFuncExpr) expression;
+            if (func.isPure() && !isConstant(func) && (allFoldToConstants(func.args)
+                || (func.args.length > 0 && foldsToConstant(func.args[0])))) {
+                return true;
+            }
+            return anyCanFold(func.args);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            XPathBinaryOpExpr op = (XPathBinaryOpExpr) expression;
+            if (!(op instanceof XPathUnionExpr) && foldsToConstant(op.a)
+                && (op instanceof XPathBoolExpr || foldsToConstant(op.b))) {
+                return true;
+            }
+            return canFold(op.a) || canFold(op.b);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return foldsToConstant(((XPathUnaryOpExpr) expression).a) || canFold(((XPathUnaryOpExpr) expression).a);
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr path = (XPathPathExpr) expression;
+            if (path.filtExpr != null && canFold(path.filtExpr)) {
+                return true;
+            }
+            for (XPathStep step : path.steps) {
+                if (anyCanFold(step.predicates)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (expression instanceof XPathFilterExpr) {
+            XPathFilterExpr filter = (XPathFilterExpr) expression;
+            return canFold(filter.x) || anyCanFold(filter.predicates);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the expression is a constant or only combines constants so that folding may turn it into one.
+     */
+    private static boolean foldsToConstant(XPathExpression expression) {
+        if (isConstant(expression)) {
+            return true;
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr func = (XPathFuncExpr) expression;
+            return func.isPure() && allFoldToConstants(func.args);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            XPathBinaryOpExpr op = (XPathBinaryOpExpr) expression;
+            return !(op instanceof XPathUnionExpr) && foldsToConstant(op.a) && foldsToConstant(op.b);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return foldsToConstant(((XPathUnaryOpExpr) expression).a);
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean allFoldToConstants(XPathExpression[] expressions) {
+        for (XPathExpression expression : expressions) {
+            if (!foldsToConstant(expression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean anyCanFold(XPathExpression[] expressions) {
+        for (XPathExpression expression : expressions) {
+            if (canFold(expression)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static XPathExpression foldFunc(XPathFuncExpr func) {
+        foldAll(func.args);
+
+        if (!func.isPure()) {
+            return func;
+        }
+
+        String name = func.id.toString();
+        if (name.equals("if") && func.args.length == 3 && isConstant(func.args[0])) {
+            boolean condition = XPathFuncExpr.toBoolean(func.args[0].eval(null, new EvaluationContext(null)));
+            return condition ? func.args[1] : func.args[2];
+        } else if (name.equals("coalesce") && func.args.length == 2 && isConstant(func.args[0])) {
+            boolean empty = XPathFuncExpr.isNull(func.args[0].eval(null, new EvaluationContext(null)));
+            return empty ? func.args[1] : func.args[0];
+        }
+
+        for (XPathExpression arg : func.args) {
+            if (!isConstant(arg)) {
+                return func;
+            }
+        }
+
+        return evalConstant(func);
+    }
+
+    private static XPathExpression foldBinaryOp(XPathBinaryOpExpr op) {
+        op.a = fold(op.a);
+        op.b = fold(op.b);
+
+        if (op instanceof XPathUnionExpr) {
+            return op;
+        }
+
+        if (op instanceof XPathBoolExpr && isConstant(op.a)) {
+            boolean a = XPathFuncExpr.toBoolean(op.a.eval(null, new EvaluationContext(null)));
+            int shortCircuitOp = a ? XPathBoolExpr.OR : XPathBoolExpr.AND;
+            if (((XPathBoolExpr) op).op == shortCircuitOp) {
+                return booleanLiteral(a);
+            }
+        }
+
+        return isConstant(op.a) && isConstant(op.b) ? evalConstant(op) : op;
+    }
+
+    private static XPathFilterExpr foldFilter(XPathFilterExpr filter) {
+        filter.x = fold(filter.x);
+        foldAll(filter.predicates);
+        return filter;
+    }
+
+    private static void foldAll(XPathExpression[] expressions) {
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = fold(expressions[i]);
+        }
+    }
+
+    /**
+     * Returns whether the expression is one that folding produces: a string or number literal, or a call to
+     * {@code true()} or {@code false()}.
+     */
+    private static boolean isConstant(XPathExpression expression) {
+        if (expression instanceof XPathStringLiteral || expression instanceof XPathNumericLiteral) {
+            return true;
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr func = (XPathFuncExpr) expression;
+            String name = func.id.toString();
+            return func.args.length == 0 && (name.equals("true") || name.equals("false"));
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Evaluates an operator or pure function call with constant arguments and returns a literal for the value, or the
+     * expression itself if its value can't be written as a literal or it can't be evaluated.
+     */
+    private static XPathExpression evalConstant(XPathExpression expression) {
+        if (!(expression instanceof XPathOpExpr || expression instanceof XPathFuncExpr) || isConstant(expression)) {
+            return expression;
+        }
+
+        Object value;
+        try {
+            value = expression.eval(null, new EvaluationContext(null));
+        } catch (RuntimeException e) {
+            // Leave the expression as it is so that the error is reported when the form is filled
+            return expression;
+        }
+
+        if (value instanceof String) {
+            return new XPathStringLiteral((String) value);
+        } else if (value instanceof Double && !((Double) value).isNaN() && !((Double) value).isInfinite()) {
+            return new XPathNumericLiteral((Double) value);
+        } else if (value instanceof Boolean) {
+            return booleanLiteral((Boolean) value);
+        } else {
+            return expression;
+        }
+    }
+
+    private static XPathExpression booleanLiteral(boolean value) {
+        return new XPathFuncExpr(new XPathQName(value ? "true" : "false"), new XPathExpression[0]);
+    }
+}
@@ -3,6 +3,7 @@ package org.javarosa.xpath;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.xform.parse.RandomizeHelper;
 import org.javarosa.xpath.expr.XPathPathExpr;
@@ -32,6 +33,8 @@ import java.util.List;
 public class XPathNodeset {
 
     private List<TreeReference> nodes;
+    // The node each reference points to, where known, so that values can be read without resolving them again
+    private List<AbstractTreeElement> elements;
     protected DataInstance instance;
     protected EvaluationContext ec;
     // these are purely for improved error messages
@@ -68,6 +71,22 @@ public class XPathNodeset {
         this.ec = ec;
     }
 
+    /**
+     * Construct an XPath nodeset whose nodes have already been resolved.
+     *
+     * @param nodes
+     * @param elements the node each reference points to, or null where it isn't known
+     * @param instance
+     * @param ec
+     */
+    public XPathNodeset (List<TreeReference> nodes, List<AbstractTreeElement> elements, DataInstance instance, EvaluationContext ec) {
+        this(nodes, instance, ec);
+        if (elements.size() != nodes.size()) {
+            throw new IllegalArgumentException("There must be one element for each reference");
+        }
+        this.elements = elements;
+    }
+
     public static XPathNodeset ConstructInvalidPathNodeset(String pathEvaluated, String originalPath) {
         XPathNodeset nodeset = new XPathNodeset();
         nodeset.nodes = null;
@@ -107,6 +126,7 @@ public class XPathNodeset {
 
     protected void setReferences(List<TreeReference> nodes) {
         this.nodes = nodes;
+        this.elements = null;
     }
 
     public List<TreeReference> getReferences() {
@@ -170,8 +190,11 @@ public class XPathNodeset {
         }
 
         int count = 0;
-        for (TreeReference node : nodes) {
-            AbstractTreeElement element = ec.getMainInstance().resolveReference(node);
+        for (int i = 0; i < nodes.size(); i++) {
+            AbstractTreeElement element = getElementAt(i);
+            if (element == null) {
+                element = ec.getMainInstance().resolveReference(nodes.get(i));
+            }
             if (element.getNumChildren() > 0 || element.getValue() != null) {
                 ++count;
             }
@@ -189,9 +212,32 @@ public class XPathNodeset {
     }
 
     public Object getValAt (int i) {
+        AbstractTreeElement element = getElementAt(i);
+        if (element != null) {
+            return XPathPathExpr.getRefValue(ec, getRefAt(i), element);
+        }
+
         return XPathPathExpr.getRefValue(instance, ec, getRefAt(i));
     }
 
+    /**
+     * @return The node the i-th reference points to or null if it has to be resolved from the reference. Elements of
+     * partially parsed instances are always resolved again since they may have been cleared since the nodeset was
+     * built.
+     */
+    private AbstractTreeElement getElementAt(int i) {
+        if (elements == null) {
+            return null;
+        }
+
+        AbstractTreeElement element = elements.get(i);
+        if (element instanceof TreeElement && ((TreeElement) element).isPartial()) {
+            return null;
+        }
+
+        return element;
+    }
+
     protected XPathTypeMismatchException getInvalidNodesetException() {
         if(!pathEvaluated.equals(originalPath)) {
             throw new XPathTypeMismatchException("The path " + originalPath + " refers to the location " + pathEvaluated + " which was not found");
@@ -40,7 +40,7 @@ public class XPathParseTool {
 
     public static XPathExpression parseXPath (String xpath) throws XPathSyntaxException {
         XPathExpression expression = Parser.parse(Lexer.lex(xpath));
-        for (XFormParser.XPathProcessor processor : XFormParser.tempXPathProcessors) {
+        for (XFormParser.XPathProcessor processor : XFormParser.getActiveXPathProcessors()) {
             processor.processXPath(expression);
         }
 
@@ -66,7 +66,7 @@ public class XPathCmpExpr extends XPathBinaryOpExpr {
         case GTE: result = fa >= fb; break;
         }
 
-        return new Boolean(result);
+        return result;
     }
 
     public String toString () {
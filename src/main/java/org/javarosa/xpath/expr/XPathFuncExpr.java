@@ -17,6 +17,7 @@
 package org.javarosa.xpath.expr;
 
 import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.javarosa.core.model.SharedSubexpressionCache;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.IFallbackFunctionHandler;
 import org.javarosa.core.model.condition.IFunctionHandler;
@@ -53,10 +54,16 @@ import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static java.lang.Double.NaN;
@@ -76,6 +83,9 @@ public class XPathFuncExpr extends XPathExpression {
     public XPathQName id;            //name of the function
     public XPathExpression[] args;    //argument list
 
+    // What the call resolves to given id and the number of args
+    private transient Function function;
+
     public XPathFuncExpr() {
     } //for deserialization
 
@@ -86,6 +96,10 @@ public class XPathFuncExpr extends XPathExpression {
         if (id.name.equals("instance") && args[0] instanceof XPathStringLiteral) {
             XFormParser.recordInstanceFunctionCall(((XPathStringLiteral) args[0]).s);
         }
+
+        if (args != null) {
+            getFunction();
+        }
     }
 
     public XPathFuncExpr(XPathQName id) {
@@ -118,12 +132,7 @@ public class XPathFuncExpr extends XPathExpression {
             //Dec 8, 2011 - Added "uuid", since we should never assume one uuid equals another
             //May 6, 2013 - Added "random", since two calls asking for a random
             //Jun 4, 2013 - Added "now" and "today", since these could change during the course of a survey
-            if (!id.equals(x.id) || args.length != x.args.length ||
-                id.toString().equals("uuid") ||
-                id.toString().equals("random") ||
-                id.toString().equals("once") ||
-                id.toString().equals("now") ||
-                id.toString().equals("today")) {
+            if (!id.equals(x.id) || args.length != x.args.length || getFunction().nondeterministic) {
                 return false;
             }
 
@@ -140,6 +149,9 @@ public class XPathFuncExpr extends XPathExpression {
         args = new XPathExpression[v.size()];
         for (int i = 0; i < args.length; i++)
             args[i] = (XPathExpression) v.get(i);
+
+        function = null;
+        getFunction();
     }
 
     public void writeExternal(DataOutputStream out) throws IOException {
@@ -160,32 +172,58 @@ public class XPathFuncExpr extends XPathExpression {
      * the supplied arguments must match one of the function prototypes defined by the handler.
      */
     public Object eval(DataInstance model, EvaluationContext evalContext) {
-        String name = id.toString();
-        Object[] argVals = new Object[args.length];
+        SharedSubexpressionCache sharedSubexpressions = evalContext.getSharedSubexpressionCache();
+        if (sharedSubexpressions != null && sharedSubexpressions.isShared(this)) {
+            return sharedSubexpressions.eval(this, () -> evalCall(model, evalContext));
+        }
 
-        HashMap<String, IFunctionHandler> funcHandlers = evalContext.getFunctionHandlers();
+        return evalCall(model, evalContext);
+    }
+
+    private Object evalCall(DataInstance model, EvaluationContext evalContext) {
+        Function function = getFunction();
+        String name = function.name;
+        Object[] argVals = new Object[args.length];
 
         //TODO: Func handlers should be able to declare the desire for short circuiting as well
-        if (name.equals("if")) {
-            assertArgsCount(name, args, 3);
-            return ifThenElse(model, evalContext, args, argVals);
-        } else if (name.equals("coalesce")) {
-            assertArgsCount(name, args, 2);
-            argVals[0] = args[0].eval(model, evalContext);
-            if (!isNull(argVals[0])) {
-                return argVals[0];
-            } else {
-                // that was null, so try the other one...
-                argVals[1] = args[1].eval(model, evalContext);
-                return argVals[1];
-            }
-        } else if (name.equals("indexed-repeat")) {
-            if ((args.length == 3 || args.length == 5 || args.length == 7 || args.length == 9 || args.length == 11)) {
-                return indexedRepeat(model, evalContext, args, argVals);
-            } else {
-                throw new XPathUnhandledException("function \'" + name + "\' requires " +
-                    "3, 5, 7, 9 or 11 arguments. Only " + args.length + " provided.");
-            }
+        switch (function.builtIn) {
+            case IF:
+                assertArgsCount(name, args, 3);
+                return ifThenElse(model, evalContext, args, argVals);
+            case COALESCE:
+                assertArgsCount(name, args, 2);
+                argVals[0] = args[0].eval(model, evalContext);
+                if (!isNull(argVals[0])) {
+                    return argVals[0];
+                } else {
+                    // that was null, so try the other one...
+                    argVals[1] = args[1].eval(model, evalContext);
+                    return argVals[1];
+                }
+            case INDEXED_REPEAT:
+                if ((args.length == 3 || args.length == 5 || args.length == 7 || args.length == 9 || args.length == 11)) {
+                    return indexedRepeat(model, evalContext, args, argVals);
+                } else {
+                    throw new XPathUnhandledException("function \'" + name + "\' requires " +
+                        "3, 5, 7, 9 or 11 arguments. Only " + args.length + " provided.");
+                }
+            case COUNT:
+            case SUM:
+            case MAX:
+            case MIN:
+            case CONCAT:
+                if (args.length == 1 && args[0] instanceof XPathPathExpr) {
+                    return aggregate(function.builtIn, (XPathPathExpr) args[0], "", evalContext);
+                }
+                break;
+            case JOIN:
+                if (args.length == 2 && args[1] instanceof XPathPathExpr) {
+                    argVals[0] = args[0].eval(model, evalContext);
+                    return aggregate(function.builtIn, (XPathPathExpr) args[1], argVals[0], evalContext);
+                }
+                break;
+            default:
+                break;
         }
 
         for (int i = 0; i < args.length; i++) {
@@ -193,351 +231,387 @@ public class XPathFuncExpr extends XPathExpression {
         }
 
         //check built-in functions
-        if (name.equals("true")) {
-            assertArgsCount(name, args, 0);
-            return Boolean.TRUE;
-        } else if (name.equals("false")) {
-            assertArgsCount(name, args, 0);
-            return Boolean.FALSE;
-        } else if (name.equals("boolean")) {
-            assertArgsCount(name, args, 1);
-            return toBoolean(argVals[0]);
-        } else if (name.equals("number")) {
-            assertArgsCount(name, args, 1);
-            return toNumeric(argVals[0]);
-        } else if (name.equals("int")) { //non-standard
-            assertArgsCount(name, args, 1);
-            return toInt(argVals[0]);
-        } else if (name.equals("round")) { // Proximate XPath 3.0 and Excel-style round(value,decimal place)
-            final int places;
-            if (args.length == 1) {
-                places = 0;
-            } else {
-                assertArgsCount(name, args, 2);
-                places = toNumeric(argVals[1]).intValue();
+        switch (function.builtIn) {
+            case TRUE:
+                assertArgsCount(name, args, 0);
+                return Boolean.TRUE;
+            case FALSE:
+                assertArgsCount(name, args, 0);
+                return Boolean.FALSE;
+            case BOOLEAN:
+                assertArgsCount(name, args, 1);
+                return toBoolean(argVals[0]);
+            case NUMBER:
+                assertArgsCount(name, args, 1);
+                return toNumeric(argVals[0]);
+            case INT: //non-standard
+                assertArgsCount(name, args, 1);
+                return toInt(argVals[0]);
+            case ROUND: { // Proximate XPath 3.0 and Excel-style round(value,decimal place)
+                final int places;
+                if (args.length == 1) {
+                    places = 0;
+                } else {
+                    assertArgsCount(name, args, 2);
+                    places = toNumeric(argVals[1]).intValue();
+                }
+                return round(toNumeric(argVals[0]), places);
             }
-            return round(toNumeric(argVals[0]), places);
-        } else if (name.equals("string")) {
-            assertArgsCount(name, args, 1);
-            return toString(argVals[0]);
-        } else if (name.equals("date")) { //non-standard
-            assertArgsCount(name, args, 1);
-            return toDate(argVals[0], false);
-        } else if (name.equals("date-time")) { //non-standard -- convert double/int/string to Date object
-            assertArgsCount(name, args, 1);
-            return toDate(argVals[0], true);
-        } else if (name.equals("decimal-date-time")) { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
-            assertArgsCount(name, args, 1);
-            return toDecimalDateTime(argVals[0], true);
-        } else if (name.equals("decimal-time")) { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
-            assertArgsCount(name, args, 1);
-            return toDecimalDateTime(argVals[0], false);
-        } else if (name.equals("not")) {
-            assertArgsCount(name, args, 1);
-            return boolNot(argVals[0]);
-        } else if (name.equals("boolean-from-string")) {
-            assertArgsCount(name, args, 1);
-            return boolStr(argVals[0]);
-        } else if (name.equals("format-date")) {
-            assertArgsCount(name, args, 2);
-            return formatDateTime(argVals[0], argVals[1]);
-        } else if (name.equals("abs")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.abs(toDouble(argVals[0]));
-        } else if (name.equals("acos")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.acos(toDouble(argVals[0]));
-        } else if (name.equals("asin")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.asin(toDouble(argVals[0]));
-        } else if (name.equals("atan")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.atan(toDouble(argVals[0]));
-        } else if (name.equals("atan2")) { //XPath 3.0
-            checkArity(name, 2, args.length);
-            return Math.atan2(toDouble(argVals[0]), toDouble(argVals[1]));
-        } else if (name.equals("cos")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.cos(toDouble(argVals[0]));
-        } else if (name.equals("exp")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.exp(toDouble(argVals[0]));
-        } else if (name.equals("exp10")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.pow(10.0, toDouble(argVals[0]));
-        } else if (name.equals("log")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.log(toDouble(argVals[0]));
-        } else if (name.equals("log10")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.log10(toDouble(argVals[0]));
-        } else if (name.equals("pi")) { //XPath 3.0
-            checkArity(name, 0, args.length);
-            return Math.PI;
-        } else if (name.equals("sin")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.sin(toDouble(argVals[0]));
-        } else if (name.equals("sqrt")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.sqrt(toDouble(argVals[0]));
-        } else if (name.equals("tan")) { //XPath 3.0
-            checkArity(name, 1, args.length);
-            return Math.tan(toDouble(argVals[0]));
-        } else if (name.equals("format-date-time")) { // non-standard
-            assertArgsCount(name, args, 2);
-            return formatDateTime(argVals[0], argVals[1]);
-        } else if ((name.equals("selected") || name.equals("is-selected"))) { //non-standard
-            assertArgsCount(name, args, 2);
-            return multiSelected(argVals[0], argVals[1], name);
-        } else if (name.equals("count-selected")) { //non-standard
-            assertArgsCount(name, args, 1);
-            return countSelected(argVals[0]);
-        } else if (name.equals("selected-at")) { //non-standard
-            assertArgsCount(name, args, 2);
-            return selectedAt(argVals[0], argVals[1]);
-        } else if (name.equals("position")) {
-            //TODO: Technically, only the 0 length argument is valid here.
-            if (args.length == 1) {
-                XPathNodeset nodes = (XPathNodeset) argVals[0];
-                if (nodes.size() == 0) {
-                    // Added to prevent an exception within ODK Validate.
-                    // Will likely cause an error downstream when used in an XPath.
-                    return (double) (1 + TreeReference.INDEX_UNBOUND);
+            case STRING:
+                assertArgsCount(name, args, 1);
+                return toString(argVals[0]);
+            case DATE: //non-standard
+                assertArgsCount(name, args, 1);
+                return toDate(argVals[0], false);
+            case DATE_TIME: //non-standard -- convert double/int/string to Date object
+                assertArgsCount(name, args, 1);
+                return toDate(argVals[0], true);
+            case DECIMAL_DATE_TIME: //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
+                assertArgsCount(name, args, 1);
+                return toDecimalDateTime(argVals[0], true);
+            case DECIMAL_TIME: //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
+                assertArgsCount(name, args, 1);
+                return toDecimalDateTime(argVals[0], false);
+            case NOT:
+                assertArgsCount(name, args, 1);
+                return boolNot(argVals[0]);
+            case BOOLEAN_FROM_STRING:
+                assertArgsCount(name, args, 1);
+                return boolStr(argVals[0]);
+            case FORMAT_DATE:
+                assertArgsCount(name, args, 2);
+                return formatDateTime(argVals[0], argVals[1]);
+            case ABS: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.abs(toDouble(argVals[0]));
+            case ACOS: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.acos(toDouble(argVals[0]));
+            case ASIN: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.asin(toDouble(argVals[0]));
+            case ATAN: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.atan(toDouble(argVals[0]));
+            case ATAN2: //XPath 3.0
+                checkArity(name, 2, args.length);
+                return Math.atan2(toDouble(argVals[0]), toDouble(argVals[1]));
+            case COS: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.cos(toDouble(argVals[0]));
+            case EXP: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.exp(toDouble(argVals[0]));
+            case EXP10: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.pow(10.0, toDouble(argVals[0]));
+            case LOG: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.log(toDouble(argVals[0]));
+            case LOG10: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.log10(toDouble(argVals[0]));
+            case PI: //XPath 3.0
+                checkArity(name, 0, args.length);
+                return Math.PI;
+            case SIN: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.sin(toDouble(argVals[0]));
+            case SQRT: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.sqrt(toDouble(argVals[0]));
+            case TAN: //XPath 3.0
+                checkArity(name, 1, args.length);
+                return Math.tan(toDouble(argVals[0]));
+            case FORMAT_DATE_TIME: // non-standard
+                assertArgsCount(name, args, 2);
+                return formatDateTime(argVals[0], argVals[1]);
+            case SELECTED: //non-standard
+                assertArgsCount(name, args, 2);
+                return multiSelected(argVals[0], argVals[1], name);
+            case COUNT_SELECTED: //non-standard
+                assertArgsCount(name, args, 1);
+                return countSelected(argVals[0]);
+            case SELECTED_AT: //non-standard
+                assertArgsCount(name, args, 2);
+                return selectedAt(argVals[0], argVals[1]);
+            case POSITION:
+                //TODO: Technically, only the 0 length argument is valid here.
+                if (args.length == 1) {
+                    XPathNodeset nodes = (XPathNodeset) argVals[0];
+                    if (nodes.size() == 0) {
+                        // Added to prevent an exception within ODK Validate.
+                        // Will likely cause an error downstream when used in an XPath.
+                        return (double) (1 + TreeReference.INDEX_UNBOUND);
+                    } else {
+                        // This is weird -- we are returning the position of the first
+                        // Nodeset element but there may be a list of elements. Unclear
+                        // if or how this might manifest into a bug... .
+                        return position(nodes.getRefAt(0));
+                    }
+                } else if (args.length == 0) {
+                    if (evalContext.getContextPosition() != -1) {
+                        return (double) (1 + evalContext.getContextPosition());
+                    }
+                    return position(evalContext.getContextRef());
                 } else {
-                    // This is weird -- we are returning the position of the first
-                    // Nodeset element but there may be a list of elements. Unclear
-                    // if or how this might manifest into a bug... .
-                    return position(nodes.getRefAt(0));
+                    throw new XPathUnhandledException("function \'" + name +
+                        "\' requires either exactly one argument or no arguments. Only " + args.length + " provided.");
                 }
-            } else if (args.length == 0) {
-                if (evalContext.getContextPosition() != -1) {
-                    return (double) (1 + evalContext.getContextPosition());
+            case COUNT:
+                assertArgsCount(name, args, 1);
+                return count(argVals[0]);
+            case COUNT_NON_EMPTY:
+                assertArgsCount(name, args, 1);
+                return countNonEmpty(argVals[0]);
+            case SUM:
+                assertArgsCount(name, args, 1);
+                if (argVals[0] instanceof XPathNodeset) {
+                    return sum(((XPathNodeset) argVals[0]).toArgList());
+                } else {
+                    throw new XPathTypeMismatchException("not a nodeset");
                 }
-                return position(evalContext.getContextRef());
-            } else {
-                throw new XPathUnhandledException("function \'" + name +
-                    "\' requires either exactly one argument or no arguments. Only " + args.length + " provided.");
-            }
-        } else if (name.equals("count")) {
-            assertArgsCount(name, args, 1);
-            return count(argVals[0]);
-        } else if (name.equals("count-non-empty")) {
-            assertArgsCount(name, args, 1);
-            return countNonEmpty(argVals[0]);
-        } else if (name.equals("sum")) {
-            assertArgsCount(name, args, 1);
-            if (argVals[0] instanceof XPathNodeset) {
-                return sum(((XPathNodeset) argVals[0]).toArgList());
-            } else {
-                throw new XPathTypeMismatchException("not a nodeset");
+            case MAX:
+                if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+                    return max(((XPathNodeset) argVals[0]).toArgList());
+                } else {
+                    return max(argVals);
+                }
+            case MIN:
+                if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+                    return min(((XPathNodeset) argVals[0]).toArgList());
+                } else {
+                    return min(argVals);
+                }
+            case TODAY:
+                assertArgsCount(name, args, 0);
+                return DateUtils.roundDate(new Date());
+            case NOW:
+                assertArgsCount(name, args, 0);
+                return new DateTime().toDate();
+            case CONCAT:
+                if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+                    return join("", ((XPathNodeset) argVals[0]).toArgList());
+                } else {
+                    return join("", argVals);
+                }
+            case JOIN:
+                if (args.length == 2 && argVals[1] instanceof XPathNodeset) {
+                    return join(argVals[0], ((XPathNodeset) argVals[1]).toArgList());
+                } else {
+                    return join(argVals[0], subsetArgList(argVals, 1));
+                }
+            case SUBSTR:
+                return substring(argVals[0], argVals[1], args.length == 3 ? argVals[2] : null);
+            case SUBSTRING_BEFORE: {
+                String str = toString(argVals[0]);
+                String substr = toString(argVals[1]);
+                int pos = str.indexOf(substr);
+                // XPath reference states that we should return the empty string when we don't find the substring
+                return pos >= 0 ? str.substring(0, pos) : "";
             }
-        } else if (name.equals("max")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
-                return max(((XPathNodeset) argVals[0]).toArgList());
-            } else {
-                return max(argVals);
+            case SUBSTRING_AFTER: {
+                String str = toString(argVals[0]);
+                String substr = toString(argVals[1]);
+                int pos = str.indexOf(substr);
+                // XPath reference states that we should return the empty string when we don't find the substring
+                return pos >= 0 ? str.substring(pos + substr.length()) : "";
             }
-        } else if (name.equals("min")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
-                return min(((XPathNodeset) argVals[0]).toArgList());
-            } else {
-                return min(argVals);
-            }
-        } else if (name.equals("today")) {
-            assertArgsCount(name, args, 0);
-            return DateUtils.roundDate(new Date());
-        } else if (name.equals("now")) {
-            assertArgsCount(name, args, 0);
-            return new DateTime().toDate();
-        } else if (name.equals("concat")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
-                return join("", ((XPathNodeset) argVals[0]).toArgList());
-            } else {
-                return join("", argVals);
+            case TRANSLATE: {
+                String str = toString(argVals[0]);
+                String fromChars = toString(argVals[1]);
+                String toChars = toString(argVals[2]);
+                int toNumChars = toChars.length();
+                StringBuilder result = new StringBuilder();
+                // iterate thru each char in the original string
+                for (int i = 0; i < str.length(); i++) {
+                    char from = str.charAt(i);
+                    // determine if there is a mapping for this char
+                    int fromPos = fromChars.indexOf(from);
+                    if (fromPos == -1) {
+                        // no mapping for this char, so just add it to result unchanged
+                        result.append(from);
+                    } else if (fromPos < toNumChars) {
+                        // replace with the corresponding char it is mapped to
+                        result.append(toChars.charAt(fromPos));
+                    }
+                    // else the char is mapped to nothing, so per XPath definition we 'delete' it from the string by simply not appending it
+                }
+                return result.toString();
             }
-        } else if (name.equals("join") && args.length >= 1) {
-            if (args.length == 2 && argVals[1] instanceof XPathNodeset) {
-                return join(argVals[0], ((XPathNodeset) argVals[1]).toArgList());
-            } else {
-                return join(argVals[0], subsetArgList(argVals, 1));
+            case CONTAINS:
+                return toString(argVals[0]).contains(toString(argVals[1]));
+            case STARTS_WITH:
+                return toString(argVals[0]).startsWith(toString(argVals[1]));
+            case ENDS_WITH:
+                return toString(argVals[0]).endsWith(toString(argVals[1]));
+            case STRING_LENGTH: {
+                Object arg;
+                if (args.length == 1) {
+                    arg = argVals[0];
+                } else {
+                    arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
+                }
+                return stringLength(arg);
             }
-        } else if (name.equals("substr") && (args.length == 2 || args.length == 3)) {
-            return substring(argVals[0], argVals[1], args.length == 3 ? argVals[2] : null);
-        } else if (name.equals("substring-before") && args.length == 2) {
-            String str = toString(argVals[0]);
-            String substr = toString(argVals[1]);
-            int pos = str.indexOf(substr);
-            // XPath reference states that we should return the empty string when we don't find the substring
-            return pos >= 0 ? str.substring(0, pos) : "";
-        } else if (name.equals("substring-after") && args.length == 2) {
-            String str = toString(argVals[0]);
-            String substr = toString(argVals[1]);
-            int pos = str.indexOf(substr);
-            // XPath reference states that we should return the empty string when we don't find the substring
-            return pos >= 0 ? str.substring(pos + substr.length()) : "";
-        } else if (name.equals("translate") && args.length == 3) {
-            String str = toString(argVals[0]);
-            String fromChars = toString(argVals[1]);
-            String toChars = toString(argVals[2]);
-            int toNumChars = toChars.length();
-            StringBuilder result = new StringBuilder();
-            // iterate thru each char in the original string
-            for (int i = 0; i < str.length(); i++) {
-                char from = str.charAt(i);
-                // determine if there is a mapping for this char
-                int fromPos = fromChars.indexOf(from);
-                if (fromPos == -1) {
-                    // no mapping for this char, so just add it to result unchanged
-                    result.append(from);
-                } else if (fromPos < toNumChars) {
-                    // replace with the corresponding char it is mapped to
-                    result.append(toChars.charAt(fromPos));
+            case NORMALIZE_SPACE: {
+                Object arg;
+                if (args.length == 1) {
+                    arg = argVals[0];
+                } else {
+                    arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
                 }
-                // else the char is mapped to nothing, so per XPath definition we 'delete' it from the string by simply not appending it
+                return normalizeSpace(arg);
             }
-            return result.toString();
-        } else if (name.equals("contains") && args.length == 2) {
-            return toString(argVals[0]).contains(toString(argVals[1]));
-        } else if (name.equals("starts-with") && args.length == 2) {
-            return toString(argVals[0]).startsWith(toString(argVals[1]));
-        } else if (name.equals("ends-with") && args.length == 2) {
-            return toString(argVals[0]).endsWith(toString(argVals[1]));
-        } else if (name.equals("string-length") && args.length <= 1) {
-            Object arg;
-            if (args.length == 1) {
-                arg = argVals[0];
-            } else {
-                arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
+            case CHECKLIST: //non-standard
+                if (args.length == 3 && argVals[2] instanceof XPathNodeset) {
+                    return checklist(argVals[0], argVals[1], ((XPathNodeset) argVals[2]).toArgList());
+                } else {
+                    return checklist(argVals[0], argVals[1], subsetArgList(argVals, 2));
+                }
+            case WEIGHTED_CHECKLIST: //non-standard
+                if (args.length == 4 && argVals[2] instanceof XPathNodeset && argVals[3] instanceof XPathNodeset) {
+                    Object[] factors = ((XPathNodeset) argVals[2]).toArgList();
+                    Object[] weights = ((XPathNodeset) argVals[3]).toArgList();
+                    if (factors.length != weights.length) {
+                        throw new XPathTypeMismatchException("weighted-checklist: nodesets not same length");
+                    }
+                    return checklistWeighted(argVals[0], argVals[1], factors, weights);
+                } else {
+                    return checklistWeighted(argVals[0], argVals[1], subsetArgList(argVals, 2, 2), subsetArgList(argVals, 3, 2));
+                }
+            case REGEX: //non-standard
+                assertArgsCount(name, args, 2);
+                return regex(argVals[0], argVals[1]);
+            case DEPEND: //non-standard
+                return argVals[0];
+            case RANDOM: //non-standard
+                assertArgsCount(name, args, 0);
+                //calculated expressions may be recomputed w/o warning! use with caution!!
+                return MathUtils.getRand().nextDouble();
+            case ONCE: {
+                assertArgsCount(name, args, 1);
+                XPathPathExpr currentFieldPathExpr = XPathPathExpr.fromRef(evalContext.getContextRef());
+                Object currValue = currentFieldPathExpr.eval(model, evalContext).unpack();
+                if (currValue == null || toString(currValue).length() == 0) {
+                    // this is the "once" case
+                    return argVals[0];
+                } else {
+                    return currValue;
+                }
             }
-            return stringLength(arg);
-        } else if (name.equals("normalize-space") && args.length <= 1) {
-            Object arg;
-            if (args.length == 1) {
-                arg = argVals[0];
-            } else {
-                arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
+            case UUID: { //non-standard
+                //calculated expressions may be recomputed w/o warning! use with caution!!
+                if (args.length == 0) {
+                    return PropertyUtils.genUUID();
+                }
+
+                int len = toInt(argVals[0]).intValue();
+                return PropertyUtils.genGUID(len);
             }
-            return normalizeSpace(arg);
-        } else if (name.equals("checklist") && args.length >= 2) { //non-standard
-            if (args.length == 3 && argVals[2] instanceof XPathNodeset) {
-                return checklist(argVals[0], argVals[1], ((XPathNodeset) argVals[2]).toArgList());
-            } else {
-                return checklist(argVals[0], argVals[1], subsetArgList(argVals, 2));
+            case VERSION: { //non-standard
+                assertArgsCount(name, args, 0);
+                final String formVersion = (model instanceof FormInstance) ? ((FormInstance) model).formVersion : "";
+                return formVersion == null ? "" : formVersion;
             }
-        } else if (name.equals("weighted-checklist") && args.length >= 2 && args.length % 2 == 0) { //non-standard
-            if (args.length == 4 && argVals[2] instanceof XPathNodeset && argVals[3] instanceof XPathNodeset) {
-                Object[] factors = ((XPathNodeset) argVals[2]).toArgList();
-                Object[] weights = ((XPathNodeset) argVals[3]).toArgList();
-                if (factors.length != weights.length) {
-                    throw new XPathTypeMismatchException("weighted-checklist: nodesets not same length");
-                }
-                return checklistWeighted(argVals[0], argVals[1], factors, weights);
-            } else {
-                return checklistWeighted(argVals[0], argVals[1], subsetArgList(argVals, 2, 2), subsetArgList(argVals, 3, 2));
+            case PROPERTY: { // non-standard
+                // return a property defined by the property manager.
+                // NOTE: Property should be immutable.
+                // i.e., does not work with 'start' or 'end' property.
+                assertArgsCount(name, args, 1);
+                String s = toString(argVals[0]);
+                return PropertyManager.__().getSingularProperty(s);
             }
-        } else if (name.equals("regex")) { //non-standard
-            assertArgsCount(name, args, 2);
-            return regex(argVals[0], argVals[1]);
-        } else if (name.equals("depend") && args.length >= 1) { //non-standard
-            return argVals[0];
-        } else if (name.equals("random")) { //non-standard
-            assertArgsCount(name, args, 0);
-            //calculated expressions may be recomputed w/o warning! use with caution!!
-            return MathUtils.getRand().nextDouble();
-        } else if (name.equals("once")) {
-            assertArgsCount(name, args, 1);
-            XPathPathExpr currentFieldPathExpr = XPathPathExpr.fromRef(evalContext.getContextRef());
-            Object currValue = currentFieldPathExpr.eval(model, evalContext).unpack();
-            if (currValue == null || toString(currValue).length() == 0) {
-                // this is the "once" case
-                return argVals[0];
-            } else {
-                return currValue;
+            case POW: { //XPath 3.0
+                double a = toDouble(argVals[0]);
+                double b = toDouble(argVals[1]);
+                return Math.pow(a, b);
             }
-        } else if (name.equals("uuid") && (args.length == 0 || args.length == 1)) { //non-standard
-            //calculated expressions may be recomputed w/o warning! use with caution!!
-            if (args.length == 0) {
-                return PropertyUtils.genUUID();
+            case ENCLOSED_AREA: {
+                assertArgsCount(name, args, 1);
+                List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
+                return GeoUtils.calculateAreaOfGPSPolygonOnEarthInSquareMeters(latLongs);
             }
-
-            int len = toInt(argVals[0]).intValue();
-            return PropertyUtils.genGUID(len);
-        } else if (name.equals("version")) { //non-standard
-            assertArgsCount(name, args, 0);
-            final String formVersion = (model instanceof FormInstance) ? ((FormInstance) model).formVersion : "";
-            return formVersion == null ? "" : formVersion;
-        } else if (name.equals("property")) { // non-standard
-            // return a property defined by the property manager.
-            // NOTE: Property should be immutable.
-            // i.e., does not work with 'start' or 'end' property.
-            assertArgsCount(name, args, 1);
-            String s = toString(argVals[0]);
-            return PropertyManager.__().getSingularProperty(s);
-        } else if (name.equals("pow") && (args.length == 2)) { //XPath 3.0
-            double a = toDouble(argVals[0]);
-            double b = toDouble(argVals[1]);
-            return Math.pow(a, b);
-        } else if (name.equals("enclosed-area") || name.equals("area")) {
-            assertArgsCount(name, args, 1);
-            List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
-            return GeoUtils.calculateAreaOfGPSPolygonOnEarthInSquareMeters(latLongs);
-        } else if (name.equals("distance")) {
-            if (args.length == 1) {
-                if (argVals[0] instanceof XPathNodeset) {
-                    List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
-                    return GeoUtils.calculateDistance(latLongs);
-                } else if (argVals[0] instanceof String) {
-                    List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().geopointsToLatLongs(name, ((String) argVals[0]).split(";"));
-                    return GeoUtils.calculateDistance(latLongs);
+            case DISTANCE:
+                if (args.length == 1) {
+                    if (argVals[0] instanceof XPathNodeset) {
+                        List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
+                        return GeoUtils.calculateDistance(latLongs);
+                    } else if (argVals[0] instanceof String) {
+                        List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().geopointsToLatLongs(name, ((String) argVals[0]).split(";"));
+                        return GeoUtils.calculateDistance(latLongs);
+                    } else {
+                        throw new XPathUnhandledException("function 'distance' requires a field or text as the parameter.");
+                    }
+                } else if (args.length > 1) {
+                    return GeoUtils.calculateDistance(new XPathFuncExprGeo().geopointsToLatLongs(name, argVals));
                 } else {
-                    throw new XPathUnhandledException("function 'distance' requires a field or text as the parameter.");
+                    throw new XPathUnhandledException("function 'distance' requires at least one parameter.");
                 }
-            } else if (args.length > 1) {
-                return GeoUtils.calculateDistance(new XPathFuncExprGeo().geopointsToLatLongs(name, argVals));
-            } else {
-                throw new XPathUnhandledException("function 'distance' requires at least one parameter.");
+            case GEOFENCE: {
+                assertArgsCount(name, args, 2);
+                GeoPointData geoPointData = new GeoPointData().cast(new UncastData(XPathFuncExpr.toString(argVals[0])));
+                GeoUtils.LatLong point = new GeoUtils.LatLong(geoPointData.getPart(0), geoPointData.getPart(1));
+                List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[1]);
+                return GeoUtils.calculateIsPointInGPSPolygon(point, latLongs);
             }
-        } else if (name.equals("geofence")) {
-            assertArgsCount(name, args, 2);
-            GeoPointData geoPointData = new GeoPointData().cast(new UncastData(XPathFuncExpr.toString(argVals[0])));
-            GeoUtils.LatLong point = new GeoUtils.LatLong(geoPointData.getPart(0), geoPointData.getPart(1));
-            List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[1]);
-            return GeoUtils.calculateIsPointInGPSPolygon(point, latLongs);
-         } else if (name.equals("digest") && (args.length == 2 || args.length == 3)) {
-            return DigestAlgorithm.from(toString(argVals[1])).digest(
-                toString(argVals[0]),
-                args.length == 3 ? Encoding.from(toString(argVals[2])) : Encoding.BASE64
-            );
-        } else if (name.equals("randomize")) {
-            if (!(argVals[0] instanceof XPathNodeset))
-                throw new XPathTypeMismatchException("First argument to randomize must be a nodeset");
-
-            if (args.length == 1)
-                return XPathNodeset.shuffle((XPathNodeset) argVals[0]);
-
-            if (args.length == 2)
-                return XPathNodeset.shuffle((XPathNodeset) argVals[0], toNumericWithLongHash(argVals[1]));
-
-            throw new XPathUnhandledException("function 'randomize' requires 1 or 2 arguments. " + args.length + " provided.");
-        } else if (name.equals("base64-decode")) {
-            assertArgsCount(name, args, 1);
-            return base64Decode(argVals[0]);
-        } else if (name.equals("extract-signed")) {
-            assertArgsCount(name, args, 2);
-            return extractSigned(argVals[0], argVals[1]);
-        } else {
-            //check for custom handler
-            IFunctionHandler handler = funcHandlers.get(name);
-            if (handler != null)
-                return evalCustomFunction(handler, argVals, evalContext);
-
-            // check for fallback handler
-            IFallbackFunctionHandler fallbackHandler = evalContext.getFallbackFunctionHandler();
-            if (fallbackHandler != null)
-                return evalCustomFunction(fallbackHandler, name, argVals, evalContext);
+            case DIGEST:
+                return DigestAlgorithm.from(toString(argVals[1])).digest(
+                    toString(argVals[0]),
+                    args.length == 3 ? Encoding.from(toString(argVals[2])) : Encoding.BASE64
+                );
+            case RANDOMIZE:
+                if (!(argVals[0] instanceof XPathNodeset))
+                    throw new XPathTypeMismatchException("First argument to randomize must be a nodeset");
+
+                if (args.length == 1)
+                    return XPathNodeset.shuffle((XPathNodeset) argVals[0]);
+
+                if (args.length == 2)
+                    return XPathNodeset.shuffle((XPathNodeset) argVals[0], toNumericWithLongHash(argVals[1]));
+
+                throw new XPathUnhandledException("function 'randomize' requires 1 or 2 arguments. " + args.length + " provided.");
+            case BASE64_DECODE:
+                assertArgsCount(name, args, 1);
+                return base64Decode(argVals[0]);
+            case EXTRACT_SIGNED:
+                assertArgsCount(name, args, 2);
+                return extractSigned(argVals[0], argVals[1]);
+            default:
+                return evalCustomFunction(function, argVals, evalContext);
+        }
+    }
 
-            throw new XPathUnhandledException("function \'" + name + "\'");
+    /**
+     * Returns how this call is evaluated, resolving it if it hasn't been yet or if the function name or number of
+     * arguments has been changed since.
+     */
+    private Function getFunction() {
+        Function function = this.function;
+        if (function == null || function.id != id || function.argCount != args.length) {
+            function = new Function(id, args.length);
+            this.function = function;
         }
+
+        return function;
+    }
+
+    /**
+     * Evaluates a call that isn't to a built-in function with a custom handler registered in the evaluation context
+     * or else with its fallback handler.
+     */
+    private static Object evalCustomFunction(Function function, Object[] argVals, EvaluationContext evalContext) {
+        //check for custom handler
+        IFunctionHandler handler = evalContext.getFunctionHandlers().get(function.name);
+        if (handler != null)
+            return evalCustomFunction(function.getCustomHandlerCall(handler), argVals, evalContext);
+
+        // check for fallback handler
+        IFallbackFunctionHandler fallbackHandler = evalContext.getFallbackFunctionHandler();
+        if (fallbackHandler != null)
+            return evalCustomFunction(fallbackHandler, function.name, argVals, evalContext);
+
+        throw new XPathUnhandledException("function \'" + function.name + "\'");
     }
 
     private static void assertArgsCount(String name, Object[] args, int count) {
@@ -555,13 +629,13 @@ public class XPathFuncExpr extends XPathExpression {
      * Note that if the handler supports 'raw args', it will receive the full, unaltered argument
      * list if no prototype matches. (this lets functions support variable-length argument lists)
      */
-    private static Object evalCustomFunction(IFunctionHandler handler, Object[] args, EvaluationContext ec) {
-        List<Class[]> prototypes = handler.getPrototypes();
+    private static Object evalCustomFunction(CustomHandlerCall call, Object[] args, EvaluationContext ec) {
+        IFunctionHandler handler = call.handler;
         Object[] typedArgs = null;
 
         int i = 0;
-        while (typedArgs == null && prototypes.size() > i) {
-            typedArgs = matchPrototype(args, prototypes.get(i++));
+        while (typedArgs == null && call.prototypes.length > i) {
+            typedArgs = matchPrototype(args, call.prototypes[i++]);
         }
 
         if (typedArgs != null) {
@@ -1128,14 +1202,39 @@ public class XPathFuncExpr extends XPathExpression {
      * sum the values in a nodeset; each element is coerced to a numeric value
      */
     public static Double sum(Object argVals[]) {
-        double sum = 0.0;
+        NumericAggregate aggregate = new NumericAggregate();
         for (Object argVal : argVals) {
-            Double dargVal = toNumeric(argVal);
-            if (!dargVal.isNaN()) {
-                sum += dargVal;
+            aggregate.accept(argVal);
+        }
+        return aggregate.sum;
+    }
+
+    /**
+     * Evaluates count(), sum(), max(), min(), concat() or join() over the values of a path's nodes as they are found
+     * rather than building the nodeset and a list of its values first.
+     */
+    private static Object aggregate(BuiltIn builtIn, XPathPathExpr path, Object separator, EvaluationContext evalContext) {
+        switch (builtIn) {
+            case COUNT:
+                return (double) path.count(evalContext);
+            case CONCAT:
+            case JOIN: {
+                StringJoiner joiner = new StringJoiner(toString(separator));
+                path.forEachValue(evalContext, value -> joiner.add(toString(value)));
+                return joiner.toString();
+            }
+            default: {
+                NumericAggregate aggregate = new NumericAggregate();
+                path.forEachValue(evalContext, aggregate);
+                if (builtIn == BuiltIn.SUM) {
+                    return aggregate.sum;
+                } else if (builtIn == BuiltIn.MAX) {
+                    return aggregate.max();
+                } else {
+                    return aggregate.min();
+                }
             }
         }
-        return sum;
     }
 
     /**
@@ -1185,29 +1284,49 @@ public class XPathFuncExpr extends XPathExpression {
      * Identify the largest value from the list of provided values.
      */
     private static Object max(Object[] argVals) {
-        double max = Double.MIN_VALUE;
-        boolean returnNaN = true;
+        NumericAggregate aggregate = new NumericAggregate();
         for (Object argVal : argVals) {
-            Double dargVal = toNumeric(argVal);
-            if (!dargVal.isNaN()) {
-                max = Math.max(max, dargVal);
-                returnNaN = false;
-            }
+            aggregate.accept(argVal);
         }
-        return returnNaN ? NaN : max;
+        return aggregate.max();
     }
 
     private static Object min(Object[] argVals) {
-        double min = Double.MAX_VALUE;
-        boolean returnNaN = true;
+        NumericAggregate aggregate = new NumericAggregate();
         for (Object argVal : argVals) {
-            Double dargVal = toNumeric(argVal);
-            if (!dargVal.isNaN()) {
-                min = Math.min(min, dargVal);
-                returnNaN = false;
+            aggregate.accept(argVal);
+        }
+        return aggregate.min();
+    }
+
+    /**
+     * The sum, largest and smallest of the values passed to it, each coerced to a numeric value. Values that aren't
+     * numbers are ignored.
+     */
+    private static final class NumericAggregate implements Consumer<Object> {
+        private double sum = 0.0;
+        private double max = Double.MIN_VALUE;
+        private double min = Double.MAX_VALUE;
+        private boolean empty = true;
+
+        @Override
+        public void accept(Object value) {
+            Double numeric = toNumeric(value);
+            if (!numeric.isNaN()) {
+                sum += numeric;
+                max = Math.max(max, numeric);
+                min = Math.min(min, numeric);
+                empty = false;
             }
         }
-        return returnNaN ? NaN : min;
+
+        Object max() {
+            return empty ? NaN : max;
+        }
+
+        Object min() {
+            return empty ? NaN : min;
+        }
     }
 
     /**
@@ -1437,11 +1556,237 @@ public class XPathFuncExpr extends XPathExpression {
             Arrays.stream(args).allMatch(XPathExpression::isIdempotent);
     }
 
+    /**
+     * Returns whether this is a call to a function built into JavaRosa rather than one left to custom handlers.
+     */
+    public boolean isBuiltIn() {
+        return getFunction().builtIn != BuiltIn.CUSTOM;
+    }
+
+    /**
+     * Returns whether this is a call to a built-in function whose value only depends on its arguments so that a call
+     * with constant arguments can be replaced by its value.
+     */
+    public boolean isPure() {
+        BuiltIn builtIn = getFunction().builtIn;
+        if (args.length == 0 && (builtIn == BuiltIn.STRING_LENGTH || builtIn == BuiltIn.NORMALIZE_SPACE)) {
+            return false; // these use the value of the context node
+        }
+
+        return BuiltIn.PURE.contains(builtIn);
+    }
+
     @Override
     public boolean containsFunc(@NotNull String name) {
         return name.equals(id.name) || Arrays.stream(args).anyMatch(expression -> expression.containsFunc(name));
     }
 
+    /**
+     * What a call resolves to given the function name and the number of arguments. It is worked out once so that
+     * evaluating the call doesn't have to compare the name to the name of every built-in function.
+     */
+    private static final class Function {
+        private final XPathQName id;
+        private final int argCount;
+        private final String name;
+        private final BuiltIn builtIn;
+
+        // Whether calls can return different values with the same arguments so they are never equal to each other
+        private final boolean nondeterministic;
+
+        private CustomHandlerCall customHandlerCall;
+
+        Function(XPathQName id, int argCount) {
+            this.id = id;
+            this.argCount = argCount;
+            name = id.toString();
+            builtIn = BuiltIn.resolve(name, argCount);
+            nondeterministic = name.equals("uuid") ||
+                name.equals("random") ||
+                name.equals("once") ||
+                name.equals("now") ||
+                name.equals("today");
+        }
+
+        /**
+         * Returns the prototypes of the handler that could match this call. Handlers come from the evaluation context
+         * so the last one used is kept and the prototypes are only worked out again if a different one is used.
+         */
+        CustomHandlerCall getCustomHandlerCall(IFunctionHandler handler) {
+            CustomHandlerCall call = customHandlerCall;
+            if (call == null || call.handler != handler) {
+                call = new CustomHandlerCall(handler, argCount);
+                customHandlerCall = call;
+            }
+
+            return call;
+        }
+    }
+
+    /**
+     * A custom function handler with only the prototypes that have the number of arguments of a call.
+     */
+    private static final class CustomHandlerCall {
+        private final IFunctionHandler handler;
+        private final Class[][] prototypes;
+
+        CustomHandlerCall(IFunctionHandler handler, int argCount) {
+            this.handler = handler;
+
+            List<Class[]> matchingPrototypes = new ArrayList<>();
+            for (Class[] prototype : handler.getPrototypes()) {
+                if (prototype.length == argCount) {
+                    matchingPrototypes.add(prototype);
+                }
+            }
+            prototypes = matchingPrototypes.toArray(new Class[0][]);
+        }
+    }
+
+    /**
+     * The built-in functions that {@link #eval(DataInstance, EvaluationContext)} dispatches to, or {@link #CUSTOM}
+     * for calls that are left to the handlers in the evaluation context.
+     */
+    private enum BuiltIn {
+        IF("if"),
+        COALESCE("coalesce"),
+        INDEXED_REPEAT("indexed-repeat"),
+        TRUE("true"),
+        FALSE("false"),
+        BOOLEAN("boolean"),
+        NUMBER("number"),
+        INT("int"),
+        ROUND("round"),
+        STRING("string"),
+        DATE("date"),
+        DATE_TIME("date-time"),
+        DECIMAL_DATE_TIME("decimal-date-time"),
+        DECIMAL_TIME("decimal-time"),
+        NOT("not"),
+        BOOLEAN_FROM_STRING("boolean-from-string"),
+        FORMAT_DATE("format-date"),
+        ABS("abs"),
+        ACOS("acos"),
+        ASIN("asin"),
+        ATAN("atan"),
+        ATAN2("atan2"),
+        COS("cos"),
+        EXP("exp"),
+        EXP10("exp10"),
+        LOG("log"),
+        LOG10("log10"),
+        PI("pi"),
+        SIN("sin"),
+        SQRT("sqrt"),
+        TAN("tan"),
+        FORMAT_DATE_TIME("format-date-time"),
+        SELECTED("selected", "is-selected"),
+        COUNT_SELECTED("count-selected"),
+        SELECTED_AT("selected-at"),
+        POSITION("position"),
+        COUNT("count"),
+        COUNT_NON_EMPTY("count-non-empty"),
+        SUM("sum"),
+        MAX("max"),
+        MIN("min"),
+        TODAY("today"),
+        NOW("now"),
+        CONCAT("concat"),
+        JOIN("join"),
+        SUBSTR("substr"),
+        SUBSTRING_BEFORE("substring-before"),
+        SUBSTRING_AFTER("substring-after"),
+        TRANSLATE("translate"),
+        CONTAINS("contains"),
+        STARTS_WITH("starts-with"),
+        ENDS_WITH("ends-with"),
+        STRING_LENGTH("string-length"),
+        NORMALIZE_SPACE("normalize-space"),
+        CHECKLIST("checklist"),
+        WEIGHTED_CHECKLIST("weighted-checklist"),
+        REGEX("regex"),
+        DEPEND("depend"),
+        RANDOM("random"),
+        ONCE("once"),
+        UUID("uuid"),
+        VERSION("version"),
+        PROPERTY("property"),
+        POW("pow"),
+        ENCLOSED_AREA("enclosed-area", "area"),
+        DISTANCE("distance"),
+        GEOFENCE("geofence"),
+        DIGEST("digest"),
+        RANDOMIZE("randomize"),
+        BASE64_DECODE("base64-decode"),
+        EXTRACT_SIGNED("extract-signed"),
+        CUSTOM;
+
+        private static final Map<String, BuiltIn> BY_NAME = new HashMap<>();
+
+        // Built-ins that don't depend on the form, the evaluation context, the clock or the locale
+        private static final Set<BuiltIn> PURE = EnumSet.of(
+            IF, COALESCE, TRUE, FALSE, BOOLEAN, NUMBER, INT, ROUND, STRING, NOT, BOOLEAN_FROM_STRING,
+            ABS, ACOS, ASIN, ATAN, ATAN2, COS, EXP, EXP10, LOG, LOG10, PI, SIN, SQRT, TAN, POW,
+            SELECTED, COUNT_SELECTED, SELECTED_AT, MAX, MIN,
+            CONCAT, JOIN, SUBSTR, SUBSTRING_BEFORE, SUBSTRING_AFTER, TRANSLATE, CONTAINS, STARTS_WITH, ENDS_WITH,
+            STRING_LENGTH, NORMALIZE_SPACE, CHECKLIST, WEIGHTED_CHECKLIST, REGEX, DIGEST, BASE64_DECODE
+        );
+
+        static {
+            for (BuiltIn builtIn : values()) {
+                for (String name : builtIn.names) {
+                    BY_NAME.put(name, builtIn);
+                }
+            }
+        }
+
+        private final String[] names;
+
+        BuiltIn(String... names) {
+            this.names = names;
+        }
+
+        static BuiltIn resolve(String name, int argCount) {
+            BuiltIn builtIn = BY_NAME.get(name);
+            return builtIn != null && builtIn.accepts(argCount) ? builtIn : CUSTOM;
+        }
+
+        /**
+         * Returns whether the built-in handles calls with the given number of arguments. Calls to these functions
+         * with any other number of arguments are left to custom handlers.
+         */
+        private boolean accepts(int argCount) {
+            switch (this) {
+                case JOIN:
+                case DEPEND:
+                    return argCount >= 1;
+                case SUBSTR:
+                case DIGEST:
+                    return argCount == 2 || argCount == 3;
+                case SUBSTRING_BEFORE:
+                case SUBSTRING_AFTER:
+                case CONTAINS:
+                case STARTS_WITH:
+                case ENDS_WITH:
+                case POW:
+                    return argCount == 2;
+                case TRANSLATE:
+                    return argCount == 3;
+                case STRING_LENGTH:
+                case NORMALIZE_SPACE:
+                    return argCount <= 1;
+                case CHECKLIST:
+                    return argCount >= 2;
+                case WEIGHTED_CHECKLIST:
+                    return argCount >= 2 && argCount % 2 == 0;
+                case UUID:
+                    return argCount == 0 || argCount == 1;
+                default:
+                    return true;
+            }
+        }
+    }
+
     public static final String[] IDEMPOTENT_FUNCTIONS = new String[]{
         "regex",
         "starts-with",
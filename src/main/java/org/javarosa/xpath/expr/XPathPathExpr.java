@@ -18,22 +18,7 @@ package org.javarosa.xpath.expr;
 
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.pivot.UnpivotableExpressionException;
-import org.javarosa.core.model.data.BooleanData;
-import org.javarosa.core.model.data.DateData;
-import org.javarosa.core.model.data.DateTimeData;
-import org.javarosa.core.model.data.DecimalData;
-import org.javarosa.core.model.data.GeoPointData;
-import org.javarosa.core.model.data.GeoShapeData;
-import org.javarosa.core.model.data.GeoTraceData;
 import org.javarosa.core.model.data.IAnswerData;
-import org.javarosa.core.model.data.IntegerData;
-import org.javarosa.core.model.data.LongData;
-import org.javarosa.core.model.data.MultipleItemsData;
-import org.javarosa.core.model.data.SelectOneData;
-import org.javarosa.core.model.data.StringData;
-import org.javarosa.core.model.data.TimeData;
-import org.javarosa.core.model.data.UncastData;
-import org.javarosa.core.model.data.helper.Selection;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeReference;
@@ -41,7 +26,6 @@ import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.ExtWrapList;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
-import org.javarosa.xform.util.XFormAnswerDataSerializer;
 import org.javarosa.xpath.XPathNodeset;
 import org.javarosa.xpath.XPathTypeMismatchException;
 import org.javarosa.xpath.XPathUnsupportedException;
@@ -56,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class XPathPathExpr extends XPathExpression {
     private static final Logger logger = LoggerFactory.getLogger(XPathPathExpr.class.getSimpleName());
@@ -213,14 +198,37 @@ public class XPathPathExpr extends XPathExpression {
         return new XPathPathExprEval().eval(getReference(), ec);
     }
 
+    /**
+     * Returns the size of the nodeset {@link #eval} would return without building it.
+     */
+    public int count(EvaluationContext ec) {
+        return new XPathPathExprEval().count(getReference(), ec);
+    }
+
+    /**
+     * Passes the value of each node of the nodeset {@link #eval} would return to the action without building the
+     * nodeset.
+     */
+    public void forEachValue(EvaluationContext ec, Consumer<Object> action) {
+        new XPathPathExprEval().forEachValue(getReference(), ec, action);
+    }
+
     public static Object getRefValue(DataInstance model, EvaluationContext ec, TreeReference ref) {
+        boolean isCandidate = ec.isConstraint && ref.equals(ec.getContextRef());
+        return getRefValue(ec, ref, isCandidate ? null : model.resolveReference(ref));
+    }
+
+    /**
+     * Like {@link #getRefValue(DataInstance, EvaluationContext, TreeReference)} for a node that has already been
+     * resolved.
+     */
+    public static Object getRefValue(EvaluationContext ec, TreeReference ref, AbstractTreeElement node) {
         if (ec.isConstraint && ref.equals(ec.getContextRef())) {
             //ITEMSET TODO: need to update this; for itemset/copy constraints, need to simulate a whole xml sub-tree here
             Object result = unpackValue(ec.candidateValue);
             logger.trace("getRefValue returning candidate value {} for {}", result, ref);
             return result;
         }
-        AbstractTreeElement node = model.resolveReference(ref);
         if (node == null) {
             //shouldn't happen -- only existent nodes should be in nodeset
             throw new XPathTypeMismatchException("Node " + ref.toString() + " does not exist!");
@@ -237,43 +245,7 @@ public class XPathPathExpr extends XPathExpression {
     }
 
     public static Object unpackValue(IAnswerData val) {
-        if (val == null) {
-            return "";
-        } else if (val instanceof UncastData) {
-            return val.getValue();
-        } else if (val instanceof IntegerData) {
-            return ((Integer) val.getValue()).doubleValue();
-        } else if (val instanceof LongData) {
-            return ((Long) val.getValue()).doubleValue();
-        } else if (val instanceof DecimalData) {
-            return val.getValue();
-        } else if (val instanceof StringData) {
-            return val.getValue();
-        } else if (val instanceof SelectOneData) {
-            return ((Selection) val.getValue()).getValue();
-        } else if (val instanceof MultipleItemsData) {
-            return (new XFormAnswerDataSerializer()).serializeAnswerData(val);
-        } else if (val instanceof DateData) {
-            return val.getValue();
-        } else if (val instanceof DateTimeData) {
-            return val.getValue();
-        } else if (val instanceof TimeData) {
-            return val.getValue();
-        } else if (val instanceof BooleanData) {
-            return val.getValue();
-        } else if (val instanceof GeoPointData) {
-            // we have no access fns that interact with double[4] arrays (the getValue() data type)...
-            return val.getDisplayText();
-        } else if (val instanceof GeoShapeData) {
-            // we have no access fns that interact with GeoShape objects (the getValue() data type)...
-            return val.getDisplayText();
-        } else if (val instanceof GeoTraceData) {
-            // we have no access fns that interact with GeoTrace objects (the getValue() data type)...
-            return val.getDisplayText();
-        } else {
-            logger.warn("unrecognized data type in xpath expr: " + val.getClass().getName());
-            return val.getValue(); //is this a good idea?
-        }
+        return val == null ? "" : val.getXPathValue();
     }
 
     public String toString() {
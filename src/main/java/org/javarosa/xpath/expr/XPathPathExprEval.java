@@ -17,13 +17,17 @@
 package org.javarosa.xpath.expr;
 
 import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.xpath.XPathException;
 import org.javarosa.xpath.XPathMissingInstanceException;
 import org.javarosa.xpath.XPathNodeset;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /** The eval operation of XPathPathExpr */
 public class XPathPathExprEval {
@@ -31,19 +35,44 @@ public class XPathPathExprEval {
     public XPathNodeset eval(TreeReference reference, EvaluationContext ec) {
         TreeReference ref = getContextualizedTreeReference(reference, ec);
         DataInstance dataInstance = getDataInstance(ec, ref);
-        List<TreeReference> nodesetRefs = ec.expandReference(ref);
-        removeIrrelevantNodesets(dataInstance, nodesetRefs);
-        return new XPathNodeset(nodesetRefs, dataInstance, ec);
+        List<TreeReference> nodesetRefs = new ArrayList<>();
+        List<AbstractTreeElement> nodesetElements = new ArrayList<>();
+        forEachRelevantNode(ref, dataInstance, ec, (nodeRef, node) -> {
+            nodesetRefs.add(nodeRef);
+            nodesetElements.add(node);
+        });
+        return new XPathNodeset(nodesetRefs, nodesetElements, dataInstance, ec);
     }
 
-    /** Removes irrelevant nodesets, to fix conditions based on non-relevant data */
-    private void removeIrrelevantNodesets(DataInstance dataInstance, List<TreeReference> nodesetRefs) {
-        for (int i = 0; i < nodesetRefs.size(); i++) {
-            if (!dataInstance.resolveReference(nodesetRefs.get(i)).isRelevant()) {
-                nodesetRefs.remove(i);
-                i--;
+    /**
+     * Returns the size of the nodeset {@link #eval} would return without building it.
+     */
+    public int count(TreeReference reference, EvaluationContext ec) {
+        TreeReference ref = getContextualizedTreeReference(reference, ec);
+        int[] count = {0};
+        forEachRelevantNode(ref, getDataInstance(ec, ref), ec, (nodeRef, node) -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Passes the value of each node of the nodeset {@link #eval} would return to the action, in the same order,
+     * without building the nodeset.
+     */
+    public void forEachValue(TreeReference reference, EvaluationContext ec, Consumer<Object> action) {
+        TreeReference ref = getContextualizedTreeReference(reference, ec);
+        forEachRelevantNode(ref, getDataInstance(ec, ref), ec,
+            (nodeRef, node) -> action.accept(XPathPathExpr.getRefValue(ec, nodeRef, node)));
+    }
+
+    /** Skips irrelevant nodes, to fix conditions based on non-relevant data */
+    private void forEachRelevantNode(TreeReference ref, DataInstance dataInstance, EvaluationContext ec,
+                                     BiConsumer<TreeReference, AbstractTreeElement> action) {
+        ec.forEachNode(ref, false, (nodeRef, node) -> {
+            AbstractTreeElement resolved = node != null ? node : dataInstance.resolveReference(nodeRef);
+            if (resolved.isRelevant()) {
+                action.accept(nodeRef, resolved);
             }
-        }
+        });
     }
 
     private DataInstance getDataInstance(EvaluationContext ec, TreeReference ref) {
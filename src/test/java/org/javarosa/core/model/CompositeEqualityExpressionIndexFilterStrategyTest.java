@@ -0,0 +1,209 @@
+package org.javarosa.core.model;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.instance;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import org.javarosa.measure.Measure;
+import org.javarosa.test.Scenario;
+import org.junit.Test;
+
+public class CompositeEqualityExpressionIndexFilterStrategyTest {
+
+    @Test
+    public void andedEqualities_returnMatchingNodesInDocumentOrder() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "A"), t("state", "s1"), t("lga", "l1"), t("ward", "w1")),
+                        t("item", t("label", "B"), t("state", "s2"), t("lga", "l2"), t("ward", "w1")),
+                        t("item", t("label", "C"), t("state", "s1"), t("lga", "l1"), t("ward", "w2")),
+                        t("item", t("label", "D"), t("state", "s2"), t("lga", "l1"), t("ward", "w1"))
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/result").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[state = /data/state and lga = /data/lga]/label)")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga")
+            )
+        ));
+
+        scenario.answer("/data/state", "s1");
+        scenario.answer("/data/lga", "l1");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("A C"));
+
+        scenario.answer("/data/state", "s2");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("D"));
+
+        scenario.answer("/data/lga", "l3");
+        assertThat(scenario.answerOf("/data/result"), nullValue());
+    }
+
+    @Test
+    public void nestedAndsWithContextOnEitherSide_areSupported() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "A"), t("state", "s1"), t("lga", "l1"), t("ward", "w1")),
+                        t("item", t("label", "B"), t("state", "s2"), t("lga", "l2"), t("ward", "w1")),
+                        t("item", t("label", "C"), t("state", "s1"), t("lga", "l1"), t("ward", "w2")),
+                        t("item", t("label", "D"), t("state", "s2"), t("lga", "l1"), t("ward", "w1"))
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/result").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[(/data/state = state and lga = /data/lga) and ward = 'w1']/label)")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga")
+            )
+        ));
+
+        scenario.answer("/data/state", "s1");
+        scenario.answer("/data/lga", "l1");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("A"));
+    }
+
+    @Test
+    public void sameNodeComparedToDifferentValues_matchesNothing() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "A"), t("state", "s1"), t("lga", "l1"), t("ward", "w1")),
+                        t("item", t("label", "B"), t("state", "s2"), t("lga", "l2"), t("ward", "w1")),
+                        t("item", t("label", "C"), t("state", "s1"), t("lga", "l1"), t("ward", "w2")),
+                        t("item", t("label", "D"), t("state", "s2"), t("lga", "l1"), t("ward", "w1"))
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/result").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[state = /data/state and state = /data/lga]/label)")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga")
+            )
+        ));
+
+        scenario.answer("/data/state", "s1");
+        scenario.answer("/data/lga", "s2");
+        assertThat(scenario.answerOf("/data/result"), nullValue());
+
+        scenario.answer("/data/lga", "s1");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("A C"));
+    }
+
+    @Test
+    public void ors_areEvaluatedNormally() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "A"), t("state", "s1"), t("lga", "l1"), t("ward", "w1")),
+                        t("item", t("label", "B"), t("state", "s2"), t("lga", "l2"), t("ward", "w1")),
+                        t("item", t("label", "C"), t("state", "s1"), t("lga", "l1"), t("ward", "w2")),
+                        t("item", t("label", "D"), t("state", "s2"), t("lga", "l1"), t("ward", "w1"))
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/result").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[state = /data/state or lga = /data/lga]/label)")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga")
+            )
+        ));
+
+        scenario.answer("/data/state", "s2");
+        scenario.answer("/data/lga", "l2");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("B D"));
+    }
+
+    @Test
+    public void eachChildIsOnlyEvaluatedOnce_forDifferentValues() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "A"), t("state", "s1"), t("lga", "l1"), t("ward", "w1")),
+                        t("item", t("label", "B"), t("state", "s2"), t("lga", "l2"), t("ward", "w1")),
+                        t("item", t("label", "C"), t("state", "s1"), t("lga", "l1"), t("ward", "w2")),
+                        t("item", t("label", "D"), t("state", "s2"), t("lga", "l1"), t("ward", "w1"))
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/result").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[state = /data/state and lga = /data/lga]/label)")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga")
+            )
+        ));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/state", "s1");
+            scenario.answer("/data/lga", "l1");
+            scenario.answer("/data/state", "s2");
+            scenario.answer("/data/lga", "l2");
+        });
+
+        // The index was already built when the calculation was first evaluated on form load
+        assertThat(evaluations, equalTo(0));
+    }
+}
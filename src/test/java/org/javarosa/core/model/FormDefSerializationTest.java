@@ -16,29 +16,41 @@
 
 package org.javarosa.core.model;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNull.nullValue;
+import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
 import static org.javarosa.test.BindBuilderXFormsElement.bind;
 import static org.javarosa.test.XFormsElement.body;
 import static org.javarosa.test.XFormsElement.head;
 import static org.javarosa.test.XFormsElement.html;
 import static org.javarosa.test.XFormsElement.input;
 import static org.javarosa.test.XFormsElement.instance;
+import static org.javarosa.test.XFormsElement.item;
 import static org.javarosa.test.XFormsElement.mainInstance;
 import static org.javarosa.test.XFormsElement.model;
 import static org.javarosa.test.XFormsElement.select1Dynamic;
 import static org.javarosa.test.XFormsElement.t;
 import static org.javarosa.test.XFormsElement.title;
 
+import java.io.File;
 import java.io.IOException;
 
+import org.apache.commons.io.FileUtils;
+import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.test.Scenario;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.xform.parse.XFormParser;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class FormDefSerializationTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test public void instanceName_forReferenceInMainInstance_isAlwaysNull() throws IOException, DeserializationException, XFormParser.ParseException {
         Scenario scenario = getSimplestFormScenario();
 
@@ -106,6 +118,56 @@ public class FormDefSerializationTest {
         scenario.serializeAndDeserializeForm();
     }
 
+    @Test public void internalInstances_areRestoredWithoutTheFormXml_whenSerializedCompactly() throws IOException, DeserializationException, XFormParser.ParseException {
+        File formFile = temporaryFolder.newFile("internal-instances.xml");
+        FileUtils.write(formFile, html(
+            head(
+                title("Internal instances"),
+                model(
+                    mainInstance(t("data id='internal-instances'",
+                        t("label-b"),
+                        t("count"),
+                        t("note-c")
+                    )),
+                    instance("choices",
+                        item("a", "A"),
+                        item("b", "B"),
+                        t("item note=\"last\"", t("label", "C"), t("value", "c"))
+                    ),
+                    instance("other",
+                        t("item", t("name", "x"))
+                    ),
+                    bind("/data/label-b").type("string").calculate("instance('choices')/root/item[value = 'b']/label"),
+                    bind("/data/count").type("int").calculate("count(instance('choices')/root/item) + count(instance('other')/root/item)"),
+                    bind("/data/note-c").type("string").calculate("instance('choices')/root/item[value = 'c']/@note")
+                )
+            ),
+            body(
+                input("/data/label-b")
+            )).asXml(), UTF_8);
+
+        FormDef formDef = Scenario.createFormDef(formFile);
+        formDef.setFormXmlPath(formFile.getAbsolutePath());
+        formDef.setCompactInternalInstanceSerialization(true);
+        Scenario scenario = Scenario.init(formDef);
+
+        // Deserializing must not need the form XML
+        formFile.delete();
+        Scenario deserialized = scenario.serializeAndDeserializeForm().serializeAndDeserializeForm();
+
+        assertThat(deserialized.answerOf("/data/label-b"), is(stringAnswer("B")));
+        assertThat(deserialized.answerOf("/data/count"), is(intAnswer(4)));
+        assertThat(deserialized.answerOf("/data/note-c"), is(stringAnswer("last")));
+
+        TreeElement original = (TreeElement) scenario.getFormDef().getNonMainInstance("choices").getRoot();
+        TreeElement restored = (TreeElement) deserialized.getFormDef().getNonMainInstance("choices").getRoot();
+        assertThat(restored.getChildAt(2).getAttributeValue(null, "note"), is("last"));
+        assertThat(restored.getNumChildren(), is(original.getNumChildren()));
+        for (int i = 0; i < original.getNumChildren(); i++) {
+            assertThat(restored.getChildAt(i).getRef(), is(original.getChildAt(i).getRef()));
+        }
+    }
+
     private static Scenario getSimplestFormScenario() throws IOException, XFormParser.ParseException {
         return Scenario.init("Simplest", html(
             head(
@@ -0,0 +1,144 @@
+package org.javarosa.core.model;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.javarosa.measure.Measure;
+import org.javarosa.test.Scenario;
+import org.javarosa.xform.parse.XFormParser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentEqualityIndexFilterStrategyTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File instanceFile;
+    private File indexDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        File instanceDirectory = temporaryFolder.newFolder("instances");
+        instanceFile = new File(instanceDirectory, "items.xml");
+        writeItems("a", "b", "c");
+        setUpSimpleReferenceManager(instanceDirectory, "file");
+
+        indexDirectory = temporaryFolder.newFolder("indexes");
+    }
+
+    @Test
+    public void indexIsWrittenByFirstSession_andUsedByLaterSessionsWithoutEvaluatingNodes() throws Exception {
+        Scenario firstSession = createScenario();
+        int firstEvaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            firstSession.answer("/data/choice", "b");
+        });
+        assertThat(firstSession.answerOf("/data/label"), stringAnswer("Item b"));
+        assertThat(firstEvaluations, greaterThan(0));
+        assertThat(indexFiles().length, equalTo(1));
+
+        Scenario secondSession = createScenario();
+        int secondEvaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            secondSession.answer("/data/choice", "c");
+        });
+        assertThat(secondSession.answerOf("/data/label"), stringAnswer("Item c"));
+        assertThat(secondEvaluations, equalTo(0));
+        assertThat(indexFiles().length, equalTo(1));
+    }
+
+    @Test
+    public void indexIsRebuilt_whenInstanceFileChanges() throws Exception {
+        Scenario firstSession = createScenario();
+        firstSession.answer("/data/choice", "b");
+        assertThat(firstSession.answerOf("/data/label"), stringAnswer("Item b"));
+
+        writeItems("a", "c", "b");
+
+        Scenario secondSession = createScenario();
+        secondSession.answer("/data/choice", "b");
+        assertThat(secondSession.answerOf("/data/label"), stringAnswer("Item b"));
+        secondSession.answer("/data/choice", "d");
+        assertThat(secondSession.answerOf("/data/label"), equalTo(null));
+        assertThat(indexFiles().length, equalTo(2));
+    }
+
+    @Test
+    public void indexIsRebuilt_whenInstanceFileIsReplacedWhileTheStrategyIsInUse() throws Exception {
+        PersistentEqualityIndexFilterStrategy strategy = new PersistentEqualityIndexFilterStrategy(indexDirectory);
+        Scenario firstSession = createScenario(strategy);
+        firstSession.answer("/data/choice", "b");
+        assertThat(firstSession.answerOf("/data/label"), stringAnswer("Item b"));
+
+        // Same number of items and same length, only the modification time gives the change away
+        long lastModified = instanceFile.lastModified();
+        writeItems("a", "c", "b");
+        assertThat(instanceFile.setLastModified(lastModified + 2000), equalTo(true));
+
+        Scenario secondSession = createScenario(strategy);
+        secondSession.answer("/data/choice", "b");
+        assertThat(secondSession.answerOf("/data/label"), stringAnswer("Item b"));
+        secondSession.answer("/data/choice", "c");
+        assertThat(secondSession.answerOf("/data/label"), stringAnswer("Item c"));
+        assertThat(indexFiles().length, equalTo(2));
+    }
+
+    private Scenario createScenario() throws IOException, XFormParser.ParseException {
+        return createScenario(new PersistentEqualityIndexFilterStrategy(indexDirectory));
+    }
+
+    private Scenario createScenario(PersistentEqualityIndexFilterStrategy strategy) throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("choice"),
+                        t("label")
+                    )),
+                    t("instance id=\"items\" src=\"jr://file/items.xml\""),
+                    bind("/data/choice").type("string"),
+                    bind("/data/label").type("string")
+                        .calculate("instance('items')/root/item[value = /data/choice]/label")
+                )
+            ),
+            body(
+                input("/data/choice")
+            )
+        ));
+
+        scenario.getFormEntryController().addFilterStrategy(strategy);
+        return scenario;
+    }
+
+    private void writeItems(String... values) throws IOException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (String value : values) {
+            xml.append("<item><value>").append(value).append("</value><label>Item ").append(value).append("</label></item>");
+        }
+        xml.append("</root>");
+        FileUtils.write(instanceFile, xml.toString(), UTF_8);
+    }
+
+    private File[] indexFiles() {
+        return indexDirectory.listFiles((dir, name) -> name.endsWith(PersistentEqualityIndexFilterStrategy.INDEX_EXTENSION));
+    }
+}
@@ -0,0 +1,126 @@
+package org.javarosa.core.model;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.instance;
+import static org.javarosa.test.XFormsElement.item;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import java.io.IOException;
+import org.javarosa.measure.Measure;
+import org.javarosa.test.Scenario;
+import org.javarosa.xform.parse.XFormParser;
+import org.junit.Test;
+
+public class RangeExpressionIndexFilterStrategyTest {
+
+    @Test
+    public void comparisonPredicates_returnMatchingNodesInDocumentOrder() throws Exception {
+        Scenario scenario = createScenario("join(' ', instance('instance')/root/item[value < /data/input]/label)");
+
+        scenario.answer("/data/input", "3");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C A B"));
+
+        scenario.answer("/data/input", "1.5");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C"));
+
+        scenario.answer("/data/input", "foo");
+        assertThat(scenario.answerOf("/data/result"), nullValue());
+    }
+
+    @Test
+    public void comparisonPredicates_withNodeOnTheRight_areFlipped() throws Exception {
+        Scenario scenario = createScenario("join(' ', instance('instance')/root/item[/data/input <= value]/label)");
+
+        scenario.answer("/data/input", "3");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("D E"));
+    }
+
+    @Test
+    public void comparisonPredicates_includeBoundaries_onlyForInclusiveOperators() throws Exception {
+        Scenario greaterThan = createScenario("join(' ', instance('instance')/root/item[value > /data/input]/label)");
+        greaterThan.answer("/data/input", "3");
+        assertThat(greaterThan.answerOf("/data/result"), stringAnswer("E"));
+
+        Scenario greaterThanOrEqual = createScenario("join(' ', instance('instance')/root/item[value >= /data/input]/label)");
+        greaterThanOrEqual.answer("/data/input", "3");
+        assertThat(greaterThanOrEqual.answerOf("/data/result"), stringAnswer("D E"));
+    }
+
+    @Test
+    public void startsWithPredicates_returnMatchingNodesInDocumentOrder() throws Exception {
+        Scenario scenario = createScenario("join(' ', instance('instance')/root/item[starts-with(name, /data/input)]/label)");
+
+        scenario.answer("/data/input", "ab");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C A E"));
+
+        scenario.answer("/data/input", "abc");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C E"));
+
+        scenario.answer("/data/input", "z");
+        assertThat(scenario.answerOf("/data/result"), nullValue());
+    }
+
+    @Test
+    public void containsPredicates_returnMatchingNodesInDocumentOrder() throws Exception {
+        Scenario scenario = createScenario("join(' ', instance('instance')/root/item[contains(name, /data/input)]/label)");
+
+        scenario.answer("/data/input", "bc");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C B E"));
+
+        // "cc" appears in no name, "c" appears twice in "abcc"
+        scenario.answer("/data/input", "c");
+        assertThat(scenario.answerOf("/data/result"), stringAnswer("C B D E"));
+    }
+
+    @Test
+    public void nodeSideIsOnlyEvaluatedOnce_forDifferentValues() throws Exception {
+        Scenario scenario = createScenario("join(' ', instance('instance')/root/item[value < /data/input]/label)");
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/input", "2");
+            scenario.answer("/data/input", "3");
+            scenario.answer("/data/input", "4");
+        });
+
+        // Less than (size of secondary instance) * (number of answers)
+        assertThat(evaluations, lessThan(10));
+    }
+
+    private static Scenario createScenario(String calculate) throws IOException, XFormParser.ParseException {
+        return Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("input"),
+                        t("result")
+                    )),
+                    instance("instance",
+                        t("item", t("label", "C"), t("value", "1"), t("name", "abc")),
+                        t("item", t("label", "A"), t("value", "2"), t("name", "ab")),
+                        t("item", t("label", "B"), t("value", "2"), t("name", "xbc")),
+                        t("item", t("label", "D"), t("value", "3"), t("name", "c")),
+                        t("item", t("label", "E"), t("value", "4"), t("name", "abcc"))
+                    ),
+                    bind("/data/input").type("string"),
+                    bind("/data/result").type("string").calculate(calculate)
+                )
+            ),
+            body(
+                input("/data/input")
+            )
+        ));
+    }
+}
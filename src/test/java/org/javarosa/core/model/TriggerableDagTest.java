@@ -6,6 +6,8 @@ import static java.util.stream.Collectors.toList;
 import static java.util.stream.IntStream.range;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.javarosa.core.test.AnswerDataMatchers.booleanAnswer;
@@ -23,6 +25,7 @@ import static org.javarosa.test.XFormsElement.group;
 import static org.javarosa.test.XFormsElement.head;
 import static org.javarosa.test.XFormsElement.html;
 import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.instance;
 import static org.javarosa.test.XFormsElement.item;
 import static org.javarosa.test.XFormsElement.label;
 import static org.javarosa.test.XFormsElement.mainInstance;
@@ -39,11 +42,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 import org.hamcrest.CoreMatchers;
 import org.javarosa.test.Scenario;
 import org.javarosa.test.BindBuilderXFormsElement;
 import org.javarosa.test.XFormsElement;
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.IFunctionHandler;
+import org.javarosa.debug.EvaluationProfiler;
 import org.javarosa.debug.Event;
 import org.javarosa.form.api.FormEntryController;
 import org.javarosa.xform.parse.XFormParseException;
@@ -102,6 +111,25 @@ public class TriggerableDagTest {
         assertThat(scenario.answerOf("/data/c"), is(intAnswer(60)));
     }
 
+    @Test
+    public void calculates_inWideAndDeepDag_areAllEvaluated() throws IOException, XFormParser.ParseException {
+        // Each calculate depends on the one at half its index so the DAG has several levels of increasing width
+        int count = 200;
+        List<BindBuilderXFormsElement> binds = new ArrayList<>();
+        binds.add(bind("/data/c0").type("int"));
+        for (int i = 1; i < count; i++) {
+            binds.add(bind("/data/c" + i).type("int").calculate("/data/c" + (i / 2) + " + 1"));
+        }
+
+        Scenario scenario = Scenario.init("Some form", buildFormForDagCyclesCheck(binds.toArray(new BindBuilderXFormsElement[0])));
+        scenario.answer("/data/c0", 10);
+
+        for (int i = 1; i < count; i++) {
+            int depth = 32 - Integer.numberOfLeadingZeros(i);
+            assertThat(scenario.answerOf("/data/c" + i), is(intAnswer(10 + depth)));
+        }
+    }
+
     //region Cycles
     @Test
     public void parsing_forms_with_cycles_by_self_reference_in_calculate_should_fail() throws IOException, XFormParser.ParseException {
@@ -125,6 +153,19 @@ public class TriggerableDagTest {
         ));
     }
 
+    @Test
+    public void parsing_forms_with_cycles_downstream_of_acyclic_triggerables_should_fail() throws IOException, XFormParser.ParseException {
+        exceptionRule.expect(XFormParseException.class);
+        exceptionRule.expectMessage("Cycle detected in form's relevant and calculation logic!");
+
+        Scenario.init("Some form", buildFormForDagCyclesCheck(
+            bind("/data/a").type("int"),
+            bind("/data/b").type("int").calculate("/data/a + 1"),
+            bind("/data/c").type("int").calculate("/data/b + /data/d"),
+            bind("/data/d").type("int").calculate("/data/c + 1")
+        ));
+    }
+
     @Test
     public void parsing_forms_with_cycles_by_self_reference_in_relevance_should_fail() throws IOException, XFormParser.ParseException {
         exceptionRule.expect(XFormParseException.class);
@@ -1909,6 +1950,500 @@ public class TriggerableDagTest {
     }
     //endregion
 
+    //region Skipping unchanged cascades
+    @Test
+    public void valueChange_doesNotEvaluateCalculates_whenTheValueTheyDependOnDidNotChange() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("b"),
+                        t("c"),
+                        t("d")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/b").type("int").calculate("if(/data/a > 0, 1, 0)"),
+                    bind("/data/c").type("int").calculate("/data/b * 10"),
+                    bind("/data/d").type("int").calculate("/data/c + 1")
+                )
+            ),
+            body(input("/data/a"))
+        )).onDagEvent(dagEvents::add);
+
+        scenario.answer("/data/a", 2);
+        assertThat(scenario.answerOf("/data/d"), is(intAnswer(11)));
+
+        // Start recording DAG events now
+        dagEvents.clear();
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/d"), is(intAnswer(11)));
+        assertDagEvents(dagEvents,
+            "Processing 'Recalculate' for b [1] (1.0)",
+            "Processing 'New value: a [1]: 1 triggerables were fired.' for "
+        );
+
+        dagEvents.clear();
+
+        scenario.answer("/data/a", -1);
+        assertThat(scenario.answerOf("/data/d"), is(intAnswer(1)));
+        assertDagEvents(dagEvents,
+            "Processing 'Recalculate' for b [1] (0.0)",
+            "Processing 'Recalculate' for c [1] (0.0)",
+            "Processing 'Recalculate' for d [1] (1.0)",
+            "Processing 'New value: a [1]: 3 triggerables were fired.' for "
+        );
+    }
+
+    @Test
+    public void valueChange_doesNotEvaluateDependants_whenRelevanceDidNotFlip() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("group", t("b")),
+                        t("c")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/group").relevant("/data/a > 0"),
+                    bind("/data/group/b").type("int").calculate("/data/a * 0"),
+                    bind("/data/c").type("string").calculate("concat('b is ', /data/group/b)")
+                )
+            ),
+            body(input("/data/a"))
+        )).onDagEvent(dagEvents::add);
+
+        scenario.answer("/data/a", 2);
+        assertThat(scenario.answerOf("/data/c"), is(stringAnswer("b is 0")));
+
+        // Start recording DAG events now
+        dagEvents.clear();
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/c"), is(stringAnswer("b is 0")));
+        // The relevance and calculate only depend on a so they can be evaluated in either order
+        assertThat(dagEvents.stream().map(Event::getDisplayMessage).collect(toList()), containsInAnyOrder(
+            "Processing 'Condition' for group [1] (true)",
+            "Processing 'Recalculate' for b [1_1] (0.0)",
+            "Processing 'New value: a [1]: 2 triggerables were fired.' for "
+        ));
+    }
+    //endregion
+
+    //region Parallel evaluation
+    @Test
+    public void parallelEvaluation_updatesEveryRepeatInstance() throws IOException, XFormParser.ParseException {
+        int instanceCount = TriggerableDag.PARALLEL_EVALUATION_BATCH_SIZE * 5;
+        List<XFormsElement> mainInstanceChildren = new ArrayList<>();
+        mainInstanceChildren.add(t("factor"));
+        mainInstanceChildren.add(t("repeat jr:template=\"\"", t("value"), t("scaled")));
+        for (int i = 0; i < instanceCount; i++) {
+            mainInstanceChildren.add(t("repeat", t("value", String.valueOf(i)), t("scaled")));
+        }
+        mainInstanceChildren.add(t("total"));
+
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"", mainInstanceChildren.toArray(new XFormsElement[0]))),
+                    bind("/data/factor").type("int"),
+                    bind("/data/repeat/value").type("int"),
+                    bind("/data/repeat/scaled").type("int").calculate("../value * /data/factor"),
+                    bind("/data/total").type("int").calculate("sum(/data/repeat/scaled)")
+                )
+            ),
+            body(
+                input("/data/factor"),
+                repeat("/data/repeat", input("/data/repeat/value"))
+            )
+        ));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            scenario.getFormDef().setParallelTriggerableEvaluation(pool);
+            scenario.answer("/data/factor", 3);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < instanceCount; i++) {
+            assertThat(scenario.answerOf("/data/repeat[" + (i + 1) + "]/scaled"), is(intAnswer(i * 3)));
+        }
+        assertThat(scenario.answerOf("/data/total"), is(intAnswer(3 * instanceCount * (instanceCount - 1) / 2)));
+    }
+
+    @Test
+    public void parallelEvaluation_doesNotSplitTriggerablesThatReadSecondaryInstances() throws IOException, XFormParser.ParseException {
+        int instanceCount = TriggerableDag.PARALLEL_EVALUATION_BATCH_SIZE * 5;
+        List<XFormsElement> mainInstanceChildren = new ArrayList<>();
+        mainInstanceChildren.add(t("factor"));
+        mainInstanceChildren.add(t("repeat jr:template=\"\"", t("value"), t("scaled")));
+        for (int i = 0; i < instanceCount; i++) {
+            mainInstanceChildren.add(t("repeat", t("value", String.valueOf(i)), t("scaled")));
+        }
+
+        FormDef formDef = Scenario.createFormDef("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"", mainInstanceChildren.toArray(new XFormsElement[0]))),
+                    instance("offsets", item("1", "One")),
+                    bind("/data/factor").type("int"),
+                    bind("/data/repeat/value").type("int"),
+                    bind("/data/repeat/scaled").type("int").calculate("record-thread(../value * /data/factor + instance('offsets')/root/item/value)")
+                )
+            ),
+            body(
+                input("/data/factor"),
+                repeat("/data/repeat", input("/data/repeat/value"))
+            )
+        ));
+
+        Set<Thread> evaluatingThreads = ConcurrentHashMap.newKeySet();
+        formDef.getEvaluationContext().addFunctionHandler(new IFunctionHandler() {
+            @Override
+            public String getName() {
+                return "record-thread";
+            }
+
+            @Override
+            public List<Class[]> getPrototypes() {
+                return new ArrayList<Class[]>();
+            }
+
+            @Override
+            public boolean rawArgs() {
+                return true;
+            }
+
+            @Override
+            public boolean realTime() {
+                return false;
+            }
+
+            @Override
+            public Object eval(Object[] args, EvaluationContext ec) {
+                evaluatingThreads.add(Thread.currentThread());
+                return args[0];
+            }
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            formDef.setParallelTriggerableEvaluation(pool);
+            Scenario scenario = Scenario.init(formDef);
+            evaluatingThreads.clear();
+            scenario.answer("/data/factor", 3);
+
+            for (int i = 0; i < instanceCount; i++) {
+                assertThat(scenario.answerOf("/data/repeat[" + (i + 1) + "]/scaled"), is(intAnswer(i * 3 + 1)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(evaluatingThreads, contains(Thread.currentThread()));
+    }
+    //endregion
+
+    //region Incremental evaluation
+    @Test
+    public void incrementalEvaluation_updatesChainedCalculates() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("b"),
+                        t("c")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/b").type("int").calculate("/data/a * 3"),
+                    bind("/data/c").type("int").calculate("(/data/a + /data/b) * 5")
+                )
+            ),
+            body(input("/data/a"))
+        ));
+        scenario.getFormDef().setIncrementalTriggerableEvaluation(true);
+
+        scenario.answer("/data/a", 2);
+        assertThat(scenario.answerOf("/data/b"), is(intAnswer(6)));
+        assertThat(scenario.answerOf("/data/c"), is(intAnswer(40)));
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/b"), is(intAnswer(9)));
+        assertThat(scenario.answerOf("/data/c"), is(intAnswer(60)));
+    }
+
+    @Test
+    public void incrementalEvaluation_skipsTriggerables_whenTheirInputsDidNotChange() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("b"),
+                        t("c")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/b").type("int").calculate("if(/data/a > 0, 1, 0)"),
+                    bind("/data/c").type("int").calculate("/data/b * 10")
+                )
+            ),
+            body(input("/data/a"))
+        )).onDagEvent(dagEvents::add);
+        scenario.getFormDef().setIncrementalTriggerableEvaluation(true);
+
+        scenario.answer("/data/a", 2);
+        assertThat(scenario.answerOf("/data/c"), is(intAnswer(10)));
+
+        // Start recording DAG events now
+        dagEvents.clear();
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/b"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/c"), is(intAnswer(10)));
+        assertDagEvents(dagEvents,
+            "Processing 'Recalculate' for b [1] (1.0)",
+            "Processing 'New value: a [1]: 1 triggerables were fired.' for "
+        );
+    }
+    //endregion
+
+    //region Serialized topology
+    @Test
+    public void deserializedForm_evaluatesCascadesAndRepeatRelevanceLikeTheOriginal() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("b"),
+                        t("repeat", t("c"))
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/b").type("int").calculate("/data/a * 2"),
+                    bind("/data/repeat").relevant("/data/b > 4"),
+                    bind("/data/repeat/c").type("int").calculate("/data/b + 1")
+                )
+            ),
+            body(
+                input("/data/a"),
+                repeat("/data/repeat", input("/data/repeat/c"))
+            )
+        )).serializeAndDeserializeForm();
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/b"), is(intAnswer(6)));
+        assertThat(scenario.answerOf("/data/repeat[1]/c"), is(intAnswer(7)));
+        assertThat(scenario.getFormDef().isRepeatRelevant(getRef("/data/repeat[1]")), is(true));
+
+        scenario.answer("/data/a", 1);
+        assertThat(scenario.getFormDef().isRepeatRelevant(getRef("/data/repeat[1]")), is(false));
+    }
+
+    @Test
+    public void deserializedForm_evaluatesTriggerablesInTheSameOrderAsTheOriginal() throws Exception {
+        // Many calculates at the same level of the DAG so that rebuilding it would be likely to order them differently
+        List<XFormsElement> fields = new ArrayList<>();
+        List<XFormsElement> binds = new ArrayList<>();
+        fields.add(t("a"));
+        binds.add(bind("/data/a").type("int"));
+        for (int i = 0; i < 20; i++) {
+            fields.add(t("c" + i));
+            binds.add(bind("/data/c" + i).type("int").calculate("/data/a + " + i));
+        }
+
+        List<XFormsElement> modelChildren = new ArrayList<>();
+        modelChildren.add(mainInstance(t("data id=\"some-form\"", fields.toArray(new XFormsElement[0]))));
+        modelChildren.addAll(binds);
+
+        List<Event> originalEvents = new ArrayList<>();
+        Scenario original = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(modelChildren.toArray(new XFormsElement[0]))
+            ),
+            body(input("/data/a"))
+        ));
+        Scenario deserialized = original.serializeAndDeserializeForm();
+
+        original.onDagEvent(originalEvents::add);
+        original.answer("/data/a", 1);
+        deserialized.onDagEvent(dagEvents::add);
+        deserialized.answer("/data/a", 1);
+
+        assertThat(dagEvents.stream().map(Event::getDisplayMessage).collect(toList()),
+            is(originalEvents.stream().map(Event::getDisplayMessage).collect(toList())));
+    }
+    //endregion
+
+    //region Shared subexpression evaluation
+    @Test
+    public void sharedSubexpressionEvaluation_evaluatesCallsSharedByTriggerablesOncePerPass() throws IOException, XFormParser.ParseException {
+        String households = "count(instance('households')/root/item[district = /data/district])";
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("district"),
+                        t("doubled"),
+                        t("plus-one"),
+                        t("question")
+                    )),
+                    t("instance id=\"households\"", t("root",
+                        t("item", t("district", "a")),
+                        t("item", t("district", "a")),
+                        t("item", t("district", "b"))
+                    )),
+                    bind("/data/doubled").type("int").calculate(households + " * 2"),
+                    bind("/data/plus-one").type("int").calculate(households + " + 1"),
+                    bind("/data/question").type("string").relevant(households + " > 1")
+                )
+            ),
+            body(
+                input("/data/district"),
+                input("/data/question")
+            )
+        ));
+        scenario.getFormDef().setSharedSubexpressionEvaluation(true);
+
+        scenario.answer("/data/district", "a");
+        assertThat(scenario.answerOf("/data/doubled"), is(intAnswer(4)));
+        assertThat(scenario.answerOf("/data/plus-one"), is(intAnswer(3)));
+        assertThat(scenario.getAnswerNode("/data/question"), is(relevant()));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluations(), is(1L));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluationsSaved(), is(2L));
+
+        scenario.answer("/data/district", "b");
+        assertThat(scenario.answerOf("/data/doubled"), is(intAnswer(2)));
+        assertThat(scenario.answerOf("/data/plus-one"), is(intAnswer(2)));
+        assertThat(scenario.getAnswerNode("/data/question"), is(nonRelevant()));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluations(), is(2L));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluationsSaved(), is(4L));
+    }
+
+    @Test
+    public void sharedSubexpressionEvaluation_doesNotShareCallsThatDependOnTheContext() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("repeat", t("value", "1"), t("length"), t("other-length")),
+                        t("repeat", t("value", "123"), t("length"), t("other-length"))
+                    )),
+                    bind("/data/repeat/value").type("string"),
+                    bind("/data/repeat/length").type("int").calculate("string-length(../value)"),
+                    bind("/data/repeat/other-length").type("int").calculate("string-length(../value) + 10")
+                )
+            ),
+            body(
+                repeat("/data/repeat", input("/data/repeat/value"))
+            )
+        ));
+        scenario.getFormDef().setSharedSubexpressionEvaluation(true);
+
+        scenario.answer("/data/repeat[2]/value", "12345");
+        assertThat(scenario.answerOf("/data/repeat[1]/length"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/repeat[2]/length"), is(intAnswer(5)));
+        assertThat(scenario.answerOf("/data/repeat[2]/other-length"), is(intAnswer(15)));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluationsSaved(), is(0L));
+    }
+
+    @Test
+    public void sharedSubexpressionEvaluation_doesNotShareCallsWithAbsolutePathsIntoRepeats() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("offset", "0"),
+                        t("repeat", t("value", "1"), t("length"), t("other-length")),
+                        t("repeat", t("value", "123"), t("length"), t("other-length"))
+                    )),
+                    bind("/data/offset").type("int"),
+                    bind("/data/repeat/value").type("string"),
+                    bind("/data/repeat/length").type("int").calculate("string-length(/data/repeat/value) + /data/offset"),
+                    bind("/data/repeat/other-length").type("int").calculate("string-length(/data/repeat/value) + /data/offset + 10")
+                )
+            ),
+            body(
+                input("/data/offset"),
+                repeat("/data/repeat", input("/data/repeat/value"))
+            )
+        ));
+        scenario.getFormDef().setSharedSubexpressionEvaluation(true);
+
+        scenario.answer("/data/offset", 100);
+        assertThat(scenario.answerOf("/data/repeat[1]/length"), is(intAnswer(101)));
+        assertThat(scenario.answerOf("/data/repeat[2]/length"), is(intAnswer(103)));
+        assertThat(scenario.answerOf("/data/repeat[1]/other-length"), is(intAnswer(111)));
+        assertThat(scenario.answerOf("/data/repeat[2]/other-length"), is(intAnswer(113)));
+        assertThat(scenario.getFormDef().getSharedSubexpressionEvaluationsSaved(), is(0L));
+    }
+    //endregion
+
+    //region Evaluation profiling
+    @Test
+    public void evaluationProfiling_recordsEachTriggerableAndFilterStrategy_slowestFirst() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("district"),
+                        t("households"),
+                        t("question")
+                    )),
+                    t("instance id=\"households\"", t("root",
+                        t("item", t("district", "a")),
+                        t("item", t("district", "a")),
+                        t("item", t("district", "b"))
+                    )),
+                    bind("/data/households").type("int").calculate("count(instance('households')/root/item[district = /data/district])"),
+                    bind("/data/question").type("string").relevant("/data/households > 1")
+                )
+            ),
+            body(
+                input("/data/district"),
+                input("/data/question")
+            )
+        )).onDagEvent(dagEvents::add);
+        scenario.getFormDef().setEvaluationProfiling(true);
+
+        scenario.answer("/data/district", "a");
+
+        List<EvaluationProfiler.Entry> profile = scenario.getFormDef().getEvaluationProfile();
+        EvaluationProfiler.Entry households = profile.stream()
+            .filter(entry -> entry.getKind() == EvaluationProfiler.Kind.TRIGGERABLE && entry.getName().contains("count("))
+            .findFirst().get();
+        assertThat(households.getInvocations(), is(1L));
+        assertThat(households.getNodesVisited() >= 3, is(true));
+        assertThat(profile.stream().anyMatch(entry -> entry.getKind() == EvaluationProfiler.Kind.FILTER_STRATEGY), is(true));
+        for (int i = 1; i < profile.size(); i++) {
+            assertThat(profile.get(i - 1).getNanos() >= profile.get(i).getNanos(), is(true));
+        }
+
+        dagEvents.clear();
+        scenario.getFormDef().publishEvaluationProfile();
+        assertThat(dagEvents, hasSize(profile.size()));
+
+        scenario.getFormDef().setEvaluationProfiling(false);
+        scenario.answer("/data/district", "b");
+        assertThat(scenario.getFormDef().getEvaluationProfile(), hasSize(0));
+    }
+    //endregion
+
     private void assertDagEvents(List<Event> dagEvents, String... lines) {
         assertThat(dagEvents.stream().map(Event::getDisplayMessage).collect(joining("\n")), is(join("\n", lines)));
     }
@@ -22,6 +22,7 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.javarosa.test.Scenario.getRef;
 import static org.javarosa.test.BindBuilderXFormsElement.bind;
 import static org.javarosa.test.XFormsElement.body;
@@ -36,9 +37,17 @@ import static org.javarosa.test.XFormsElement.t;
 import static org.javarosa.test.XFormsElement.title;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.test.Scenario;
 import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xpath.XPathParseTool;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -122,4 +131,40 @@ public class EvaluationContextExpandReferenceTest {
             getRef("/data/group[5]")
         ));
     }
+
+    @Test
+    public void forEachNode_passesTheNodeEachReferencePointsTo() {
+        List<TreeReference> refs = new ArrayList<>();
+        ec.forEachNode(getRef("/data/group/number"), false, (ref, node) -> {
+            refs.add(ref);
+            assertThat(node, is(sameInstance(ec.resolveReference(ref))));
+        });
+
+        assertThat(refs, is(ec.expandReference(getRef("/data/group/number"))));
+    }
+
+    @Test
+    public void predicates_readTheNodesTheyFilter_withoutResolvingThemFromTheRoot() throws XPathSyntaxException {
+        TreeElement root = new TreeElement("data");
+        for (int i = 0; i < 100; i++) {
+            TreeElement item = new TreeElement("item", i);
+            TreeElement value = new TreeElement("value");
+            value.setValue(new StringData(i % 10 == 0 ? "x" : "y"));
+            item.addChild(value);
+            root.addChild(item);
+        }
+
+        int[] resolved = {0};
+        FormInstance instance = new FormInstance(root) {
+            @Override
+            public TreeElement resolveReference(TreeReference ref) {
+                resolved[0]++;
+                return super.resolveReference(ref);
+            }
+        };
+
+        XPathExpression expression = XPathParseTool.parseXPath("count(/data/item[value = 'x'])");
+        assertThat(expression.eval(instance, new EvaluationContext(instance)), is(10.0));
+        assertThat(resolved[0] < 10, is(true));
+    }
 }
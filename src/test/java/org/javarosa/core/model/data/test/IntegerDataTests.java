@@ -59,6 +59,15 @@ public class IntegerDataTests {
 
     }
     @Test
+    public void testXPathValue() {
+        IntegerData data = new IntegerData(one);
+        assertEquals("IntegerData's XPath value is not its value as a double", 1.0, data.getXPathValue());
+        assertTrue("IntegerData did not keep its XPath value", data.getXPathValue() == data.getXPathValue());
+
+        data.setValue(two);
+        assertEquals("IntegerData's XPath value was not updated by setValue", 2.0, data.getXPathValue());
+    }
+    @Test
     public void testNullData() {
         boolean exceptionThrown = false;
         IntegerData data = new IntegerData();
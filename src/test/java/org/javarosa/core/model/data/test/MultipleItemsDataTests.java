@@ -146,6 +146,18 @@ public class MultipleItemsDataTests {
         }
     }
 
+    @Test
+    public void testXPathValue() {
+        MultipleItemsData data = new MultipleItemsData(firstTwo);
+        assertEquals("MultipleItemsData's XPath value is not its space-separated selections",
+            "Selection 1 Selection 2", data.getXPathValue());
+        assertTrue("MultipleItemsData did not keep its XPath value", data.getXPathValue() == data.getXPathValue());
+
+        data.setValue(lastTwo);
+        assertEquals("MultipleItemsData's XPath value was not updated by setValue",
+            "Selection 2 Selection 3", data.getXPathValue());
+    }
+
     @Test
     public void testBadDataTypes() {
         boolean failure = false;
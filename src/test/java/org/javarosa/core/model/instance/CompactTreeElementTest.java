@@ -0,0 +1,137 @@
+package org.javarosa.core.model.instance;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.javarosa.test.ResourcePathHelper.r;
+
+public class CompactTreeElementTest {
+    @Test
+    public void compactCsvInstance_hasTheSameStructureAndValuesAsTheParsedOne() throws IOException {
+        TreeElement parsed = new CsvExternalInstance().parse("id", r("external-secondary-comma-complex.csv").toString());
+        TreeElement parsedBase = withBase(parsed, "id");
+
+        CompactTreeElement compactBase = CompactTreeElement.compact(parsed, "id");
+        assertThat(compactBase, notNullValue());
+        assertSameTree(compactBase, parsedBase);
+    }
+
+    @Test
+    public void compactInstance_keepsItemAndDocumentElementAttributes() {
+        TreeElement parsed = new TreeElement("root", 0);
+        parsed.setAttribute(null, "version", "2");
+        for (int i = 0; i < 3; i++) {
+            TreeElement item = new TreeElement("item", i);
+            item.setAttribute(null, "id", "id" + i);
+            item.addChild(new TreeElement("label", 0));
+            parsed.addChild(item);
+        }
+
+        CompactTreeElement compactBase = CompactTreeElement.compact(parsed, "attributes");
+        assertThat(compactBase, notNullValue());
+        assertSameTree(compactBase, withBase(parsed, "attributes"));
+
+        CompactTreeElement root = compactBase.getChildAt(0);
+        assertThat(root.getAttributeValue(null, "version"), is("2"));
+        assertThat(root.getChild("item", 2).getAttributeValue(null, "id"), is("id2"));
+        assertThat(root.getChild("item", 2).getAttribute(null, "id").getRef().toString(true), is("instance(attributes)/root/item[3]/@id"));
+        assertThat(root.getChild("item", 0).getFirstChild("label").getValue(), nullValue());
+    }
+
+    @Test
+    public void itemAttributesWithoutNamespace_areCompared_withoutFailing() {
+        TreeElement parsed = new TreeElement("root", 0);
+        for (int i = 0; i < 3; i++) {
+            TreeElement item = new TreeElement("item", i);
+            item.setAttribute(null, "id", "id" + i);
+            item.getAttribute(null, "id").setNamespace(null);
+            item.addChild(new TreeElement("label", 0));
+            parsed.addChild(item);
+        }
+
+        CompactTreeElement compactBase = CompactTreeElement.compact(parsed, "attributes");
+        assertThat(compactBase, notNullValue());
+        assertThat(compactBase.getChildAt(0).getChild("item", 2).getAttributeValue(null, "id"), is("id2"));
+
+        parsed.getChildAt(1).getAttribute(null, "id").setNamespace("");
+        assertThat(CompactTreeElement.compact(parsed, "attributes"), nullValue());
+    }
+
+    @Test
+    public void toTreeElement_copiesTheElementAndItsChildren() throws IOException {
+        TreeElement parsed = new CsvExternalInstance().parse("id", r("external-secondary-comma-complex.csv").toString());
+        TreeElement parsedItem = parsed.getChildAt(6);
+
+        TreeElement copy = CompactTreeElement.compact(parsed, "id").getChildAt(0).getChildAt(6).toTreeElement();
+        assertThat(copy.getName(), is(parsedItem.getName()));
+        assertThat(copy.getMult(), is(parsedItem.getMult()));
+        assertThat(copy.getNumChildren(), is(parsedItem.getNumChildren()));
+        for (int i = 0; i < copy.getNumChildren(); i++) {
+            assertThat(copy.getChildAt(i).getName(), is(parsedItem.getChildAt(i).getName()));
+            assertThat(copy.getChildAt(i).getValue().getValue(), is(parsedItem.getChildAt(i).getValue().getValue()));
+        }
+    }
+
+    @Test
+    public void instancesThatAreNotTables_areNotCompacted() {
+        TreeElement differentFields = new TreeElement("root", 0);
+        TreeElement first = new TreeElement("item", 0);
+        first.addChild(new TreeElement("label", 0));
+        differentFields.addChild(first);
+        TreeElement second = new TreeElement("item", 1);
+        second.addChild(new TreeElement("name", 0));
+        differentFields.addChild(second);
+        assertThat(CompactTreeElement.compact(differentFields, "id"), nullValue());
+
+        TreeElement nestedFields = new TreeElement("root", 0);
+        TreeElement item = new TreeElement("item", 0);
+        TreeElement field = new TreeElement("field", 0);
+        field.addChild(new TreeElement("nested", 0));
+        item.addChild(field);
+        nestedFields.addChild(item);
+        assertThat(CompactTreeElement.compact(nestedFields, "id"), nullValue());
+
+        TreeElement differentItemNames = new TreeElement("root", 0);
+        differentItemNames.addChild(new TreeElement("item", 0));
+        differentItemNames.addChild(new TreeElement("other", 0));
+        assertThat(CompactTreeElement.compact(differentItemNames, "id"), nullValue());
+    }
+
+    private static TreeElement withBase(TreeElement topLevel, String instanceName) {
+        TreeElement base = new TreeElement();
+        base.setInstanceName(instanceName);
+        base.addChild(topLevel);
+        return base;
+    }
+
+    private static void assertSameTree(AbstractTreeElement<?> compact, AbstractTreeElement<?> parsed) {
+        assertThat(compact.getName(), is(parsed.getName()));
+        assertThat(compact.getMult(), is(parsed.getMult()));
+        assertThat(compact.getRef(), is(parsed.getRef()));
+        assertThat(compact.getDepth(), is(parsed.getDepth()));
+        assertThat(compact.getInstanceName(), is(parsed.getInstanceName()));
+        assertThat(compact.isLeaf(), is(parsed.isLeaf()));
+        assertThat(compact.getValue() == null ? null : compact.getValue().getValue(),
+            is(parsed.getValue() == null ? null : parsed.getValue().getValue()));
+
+        assertThat(compact.getAttributeCount(), is(parsed.getAttributeCount()));
+        for (int i = 0; i < parsed.getAttributeCount(); i++) {
+            assertThat(compact.getAttributeNamespace(i), is(parsed.getAttributeNamespace(i)));
+            assertThat(compact.getAttributeName(i), is(parsed.getAttributeName(i)));
+            assertThat(compact.getAttributeValue(i), is(parsed.getAttributeValue(i)));
+        }
+
+        assertThat(compact.getNumChildren(), is(parsed.getNumChildren()));
+        for (int i = 0; i < parsed.getNumChildren(); i++) {
+            AbstractTreeElement<?> parsedChild = parsed.getChildAt(i);
+            assertThat(compact.getChildMultiplicity(parsedChild.getName()), is(parsed.getChildMultiplicity(parsedChild.getName())));
+            assertThat(compact.getChild(parsedChild.getName(), parsedChild.getMult()), is(compact.getChildAt(i)));
+            assertSameTree(compact.getChildAt(i), parsedChild);
+        }
+    }
+}
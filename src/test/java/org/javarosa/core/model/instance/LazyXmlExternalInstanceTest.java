@@ -0,0 +1,202 @@
+package org.javarosa.core.model.instance;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.repeat;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.commons.io.FileUtils;
+import org.javarosa.test.Scenario;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LazyXmlExternalInstanceTest {
+
+    private static final int MAX_LOADED_ITEMS = 2;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File instanceFile;
+
+    @Before
+    public void setUp() throws IOException {
+        File instanceDirectory = temporaryFolder.newFolder("instances");
+        instanceFile = new File(instanceDirectory, "items.xml");
+        setUpSimpleReferenceManager(instanceDirectory, "file");
+
+        XFormUtils.setExternalInstanceParserFactory(() -> {
+            ExternalInstanceParser parser = new ExternalInstanceParser();
+            parser.addFileInstanceParser(new LazyXmlExternalInstance(MAX_LOADED_ITEMS));
+            return parser;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        XFormUtils.setExternalInstanceParserFactory(ExternalInstanceParser::new);
+    }
+
+    @Test
+    public void itemsAreOnlyParsed_whenTheyAreReferenced() throws Exception {
+        writeItems("a", "b", "c", "d");
+        Scenario scenario = createScenario("instance('items')/root/item[position() = 3]/label");
+
+        assertThat(scenario.answerOf("/data/label"), stringAnswer("Item c"));
+        TreeElement root = getInstanceRoot(scenario);
+        assertThat(root.getNumChildren(), equalTo(4));
+        assertThat(root.getChildAt(0).isPartial(), equalTo(true));
+        assertThat(root.getChildAt(1).isPartial(), equalTo(true));
+        assertThat(root.getChildAt(2).isPartial(), equalTo(false));
+        assertThat(root.getChildAt(3).isPartial(), equalTo(true));
+    }
+
+    @Test
+    public void leastRecentlyUsedItemsAreCleared_andParsedAgainWhenNeeded() throws Exception {
+        writeItems("a", "b", "c", "d", "e");
+        Scenario scenario = createScenario("instance('items')/root/item[value = /data/choice]/label");
+
+        scenario.answer("/data/choice", "d");
+        assertThat(scenario.answerOf("/data/label"), stringAnswer("Item d"));
+        assertThat(loadedItems(getInstanceRoot(scenario)), lessThanOrEqualTo(MAX_LOADED_ITEMS));
+
+        scenario.answer("/data/choice", "a");
+        assertThat(scenario.answerOf("/data/label"), stringAnswer("Item a"));
+        assertThat(loadedItems(getInstanceRoot(scenario)), lessThanOrEqualTo(MAX_LOADED_ITEMS));
+    }
+
+    @Test
+    public void attributesTextCommentsAndNamespaces_areParsedLikeTheFullParser() throws Exception {
+        FileUtils.write(instanceFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!-- a comment with <item> in it -->\n" +
+            "<root xmlns:x=\"http://example.com\" version=\"2\">\n" +
+            "  <item id=\"1\"><label><![CDATA[One <b>]]></label></item>\n" +
+            "  <!-- <item id=\"ignored\"/> -->\n" +
+            "  <item id=\"2\" x:extra=\"1\" note=\"a > b\"/>\n" +
+            "  <item id=\"3\">Three</item>\n" +
+            "  <x:item id=\"4\"><label>Four</label></x:item>\n" +
+            "</root>", UTF_8);
+        Scenario scenario = createScenario("concat(instance('items')/root/item[@id = '1']/label, '|', instance('items')/root/item[@id = '2']/@note, '|', instance('items')/root/item[@id = '3'], '|', instance('items')/root/item[@id = '4']/label, '|', instance('items')/root/@version)");
+
+        assertThat(scenario.answerOf("/data/label"), stringAnswer("One <b>|a > b|Three|Four|2"));
+    }
+
+    @Test
+    public void itemsCanBeClearedAndReparsed_whileCalculatesInManyRepeatInstancesReadThem() throws Exception {
+        String[] values = new String[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = String.valueOf(i);
+        }
+        writeItems(values);
+
+        int repeatCount = 320;
+        List<XFormsElement> mainInstanceChildren = new ArrayList<>();
+        mainInstanceChildren.add(t("suffix"));
+        mainInstanceChildren.add(t("repeat jr:template=\"\"", t("choice"), t("label")));
+        for (int i = 0; i < repeatCount; i++) {
+            mainInstanceChildren.add(t("repeat", t("choice", values[i % values.length]), t("label")));
+        }
+
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"", mainInstanceChildren.toArray(new XFormsElement[0]))),
+                    t("instance id=\"items\" src=\"jr://file/items.xml\""),
+                    bind("/data/suffix").type("string"),
+                    bind("/data/repeat/choice").type("string"),
+                    bind("/data/repeat/label").type("string").calculate("concat(instance('items')/root/item[value = current()/../choice]/label, /data/suffix)")
+                )
+            ),
+            body(
+                input("/data/suffix"),
+                repeat("/data/repeat", input("/data/repeat/choice"))
+            )
+        ));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            scenario.getFormDef().setParallelTriggerableEvaluation(pool);
+            scenario.answer("/data/suffix", "!");
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < repeatCount; i++) {
+            assertThat(scenario.answerOf("/data/repeat[" + (i + 1) + "]/label"), stringAnswer("Item " + values[i % values.length] + "!"));
+        }
+
+        // Reading an item that another thread just cleared would make the instance fall back to parsing the whole file
+        assertThat(scenario.getFormDef().getNonMainInstance("items").getRoot(), instanceOf(TreeElement.class));
+        assertThat(loadedItems(getInstanceRoot(scenario)), lessThanOrEqualTo(MAX_LOADED_ITEMS));
+    }
+
+    private Scenario createScenario(String calculate) throws IOException, XFormParser.ParseException {
+        return Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("choice"),
+                        t("label")
+                    )),
+                    t("instance id=\"items\" src=\"jr://file/items.xml\""),
+                    bind("/data/choice").type("string"),
+                    bind("/data/label").type("string").calculate(calculate)
+                )
+            ),
+            body(
+                input("/data/choice")
+            )
+        ));
+    }
+
+    private static TreeElement getInstanceRoot(Scenario scenario) {
+        return (TreeElement) scenario.getFormDef().getNonMainInstance("items").getRoot();
+    }
+
+    private static int loadedItems(TreeElement root) {
+        int loaded = 0;
+        for (int i = 0; i < root.getNumChildren(); i++) {
+            if (!root.getChildAt(i).isPartial()) {
+                loaded++;
+            }
+        }
+
+        return loaded;
+    }
+
+    private void writeItems(String... values) throws IOException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (String value : values) {
+            xml.append("<item><value>").append(value).append("</value><label>Item ").append(value).append("</label></item>");
+        }
+        xml.append("</root>");
+        FileUtils.write(instanceFile, xml.toString(), UTF_8);
+    }
+}
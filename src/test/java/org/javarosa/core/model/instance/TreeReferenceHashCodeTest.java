@@ -0,0 +1,79 @@
+package org.javarosa.core.model.instance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.javarosa.test.Scenario.getRef;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TreeReferenceHashCodeTest {
+    @Test
+    public void equalRefs_haveEqualHashCodes() {
+        assertThat(getRef("/data/repeat[2]/question").hashCode(), is(getRef("/data/repeat[2]/question").hashCode()));
+        assertThat(getRef("/data[1]/question").hashCode(), is(getRef("/data/question").hashCode()));
+    }
+
+    @Test
+    public void refsWithTheSameLevelsInADifferentOrder_haveDifferentHashCodes() {
+        assertThat(getRef("/a/b").hashCode(), is(not(getRef("/b/a").hashCode())));
+    }
+
+    @Test
+    public void refsWithSwappedMultiplicities_haveDifferentHashCodes() {
+        assertThat(getRef("/data/r[1]/r[2]").hashCode(), is(not(getRef("/data/r[2]/r[1]").hashCode())));
+    }
+
+    @Test
+    public void hashCode_changesWhenTheRefChanges() {
+        TreeReference ref = getRef("/data/repeat[1]/question");
+        int before = ref.hashCode();
+
+        ref.setMultiplicity(1, 1);
+
+        assertThat(ref.hashCode(), is(getRef("/data/repeat[2]/question").hashCode()));
+        assertThat(ref.hashCode(), is(not(before)));
+    }
+
+    @Test
+    public void changingAClone_doesNotChangeTheOriginal() {
+        TreeReference original = getRef("/data/repeat[1]/question");
+        TreeReference clone = original.clone();
+
+        clone.setMultiplicity(1, 3);
+        clone.removeLastLevel();
+        clone.add("other", TreeReference.INDEX_UNBOUND);
+
+        assertThat(original, is(getRef("/data/repeat[1]/question")));
+        assertThat(clone, is(getRef("/data/repeat[4]/other")));
+    }
+
+    @Test
+    public void changingTheOriginal_doesNotChangeAClone() {
+        TreeReference original = getRef("/data/repeat[1]/question");
+        TreeReference genericized = original.genericize();
+
+        original.removeLastLevel();
+        original.add("other", 0);
+
+        assertThat(genericized, is(getRef("/data/repeat/question")));
+    }
+
+    @Test
+    public void frozenRefs_cantBeChanged_butTheirClonesCan() {
+        TreeReference frozen = getRef("/data/repeat[1]/question").freeze();
+
+        try {
+            frozen.add("child", 0);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+
+        TreeReference clone = frozen.clone();
+        clone.add("child", TreeReference.INDEX_UNBOUND);
+        assertThat(clone, is(getRef("/data/repeat[1]/question/child")));
+        assertThat(frozen, is(getRef("/data/repeat[1]/question")));
+    }
+}
@@ -0,0 +1,111 @@
+package org.javarosa.core.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class CacheTableTest {
+
+    @Test
+    public void intern_returnsFirstInternedInstance_forEqualValues() {
+        CacheTable<String> cacheTable = new CacheTable<>();
+        String first = new String("value");
+        String second = new String("value");
+
+        assertThat(cacheTable.intern(first), sameInstance(first));
+        assertThat(cacheTable.intern(second), sameInstance(first));
+        assertThat(cacheTable.getHitCount(), equalTo(1L));
+        assertThat(cacheTable.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void intern_keepsValuesWithCollidingHashesApart() {
+        CacheTable<String> cacheTable = new CacheTable<>();
+        // "Aa" and "BB" have the same hash code
+        String aa = new String("Aa");
+        String bb = new String("BB");
+
+        cacheTable.intern(aa);
+        cacheTable.intern(bb);
+
+        assertThat(cacheTable.intern(new String("Aa")), sameInstance(aa));
+        assertThat(cacheTable.intern(new String("BB")), sameInstance(bb));
+    }
+
+    @Test
+    public void intern_returnsNull_forNull() {
+        assertThat(new CacheTable<String>().intern(null), nullValue());
+    }
+
+    @Test
+    public void intern_evictsLeastRecentlyUsedValues_whenFull() {
+        CacheTable<String> cacheTable = new CacheTable<>(2, 1);
+        String a = new String("a");
+        String b = new String("b");
+
+        cacheTable.intern(a);
+        cacheTable.intern(b);
+        cacheTable.intern(new String("a"));
+        cacheTable.intern(new String("c"));
+
+        assertThat(cacheTable.size(), equalTo(2));
+        assertThat(cacheTable.getEvictionCount(), equalTo(1L));
+        assertThat(cacheTable.intern(new String("a")), sameInstance(a));
+        assertThat(cacheTable.intern(new String("b")), not(sameInstance(b)));
+    }
+
+    @Test
+    public void size_neverExceedsMaxSize() {
+        CacheTable<String> cacheTable = new CacheTable<>(100);
+        for (int i = 0; i < 1000; i++) {
+            cacheTable.intern(String.valueOf(i));
+        }
+
+        assertThat(cacheTable.size(), lessThanOrEqualTo(cacheTable.getMaxSize()));
+        assertThat(cacheTable.getEvictionCount(), equalTo(1000L - cacheTable.size()));
+    }
+
+    @Test
+    public void intern_returnsTheSameInstance_acrossThreads() throws Exception {
+        CacheTable<String> cacheTable = new CacheTable<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> interned = new ArrayList<>();
+                        for (int i = 0; i < 1000; i++) {
+                            interned.add(cacheTable.intern(new String("value" + i)));
+                        }
+                        return interned;
+                    }
+                }));
+            }
+
+            List<String> expected = futures.get(0).get();
+            for (Future<List<String>> future : futures) {
+                List<String> interned = future.get();
+                for (int i = 0; i < interned.size(); i++) {
+                    assertThat(interned.get(i), is(sameInstance(expected.get(i))));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
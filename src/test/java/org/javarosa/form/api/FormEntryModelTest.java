@@ -16,6 +16,8 @@
 
 package org.javarosa.form.api;
 
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.javarosa.test.BindBuilderXFormsElement.bind;
 import static org.javarosa.test.XFormsElement.body;
@@ -25,14 +27,18 @@ import static org.javarosa.test.XFormsElement.html;
 import static org.javarosa.test.XFormsElement.input;
 import static org.javarosa.test.XFormsElement.mainInstance;
 import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.repeat;
 import static org.javarosa.test.XFormsElement.t;
 import static org.javarosa.test.XFormsElement.title;
-import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.FormIndex;
 import org.javarosa.test.Scenario;
+import org.javarosa.test.XFormsElement;
 import org.javarosa.xform.parse.XFormParser;
 import org.junit.Test;
 
@@ -75,4 +81,144 @@ public class FormEntryModelTest {
         scenario.answer("/data/outerYesNo", "yes");
         assertThat(formEntryModel.isIndexRelevant(q1Index), is(true));
     }
+
+    @Test
+    public void incrementAndDecrementIndex_stepThroughNestedRepeatsInOppositeOrders() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Nested repeats", nestedRepeatsForm());
+        FormEntryModel formEntryModel = new FormEntryModel(scenario.getFormDef());
+
+        List<String> forward = walkForward(formEntryModel);
+        assertThat(forward, is(asList(
+            "/data/outer[1]",
+            "/data/outer[1]/inner[1]",
+            "/data/outer[1]/inner[1]/q1[1]",
+            "/data/outer[1]/inner[2]",
+            "/data/outer[1]/inner[2]/q1[1]",
+            "/data/outer[1]/inner[3]",
+            "/data/outer[1]/q2[1]",
+            "/data/outer[2]",
+            "/data/outer[2]/inner[1]",
+            "/data/outer[2]/inner[1]/q1[1]",
+            "/data/outer[2]/inner[2]",
+            "/data/outer[2]/q2[1]",
+            "/data/outer[3]"
+        )));
+
+        List<String> backward = walkBackward(formEntryModel);
+        Collections.reverse(backward);
+        assertThat(backward, is(forward));
+    }
+
+    @Test
+    public void incrementIndex_afterRepeatsAreAddedOrRemoved_stepsThroughTheCurrentRepeats() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Nested repeats", nestedRepeatsForm());
+        FormEntryModel formEntryModel = new FormEntryModel(scenario.getFormDef());
+        assertThat(walkForward(formEntryModel).contains("/data/outer[1]/inner[2]/q1[1]"), is(true));
+
+        scenario.removeRepeat("/data/outer[1]/inner[2]");
+        List<String> afterRemoving = walkForward(formEntryModel);
+        assertThat(afterRemoving.contains("/data/outer[1]/inner[2]/q1[1]"), is(false));
+        assertThat(walkBackward(formEntryModel).size(), is(afterRemoving.size()));
+
+        scenario.createNewRepeat("/data/outer");
+        List<String> afterAdding = walkForward(formEntryModel);
+        assertThat(afterAdding.contains("/data/outer[3]/q2[1]"), is(true));
+        assertThat(afterAdding.get(afterAdding.size() - 1), is("/data/outer[4]"));
+        assertThat(walkBackward(formEntryModel).size(), is(afterAdding.size()));
+    }
+
+    @Test
+    public void relevantQuestionCounts_followAnswersRelevanceAndRepeats() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Progress", html(
+            head(
+                title("Progress"),
+                model(
+                    mainInstance(t("data id=\"progress\"",
+                        t("q1"),
+                        t("q2"),
+                        t("g", t("q3")),
+                        t("r", t("rq"))
+                    )),
+                    bind("/data/q2").relevant("/data/q1 = 'yes'"),
+                    bind("/data/g").relevant("/data/q1 = 'yes'")
+                )),
+            body(
+                input("/data/q1"),
+                input("/data/q2"),
+                group("/data/g",
+                    input("/data/g/q3")
+                ),
+                repeat("/data/r",
+                    input("/data/r/rq")
+                )
+            )));
+        FormEntryModel formEntryModel = new FormEntryModel(scenario.getFormDef());
+        assertThat(formEntryModel.getTotalRelevantQuestionCount(), is(2));
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(0));
+
+        scenario.answer("/data/q1", "yes");
+        assertThat(formEntryModel.getTotalRelevantQuestionCount(), is(4));
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(1));
+
+        scenario.answer("/data/g/q3", "answer");
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(2));
+
+        scenario.answer("/data/q1", "no");
+        assertThat(formEntryModel.getTotalRelevantQuestionCount(), is(2));
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(1));
+
+        scenario.createNewRepeat("/data/r");
+        scenario.answer("/data/r[1]/rq", "answer");
+        assertThat(formEntryModel.getTotalRelevantQuestionCount(), is(3));
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(2));
+
+        scenario.removeRepeat("/data/r[1]");
+        assertThat(formEntryModel.getTotalRelevantQuestionCount(), is(2));
+        assertThat(formEntryModel.getCompletedRelevantQuestionCount(), is(1));
+    }
+
+    private static List<String> walkForward(FormEntryModel formEntryModel) {
+        List<String> references = new ArrayList<>();
+        FormIndex index = formEntryModel.incrementIndex(FormIndex.createBeginningOfFormIndex());
+        while (!index.isEndOfFormIndex()) {
+            references.add(index.getReference().toString());
+            index = formEntryModel.incrementIndex(index);
+        }
+        return references;
+    }
+
+    private static List<String> walkBackward(FormEntryModel formEntryModel) {
+        List<String> references = new ArrayList<>();
+        FormIndex index = formEntryModel.decrementIndex(FormIndex.createEndOfFormIndex());
+        while (!index.isBeginningOfFormIndex()) {
+            references.add(index.getReference().toString());
+            index = formEntryModel.decrementIndex(index);
+        }
+        return references;
+    }
+
+    private static XFormsElement nestedRepeatsForm() {
+        return html(
+            head(
+                title("Nested repeats"),
+                model(
+                    mainInstance(t("data id=\"nested_repeats\"",
+                        t("outer",
+                            t("inner", t("q1")),
+                            t("inner", t("q1")),
+                            t("q2")),
+                        t("outer",
+                            t("inner", t("q1")),
+                            t("q2"))
+                    ))
+                )),
+            body(
+                repeat("/data/outer",
+                    repeat("/data/outer/inner",
+                        input("/data/outer/inner/q1")
+                    ),
+                    input("/data/outer/q2")
+                )
+            ));
+    }
 }
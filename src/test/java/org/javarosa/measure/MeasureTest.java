@@ -0,0 +1,102 @@
+package org.javarosa.measure;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class MeasureTest {
+    @After
+    public void tearDown() {
+        Measure.setEnabled(false);
+        Measure.reset();
+    }
+
+    @Test
+    public void log_whenDisabled_doesNotCount() {
+        Measure.log("MeasureTestEvent");
+
+        assertThat(Measure.snapshot().getCount("MeasureTestEvent"), is(0L));
+    }
+
+    @Test
+    public void withMeasure_onlyCountsEventsLoggedByTheWork() {
+        Measure.setEnabled(true);
+        Measure.log("MeasureTestEvent");
+
+        int count = Measure.withMeasure(asList("MeasureTestEvent", "OtherMeasureTestEvent"), () -> {
+            Measure.log("MeasureTestEvent");
+            Measure.log("OtherMeasureTestEvent");
+            Measure.log("UnrelatedMeasureTestEvent");
+        });
+
+        assertThat(count, is(2));
+        assertThat(Measure.isEnabled(), is(true));
+        assertThat(Measure.snapshot().getCount("MeasureTestEvent"), is(2L));
+    }
+
+    @Test
+    public void log_fromManyThreads_countsEveryEvent() throws InterruptedException {
+        Measure.setEnabled(true);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    Measure.log("MeasureTestEvent");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(Measure.snapshot().getCount("MeasureTestEvent"), is(40_000L));
+    }
+
+    @Test
+    public void stopTimer_countsTheEventAndAddsItsTime() throws InterruptedException {
+        Measure.setEnabled(true);
+
+        long start = Measure.startTimer();
+        Thread.sleep(5);
+        Measure.stopTimer("MeasureTestEvent", start);
+
+        Measure.Snapshot snapshot = Measure.snapshot();
+        assertThat(snapshot.getCount("MeasureTestEvent"), is(1L));
+        assertThat(snapshot.getNanos("MeasureTestEvent"), greaterThanOrEqualTo(5_000_000L));
+    }
+
+    @Test
+    public void stopTimer_whenStartedWhileDisabled_doesNotCount() {
+        long start = Measure.startTimer();
+        Measure.setEnabled(true);
+        Measure.stopTimer("MeasureTestEvent", start);
+
+        assertThat(Measure.snapshot().getCount("MeasureTestEvent"), is(0L));
+    }
+
+    @Test
+    public void reset_setsCountsAndTimesBackToZero() {
+        Measure.setEnabled(true);
+        Measure.log("MeasureTestEvent");
+        Measure.stopTimer("OtherMeasureTestEvent", Measure.startTimer());
+
+        Measure.reset();
+
+        Measure.Snapshot snapshot = Measure.snapshot();
+        assertThat(snapshot.getCount("MeasureTestEvent"), is(0L));
+        assertThat(snapshot.getNanos("OtherMeasureTestEvent"), is(0L));
+        assertThat(Measure.withMeasure(singletonList("MeasureTestEvent"), () -> Measure.log("MeasureTestEvent")), is(1));
+    }
+}
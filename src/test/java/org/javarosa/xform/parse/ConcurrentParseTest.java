@@ -0,0 +1,123 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.instance;
+import static org.javarosa.test.XFormsElement.item;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.select1Dynamic;
+import static org.javarosa.test.XFormsElement.t;
+
+public class ConcurrentParseTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void parsersOnDifferentThreads_doNotShareState() throws Exception {
+        RecordingXPathProcessor serialProcessor = new RecordingXPathProcessor();
+        XFormParser serialParser = new XFormParser(new InputStreamReader(
+            new ByteArrayInputStream(buildForm("choices").asXml().getBytes())));
+        serialParser.addProcessor(serialProcessor);
+        serialParser.parse(null);
+        int expressionsPerForm = serialProcessor.processedExpressions.size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<ParseResult>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final String instanceId = "choices" + i;
+                results.add(executor.submit(new Callable<ParseResult>() {
+                    @Override
+                    public ParseResult call() throws Exception {
+                        XFormParser parser = new XFormParser(new InputStreamReader(
+                            new ByteArrayInputStream(buildForm(instanceId).asXml().getBytes())));
+                        RecordingXPathProcessor processor = new RecordingXPathProcessor();
+                        parser.addProcessor(processor);
+
+                        start.await();
+                        return new ParseResult(parser.parse(null), processor);
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < THREADS; i++) {
+                ParseResult result = results.get(i).get();
+
+                assertThat(result.formDef.getNonMainInstance("choices" + i), notNullValue());
+                assertThat(result.processor.processedExpressions.size(), equalTo(expressionsPerForm));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static XFormsElement buildForm(String instanceId) {
+        return XFormsElement.html(
+            head(
+                model(
+                    mainInstance(
+                        t("data id=\"form\"",
+                            t("question"),
+                            t("select")
+                        )
+                    ),
+                    instance(instanceId,
+                        item("a", "A"),
+                        item("b", "B")
+                    ),
+                    bind("/data/question").type("string"),
+                    bind("/data/select").type("string")
+                )
+            ),
+            body(
+                input("/data/question"),
+                select1Dynamic("/data/select", "instance('" + instanceId + "')/root/item")
+            )
+        );
+    }
+
+    private static class ParseResult {
+        final FormDef formDef;
+        final RecordingXPathProcessor processor;
+
+        ParseResult(FormDef formDef, RecordingXPathProcessor processor) {
+            this.formDef = formDef;
+            this.processor = processor;
+        }
+    }
+
+    private static class RecordingXPathProcessor implements XFormParser.XPathProcessor {
+
+        public final List<XPathExpression> processedExpressions = new ArrayList<>();
+
+        @Override
+        public void processXPath(@NotNull XPathExpression xPathExpression) {
+            processedExpressions.add(xPathExpression);
+        }
+    }
+}
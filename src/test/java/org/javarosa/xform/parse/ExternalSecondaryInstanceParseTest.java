@@ -5,6 +5,7 @@ import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.data.helper.Selection;
 import org.javarosa.core.model.instance.AbstractTreeElement;
+import org.javarosa.core.model.instance.CompactTreeElement;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.test.FormParseInit;
@@ -19,6 +20,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -102,6 +104,21 @@ public class ExternalSecondaryInstanceParseTest {
         AbstractTreeElement fifthItem = formDef.getNonMainInstance("external-csv").resolveReference(treeReferences.get(4));
         assertThat(fifthItem.getChild("label", 0).getValue().getDisplayText(), is("AB"));
     }
+
+    @Test
+    public void itemsFromExternalSecondaryCSVInstance_areKeptCompactly_andCanBeSelected() throws XFormParser.ParseException {
+        configureReferenceManagerCorrectly();
+
+        Scenario scenario = Scenario.init(r("external-select-csv.xml"));
+        assertThat(scenario.getFormDef().getNonMainInstance("external-csv").getRoot(), instanceOf(CompactTreeElement.class));
+
+        SelectChoice thirdChoice = scenario.choicesOf("/data/first").get(2);
+        assertThat(thirdChoice.getLabelInnerText(), is("C"));
+
+        scenario.next();
+        scenario.answer(thirdChoice);
+        assertThat(scenario.answerOf("/data/first").getDisplayText(), is("c"));
+    }
     //endregion
 
     @Test
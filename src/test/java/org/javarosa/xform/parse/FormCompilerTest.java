@@ -0,0 +1,119 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.util.XFormUtils;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.javarosa.core.util.externalizable.ExtUtil.defaultPrototypes;
+import static org.javarosa.test.ResourcePathHelper.r;
+import static org.javarosa.xform.parse.ExternalSecondaryInstanceParseTest.configureReferenceManagerCorrectly;
+import static org.javarosa.xpath.XPathParseTool.parseXPath;
+
+public class FormCompilerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        configureReferenceManagerCorrectly();
+        PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+        new XFormsModule().registerModule();
+    }
+
+    @Test
+    public void compile_serializesEachForm_andParsesSharedExternalInstanceOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FormCompiler compiler = new FormCompiler(executor);
+            List<FormCompiler.CompiledForm> compiledForms = compiler.compile(asList(
+                r("external-select-xml.xml"),
+                r("external-select-xml-dummy-nodes.xml")
+            ), temporaryFolder.getRoot());
+
+            assertThat(compiledForms.size(), is(2));
+            for (FormCompiler.CompiledForm compiledForm : compiledForms) {
+                assertThat(compiledForm.isSuccessful(), is(true));
+
+                FormDef formDef = deserialize(compiledForm.getSerializedForm());
+                TreeReference items = ((XPathPathExpr) parseXPath("instance('external-xml')/root/item")).getReference();
+                assertThat(formDef.getEvaluationContext().expandReference(items).size(), is(12));
+            }
+
+            assertThat(compiler.getInstanceParserFactory().getMissCount(), is(1));
+            assertThat(compiler.getInstanceParserFactory().getHitCount(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void compile_leavesTheGlobalExternalInstanceParserFactoryAlone() throws Exception {
+        AtomicInteger globalParsers = new AtomicInteger();
+        ExternalInstanceParserFactory globalFactory = () -> {
+            globalParsers.incrementAndGet();
+            return new ExternalInstanceParser();
+        };
+        ExternalInstanceParserFactory previousFactory = XFormUtils.setExternalInstanceParserFactory(globalFactory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FormCompiler compiler = new FormCompiler(executor);
+            compiler.compile(asList(r("external-select-xml.xml")), temporaryFolder.getRoot());
+
+            assertThat(globalParsers.get(), is(0));
+            assertThat(compiler.getInstanceParserFactory().getMissCount(), is(1));
+            assertThat(XFormUtils.setExternalInstanceParserFactory(previousFactory), is(sameInstance(globalFactory)));
+        } finally {
+            XFormUtils.setExternalInstanceParserFactory(previousFactory);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void compile_reportsFormsThatCannotBeParsed() throws Exception {
+        File brokenForm = temporaryFolder.newFile("broken.xml");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<FormCompiler.CompiledForm> compiledForms = new FormCompiler(executor)
+                .compile(asList(brokenForm), temporaryFolder.getRoot());
+
+            assertThat(compiledForms.get(0).isSuccessful(), is(false));
+            assertThat(compiledForms.get(0).getError(), notNullValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static FormDef deserialize(File serializedForm) throws Exception {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(serializedForm))) {
+            FormDef formDef = new FormDef();
+            formDef.readExternal(inputStream, defaultPrototypes());
+            return formDef;
+        }
+    }
+}
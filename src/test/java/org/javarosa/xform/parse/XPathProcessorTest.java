@@ -1,7 +1,9 @@
 package org.javarosa.xform.parse;
 
 import org.javarosa.test.XFormsElement;
+import org.javarosa.xpath.expr.XPathArithExpr;
 import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
 import org.javarosa.xpath.expr.XPathPathExpr;
 import org.javarosa.xpath.expr.XPathQName;
 import org.javarosa.xpath.expr.XPathStep;
@@ -90,6 +92,47 @@ public class XPathProcessorTest {
         assertThat(processor.processedExpressions.size(), equalTo(2));
     }
 
+    @Test
+    public void processesEachCalculateOnce_evenWhenItIsFolded() throws Exception {
+        XFormsElement form = XFormsElement.html(
+            head(
+                model(
+                    mainInstance(
+                        t("data id=\"form\"",
+                            t("folded"),
+                            t("notFolded")
+                        )
+                    ),
+                    bind("/data/folded").type("int").calculate("1 + 2"),
+                    bind("/data/notFolded").type("int").calculate("/data/folded + 1")
+                )
+            ),
+            body(
+                input("/data/folded"),
+                input("/data/notFolded")
+            )
+        );
+
+        XFormParser parser = new XFormParser(new InputStreamReader(new ByteArrayInputStream(form.asXml().getBytes())));
+        RecordingXPathProcessor processor = new RecordingXPathProcessor();
+        parser.addProcessor(processor);
+        parser.parse(null);
+
+        List<String> calculates = new ArrayList<>();
+        for (XPathExpression expression : processor.processedExpressions) {
+            if (expression instanceof XPathArithExpr) {
+                calculates.add(expression.toString());
+            }
+        }
+        assertThat(calculates, contains(
+            new XPathArithExpr(XPathArithExpr.ADD, new XPathNumericLiteral(1.0), new XPathNumericLiteral(2.0)).toString(),
+            new XPathArithExpr(XPathArithExpr.ADD, new XPathPathExpr(XPathPathExpr.INIT_CONTEXT_ROOT, new XPathStep[]{
+                new XPathStep(XPathStep.AXIS_CHILD, new XPathQName("data")),
+                new XPathStep(XPathStep.AXIS_CHILD, new XPathQName("folded"))
+            }), new XPathNumericLiteral(1.0)).toString()
+        ));
+    }
+
     private static class RecordingXPathProcessor implements XFormParser.XPathProcessor {
 
         public final List<XPathExpression> processedExpressions = new ArrayList<>();
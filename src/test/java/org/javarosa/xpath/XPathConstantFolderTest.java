@@ -0,0 +1,97 @@
+package org.javarosa.xpath;
+
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class XPathConstantFolderTest {
+    @Test
+    public void literalOnlySubexpressions_areReplacedByTheirValue() throws XPathSyntaxException {
+        assertFoldsTo("concat('x', 'y')", "'xy'");
+        assertFoldsTo("number('5') * 60", "300");
+        assertFoldsTo("selected('a b', 'a')", "true()");
+        assertFoldsTo("not(1 > 2)", "true()");
+        assertFoldsTo("-(2 + 3) + 10", "5");
+        assertFoldsTo("/data/q = concat('a', substr('bcd', 0, 1))", "/data/q = 'ab'");
+        assertFoldsTo("/data/item[position() = 1 + 1]", "/data/item[position() = 2]");
+    }
+
+    @Test
+    public void deadBranches_areRemoved() throws XPathSyntaxException {
+        assertFoldsTo("if(true(), /data/a, /data/b)", "/data/a");
+        assertFoldsTo("if(1 = 2, /data/a, /data/b)", "/data/b");
+        assertFoldsTo("coalesce('', /data/a)", "/data/a");
+        assertFoldsTo("coalesce('x', /data/a)", "'x'");
+        assertFoldsTo("1 = 1 or /data/a", "true()");
+        assertFoldsTo("1 = 2 and /data/a", "false()");
+    }
+
+    @Test
+    public void expressionsThatDependOnTheForm_areNotFolded() throws XPathSyntaxException {
+        assertNotFolded("concat(/data/a, 'y')");
+        assertNotFolded("if(/data/a, 'x', 'y')");
+        assertNotFolded("false() or /data/a");
+        assertNotFolded("string-length()");
+        assertNotFolded("today()");
+        assertNotFolded("random()");
+        assertNotFolded("uuid()");
+        assertNotFolded("format-date('2020-01-01', '%Y')");
+        assertNotFolded("custom('x')");
+    }
+
+    @Test
+    public void subexpressionsThatCantBeWrittenAsLiterals_orFailToEvaluate_areNotFolded() throws XPathSyntaxException {
+        assertNotFolded("number('x')");
+        assertNotFolded("1 div 0");
+        assertNotFolded("sum('x')");
+    }
+
+    @Test
+    public void conditionsParsedFromForms_evaluateTheFoldedExpression_butKeepTheParsedOne() throws XPathSyntaxException {
+        XPathConditional conditional = new XPathConditional("/data/q = concat('x', 'y')");
+
+        assertThat(conditional.getEvaluationExpr(), equalTo(XPathParseTool.parseXPath("/data/q = 'xy'")));
+        assertThat(conditional.getExpr(), equalTo(XPathParseTool.parseXPath("/data/q = concat('x', 'y')")));
+        assertThat(conditional.getExpr().toString(), equalTo(XPathParseTool.parseXPath("/data/q = concat('x', 'y')").toString()));
+        assertThat(conditional.xpath, equalTo("/data/q = concat('x', 'y')"));
+    }
+
+    @Test
+    public void conditionsParsedFromForms_withNothingToFold_evaluateTheParsedExpression() throws XPathSyntaxException {
+        for (String expression : new String[]{"/data/q + 1", "today()", "/data/q = random()", "if(/data/q, now(), 'x')"}) {
+            XPathConditional conditional = new XPathConditional(expression);
+            assertThat(expression, conditional.getEvaluationExpr(), sameInstance(conditional.getExpr()));
+        }
+    }
+
+    @Test
+    public void conditionsParsedFromForms_keepBothExpressions_whenSerialized() throws Exception {
+        PrototypeManager.registerPrototypes(XPathParseTool.xpathClasses);
+        XPathConditional conditional = new XPathConditional("/data/q = concat('x', 'y')");
+
+        XPathConditional deserialized = (XPathConditional) ExtUtil.deserialize(ExtUtil.serialize(conditional), XPathConditional.class);
+
+        assertThat(deserialized.getExpr(), equalTo(conditional.getExpr()));
+        assertThat(deserialized.getEvaluationExpr(), equalTo(conditional.getEvaluationExpr()));
+        assertThat(deserialized.toString(), equalTo(conditional.toString()));
+    }
+
+    private static void assertFoldsTo(String expression, String expected) throws XPathSyntaxException {
+        assertThat(XPathConstantFolder.canFold(XPathParseTool.parseXPath(expression)), equalTo(true));
+        XPathExpression folded = XPathConstantFolder.fold(XPathParseTool.parseXPath(expression));
+        XPathExpression expectedFolded = XPathParseTool.parseXPath(expected);
+        assertThat(folded.toString(), equalTo(expectedFolded.toString()));
+        assertThat(folded, equalTo(expectedFolded));
+    }
+
+    private static void assertNotFolded(String expression) throws XPathSyntaxException {
+        XPathExpression folded = XPathConstantFolder.fold(XPathParseTool.parseXPath(expression));
+        assertThat(folded.toString(), equalTo(XPathParseTool.parseXPath(expression).toString()));
+    }
+}
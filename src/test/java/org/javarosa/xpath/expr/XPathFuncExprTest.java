@@ -1,7 +1,12 @@
 package org.javarosa.xpath.expr;
 
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.IFunctionHandler;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 
@@ -40,4 +45,74 @@ public class XPathFuncExprTest {
         XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("random"));
         assertThat(expr.containsFunc("other"), equalTo(false));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void eval_whenBuiltInIsCalledWithAnUnsupportedNumberOfArgs_usesCustomHandler() {
+        EvaluationContext ec = new EvaluationContext(null);
+        ec.addFunctionHandler(new OneStringArgHandler("contains"));
+
+        // contains('a')
+        XPathFuncExpr custom = new XPathFuncExpr(new XPathQName("contains"), new XPathExpression[]{
+            new XPathStringLiteral("a")
+        });
+        assertThat(custom.eval(null, ec), equalTo("custom a"));
+
+        // contains('a', 'b')
+        XPathFuncExpr builtIn = new XPathFuncExpr(new XPathQName("contains"), new XPathExpression[]{
+            new XPathStringLiteral("a"), new XPathStringLiteral("b")
+        });
+        assertThat(builtIn.eval(null, ec), equalTo(false));
+    }
+
+    @Test
+    public void eval_afterFunctionNameOrArgsChange_callsTheNewFunction() {
+        EvaluationContext ec = new EvaluationContext(null);
+        ec.addFunctionHandler(new OneStringArgHandler("custom"));
+
+        // concat('a', 'b')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("concat"), new XPathExpression[]{
+            new XPathStringLiteral("a"), new XPathStringLiteral("b")
+        });
+        assertThat(expr.eval(null, ec), equalTo("ab"));
+
+        expr.args = new XPathExpression[]{new XPathStringLiteral("b")};
+        expr.id = new XPathQName("custom");
+        assertThat(expr.eval(null, ec), equalTo("custom b"));
+
+        expr.id = new XPathQName("string-length");
+        assertThat(expr.eval(null, ec), equalTo(1.0));
+    }
+
+    private static class OneStringArgHandler implements IFunctionHandler {
+        private final String name;
+
+        OneStringArgHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public List<Class[]> getPrototypes() {
+            return Arrays.asList(new Class[]{String.class, String.class, String.class}, new Class[]{String.class});
+        }
+
+        @Override
+        public boolean rawArgs() {
+            return false;
+        }
+
+        @Override
+        public boolean realTime() {
+            return false;
+        }
+
+        @Override
+        public Object eval(Object[] args, EvaluationContext ec) {
+            return "custom " + args[0];
+        }
+    }
+}
@@ -1,9 +1,25 @@
 package org.javarosa.xpath.expr;
 
+import org.javarosa.test.Scenario;
+import org.javarosa.xform.parse.XFormParser;
 import org.junit.Test;
 
+import java.io.IOException;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
 
 public class XPathPathExprTest {
 
@@ -55,4 +71,47 @@ public class XPathPathExprTest {
 
         assertThat(expr.containsFunc("a"), equalTo(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void aggregatesOverAPath_skipNonRelevantNodes_andApplyPredicates() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("cat", "a"),
+                        t("item", t("show", "yes"), t("price", "3")),
+                        t("item", t("show", "no"), t("price", "10")),
+                        t("item", t("show", "yes"), t("price", "-2")),
+                        t("count"), t("sum"), t("max"), t("min"), t("join"), t("concat"), t("sum-cat")
+                    )),
+                    t("instance id=\"prices\"", t("root",
+                        t("item", t("cat", "a"), t("price", "1")),
+                        t("item", t("cat", "b"), t("price", "20")),
+                        t("item", t("cat", "a"), t("price", "4"))
+                    )),
+                    bind("/data/item/price").type("int").relevant("../show = 'yes'"),
+                    bind("/data/count").type("int").calculate("count(/data/item/price)"),
+                    bind("/data/sum").type("int").calculate("sum(/data/item/price)"),
+                    bind("/data/max").type("int").calculate("max(/data/item/price)"),
+                    bind("/data/min").type("int").calculate("min(/data/item/price)"),
+                    bind("/data/join").type("string").calculate("join(' ', /data/item/price)"),
+                    bind("/data/concat").type("string").calculate("concat(/data/item/price)"),
+                    bind("/data/sum-cat").type("int").calculate("sum(instance('prices')/root/item[cat = /data/cat]/price)")
+                )
+            ),
+            body(input("/data/cat"))
+        ));
+
+        assertThat(scenario.answerOf("/data/count"), is(intAnswer(2)));
+        assertThat(scenario.answerOf("/data/sum"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/max"), is(intAnswer(3)));
+        assertThat(scenario.answerOf("/data/min"), is(intAnswer(-2)));
+        assertThat(scenario.answerOf("/data/join"), is(stringAnswer("3 -2")));
+        assertThat(scenario.answerOf("/data/concat"), is(stringAnswer("3-2")));
+        assertThat(scenario.answerOf("/data/sum-cat"), is(intAnswer(5)));
+
+        scenario.answer("/data/cat", "b");
+        assertThat(scenario.answerOf("/data/sum-cat"), is(intAnswer(20)));
+    }
+}